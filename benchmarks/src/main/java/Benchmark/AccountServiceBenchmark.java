@@ -0,0 +1,59 @@
+package Benchmark;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Service.AccountService;
+
+/**
+ * Benchmarks login authentication against seeded databases of increasing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class AccountServiceBenchmark {
+    /**
+     * The number of messages seeded before the trial; one account is seeded per hundred messages.
+     */
+    @Param({"10000", "1000000", "10000000"})
+    public int rows;
+
+    private AccountService accountService;
+    private int accounts;
+
+    /**
+     * Seeds the database for this size and creates the service.
+     * @throws SQLException if seeding fails.
+     */
+    @Setup
+    public void setUp() throws SQLException {
+        accounts = BenchmarkDatabase.accountsFor(rows);
+        BenchmarkDatabase.seed("accounts-" + rows, accounts, rows);
+        accountService = new AccountService();
+    }
+
+    /**
+     * @return Whether a random existing account authenticated with its password.
+     */
+    @Benchmark
+    public boolean authenticateAccount(){
+        String username = "benchuser" + (1 + ThreadLocalRandom.current().nextInt(accounts));
+        return accountService.authenticateAccount(username, BenchmarkDatabase.PASSWORD);
+    }
+}
@@ -0,0 +1,93 @@
+package Benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import Util.ConnectionUtil;
+
+/**
+ * The BenchmarkDatabase class seeds a dedicated H2 database for a benchmark trial.
+ *
+ * Every data size gets its own database file under target/bench-db, and ConnectionUtil is pointed at it through
+ * the "db.url" system property. ConnectionUtil recreates the schema on its first connection, so seeding must
+ * happen in a trial setup, before any DAO is constructed. JMH forks a fresh JVM per trial, which makes that safe.
+ *
+ * Seeded accounts are "benchuser1".."benchuserN" with account_ids 2..N+1 (account 1 is the script's testuser1),
+ * all with the password "password". Message ids are dense from 1.
+ */
+public class BenchmarkDatabase {
+    /**
+     * The password of every seeded account.
+     */
+    public static final String PASSWORD = "password";
+    /**
+     * The account_id of the first seeded account.
+     */
+    public static final int FIRST_ACCOUNT_ID = 2;
+
+    private static final int CHUNK_SIZE = 1_000_000;
+
+    /**
+     * @param messages The number of messages seeded.
+     * @return The number of accounts seeded alongside them: one per hundred messages, at least one hundred.
+     */
+    public static int accountsFor(int messages){
+        return Math.max(100, messages / 100);
+    }
+
+    /**
+     * Points ConnectionUtil at a fresh database and seeds accounts and messages into it.
+     * @param name A name for the database file.
+     * @param accounts The number of accounts to insert.
+     * @param messages The number of messages to insert, spread evenly over the accounts.
+     * @return The connection used by the DAOs.
+     * @throws SQLException if seeding fails.
+     */
+    public static Connection seed(String name, int accounts, int messages) throws SQLException {
+        System.setProperty("db.url", "jdbc:h2:./target/bench-db/" + name);
+        Connection connection = ConnectionUtil.getConnection();
+        long start = System.nanoTime();
+
+        try(Statement statement = connection.createStatement()){
+            // The seeded rows are consistent by construction, so skip the foreign key checks while loading
+            statement.execute("SET REFERENTIAL_INTEGRITY FALSE");
+            statement.executeUpdate("INSERT INTO account (username, password) "
+                    + "SELECT 'benchuser' || X, '" + PASSWORD + "' FROM SYSTEM_RANGE(1, " + accounts + ")");
+            // Insert in chunks so that H2 does not hold one undo log for the whole table
+            for(long from = 1; from <= messages; from += CHUNK_SIZE){
+                long to = Math.min(messages, from + CHUNK_SIZE - 1);
+                statement.executeUpdate("INSERT INTO message (posted_by, message_text, time_posted_epoch) "
+                        + "SELECT MOD(X, " + accounts + ") + " + FIRST_ACCOUNT_ID + ", 'benchmark message ' || X, 1669947792 + X "
+                        + "FROM SYSTEM_RANGE(" + from + ", " + to + ")");
+            }
+            statement.execute("SET REFERENTIAL_INTEGRITY TRUE");
+            statement.execute("ANALYZE");
+        }
+
+        System.out.printf("Seeded %s with %,d accounts and %,d messages in %.1f s%n",
+                name, accounts, messages, (System.nanoTime() - start) / 1e9);
+        return connection;
+    }
+
+    /**
+     * Seeds a follow graph: every account follows the next followsPerAccount accounts (wrapping around), and
+     * the first popularAccounts accounts are additionally followed by everyone.
+     * @param connection The connection returned by {@link #seed(String, int, int)}.
+     * @param accounts The number of seeded accounts.
+     * @param followsPerAccount The number of regular follows per account.
+     * @param popularAccounts The number of accounts followed by every account.
+     * @throws SQLException if seeding fails.
+     */
+    public static void seedFollows(Connection connection, int accounts, int followsPerAccount, int popularAccounts) throws SQLException {
+        try(Statement statement = connection.createStatement()){
+            statement.executeUpdate("INSERT INTO follow (follower_id, followee_id) "
+                    + "SELECT f.X + 1, MOD(f.X + o.X, " + accounts + ") + " + FIRST_ACCOUNT_ID + " "
+                    + "FROM SYSTEM_RANGE(1, " + accounts + ") f, SYSTEM_RANGE(1, " + followsPerAccount + ") o");
+            statement.executeUpdate("MERGE INTO follow (follower_id, followee_id) KEY (follower_id, followee_id) "
+                    + "SELECT f.X + 1, p.X + 1 FROM SYSTEM_RANGE(1, " + accounts + ") f, SYSTEM_RANGE(1, " + popularAccounts + ") p "
+                    + "WHERE f.X <> p.X");
+            statement.execute("ANALYZE");
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package Benchmark;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks once per thread count and writes one JSON result file per run, so that results
+ * can be tracked over time.
+ *
+ * Usage: java -cp target/benchmarks.jar Benchmark.BenchmarkRunner [include-regex]
+ * System properties:
+ *   bench.threads  comma-separated thread counts (default "1,4,16")
+ *   bench.rows     comma-separated data sizes, overriding each benchmark's own "rows" values
+ *   bench.results  output directory (default "target/jmh-results")
+ */
+public class BenchmarkRunner {
+
+    /**
+     * @param args An optional regular expression selecting the benchmarks to run.
+     * @throws RunnerException if a benchmark fails.
+     */
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "Benchmark\\..*Benchmark";
+        String[] threadCounts = System.getProperty("bench.threads", "1,4,16").split(",");
+        String rows = System.getProperty("bench.rows");
+        File resultDirectory = new File(System.getProperty("bench.results", "target/jmh-results"));
+        resultDirectory.mkdirs();
+        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+
+        for(String threadCount : threadCounts){
+            int threads = Integer.parseInt(threadCount.trim());
+            File result = new File(resultDirectory, timestamp + "-t" + threads + ".json");
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(result.getPath());
+            if(rows != null){
+                options.param("rows", rows.split(","));
+            }
+            new Runner(options.build()).run();
+            System.out.println("Results written to " + result.getPath());
+        }
+    }
+}
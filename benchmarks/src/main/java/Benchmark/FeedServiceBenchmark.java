@@ -0,0 +1,83 @@
+package Benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Message;
+import Service.FeedService;
+import Service.MessageService;
+
+/**
+ * Benchmarks the cost of posting and of reading a home feed at different fan-out thresholds.
+ *
+ * Every account follows fifty others and ten popular accounts are followed by everyone. A threshold of 1 merges
+ * every followee on read, a threshold above the account count fans every message out on write, and values in
+ * between fan out regular accounts while merging the popular ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class FeedServiceBenchmark {
+    private static final int ACCOUNTS = 10_000;
+    private static final int MESSAGES = 1_000_000;
+
+    /**
+     * The follower count at which an account is merged on read instead of fanned out.
+     */
+    @Param({"1", "1000", "1000000"})
+    public int fanoutThreshold;
+
+    private FeedService feedService;
+    private MessageService messageService;
+
+    /**
+     * Seeds messages and the follow graph and creates the services.
+     * @throws SQLException if seeding fails.
+     */
+    @Setup
+    public void setUp() throws SQLException {
+        Connection connection = BenchmarkDatabase.seed("feed-" + fanoutThreshold, ACCOUNTS, MESSAGES);
+        BenchmarkDatabase.seedFollows(connection, ACCOUNTS, 50, 10);
+        feedService = new FeedService(fanoutThreshold, FeedService.DEFAULT_TIMELINE_CAPACITY);
+        messageService = new MessageService(feedService);
+    }
+
+    /**
+     * @return The home feed of a random account.
+     */
+    @Benchmark
+    public List<Message> getFeed(){
+        return feedService.getFeed(randomAccountId(), FeedService.DEFAULT_FEED_LIMIT);
+    }
+
+    /**
+     * @return A message posted by a random account, including its fan-out.
+     */
+    @Benchmark
+    public Message createMessage(){
+        Message message = new Message(randomAccountId(), "benchmark post", System.currentTimeMillis() / 1000);
+        return messageService.createMessage(message);
+    }
+
+    private int randomAccountId(){
+        return BenchmarkDatabase.FIRST_ACCOUNT_ID + ThreadLocalRandom.current().nextInt(ACCOUNTS);
+    }
+}
@@ -0,0 +1,90 @@
+package Benchmark;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.AccountRepository;
+import DAO.MessageRepository;
+import DAO.Repositories;
+import Model.Account;
+import Model.Message;
+
+/**
+ * Benchmarks the in-memory message repository with the same operations and sizes as {@link MessageDAOBenchmark},
+ * for comparison with the database engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Dstorage.engine=memory"})
+public class MemoryEngineBenchmark {
+    /**
+     * The number of messages seeded before the trial.
+     */
+    @Param({"10000", "1000000", "10000000"})
+    public int rows;
+
+    private MessageRepository messageRepository;
+    private int accounts;
+
+    /**
+     * Seeds the in-memory engine through its repositories, with the same shape as {@link BenchmarkDatabase}.
+     */
+    @Setup
+    public void setUp(){
+        accounts = BenchmarkDatabase.accountsFor(rows);
+        AccountRepository accountRepository = Repositories.getAccountRepository();
+        messageRepository = Repositories.getMessageRepository();
+        for(int i = 0; i < accounts; i++){
+            accountRepository.insertAccount(new Account("benchuser" + (i + 1), "password"));
+        }
+        for(int i = 0; i < rows; i++){
+            messageRepository.insertMessage(new Message(BenchmarkDatabase.FIRST_ACCOUNT_ID + i % accounts,
+                    "benchmark message " + i, 1669947792L + i));
+        }
+    }
+
+    /**
+     * @return The inserted message.
+     */
+    @Benchmark
+    public Message insertMessage(){
+        Message message = new Message(randomAccountId(), "benchmark insert", System.currentTimeMillis() / 1000);
+        return messageRepository.insertMessage(message);
+    }
+
+    /**
+     * @return A message looked up by a random existing id.
+     */
+    @Benchmark
+    public Message getMessageById(){
+        return messageRepository.getMessageById(1 + ThreadLocalRandom.current().nextInt(rows));
+    }
+
+    /**
+     * @return The messages of a random account, about a hundred each.
+     */
+    @Benchmark
+    public List<Message> getAllMessagesFromUser(){
+        return messageRepository.getAllMessagesFromUser(randomAccountId());
+    }
+
+    private int randomAccountId(){
+        return BenchmarkDatabase.FIRST_ACCOUNT_ID + ThreadLocalRandom.current().nextInt(accounts);
+    }
+}
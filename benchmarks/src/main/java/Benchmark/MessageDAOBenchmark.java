@@ -0,0 +1,89 @@
+package Benchmark;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.MessageDAO;
+import Model.Message;
+
+/**
+ * Benchmarks the MessageDAO statements against seeded databases of increasing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class MessageDAOBenchmark {
+    /**
+     * The number of messages seeded before the trial.
+     */
+    @Param({"10000", "1000000", "10000000"})
+    public int rows;
+
+    private MessageDAO messageDao;
+    private int accounts;
+
+    /**
+     * Seeds the database for this size and creates the DAO.
+     * @throws SQLException if seeding fails.
+     */
+    @Setup
+    public void setUp() throws SQLException {
+        accounts = BenchmarkDatabase.accountsFor(rows);
+        BenchmarkDatabase.seed("messages-" + rows, accounts, rows);
+        messageDao = new MessageDAO();
+    }
+
+    /**
+     * @return The inserted message.
+     */
+    @Benchmark
+    public Message insertMessage(){
+        Message message = new Message(randomAccountId(), "benchmark insert", System.currentTimeMillis() / 1000);
+        return messageDao.insertMessage(message);
+    }
+
+    /**
+     * @return A message looked up by a random existing id.
+     */
+    @Benchmark
+    public Message getMessageById(){
+        return messageDao.getMessageById(1 + ThreadLocalRandom.current().nextInt(rows));
+    }
+
+    /**
+     * @return Every message in the table.
+     */
+    @Benchmark
+    public List<Message> getAllMessages(){
+        return messageDao.getAllMessages();
+    }
+
+    /**
+     * @return The messages of a random account, about a hundred each.
+     */
+    @Benchmark
+    public List<Message> getAllMessagesFromUser(){
+        return messageDao.getAllMessagesFromUser(randomAccountId());
+    }
+
+    private int randomAccountId(){
+        return BenchmarkDatabase.FIRST_ACCOUNT_ID + ThreadLocalRandom.current().nextInt(accounts);
+    }
+}
@@ -0,0 +1,205 @@
+package LoadTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import Metrics.LatencyHistogram;
+
+/**
+ * The LoadReport class collects the latencies of one load test phase, per operation or route.
+ *
+ * Each response is recorded twice. The corrected latency is measured from the time the request was scheduled to
+ * be sent, so when the server (or the generator) falls behind, the queueing delay is charged to the requests that
+ * waited, as in an open system. This is what corrects for coordinated omission. The uncorrected latency is
+ * measured from the time the request was actually sent, and is kept for comparison only.
+ *
+ * Requests the generator could not send, because too many were outstanding, have no latency to record. Leaving
+ * them out would hide exactly the stalls the correction is for, so any rejection invalidates the run: the report
+ * states the rejected fraction next to the percentiles, and a comparison with a baseline fails.
+ */
+class LoadReport {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final Map<String, OperationStats> operations = new ConcurrentSkipListMap<>();
+    private final double targetRate;
+    private final double durationSeconds;
+
+    /**
+     * @param targetRate The scheduled request rate, per second.
+     * @param durationSeconds The length of the phase.
+     */
+    LoadReport(double targetRate, double durationSeconds){
+        this.targetRate = targetRate;
+        this.durationSeconds = durationSeconds;
+    }
+
+    /**
+     * Records one completed request.
+     * @param operation The operation or route that was requested.
+     * @param correctedNanos The time from the scheduled send time to the response.
+     * @param uncorrectedNanos The time from the actual send time to the response.
+     * @param succeeded Whether the server answered with a 2xx status.
+     */
+    void record(String operation, long correctedNanos, long uncorrectedNanos, boolean succeeded){
+        OperationStats stats = stats(operation);
+        stats.corrected.record(correctedNanos);
+        stats.uncorrected.record(uncorrectedNanos);
+        if(!succeeded){
+            stats.errors.increment();
+        }
+    }
+
+    /**
+     * Records a request that was never sent because too many requests were already outstanding.
+     * @param operation The operation or route that was skipped.
+     */
+    void reject(String operation){
+        stats(operation).rejected.increment();
+    }
+
+    /**
+     * @return The report as a JSON-ready tree: the schedule, and for each operation its counts and percentiles
+     * in milliseconds.
+     */
+    Map<String, Object> summary(){
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("target_rate", targetRate);
+        summary.put("duration_seconds", durationSeconds);
+        long completed = 0;
+        long rejected = 0;
+        Map<String, Object> perOperation = new LinkedHashMap<>();
+        for(Map.Entry<String, OperationStats> entry : operations.entrySet()){
+            LatencyHistogram.Snapshot corrected = entry.getValue().corrected.snapshot();
+            LatencyHistogram.Snapshot uncorrected = entry.getValue().uncorrected.snapshot();
+            if(corrected.getCount() == 0 && entry.getValue().rejected.sum() == 0){
+                continue;
+            }
+            completed += corrected.getCount();
+            rejected += entry.getValue().rejected.sum();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("count", corrected.getCount());
+            stats.put("errors", entry.getValue().errors.sum());
+            stats.put("rejected", entry.getValue().rejected.sum());
+            for(double percentile : PERCENTILES){
+                stats.put(percentileKey(percentile), millis(corrected.getValueAtPercentile(percentile)));
+            }
+            stats.put("max_ms", millis(corrected.getMax()));
+            stats.put("uncorrected_p99_ms", millis(uncorrected.getValueAtPercentile(99)));
+            stats.put("uncorrected_p99.9_ms", millis(uncorrected.getValueAtPercentile(99.9)));
+            perOperation.put(entry.getKey(), stats);
+        }
+        summary.put("achieved_rate", completed / durationSeconds);
+        summary.put("rejected", rejected);
+        summary.put("rejected_fraction", completed + rejected == 0 ? 0.0 : (double) rejected / (completed + rejected));
+        summary.put("operations", perOperation);
+        return summary;
+    }
+
+    /**
+     * Prints a table of the corrected percentiles, and a warning if the run is invalid because requests were
+     * rejected.
+     */
+    void print(){
+        Map<String, Object> summary = summary();
+        System.out.printf("Target rate %.0f/s, achieved %.1f/s over %.0f s (latency in ms, corrected for coordinated omission)%n",
+                targetRate, (Double) summary.get("achieved_rate"), durationSeconds);
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Object>> perOperation = (Map<String, Map<String, Object>>) summary.get("operations");
+        int width = perOperation.keySet().stream().mapToInt(String::length).max().orElse(0);
+        String name = "%-" + Math.max(9, width) + "s";
+        System.out.printf(name + " %9s %7s %9s %9s %9s %9s %9s %9s%n",
+                "operation", "count", "errors", "p50", "p90", "p99", "p99.9", "max", "raw p99");
+        for(Map.Entry<String, Map<String, Object>> entry : perOperation.entrySet()){
+            Map<String, Object> stats = entry.getValue();
+            System.out.printf(name + " %9d %7d %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(),
+                    (Long) stats.get("count"), (Long) stats.get("errors") + (Long) stats.get("rejected"),
+                    stats.get("p50_ms"), stats.get("p90_ms"), stats.get("p99_ms"), stats.get("p99.9_ms"),
+                    stats.get("max_ms"), stats.get("uncorrected_p99_ms"));
+        }
+        printIfInvalid(summary);
+    }
+
+    private static void printIfInvalid(Map<String, Object> summary){
+        long rejected = (Long) summary.get("rejected");
+        if(rejected > 0){
+            System.out.printf("INVALID RUN: %d requests (%.2f%%) were rejected at the outstanding limit and are not in the percentiles%n",
+                    rejected, 100 * (Double) summary.get("rejected_fraction"));
+        }
+    }
+
+    /**
+     * Writes the summary as JSON.
+     * @param file The file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    void write(File file) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, summary());
+    }
+
+    /**
+     * Compares the corrected p99 and p99.9 of every operation with a previous report. A run with rejected
+     * requests counts as one regression, as its percentiles cannot be trusted.
+     * @param baseline A JSON report written by {@link #write(File)}.
+     * @param tolerance The allowed relative increase, eg 0.2 for 20%.
+     * @param floorMillis Increases smaller than this are ignored as noise.
+     * @return The number of regressions found; each is printed.
+     * @throws IOException if the baseline cannot be read.
+     */
+    int compareWith(File baseline, double tolerance, double floorMillis) throws IOException {
+        JsonNode previous = new ObjectMapper().readTree(baseline).get("operations");
+        Map<String, Object> summary = summary();
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Object>> current = (Map<String, Map<String, Object>>) summary.get("operations");
+        int regressions = 0;
+        if((Long) summary.get("rejected") > 0){
+            System.out.printf("REGRESSION %d requests rejected, the percentiles are not comparable%n", (Long) summary.get("rejected"));
+            regressions++;
+        }
+        for(Map.Entry<String, Map<String, Object>> entry : current.entrySet()){
+            JsonNode before = previous.get(entry.getKey());
+            if(before == null){
+                continue;
+            }
+            for(String key : new String[]{"p99_ms", "p99.9_ms"}){
+                double was = before.get(key).asDouble();
+                double now = (Double) entry.getValue().get(key);
+                if(now > was * (1 + tolerance) && now - was > floorMillis){
+                    System.out.printf("REGRESSION %s %s: %.2f ms -> %.2f ms%n", entry.getKey(), key, was, now);
+                    regressions++;
+                }
+            }
+        }
+        return regressions;
+    }
+
+    private OperationStats stats(String operation){
+        return operations.computeIfAbsent(operation, key -> new OperationStats());
+    }
+
+    private static String percentileKey(double percentile){
+        return "p" + (percentile == Math.rint(percentile) ? Integer.toString((int) percentile) : Double.toString(percentile)) + "_ms";
+    }
+
+    private static double millis(long nanos){
+        return nanos / 1e6;
+    }
+
+    /**
+     * The histograms and counters of one operation.
+     */
+    private static class OperationStats {
+        private final LatencyHistogram corrected = new LatencyHistogram();
+        private final LatencyHistogram uncorrected = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+    }
+}
@@ -0,0 +1,236 @@
+package LoadTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import Controller.SocialMediaController;
+import io.javalin.Javalin;
+
+/**
+ * The LoadTestRunner class drives the real HTTP endpoints at a fixed arrival rate (an open-loop load test).
+ *
+ * Requests are scheduled at exact intervals regardless of how fast the server answers, and are sent
+ * asynchronously, so a slow response never delays the next request. Latencies are measured from each request's
+ * scheduled time (see {@link LoadReport}). A request due while maxOutstanding requests are in flight is not sent
+ * and counted as rejected, which marks the run invalid: the server could not keep up with the rate, so the
+ * percentiles of the requests that were sent understate the latency.
+ *
+ * Usage: java -cp target/benchmarks.jar LoadTest.LoadTestRunner
+ * System properties:
+ *   loadtest.url            server to test (default "http://localhost:8080")
+ *   loadtest.embedded       start a fresh in-process server on that port first (default false), and warm it up
+ *                           like Main unless -Dwarmup.enabled=false; run it with -Dthreads.mode=virtual to
+ *                           compare virtual with platform threads
+ *   loadtest.rate           requests per second (default 200)
+ *   loadtest.warmup         warm-up seconds, not reported (default 10)
+ *   loadtest.duration       measured seconds (default 60)
+ *   loadtest.mix            operation weights (default "register=2,login=10,post=10,read=70,patch=8")
+ *   loadtest.accounts       accounts registered during setup (default 100)
+ *   loadtest.maxOutstanding requests in flight before new ones are rejected, invalidating the run (default 10000)
+ *   loadtest.results        directory for the JSON report (default "target/loadtest-results")
+ *   loadtest.baseline       a previous JSON report; the run fails if p99 or p99.9 regressed
+ *   loadtest.tolerance      allowed relative regression (default 0.2)
+ */
+public class LoadTestRunner {
+    private static final Pattern MESSAGE_ID = Pattern.compile("\"message_id\":(\\d+)");
+    private static final Pattern ACCOUNT_ID = Pattern.compile("\"account_id\":(\\d+)");
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final Map<Operation, Integer> mix;
+    private final int totalWeight;
+    private final int maxOutstanding;
+    private final LoadTestState state = new LoadTestState();
+
+    /**
+     * @param baseUrl The server to test.
+     * @param mix The relative weight of each operation.
+     * @param maxOutstanding The number of requests in flight before new ones are rejected.
+     */
+    LoadTestRunner(String baseUrl, Map<Operation, Integer> mix, int maxOutstanding){
+        this.client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        this.baseUrl = baseUrl;
+        this.mix = mix;
+        this.totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    /**
+     * Runs setup, warm-up and the measured phase, then prints and saves the report.
+     * @param args Unused; configuration is read from system properties.
+     * @throws Exception if the server cannot be reached or the report cannot be written.
+     */
+    public static void main(String[] args) throws Exception {
+        String url = System.getProperty("loadtest.url", "http://localhost:8080");
+        Javalin app = null;
+        if(Boolean.getBoolean("loadtest.embedded")){
+            SocialMediaController controller = new SocialMediaController();
+            app = controller.startAPI().start(URI.create(url).getPort());
+            controller.warmUp(URI.create(url).getPort());
+        }
+
+        try{
+            LoadTestRunner runner = new LoadTestRunner(url,
+                    parseMix(System.getProperty("loadtest.mix", "register=2,login=10,post=10,read=70,patch=8")),
+                    Integer.getInteger("loadtest.maxOutstanding", 10_000));
+            double rate = Double.parseDouble(System.getProperty("loadtest.rate", "200"));
+
+            runner.setUp(Integer.getInteger("loadtest.accounts", 100));
+            runner.run(rate, Integer.getInteger("loadtest.warmup", 10));
+            LoadReport report = runner.run(rate, Integer.getInteger("loadtest.duration", 60));
+
+            report.print();
+            if(app != null){
+                // Virtual threads are not counted, so this shows how many platform threads the server needed
+                System.out.println("threads.mode=" + System.getProperty("threads.mode", "platform") + ", peak platform threads "
+                        + ManagementFactory.getThreadMXBean().getPeakThreadCount());
+            }
+            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+            File result = new File(System.getProperty("loadtest.results", "target/loadtest-results"), timestamp + ".json");
+            report.write(result);
+            System.out.println("Report written to " + result.getPath());
+
+            String baseline = System.getProperty("loadtest.baseline");
+            if(baseline != null){
+                double tolerance = Double.parseDouble(System.getProperty("loadtest.tolerance", "0.2"));
+                int regressions = report.compareWith(new File(baseline), tolerance, 1.0);
+                if(regressions > 0){
+                    System.exit(1);
+                }
+            }
+        }finally{
+            if(app != null){
+                app.stop();
+            }
+        }
+    }
+
+    /**
+     * Registers accounts and posts one message per account, so that every operation has something to act on.
+     * @param accounts The number of accounts to register.
+     * @throws IOException if the server cannot be reached.
+     * @throws InterruptedException if interrupted.
+     */
+    void setUp(int accounts) throws IOException, InterruptedException {
+        for(int i = 0; i < accounts; i++){
+            String username = state.nextUsername();
+            HttpResponse<String> registered = client.send(Operation.register(baseUrl, username), HttpResponse.BodyHandlers.ofString());
+            Matcher accountId = ACCOUNT_ID.matcher(registered.body());
+            if(registered.statusCode() != 200 || !accountId.find()){
+                throw new IllegalStateException("Could not register " + username + ": HTTP " + registered.statusCode());
+            }
+            state.addAccount(username, Integer.parseInt(accountId.group(1)));
+        }
+        for(int i = 0; i < accounts; i++){
+            HttpResponse<String> posted = client.send(Operation.POST.buildRequest(baseUrl, state), HttpResponse.BodyHandlers.ofString());
+            recordCreatedMessage(posted);
+        }
+    }
+
+    /**
+     * Issues requests at a fixed rate for the given time and waits for the stragglers.
+     * @param rate Requests per second.
+     * @param seconds The length of the phase.
+     * @return The latencies of the phase.
+     * @throws InterruptedException if interrupted.
+     */
+    LoadReport run(double rate, int seconds) throws InterruptedException {
+        LoadReport report = new LoadReport(rate, seconds);
+        AtomicInteger outstanding = new AtomicInteger();
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long durationNanos = TimeUnit.SECONDS.toNanos(seconds);
+        long start = System.nanoTime();
+
+        for(long i = 0; i * intervalNanos < durationNanos; i++){
+            long scheduled = start + i * intervalNanos;
+            long wait;
+            while((wait = scheduled - System.nanoTime()) > 0){
+                LockSupport.parkNanos(wait);
+            }
+
+            Operation operation = pickOperation();
+            if(outstanding.get() >= maxOutstanding){
+                report.reject(operation.name());
+                continue;
+            }
+            outstanding.incrementAndGet();
+            long sent = System.nanoTime();
+            client.sendAsync(operation.buildRequest(baseUrl, state), HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((response, error) -> {
+                        long done = System.nanoTime();
+                        boolean succeeded = error == null && response.statusCode() / 100 == 2;
+                        report.record(operation.name(), done - scheduled, done - sent, succeeded);
+                        if(succeeded && operation == Operation.POST){
+                            recordCreatedMessage(response);
+                        }
+                        outstanding.decrementAndGet();
+                    });
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while(outstanding.get() > 0 && System.nanoTime() < deadline){
+            Thread.sleep(10);
+        }
+        return report;
+    }
+
+    private void recordCreatedMessage(HttpResponse<String> response){
+        Matcher messageId = MESSAGE_ID.matcher(response.body());
+        if(messageId.find()){
+            state.addMessage(Integer.parseInt(messageId.group(1)));
+        }
+    }
+
+    private Operation pickOperation(){
+        int ticket = ThreadLocalRandom.current().nextInt(totalWeight);
+        for(Map.Entry<Operation, Integer> entry : mix.entrySet()){
+            ticket -= entry.getValue();
+            if(ticket < 0){
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("Empty operation mix");
+    }
+
+    /**
+     * Parses an operation mix such as "read=70,post=10".
+     * @param mix Comma-separated operation=weight pairs.
+     * @return The weight of each operation.
+     */
+    static Map<Operation, Integer> parseMix(String mix){
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        List<String> invalid = new ArrayList<>();
+        for(String pair : mix.split(",")){
+            String[] parts = pair.trim().split("=");
+            try{
+                int weight = Integer.parseInt(parts[1].trim());
+                if(weight > 0){
+                    weights.put(Operation.valueOf(parts[0].trim().toUpperCase()), weight);
+                }
+            }catch(RuntimeException e){
+                invalid.add(pair);
+            }
+        }
+        if(!invalid.isEmpty() || weights.isEmpty()){
+            throw new IllegalArgumentException("Invalid operation mix " + mix + ", eg read=70,post=10");
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,60 @@
+package LoadTest;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The accounts and messages a load test knows about, shared by the request generator and the response callbacks.
+ */
+class LoadTestState {
+    /**
+     * The password of every account created by the load test.
+     */
+    static final String PASSWORD = "loadtest";
+
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong usernames = new AtomicLong();
+    private final List<String> seededUsernames = new CopyOnWriteArrayList<>();
+    private final List<Integer> seededAccountIds = new CopyOnWriteArrayList<>();
+    private final AtomicInteger highestMessageId = new AtomicInteger(1);
+
+    /**
+     * @return A username that has never been registered.
+     */
+    String nextUsername(){
+        return "lt-" + runId + "-" + usernames.incrementAndGet();
+    }
+
+    /**
+     * Remembers an account that was registered during setup.
+     */
+    void addAccount(String username, int accountId){
+        seededUsernames.add(username);
+        seededAccountIds.add(accountId);
+    }
+
+    /**
+     * Remembers that a message with this id exists.
+     */
+    void addMessage(int messageId){
+        highestMessageId.accumulateAndGet(messageId, Math::max);
+    }
+
+    String randomUsername(){
+        return seededUsernames.get(ThreadLocalRandom.current().nextInt(seededUsernames.size()));
+    }
+
+    int randomAccountId(){
+        return seededAccountIds.get(ThreadLocalRandom.current().nextInt(seededAccountIds.size()));
+    }
+
+    /**
+     * Message ids are dense and the mix never deletes, so any id up to the highest one seen exists.
+     */
+    int randomMessageId(){
+        return 1 + ThreadLocalRandom.current().nextInt(highestMessageId.get());
+    }
+}
@@ -0,0 +1,82 @@
+package LoadTest;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The requests a load test can issue, each against a real endpoint of the API.
+ */
+public enum Operation {
+    /**
+     * POST /register with a new, unique username.
+     */
+    REGISTER,
+    /**
+     * POST /login with the credentials of a seeded account.
+     */
+    LOGIN,
+    /**
+     * POST /messages by a seeded account.
+     */
+    POST,
+    /**
+     * GET /messages/{message_id} of a random existing message.
+     */
+    READ,
+    /**
+     * PATCH /messages/{message_id} of a random existing message.
+     */
+    PATCH;
+
+    /**
+     * Builds one request for this operation.
+     * @param baseUrl The base URL of the server, eg "http://localhost:8080".
+     * @param state The accounts and messages known to the load test.
+     * @return The request to send.
+     */
+    HttpRequest buildRequest(String baseUrl, LoadTestState state){
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch(this){
+            case REGISTER:
+                return register(baseUrl, state.nextUsername());
+            case LOGIN:
+                return post(baseUrl + "/login", account(state.randomUsername()));
+            case POST:
+                return post(baseUrl + "/messages", "{\"posted_by\":" + state.randomAccountId()
+                        + ",\"message_text\":\"load test message " + random.nextInt(1_000_000) + "\""
+                        + ",\"time_posted_epoch\":" + System.currentTimeMillis() / 1000 + "}");
+            case READ:
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + state.randomMessageId())).GET().build();
+            case PATCH:
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + state.randomMessageId()))
+                        .header("Content-Type", "application/json")
+                        .method("PATCH", HttpRequest.BodyPublishers.ofString(
+                                "{\"message_text\":\"load test edit " + random.nextInt(1_000_000) + "\"}"))
+                        .build();
+            default:
+                throw new IllegalStateException("Unknown operation " + this);
+        }
+    }
+
+    /**
+     * Builds a registration request for a given username, as used by setup to seed accounts.
+     * @param baseUrl The base URL of the server.
+     * @param username The username to register.
+     * @return The request to send.
+     */
+    static HttpRequest register(String baseUrl, String username){
+        return post(baseUrl + "/register", account(username));
+    }
+
+    private static String account(String username){
+        return "{\"username\":\"" + username + "\",\"password\":\"" + LoadTestState.PASSWORD + "\"}";
+    }
+
+    private static HttpRequest post(String url, String body){
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+}
@@ -0,0 +1,253 @@
+package LoadTest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import Controller.SocialMediaController;
+import Util.TrafficLog;
+import io.javalin.Javalin;
+
+/**
+ * The ReplayRunner class drives a server with traffic captured by the controller (see the "capture.file"
+ * property), keeping the captured inter-arrival times, optionally accelerated.
+ *
+ * Like {@link LoadTestRunner} the replay is open-loop and latency is measured from each request's scheduled
+ * time, reported per route. Every response is compared with the one captured, by status and body checksum, and
+ * the run's report can be compared with the report of a replay against another build: latency regressions and
+ * responses that differ between the builds are both reported.
+ *
+ * Replaying into a fresh database makes the captured ids line up. To keep them lined up when the replayed
+ * server is slower than the captured one, or the replay is accelerated, a request is held back until every
+ * request that had completed before it arrived in the capture has completed in the replay, so causally
+ * dependent requests (register, then post, then read) are never reordered. The hold-back counts towards the
+ * request's latency. Concurrent requests in the capture may still complete in another order.
+ *
+ * Usage: java -Dreplay.file=capture.bin -cp target/benchmarks.jar LoadTest.ReplayRunner
+ * System properties:
+ *   replay.file        the captured traffic log (required)
+ *   replay.url         server to replay against (default "http://localhost:8080")
+ *   replay.embedded    start a fresh in-process server on that port first (default false)
+ *   replay.speed       time acceleration, eg 10 replays ten times faster (default 1)
+ *   replay.results     directory for the JSON report (default "target/replay-results")
+ *   replay.baseline    the report of a replay against another build, to compare with
+ *   replay.tolerance   allowed relative latency regression (default 0.2)
+ *   replay.causal      hold requests back to keep the captured causal order (default true)
+ */
+public class ReplayRunner {
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final String baseUrl;
+    private final double speed;
+    private final boolean causal;
+
+    /**
+     * @param baseUrl The server to replay against.
+     * @param speed The time acceleration.
+     * @param causal Whether to keep the captured causal order.
+     */
+    ReplayRunner(String baseUrl, double speed, boolean causal){
+        this.baseUrl = baseUrl;
+        this.speed = speed;
+        this.causal = causal;
+    }
+
+    /**
+     * Replays a capture, then prints and saves the report.
+     * @param args Unused; configuration is read from system properties.
+     * @throws Exception if the capture cannot be read, the server cannot be reached or the report cannot be written.
+     */
+    public static void main(String[] args) throws Exception {
+        String capture = System.getProperty("replay.file");
+        if(capture == null){
+            throw new IllegalArgumentException("Set -Dreplay.file to a captured traffic log");
+        }
+        String url = System.getProperty("replay.url", "http://localhost:8080");
+        Javalin app = null;
+        if(Boolean.getBoolean("replay.embedded")){
+            app = new SocialMediaController().startAPI().start(URI.create(url).getPort());
+        }
+
+        try{
+            List<TrafficLog.Entry> entries = readCapture(new File(capture));
+            ReplayRunner runner = new ReplayRunner(url, Double.parseDouble(System.getProperty("replay.speed", "1")),
+                    Boolean.parseBoolean(System.getProperty("replay.causal", "true")));
+            int[][] responses = new int[entries.size()][];
+            LoadReport report = runner.replay(entries, responses);
+
+            int mismatches = 0;
+            for(int i = 0; i < entries.size(); i++){
+                if(responses[i] == null || responses[i][0] != entries.get(i).getStatus()
+                        || responses[i][1] != entries.get(i).getResponseCrc()){
+                    mismatches++;
+                }
+            }
+            report.print();
+            System.out.printf("%d of %d responses differ from the capture%n", mismatches, entries.size());
+
+            Map<String, Object> summary = report.summary();
+            summary.put("capture", capture);
+            summary.put("speed", runner.speed);
+            summary.put("capture_mismatches", mismatches);
+            summary.put("responses", responses);
+            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+            File result = new File(System.getProperty("replay.results", "target/replay-results"), timestamp + ".json");
+            result.getAbsoluteFile().getParentFile().mkdirs();
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(result, summary);
+            System.out.println("Report written to " + result.getPath());
+
+            String baseline = System.getProperty("replay.baseline");
+            if(baseline != null){
+                double tolerance = Double.parseDouble(System.getProperty("replay.tolerance", "0.2"));
+                int regressions = report.compareWith(new File(baseline), tolerance, 1.0);
+                int differences = countDifferences(new File(baseline), responses);
+                System.out.printf("%d responses differ from the baseline replay%n", differences);
+                if(regressions > 0 || differences > 0){
+                    System.exit(1);
+                }
+            }
+        }finally{
+            if(app != null){
+                app.stop();
+            }
+        }
+    }
+
+    /**
+     * Reads a whole capture, ordered by arrival time.
+     * @param file The captured traffic log.
+     * @return Its entries, oldest first.
+     * @throws IOException if it cannot be read.
+     */
+    static List<TrafficLog.Entry> readCapture(File file) throws IOException {
+        List<TrafficLog.Entry> entries = new ArrayList<>();
+        try(TrafficLog.Reader reader = new TrafficLog.Reader(new FileInputStream(file))){
+            TrafficLog.Entry entry;
+            while((entry = reader.next()) != null){
+                entries.add(entry);
+            }
+        }
+        entries.sort(Comparator.comparingLong(TrafficLog.Entry::getOffsetNanos));
+        return entries;
+    }
+
+    /**
+     * Sends every entry at its captured offset, divided by the speed, and waits for the stragglers.
+     * @param entries The requests to replay, oldest first.
+     * @param responses Filled with the status and body checksum of each response, or left null on failure.
+     * @return The latencies of the replay, per route.
+     * @throws InterruptedException if interrupted.
+     */
+    LoadReport replay(List<TrafficLog.Entry> entries, int[][] responses) throws InterruptedException {
+        long first = entries.isEmpty() ? 0 : entries.get(0).getOffsetNanos();
+        long last = entries.isEmpty() ? 0 : entries.get(entries.size() - 1).getOffsetNanos();
+        LoadReport report = new LoadReport(entries.size() / Math.max(1e-9, (last - first) / speed / 1e9),
+                Math.max(1e-9, (last - first) / speed / 1e9));
+        AtomicInteger outstanding = new AtomicInteger();
+        List<CompletableFuture<?>> completions = new ArrayList<>();
+        // Captured requests in the order they completed, to find the ones each request depends on
+        List<Integer> byCompletion = new ArrayList<>();
+        for(int i = 0; i < entries.size(); i++){
+            byCompletion.add(i);
+        }
+        byCompletion.sort(Comparator.comparingLong(i -> entries.get(i).getOffsetNanos() + entries.get(i).getLatencyNanos()));
+        int dependencies = 0;
+        long start = System.nanoTime();
+
+        for(int i = 0; i < entries.size(); i++){
+            TrafficLog.Entry entry = entries.get(i);
+            long scheduled = start + (long) ((entry.getOffsetNanos() - first) / speed);
+            long wait;
+            while((wait = scheduled - System.nanoTime()) > 0){
+                LockSupport.parkNanos(wait);
+            }
+            while(causal && dependencies < byCompletion.size() && completedBefore(entries.get(byCompletion.get(dependencies)), entry)){
+                int dependency = byCompletion.get(dependencies++);
+                if(dependency < completions.size()){
+                    completions.get(dependency).join();
+                }
+            }
+
+            String route = entry.getMethod() + " " + route(entry.getPath());
+            int index = i;
+            outstanding.incrementAndGet();
+            long sent = System.nanoTime();
+            completions.add(client.sendAsync(request(entry), HttpResponse.BodyHandlers.ofByteArray())
+                    .whenComplete((response, error) -> {
+                        long done = System.nanoTime();
+                        if(error == null){
+                            CRC32 crc = new CRC32();
+                            crc.update(response.body());
+                            responses[index] = new int[]{response.statusCode(), (int) crc.getValue()};
+                        }
+                        report.record(route, done - scheduled, done - sent, error == null && response.statusCode() / 100 == 2);
+                        outstanding.decrementAndGet();
+                    }));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while(outstanding.get() > 0 && System.nanoTime() < deadline){
+            Thread.sleep(10);
+        }
+        return report;
+    }
+
+    private static boolean completedBefore(TrafficLog.Entry earlier, TrafficLog.Entry later){
+        return earlier.getOffsetNanos() + earlier.getLatencyNanos() <= later.getOffsetNanos();
+    }
+
+    private HttpRequest request(TrafficLog.Entry entry){
+        HttpRequest.BodyPublisher body = entry.getBody().length == 0
+                ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(entry.getBody());
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + entry.getPath()))
+                .header("Content-Type", "application/json")
+                .method(entry.getMethod(), body);
+        // Send the recorded Idempotency-Key and If-Match headers, so retries and conditional updates behave as captured
+        entry.getHeaders().forEach(request::header);
+        return request.build();
+    }
+
+    /**
+     * Groups paths by route, replacing numeric segments with "{id}" and dropping the query.
+     */
+    static String route(String path){
+        int query = path.indexOf('?');
+        return (query < 0 ? path : path.substring(0, query)).replaceAll("/\\d+(?=/|$)", "/{id}");
+    }
+
+    /**
+     * Counts the responses that differ from those of a previous replay of the same capture.
+     */
+    private static int countDifferences(File baseline, int[][] responses) throws IOException {
+        JsonNode previous = new ObjectMapper().readTree(baseline).get("responses");
+        int differences = Math.abs(previous.size() - responses.length);
+        for(int i = 0; i < Math.min(previous.size(), responses.length); i++){
+            JsonNode before = previous.get(i);
+            boolean same = before.isNull() ? responses[i] == null
+                    : responses[i] != null && before.get(0).asInt() == responses[i][0] && before.get(1).asInt() == responses[i][1];
+            if(!same){
+                differences++;
+            }
+        }
+        return differences;
+    }
+}
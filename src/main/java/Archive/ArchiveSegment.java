@@ -0,0 +1,285 @@
+package Archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import Model.Message;
+
+/**
+ * One immutable file of the message archive.
+ *
+ * The messages of a segment are sorted by poster and then message ID, and grouped into blocks of BLOCK_ROWS,
+ * each compressed with deflate on its own so that a lookup only inflates the blocks it needs. The messages of one
+ * poster are therefore in a run of consecutive blocks, usually one. A footer after the blocks records every
+ * block's offset, each poster's run of blocks, and the block of every message ID, so the file describes itself;
+ * the same index is kept in memory while the segment is open, at about six bytes per message, so finding a block
+ * costs no I/O. The file ends with the footer's offset and a magic number, and is written under a temporary name
+ * and renamed once complete, so a segment is never seen half written.
+ */
+class ArchiveSegment {
+    static final int BLOCK_ROWS = 256;
+    private static final int MAGIC = 0x4d534741;
+    private static final Comparator<Message> BY_POSTER = Comparator
+            .comparingInt(Message::getPosted_by)
+            .thenComparingInt(Message::getMessage_id);
+
+    private final File file;
+    private final FileChannel channel;
+    // Offsets of the blocks, with the footer's offset as the end of the last block
+    private final long[] blockOffsets;
+    // The first and last block of each poster
+    private final Map<Integer, int[]> blocksByPoster;
+    // Every message ID in ascending order, and the block holding each
+    private final int[] messageIds;
+    private final char[] messageBlocks;
+
+    private ArchiveSegment(File file, long[] blockOffsets, Map<Integer, int[]> blocksByPoster, int[] messageIds,
+            char[] messageBlocks) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.blockOffsets = blockOffsets;
+        this.blocksByPoster = blocksByPoster;
+        this.messageIds = messageIds;
+        this.messageBlocks = messageBlocks;
+    }
+
+    /**
+     * Writes messages to a new segment file and opens it. The file is forced to disk before it is renamed into
+     * place, so the messages can be deleted from the database once this returns.
+     * @param file The segment file, which must not exist.
+     * @param messages The messages, with distinct IDs, in any order.
+     * @return The open segment.
+     * @throws IOException if the file cannot be written.
+     */
+    static ArchiveSegment write(File file, List<Message> messages) throws IOException {
+        List<Message> sorted = new ArrayList<>(messages);
+        sorted.sort(BY_POSTER);
+        int blockCount = (sorted.size() + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        if(blockCount > Character.MAX_VALUE){
+            throw new IllegalArgumentException("Too many messages for one archive segment: " + sorted.size());
+        }
+        long[] blockOffsets = new long[blockCount + 1];
+        Map<Integer, int[]> blocksByPoster = new HashMap<>();
+        // Each entry is a message ID in the high half and its block in the low half, to sort them together
+        long[] idBlocks = new long[sorted.size()];
+        File temporary = new File(file.getPath() + ".tmp");
+
+        try(FileChannel out = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)){
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            long position = writeFully(out, ByteBuffer.allocate(4).putInt(MAGIC).flip(), 0);
+            try{
+                for(int block = 0; block < blockCount; block++){
+                    int first = block * BLOCK_ROWS;
+                    List<Message> rows = sorted.subList(first, Math.min(sorted.size(), first + BLOCK_ROWS));
+                    bytes.reset();
+                    deflater.reset();
+                    try(DataOutputStream data = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))){
+                        data.writeInt(rows.size());
+                        for(int row = 0; row < rows.size(); row++){
+                            Message message = rows.get(row);
+                            data.writeInt(message.getMessage_id());
+                            data.writeInt(message.getPosted_by());
+                            data.writeLong(message.getTime_posted_epoch());
+                            data.writeBoolean(message.getMessage_text() != null);
+                            if(message.getMessage_text() != null){
+                                data.writeUTF(message.getMessage_text());
+                            }
+                            int blockNumber = block;
+                            blocksByPoster.computeIfAbsent(message.getPosted_by(), id -> new int[]{blockNumber, blockNumber})[1] = block;
+                            idBlocks[first + row] = (long) message.getMessage_id() << 32 | block;
+                        }
+                    }
+                    blockOffsets[block] = position;
+                    position = writeFully(out, ByteBuffer.wrap(bytes.toByteArray()), position);
+                }
+            }finally{
+                deflater.end();
+            }
+            blockOffsets[blockCount] = position;
+
+            Arrays.sort(idBlocks);
+            bytes.reset();
+            try(DataOutputStream footer = new DataOutputStream(bytes)){
+                footer.writeInt(blockCount);
+                for(int block = 0; block < blockCount; block++){
+                    footer.writeLong(blockOffsets[block]);
+                }
+                footer.writeInt(blocksByPoster.size());
+                for(Map.Entry<Integer, int[]> poster : blocksByPoster.entrySet()){
+                    footer.writeInt(poster.getKey());
+                    footer.writeInt(poster.getValue()[0]);
+                    footer.writeInt(poster.getValue()[1]);
+                }
+                footer.writeInt(idBlocks.length);
+                for(long idBlock : idBlocks){
+                    footer.writeInt((int) (idBlock >>> 32));
+                    footer.writeChar((int) idBlock);
+                }
+                footer.writeLong(position);
+                footer.writeInt(MAGIC);
+            }
+            writeFully(out, ByteBuffer.wrap(bytes.toByteArray()), position);
+            out.force(true);
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        int[] messageIds = new int[idBlocks.length];
+        char[] messageBlocks = new char[idBlocks.length];
+        for(int i = 0; i < idBlocks.length; i++){
+            messageIds[i] = (int) (idBlocks[i] >>> 32);
+            messageBlocks[i] = (char) idBlocks[i];
+        }
+        return new ArchiveSegment(file, blockOffsets, blocksByPoster, messageIds, messageBlocks);
+    }
+
+    /**
+     * @return The number of messages in the segment.
+     */
+    int getMessageCount(){
+        return messageIds.length;
+    }
+
+    /**
+     * @return The size of the file.
+     */
+    long getSize(){
+        return file.length();
+    }
+
+    /**
+     * Looks a message up by ID, inflating at most one block.
+     * @param messageId The ID of the message.
+     * @return The message, or null if the segment does not hold it.
+     * @throws IOException if the block cannot be read.
+     */
+    Message get(int messageId) throws IOException {
+        int index = Arrays.binarySearch(messageIds, messageId);
+        if(index < 0){
+            return null;
+        }
+        List<Message> messages = readBlock(messageBlocks[index], (id, postedBy) -> id == messageId);
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    /**
+     * @param accountId The ID of the poster.
+     * @return The poster's messages in the segment, in message ID order.
+     * @throws IOException if a block cannot be read.
+     */
+    List<Message> getFromUser(int accountId) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        int[] blocks = blocksByPoster.get(accountId);
+        if(blocks != null){
+            for(int block = blocks[0]; block <= blocks[1]; block++){
+                messages.addAll(readBlock(block, (id, postedBy) -> postedBy == accountId));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * @return Every message in the segment, by poster and then message ID.
+     * @throws IOException if a block cannot be read.
+     */
+    List<Message> getAll() throws IOException {
+        List<Message> messages = new ArrayList<>(messageIds.length);
+        for(int block = 0; block < blockOffsets.length - 1; block++){
+            messages.addAll(readBlock(block, (id, postedBy) -> true));
+        }
+        return messages;
+    }
+
+    /**
+     * Closes and deletes the segment file.
+     */
+    void delete(){
+        try{
+            channel.close();
+        }catch(IOException e){
+            e.printStackTrace();
+        }
+        file.delete();
+    }
+
+    /**
+     * Inflates a block and decodes the messages a filter accepts; the text of the others is skipped.
+     */
+    private List<Message> readBlock(int block, RowFilter filter) throws IOException {
+        ByteBuffer compressed = readFully(channel, blockOffsets[block], (int) (blockOffsets[block + 1] - blockOffsets[block]));
+        Inflater inflater = new Inflater();
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream(compressed.limit() * 4);
+        try{
+            inflater.setInput(compressed.array(), 0, compressed.limit());
+            byte[] chunk = new byte[16 * 1024];
+            while(!inflater.finished()){
+                int length = inflater.inflate(chunk);
+                if(length == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+                    throw new EOFException("Archive block " + block + " of " + file + " is truncated");
+                }
+                inflated.write(chunk, 0, length);
+            }
+        }catch(DataFormatException e){
+            throw new IOException("Archive block " + block + " of " + file + " is corrupt", e);
+        }finally{
+            inflater.end();
+        }
+
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(inflated.toByteArray()));
+        int rows = data.readInt();
+        List<Message> messages = new ArrayList<>();
+        for(int row = 0; row < rows; row++){
+            int messageId = data.readInt();
+            int postedBy = data.readInt();
+            long timePostedEpoch = data.readLong();
+            boolean hasText = data.readBoolean();
+            if(filter.accept(messageId, postedBy)){
+                messages.add(new Message(messageId, postedBy, hasText ? data.readUTF() : null, timePostedEpoch));
+            }else if(hasText){
+                data.skipBytes(data.readUnsignedShort());
+            }
+        }
+        return messages;
+    }
+
+    private interface RowFilter {
+        boolean accept(int messageId, int postedBy);
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()){
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer, position + buffer.position()) < 0){
+                throw new EOFException("Archive segment truncated at " + (position + buffer.position()));
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,223 @@
+package Archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import Metrics.MetricsRegistry;
+import Model.Message;
+import Util.ConnectionUtil;
+
+/**
+ * The MessageArchive class is the cold tier of the message table: old messages moved out of the database into
+ * compressed, immutable {@link ArchiveSegment} files, so the table and its indexes only hold recent messages.
+ *
+ * Each call to append writes one segment and nothing is ever rewritten. A message may be archived more than once
+ * if it was edited while it was being archived; lookups search the newest segment first and keep the first copy
+ * of each ID they find. Deleting an archived message records its ID as a tombstone, which hides every copy of
+ * it; tombstones are kept in memory, as the archive only complements the database, so it is emptied whenever the
+ * database is reset, including when the application starts. This class utilizes the singleton design pattern, like
+ * ConnectionUtil, as only one writer may own the archive directory.
+ */
+public class MessageArchive {
+    private static final String SEGMENT_PREFIX = "archive-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final Comparator<Message> BY_ID = Comparator.comparingInt(Message::getMessage_id);
+
+    private static MessageArchive archive = null;
+
+    private final File directory;
+    // Oldest segment first
+    private final List<ArchiveSegment> segments = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextSegmentId = new AtomicInteger();
+    // IDs of the archived messages that have been deleted
+    private final Set<Integer> deletedIds = ConcurrentHashMap.newKeySet();
+    private final LongAdder archivedMessages;
+
+    /**
+     * Opens an empty archive in a directory, deleting any segments left in it.
+     * @param directory The directory holding the segment files; it is created if needed.
+     */
+    public MessageArchive(File directory){
+        this.directory = directory;
+        directory.mkdirs();
+        deleteSegmentFiles();
+
+        MetricsRegistry registry = MetricsRegistry.getRegistry();
+        this.archivedMessages = registry.counter("message_archive_messages_total", "Messages moved to the message archive.", "");
+        registry.gauge("message_archive_segments", "Segment files in the message archive.", "", () -> segments.size());
+        registry.gauge("message_archive_bytes", "Compressed bytes in the message archive.", "",
+                () -> segments.stream().mapToLong(ArchiveSegment::getSize).sum());
+    }
+
+    /**
+     * @return The shared archive, opened on first use in the directory named by the "archive.dir" system
+     * property (default "./h2/message-archive").
+     */
+    public static synchronized MessageArchive getArchive(){
+        if(archive == null){
+            archive = new MessageArchive(new File(System.getProperty("archive.dir", "./h2/message-archive")));
+            ConnectionUtil.addResetListener(archive::reset);
+        }
+        return archive;
+    }
+
+    /**
+     * Writes messages to a new segment. Once this returns they are on disk and can be deleted from the database.
+     * @param messages The messages to archive, in any order.
+     * @throws IOException if the segment cannot be written.
+     */
+    public void append(List<Message> messages) throws IOException {
+        if(messages.isEmpty()){
+            return;
+        }
+        File file = new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, nextSegmentId.getAndIncrement(), SEGMENT_SUFFIX));
+        segments.add(ArchiveSegment.write(file, messages));
+        archivedMessages.add(messages.size());
+    }
+
+    /**
+     * @return true if nothing has been archived, so lookups can skip the archive.
+     */
+    public boolean isEmpty(){
+        return segments.isEmpty();
+    }
+
+    /**
+     * Deletes an archived message, hiding every copy of it from the lookups.
+     * @param messageId The ID of the message.
+     * @return The latest archived copy of the message, or null if it was never archived or is already deleted.
+     */
+    public Message delete(int messageId){
+        Message message = getMessageById(messageId);
+        if(message == null || !deletedIds.add(messageId)){
+            return null;
+        }
+        return message;
+    }
+
+    /**
+     * @param messageId The ID of the message.
+     * @return The latest archived copy of the message, or null if it was never archived or has been deleted.
+     */
+    public Message getMessageById(int messageId){
+        if(deletedIds.contains(messageId)){
+            return null;
+        }
+        try{
+            for(int i = segments.size() - 1; i >= 0; i--){
+                Message message = segments.get(i).get(messageId);
+                if(message != null){
+                    return message;
+                }
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return null;
+    }
+
+    /**
+     * @param messageIds The IDs of the messages.
+     * @return The archived messages among them, in no particular order.
+     */
+    public List<Message> getMessagesByIds(Collection<Integer> messageIds){
+        List<Message> messages = new ArrayList<>();
+        for(int messageId : new HashSet<>(messageIds)){
+            Message message = getMessageById(messageId);
+            if(message != null){
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * @param accountId The ID of the poster.
+     * @return The archived messages of the poster, in message ID order.
+     */
+    public List<Message> getMessagesFromUser(int accountId){
+        List<Message> messages = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        try{
+            for(int i = segments.size() - 1; i >= 0; i--){
+                addUnseen(segments.get(i).getFromUser(accountId), seen, messages);
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        messages.sort(BY_ID);
+        return messages;
+    }
+
+    /**
+     * @return Every archived message, in message ID order.
+     */
+    public List<Message> getAllMessages(){
+        List<Message> messages = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        try{
+            for(int i = segments.size() - 1; i >= 0; i--){
+                addUnseen(segments.get(i).getAll(), seen, messages);
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        messages.sort(BY_ID);
+        return messages;
+    }
+
+    /**
+     * @return The number of segment files.
+     */
+    public int getSegmentCount(){
+        return segments.size();
+    }
+
+    /**
+     * @return The number of archived messages, counting every copy and the deleted ones.
+     */
+    public long getMessageCount(){
+        return segments.stream().mapToLong(ArchiveSegment::getMessageCount).sum();
+    }
+
+    /**
+     * Deletes every segment and tombstone.
+     */
+    public synchronized void reset(){
+        List<ArchiveSegment> dropped = new ArrayList<>(segments);
+        segments.clear();
+        deletedIds.clear();
+        for(ArchiveSegment segment : dropped){
+            segment.delete();
+        }
+        deleteSegmentFiles();
+    }
+
+    private void addUnseen(List<Message> found, Set<Integer> seen, List<Message> messages){
+        for(Message message : found){
+            if(!deletedIds.contains(message.getMessage_id()) && seen.add(message.getMessage_id())){
+                messages.add(message);
+            }
+        }
+    }
+
+    private void deleteSegmentFiles(){
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX));
+        if(files != null){
+            for(File file : files){
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package Bulk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+import DAO.MessageDAO;
+
+/**
+ * The BulkExporter class streams whole tables to NDJSON or CSV. Rows are written as they are read from the
+ * result set, so a table is never held in memory, and the messages of every shard are exported with their
+ * global message IDs, one shard after another in ID order.
+ */
+public class BulkExporter {
+    private static final int FETCH_SIZE = 10_000;
+
+    private final Connection[] shards;
+
+    /**
+     * @param shards The connections to the message shards; the first is the main database.
+     */
+    public BulkExporter(Connection[] shards){
+        this.shards = shards;
+    }
+
+    /**
+     * Writes every row of a table.
+     * @param table The table to export.
+     * @param format The format to write.
+     * @param out The stream to write to; it is flushed but not closed.
+     * @return The number of rows, with the duration and throughput.
+     * @throws SQLException if the table cannot be read.
+     * @throws IOException if the stream cannot be written.
+     */
+    public Map<String, Object> export(BulkTable table, BulkFormat format, OutputStream out) throws SQLException, IOException {
+        BulkProgress progress = new BulkProgress("Exported", table, format);
+        String[] columns = table.getColumns();
+        BulkTable.ColumnType[] types = table.getTypes();
+        String query = "SELECT " + String.join(", ", columns) + " FROM " + table.getTableName() + " ORDER BY " + columns[0];
+        int shardCount = table.isSharded() ? shards.length : 1;
+        Object[] row = new Object[columns.length];
+
+        try(BulkFormat.RowWriter writer = format.writer(table, out)){
+            for(int shard = 0; shard < shardCount; shard++){
+                try(PreparedStatement preparedStatement = shards[shard].prepareStatement(query)){
+                    preparedStatement.setFetchSize(FETCH_SIZE);
+                    try(ResultSet resultSet = preparedStatement.executeQuery()){
+                        while(resultSet.next()){
+                            for(int i = 0; i < columns.length; i++){
+                                row[i] = read(resultSet, i + 1, types[i]);
+                            }
+                            if(table.isSharded()){
+                                row[0] = MessageDAO.globalMessageId((Integer) row[0], shard, shards.length);
+                            }
+                            writer.write(row);
+                            progress.add(1);
+                        }
+                    }
+                }
+            }
+        }
+        return progress.finish(0);
+    }
+
+    private static Object read(ResultSet resultSet, int column, BulkTable.ColumnType type) throws SQLException {
+        switch(type){
+            case INT:
+                int intValue = resultSet.getInt(column);
+                return resultSet.wasNull() ? null : intValue;
+            case LONG:
+                long longValue = resultSet.getLong(column);
+                return resultSet.wasNull() ? null : longValue;
+            default:
+                return resultSet.getString(column);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package Bulk;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.h2.tools.Csv;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * The BulkFormat enum lists the file formats of bulk exports and imports, and writes and reads their rows.
+ *
+ * NDJSON holds one JSON object per line, with the same field names as the API's JSON. CSV has a header line of
+ * column names, then one line per row with every text value quoted, which H2's CSVREAD can also read. Both are read as
+ * streams, one row at a time; fields or columns that the table does not have are skipped, and missing ones are
+ * read as null.
+ */
+public enum BulkFormat {
+    NDJSON("application/x-ndjson"),
+    CSV("text/csv");
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final String contentType;
+
+    BulkFormat(String contentType){
+        this.contentType = contentType;
+    }
+
+    /**
+     * @param name The format's name, in any case.
+     * @return The format, or null if there is none by that name.
+     */
+    public static BulkFormat fromName(String name){
+        for(BulkFormat format : values()){
+            if(format.name().equalsIgnoreCase(name)){
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The HTTP content type of the format.
+     */
+    public String getContentType(){
+        return contentType;
+    }
+
+    /**
+     * Starts writing rows of a table in this format.
+     * @param table The table the rows belong to.
+     * @param out The stream to write to; it is flushed, not closed, when the writer is closed.
+     * @return A writer for the rows.
+     * @throws IOException if the header cannot be written.
+     */
+    public RowWriter writer(BulkTable table, OutputStream out) throws IOException {
+        return this == NDJSON ? new NdjsonWriter(table, out) : new CsvWriter(table, out);
+    }
+
+    /**
+     * Starts reading rows of a table in this format.
+     * @param table The table the rows belong to.
+     * @param in The stream to read from.
+     * @return A reader for the rows.
+     * @throws IOException if the stream cannot be read.
+     */
+    public RowReader reader(BulkTable table, InputStream in) throws IOException {
+        return this == NDJSON ? new NdjsonReader(table, in) : new CsvReader(table, in);
+    }
+
+    /**
+     * Reads rows, each into an array of column values in the table's column order.
+     */
+    public interface RowReader extends Closeable {
+        /**
+         * Reads the next row.
+         * @param row The array to fill, in column order.
+         * @return false at the end of the stream.
+         * @throws IOException if the stream cannot be read or parsed.
+         */
+        boolean next(Object[] row) throws IOException;
+    }
+
+    /**
+     * Writes rows, each an array of column values in the table's column order.
+     */
+    public interface RowWriter extends Closeable {
+        /**
+         * @param row The column values; text values may be null.
+         * @throws IOException if the row cannot be written.
+         */
+        void write(Object[] row) throws IOException;
+    }
+
+    private static class NdjsonReader implements RowReader {
+        private final BulkTable table;
+        private final JsonParser parser;
+
+        NdjsonReader(BulkTable table, InputStream in) throws IOException {
+            this.table = table;
+            this.parser = JSON_FACTORY.createParser(in);
+        }
+
+        @Override
+        public boolean next(Object[] row) throws IOException {
+            JsonToken token = parser.nextToken();
+            if(token == null){
+                return false;
+            }
+            if(token != JsonToken.START_OBJECT){
+                throw new IOException("Expected a JSON object at " + parser.getCurrentLocation());
+            }
+            Arrays.fill(row, null);
+            String[] columns = table.getColumns();
+            while(parser.nextToken() == JsonToken.FIELD_NAME){
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                int column = indexOf(columns, field);
+                if(column < 0){
+                    parser.skipChildren();
+                }else if(parser.currentToken() != JsonToken.VALUE_NULL){
+                    switch(table.getTypes()[column]){
+                        case INT:
+                            row[column] = parser.getIntValue();
+                            break;
+                        case LONG:
+                            row[column] = parser.getLongValue();
+                            break;
+                        default:
+                            row[column] = parser.getText();
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            parser.close();
+        }
+    }
+
+    private static class CsvReader implements RowReader {
+        private final BulkTable table;
+        private final ResultSet resultSet;
+        // The table column of each CSV column, or -1 to skip it
+        private final int[] columnIndexes;
+
+        CsvReader(BulkTable table, InputStream in) throws IOException {
+            this.table = table;
+            try{
+                this.resultSet = new Csv().read(new InputStreamReader(in, StandardCharsets.UTF_8), null);
+                this.columnIndexes = new int[resultSet.getMetaData().getColumnCount()];
+                for(int i = 0; i < columnIndexes.length; i++){
+                    columnIndexes[i] = indexOf(table.getColumns(), resultSet.getMetaData().getColumnLabel(i + 1));
+                }
+            }catch(SQLException e){
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public boolean next(Object[] row) throws IOException {
+            try{
+                if(!resultSet.next()){
+                    return false;
+                }
+                Arrays.fill(row, null);
+                for(int i = 0; i < columnIndexes.length; i++){
+                    int column = columnIndexes[i];
+                    String value = column < 0 ? null : resultSet.getString(i + 1);
+                    if(value == null){
+                        continue;
+                    }
+                    switch(table.getTypes()[column]){
+                        case INT:
+                            row[column] = Integer.parseInt(value.trim());
+                            break;
+                        case LONG:
+                            row[column] = Long.parseLong(value.trim());
+                            break;
+                        default:
+                            row[column] = value;
+                    }
+                }
+                return true;
+            }catch(SQLException | NumberFormatException e){
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try{
+                resultSet.close();
+            }catch(SQLException e){
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static class NdjsonWriter implements RowWriter {
+        private final BulkTable table;
+        private final JsonGenerator generator;
+        private boolean empty = true;
+
+        NdjsonWriter(BulkTable table, OutputStream out) throws IOException {
+            this.table = table;
+            this.generator = JSON_FACTORY.createGenerator(out);
+            this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            this.generator.setRootValueSeparator(new SerializedString("\n"));
+        }
+
+        @Override
+        public void write(Object[] row) throws IOException {
+            String[] columns = table.getColumns();
+            generator.writeStartObject();
+            for(int i = 0; i < columns.length; i++){
+                generator.writeFieldName(columns[i]);
+                if(row[i] == null){
+                    generator.writeNull();
+                }else if(row[i] instanceof Integer){
+                    generator.writeNumber((Integer) row[i]);
+                }else if(row[i] instanceof Long){
+                    generator.writeNumber((Long) row[i]);
+                }else{
+                    generator.writeString((String) row[i]);
+                }
+            }
+            generator.writeEndObject();
+            empty = false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(!empty){
+                generator.writeRaw('\n');
+            }
+            generator.close();
+        }
+    }
+
+    private static class CsvWriter implements RowWriter {
+        private final Writer writer;
+
+        CsvWriter(BulkTable table, OutputStream out) throws IOException {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+            writer.write(String.join(",", table.getColumns()));
+            writer.write('\n');
+        }
+
+        @Override
+        public void write(Object[] row) throws IOException {
+            for(int i = 0; i < row.length; i++){
+                if(i > 0){
+                    writer.write(',');
+                }
+                if(row[i] instanceof String){
+                    String text = (String) row[i];
+                    writer.write('"');
+                    if(text.indexOf('"') < 0){
+                        writer.write(text);
+                    }else{
+                        writer.write(text.replace("\"", "\"\""));
+                    }
+                    writer.write('"');
+                }else if(row[i] != null){
+                    writer.write(row[i].toString());
+                }
+            }
+            writer.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.flush();
+        }
+    }
+
+    /**
+     * @return The position of a column, ignoring case, or -1 if the table does not have it.
+     */
+    private static int indexOf(String[] columns, String name){
+        for(int i = 0; i < columns.length; i++){
+            if(columns[i].equalsIgnoreCase(name)){
+                return i;
+            }
+        }
+        return -1;
+    }
+}
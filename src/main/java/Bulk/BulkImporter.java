@@ -0,0 +1,250 @@
+package Bulk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import DAO.MessageDAO;
+
+/**
+ * The BulkImporter class loads NDJSON or CSV exports into the database, keeping their IDs.
+ *
+ * While rows are loaded the table's secondary index is dropped; afterwards it is rebuilt once and the ID sequences
+ * are moved past the imported IDs. Rows are parsed as a stream and inserted in batches, each committed on its own,
+ * so an import of any size runs in constant memory.
+ *
+ * Foreign keys stay checked, so writes made by the application during an import are checked as always. Messages
+ * are only inserted if their poster is an account, and those that are not are reported as rejected: on the main
+ * database by the insert itself, on the other shards, which have no foreign keys, by deleting them after the load.
+ *
+ * The importer commits and rolls back its connections, so it must be given connections of its own, not the ones
+ * the application shares.
+ */
+public class BulkImporter {
+    private static final int BATCH_SIZE = 10_000;
+
+    private final Connection[] shards;
+
+    /**
+     * @param shards Dedicated connections to the message shards; the first is the main database.
+     */
+    public BulkImporter(Connection[] shards){
+        this.shards = shards;
+    }
+
+    /**
+     * Loads every row of a stream into a table. Every row must carry its ID, which must not be in use.
+     * @param table The table to load into.
+     * @param format The format of the stream.
+     * @param in The rows to load.
+     * @return The number of rows loaded and rejected, with the duration and throughput.
+     * @throws SQLException if a row cannot be inserted; the batches before it stay loaded.
+     * @throws IOException if the stream cannot be read or parsed.
+     */
+    public Map<String, Object> importRows(BulkTable table, BulkFormat format, InputStream in) throws SQLException, IOException {
+        BulkProgress progress = new BulkProgress("Imported", table, format);
+        int shardCount = table.isSharded() ? shards.length : 1;
+
+        long rejected;
+        dropIndex(table, shardCount);
+        try{
+            rejected = loadRows(table, format, in, shardCount, progress);
+        }finally{
+            restoreIndex(table, shardCount);
+        }
+        if(table == BulkTable.MESSAGES){
+            rejected += rejectOrphans(shardCount);
+        }
+        for(int shard = 0; shard < shardCount; shard++){
+            restartIds(table, shards[shard]);
+        }
+        return progress.finish(rejected);
+    }
+
+    /**
+     * Parses rows as a stream and inserts them in batches, routing messages to their shards.
+     * @return The number of messages the main database rejected for want of a poster.
+     */
+    private long loadRows(BulkTable table, BulkFormat format, InputStream in, int shardCount, BulkProgress progress) throws SQLException, IOException {
+        String[] columns = table.getColumns();
+        BulkTable.ColumnType[] types = table.getTypes();
+        String insert = "INSERT INTO " + table.getTableName() + " (" + String.join(", ", columns) + ") VALUES ("
+                + "?, ".repeat(columns.length - 1) + "?)";
+        PreparedStatement[] statements = new PreparedStatement[shardCount];
+        int[] pending = new int[shardCount];
+        long[] rejected = new long[1];
+        Object[] row = new Object[columns.length];
+        // On the main database a message is only inserted if its poster exists, rather than failing the batch
+        boolean checkPoster = table == BulkTable.MESSAGES;
+
+        try(BulkFormat.RowReader reader = format.reader(table, in)){
+            for(int shard = 0; shard < shardCount; shard++){
+                statements[shard] = shards[shard].prepareStatement(shard == 0 && checkPoster ? insertIfPosterExists(table) : insert);
+            }
+            while(reader.next(row)){
+                if(row[0] == null){
+                    throw new IOException("Row " + (progress.getRows() + 1) + " has no " + columns[0]);
+                }
+                int shard = 0;
+                if(shardCount > 1){
+                    int id = (Integer) row[0];
+                    shard = MessageDAO.shardOfMessageId(id, shardCount);
+                    row[0] = MessageDAO.localMessageId(id, shardCount);
+                }
+                PreparedStatement preparedStatement = statements[shard];
+                for(int i = 0; i < columns.length; i++){
+                    bind(preparedStatement, i + 1, types[i], row[i]);
+                }
+                if(shard == 0 && checkPoster){
+                    bind(preparedStatement, columns.length + 1, BulkTable.ColumnType.INT, row[1]);
+                }
+                preparedStatement.addBatch();
+                if(++pending[shard] == BATCH_SIZE){
+                    flush(shard, statements[shard], pending, rejected, progress);
+                }
+            }
+            for(int shard = 0; shard < shardCount; shard++){
+                flush(shard, statements[shard], pending, rejected, progress);
+            }
+        }finally{
+            for(PreparedStatement statement : statements){
+                if(statement != null){
+                    statement.close();
+                }
+            }
+        }
+        return rejected[0];
+    }
+
+    /**
+     * @return An insert of a message that selects its values from the poster's account row, so it inserts
+     * nothing if there is no such account. The poster's ID is bound once more after the columns.
+     */
+    private static String insertIfPosterExists(BulkTable table){
+        String[] columns = table.getColumns();
+        BulkTable.ColumnType[] types = table.getTypes();
+        StringBuilder values = new StringBuilder();
+        for(int i = 0; i < columns.length; i++){
+            values.append(i == 0 ? "" : ", ").append("CAST(? AS ").append(sqlType(types[i])).append(')');
+        }
+        return "INSERT INTO " + table.getTableName() + " (" + String.join(", ", columns) + ") SELECT " + values
+                + " FROM account WHERE account_id = ?";
+    }
+
+    private static String sqlType(BulkTable.ColumnType type){
+        return type == BulkTable.ColumnType.TEXT ? "VARCHAR" : type == BulkTable.ColumnType.LONG ? "BIGINT" : "INT";
+    }
+
+    private void flush(int shard, PreparedStatement preparedStatement, int[] pending, long[] rejected, BulkProgress progress) throws SQLException {
+        if(pending[shard] == 0){
+            return;
+        }
+        for(int count : preparedStatement.executeBatch()){
+            if(count == 0){
+                rejected[0]++;
+            }
+        }
+        shards[shard].commit();
+        progress.add(pending[shard]);
+        pending[shard] = 0;
+    }
+
+    private static void bind(PreparedStatement preparedStatement, int parameter, BulkTable.ColumnType type, Object value) throws SQLException {
+        if(value == null){
+            preparedStatement.setNull(parameter, type == BulkTable.ColumnType.TEXT ? Types.VARCHAR
+                    : type == BulkTable.ColumnType.LONG ? Types.BIGINT : Types.INTEGER);
+        }else{
+            preparedStatement.setObject(parameter, value);
+        }
+    }
+
+    /**
+     * Drops the secondary index and starts committing by batch.
+     */
+    private void dropIndex(BulkTable table, int shardCount) throws SQLException {
+        for(int shard = 0; shard < shardCount; shard++){
+            if(table.getIndexName() != null){
+                try(Statement statement = shards[shard].createStatement()){
+                    statement.execute("DROP INDEX IF EXISTS " + table.getIndexName());
+                }
+            }
+            shards[shard].setAutoCommit(false);
+        }
+    }
+
+    /**
+     * Rolls back the batch in progress and rebuilds the secondary index, even after a failed load.
+     */
+    private void restoreIndex(BulkTable table, int shardCount) throws SQLException {
+        for(int shard = 0; shard < shardCount; shard++){
+            shards[shard].rollback();
+            shards[shard].setAutoCommit(true);
+            if(table.getIndexName() != null){
+                try(Statement statement = shards[shard].createStatement()){
+                    statement.execute(table.getCreateIndexStatement());
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the messages on the shards other than the main database whose poster is not an account, as there is
+     * no foreign key there to reject them.
+     * @return The number of messages deleted.
+     */
+    private long rejectOrphans(int shardCount) throws SQLException {
+        long rejected = 0;
+        for(int shard = 1; shard < shardCount; shard++){
+            List<Integer> posters = new ArrayList<>();
+            try(PreparedStatement preparedStatement = shards[shard].prepareStatement("SELECT DISTINCT posted_by FROM message");
+                    ResultSet resultSet = preparedStatement.executeQuery()){
+                while(resultSet.next()){
+                    posters.add(resultSet.getInt(1));
+                }
+            }
+            Set<Integer> missing = new HashSet<>(posters);
+            try(PreparedStatement preparedStatement = shards[0].prepareStatement("SELECT account_id FROM account WHERE account_id = ANY(?)")){
+                preparedStatement.setArray(1, shards[0].createArrayOf("INTEGER", posters.toArray()));
+                try(ResultSet resultSet = preparedStatement.executeQuery()){
+                    while(resultSet.next()){
+                        missing.remove(resultSet.getInt(1));
+                    }
+                }
+            }
+            if(!missing.isEmpty()){
+                try(PreparedStatement preparedStatement = shards[shard].prepareStatement("DELETE FROM message WHERE posted_by = ANY(?)")){
+                    preparedStatement.setArray(1, shards[shard].createArrayOf("INTEGER", missing.toArray()));
+                    rejected += preparedStatement.executeUpdate();
+                }
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * Restarts a table's ID sequence after its largest ID, so rows created afterwards do not collide with imported ones.
+     */
+    private static void restartIds(BulkTable table, Connection connection) throws SQLException {
+        String id = table.getColumns()[0];
+        long next;
+        try(Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(" + id + "), 0) + 1 FROM " + table.getTableName())){
+            resultSet.next();
+            next = resultSet.getLong(1);
+        }
+        try(Statement statement = connection.createStatement()){
+            statement.execute("ALTER TABLE " + table.getTableName() + " ALTER COLUMN " + id + " RESTART WITH " + next);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package Bulk;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The BulkProgress class counts the rows of one export or import, logging the count and throughput every few
+ * seconds and summarizing them at the end.
+ */
+class BulkProgress {
+    private static final Logger logger = LoggerFactory.getLogger(BulkProgress.class);
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final String action;
+    private final BulkTable table;
+    private final BulkFormat format;
+    private final long start = System.nanoTime();
+    private long lastReport = start;
+    private long rows;
+
+    /**
+     * @param action What is being done, eg "Exported".
+     * @param table The table being transferred.
+     * @param format The format it is transferred in.
+     */
+    BulkProgress(String action, BulkTable table, BulkFormat format){
+        this.action = action;
+        this.table = table;
+        this.format = format;
+    }
+
+    /**
+     * Counts transferred rows, logging the progress if it has not been logged for a while.
+     * @param count The number of rows.
+     */
+    void add(long count){
+        rows += count;
+        long now = System.nanoTime();
+        if(now - lastReport >= REPORT_INTERVAL_NANOS){
+            lastReport = now;
+            logger.info("{} {} {} rows ({} rows/s)", action, rows, table.getTableName(), rowsPerSecond(now));
+        }
+    }
+
+    /**
+     * @return The rows counted so far.
+     */
+    long getRows(){
+        return rows;
+    }
+
+    /**
+     * Logs and returns the totals.
+     * @param rejected The number of rows that were read but not kept.
+     * @return The table, format, row counts, duration and throughput.
+     */
+    Map<String, Object> finish(long rejected){
+        long now = System.nanoTime();
+        double seconds = (now - start) / 1e9;
+        logger.info("{} {} {} rows in {} s ({} rows/s, {} rejected)", action, rows, table.getTableName(),
+                String.format("%.3f", seconds), rowsPerSecond(now), rejected);
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("table", table.name().toLowerCase());
+        summary.put("format", format.name().toLowerCase());
+        summary.put("rows", rows - rejected);
+        summary.put("rejected", rejected);
+        summary.put("seconds", seconds);
+        summary.put("rows_per_second", rowsPerSecond(now));
+        return summary;
+    }
+
+    private long rowsPerSecond(long now){
+        return now == start ? 0 : rows * TimeUnit.SECONDS.toNanos(1) / (now - start);
+    }
+}
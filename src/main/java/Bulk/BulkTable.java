@@ -0,0 +1,94 @@
+package Bulk;
+
+/**
+ * The BulkTable enum lists the tables that can be exported and imported in bulk, with their columns in export
+ * order. The first column is the table's generated ID. Passwords are never exported, so imported accounts have
+ * none and cannot log in until one is set.
+ */
+public enum BulkTable {
+    MESSAGES("message", true,
+            new String[]{"message_id", "posted_by", "message_text", "time_posted_epoch"},
+            new ColumnType[]{ColumnType.INT, ColumnType.INT, ColumnType.TEXT, ColumnType.LONG},
+            "message_posted_by_idx", "posted_by, time_posted_epoch"),
+    ACCOUNTS("account", false,
+            new String[]{"account_id", "username"},
+            new ColumnType[]{ColumnType.INT, ColumnType.TEXT},
+            null, null);
+
+    /**
+     * The SQL types of the exported columns.
+     */
+    public enum ColumnType { INT, LONG, TEXT }
+
+    private final String tableName;
+    private final boolean sharded;
+    private final String[] columns;
+    private final ColumnType[] types;
+    private final String indexName;
+    private final String indexColumns;
+
+    BulkTable(String tableName, boolean sharded, String[] columns, ColumnType[] types, String indexName, String indexColumns){
+        this.tableName = tableName;
+        this.sharded = sharded;
+        this.columns = columns;
+        this.types = types;
+        this.indexName = indexName;
+        this.indexColumns = indexColumns;
+    }
+
+    /**
+     * @param name The name used in URLs, "messages" or "accounts".
+     * @return The table, or null if there is none by that name.
+     */
+    public static BulkTable fromName(String name){
+        for(BulkTable table : values()){
+            if(table.name().equalsIgnoreCase(name)){
+                return table;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The name of the database table.
+     */
+    public String getTableName(){
+        return tableName;
+    }
+
+    /**
+     * @return Whether the table is spread over the message shards, rather than kept in the main database.
+     */
+    public boolean isSharded(){
+        return sharded;
+    }
+
+    /**
+     * @return The column names, ID first.
+     */
+    public String[] getColumns(){
+        return columns;
+    }
+
+    /**
+     * @return The column types, in column order.
+     */
+    public ColumnType[] getTypes(){
+        return types;
+    }
+
+    /**
+     * @return The name of the table's secondary index, which is dropped during an import and rebuilt after it,
+     * or null if there is none.
+     */
+    public String getIndexName(){
+        return indexName;
+    }
+
+    /**
+     * @return The statement rebuilding the secondary index, as created by the database script.
+     */
+    public String getCreateIndexStatement(){
+        return "CREATE INDEX IF NOT EXISTS " + indexName + " ON " + tableName + " (" + indexColumns + ")";
+    }
+}
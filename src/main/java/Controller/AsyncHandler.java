@@ -0,0 +1,19 @@
+package Controller;
+
+import java.util.concurrent.CompletableFuture;
+
+import io.javalin.http.Context;
+
+/**
+ * A request handler that does not block: it starts the work of the request and returns a future that completes
+ * once the response status and body are set on the context.
+ */
+@FunctionalInterface
+interface AsyncHandler {
+    /**
+     * @param context The HTTP context containing the request and response.
+     * @return A future completed once the response is ready.
+     * @throws Exception if the request cannot be started, eg its body cannot be parsed.
+     */
+    CompletableFuture<?> handle(Context context) throws Exception;
+}
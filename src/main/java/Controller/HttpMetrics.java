@@ -0,0 +1,127 @@
+package Controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import Metrics.HttpRequestEvent;
+import Metrics.LatencyHistogram;
+import Metrics.MetricsRegistry;
+import io.javalin.http.Context;
+
+/**
+ * Records latency, in-flight and byte metrics for every HTTP request handled by the controller, and emits an
+ * {@link HttpRequestEvent} per request when that JFR event is enabled.
+ * It is installed as a before and an after handler, so the handlers themselves stay unaware of it.
+ * Metrics are cached per route, method and status, so recording a request costs two hash lookups and a
+ * few atomic adds.
+ */
+class HttpMetrics {
+    private static final String START_ATTRIBUTE = "metrics.startNanos";
+    private static final String EVENT_ATTRIBUTE = "metrics.jfrEvent";
+    private static final String UNMATCHED_ROUTE = "unmatched";
+
+    private final MetricsRegistry registry;
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder[]> byteCounters = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param registry The registry the metrics are exported from.
+     */
+    HttpMetrics(MetricsRegistry registry){
+        this.registry = registry;
+    }
+
+    /**
+     * Marks the start of a request.
+     * @param context The HTTP context of the request.
+     */
+    void beforeRequest(Context context){
+        context.attribute(START_ATTRIBUTE, System.nanoTime());
+        inFlight(context.method().name()).increment();
+
+        HttpRequestEvent event = new HttpRequestEvent();
+        if(event.isEnabled()){
+            event.begin();
+            context.attribute(EVENT_ATTRIBUTE, event);
+        }
+    }
+
+    /**
+     * Records the latency, status and size of a finished request.
+     * @param context The HTTP context of the request.
+     */
+    void afterRequest(Context context){
+        Long start = context.attribute(START_ATTRIBUTE);
+        if(start == null){
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        String method = context.method().name();
+        String route = context.endpointHandlerPath();
+        if(route == null || !route.startsWith("/")){
+            // Javalin reports a description instead of a path when no endpoint matched (404/405)
+            route = UNMATCHED_ROUTE;
+        }
+
+        inFlight(method).decrement();
+        latency(method, route, context.statusCode()).record(elapsed);
+        LongAdder[] bytes = bytes(method, route);
+        bytes[0].add(Math.max(0, context.contentLength()));
+        bytes[1].add(responseLength(context));
+
+        HttpRequestEvent event = context.attribute(EVENT_ATTRIBUTE);
+        if(event != null){
+            event.end();
+            if(event.shouldCommit()){
+                event.method = method;
+                event.route = route;
+                event.pathParameters = context.pathParamMap().toString();
+                event.status = context.statusCode();
+                event.commit();
+            }
+        }
+    }
+
+    private LatencyHistogram latency(String method, String route, int status){
+        return latencies.computeIfAbsent(method + ' ' + route + ' ' + status, key -> registry.histogram(
+                "http_server_request_duration_seconds",
+                "Latency of HTTP requests by route, method and status code.",
+                MetricsRegistry.labels("route", route, "method", method, "status", Integer.toString(status))));
+    }
+
+    private LongAdder[] bytes(String method, String route){
+        return byteCounters.computeIfAbsent(method + ' ' + route, key -> {
+            String labels = MetricsRegistry.labels("route", route, "method", method);
+            return new LongAdder[]{
+                    registry.counter("http_server_request_bytes_total", "Bytes received in HTTP request bodies.", labels),
+                    registry.counter("http_server_response_bytes_total", "Bytes sent in HTTP response bodies.", labels)
+            };
+        });
+    }
+
+    private LongAdder inFlight(String method){
+        return inFlight.computeIfAbsent(method, key -> registry.gauge(
+                "http_server_requests_in_flight",
+                "HTTP requests currently being handled.",
+                MetricsRegistry.labels("method", method)));
+    }
+
+    /**
+     * Handlers set their result as a string or a byte array, so the result stream can be sized without reading it.
+     */
+    private static long responseLength(Context context){
+        InputStream result = context.resultInputStream();
+        if(result == null){
+            return 0;
+        }
+        try{
+            return result.available();
+        }catch(IOException e){
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package Controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import Metrics.MetricsRegistry;
+import io.javalin.http.Context;
+
+/**
+ * Remembers the responses to requests that carry an Idempotency-Key header, so that a client retrying a request
+ * after a timeout gets the original response back instead of creating a second message or account.
+ *
+ * Keys are scoped to the method and path. The first request with a key runs the handler; a retry with the same
+ * key and body is answered from the store without running it, and a duplicate arriving while the first is
+ * still running waits for its response. Reusing a key with a different body is refused with 422. Responses with
+ * a 5xx status, or handlers that throw, are not stored, so the next retry runs the handler again.
+ *
+ * Requests are told apart by a SHA-256 digest of their method, path and body, so a different request reusing a
+ * key is never mistaken for a retry.
+ *
+ * The store is bounded: keys expire after a fixed time, and the oldest keys are dropped once there are too many.
+ * Keys whose request is still running are never dropped, as their duplicates wait on them, so the store can hold
+ * more keys than its bound while that many requests are in flight.
+ */
+class IdempotencyStore {
+    static final String KEY_HEADER = "Idempotency-Key";
+    static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private final int maxKeys;
+    private final long ttlNanos;
+    private final long waitMillis;
+    // In insertion order, which is also expiry order as every key lives equally long
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final LongAdder replays;
+
+    /**
+     * @param maxKeys The number of keys kept before the oldest are dropped.
+     * @param ttlMillis How long a key is remembered.
+     * @param waitMillis How long a duplicate waits for the request it duplicates before giving up with 409.
+     * @param registry The registry the store's metrics are exported from.
+     */
+    IdempotencyStore(int maxKeys, long ttlMillis, long waitMillis, MetricsRegistry registry){
+        this.maxKeys = maxKeys;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.waitMillis = waitMillis;
+        this.replays = registry.counter("idempotency_replays_total", "Requests answered with the stored response of an earlier request with the same Idempotency-Key.", "");
+        registry.gauge("idempotency_keys", "Idempotency keys remembered.", "", this::size);
+    }
+
+    /**
+     * @return A store configured by the "idempotency.maxKeys" (default 10000), "idempotency.ttlSeconds"
+     * (default one day) and "idempotency.waitMillis" (default 10000) system properties.
+     */
+    static IdempotencyStore fromSystemProperties(){
+        return new IdempotencyStore(Integer.getInteger("idempotency.maxKeys", 10_000),
+                TimeUnit.SECONDS.toMillis(Long.getLong("idempotency.ttlSeconds", TimeUnit.DAYS.toSeconds(1))),
+                Long.getLong("idempotency.waitMillis", 10_000),
+                MetricsRegistry.getRegistry());
+    }
+
+    /**
+     * Wraps a handler so that it honors the Idempotency-Key header. Requests without the header are passed
+     * straight through.
+     * @param handler The handler of a non-idempotent endpoint.
+     * @return The wrapped handler.
+     */
+    AsyncHandler wrap(AsyncHandler handler){
+        return context -> {
+            String key = context.header(KEY_HEADER);
+            if(key == null || key.isEmpty()){
+                return handler.handle(context);
+            }
+            String scopedKey = context.method().name() + " " + context.path() + " " + key;
+            return handle(handler, context, scopedKey, fingerprint(context.method().name(), context.path(), context.bodyAsBytes()));
+        };
+    }
+
+    /**
+     * @return The number of keys remembered.
+     */
+    synchronized int size(){
+        return entries.size();
+    }
+
+    /**
+     * Runs the handler if this is the first request with its key, and otherwise replays the response of the
+     * first once it is ready, without holding a thread while it waits.
+     */
+    private CompletableFuture<?> handle(AsyncHandler handler, Context context, String scopedKey, byte[] fingerprint) throws Exception {
+        Entry entry;
+        boolean first = false;
+        synchronized(this){
+            long now = System.nanoTime();
+            expire(now);
+            entry = entries.get(scopedKey);
+            if(entry == null){
+                entry = new Entry(fingerprint, now + ttlNanos);
+                entries.put(scopedKey, entry);
+                first = true;
+                dropOldest();
+            }
+        }
+        if(first){
+            return run(handler, context, scopedKey, entry);
+        }
+        if(!MessageDigest.isEqual(entry.fingerprint, fingerprint)){
+            context.status(422).result(KEY_HEADER + " was already used for a different request");
+            return CompletableFuture.completedFuture(null);
+        }
+        return entry.response.copy().orTimeout(waitMillis, TimeUnit.MILLISECONDS).handle((response, failure) -> {
+            if(failure == null){
+                response.replay(context);
+                replays.increment();
+                return CompletableFuture.completedFuture(null);
+            }
+            if(failure instanceof TimeoutException){
+                context.status(409).result("A request with this " + KEY_HEADER + " is still in progress");
+                return CompletableFuture.completedFuture(null);
+            }
+            // The first request failed and gave its key up, so this one runs the handler instead
+            try{
+                return handle(handler, context, scopedKey, fingerprint);
+            }catch(Exception e){
+                return CompletableFuture.failedFuture(e);
+            }
+        }).thenCompose(next -> next);
+    }
+
+    /**
+     * Runs the handler for the first request with a key, and stores its response for the duplicates once it is
+     * ready.
+     */
+    private CompletableFuture<?> run(AsyncHandler handler, Context context, String scopedKey, Entry entry) throws Exception {
+        CompletableFuture<?> done;
+        try{
+            done = handler.handle(context);
+        }catch(Exception e){
+            forget(scopedKey, entry, e);
+            throw e;
+        }
+        return done.whenComplete((result, failure) -> {
+            if(failure != null){
+                forget(scopedKey, entry, failure);
+            }else if(context.statusCode() >= 500){
+                forget(scopedKey, entry, new IllegalStateException("Status " + context.statusCode()));
+            }else{
+                try{
+                    entry.response.complete(StoredResponse.of(context));
+                }catch(IOException e){
+                    forget(scopedKey, entry, e);
+                }
+            }
+        });
+    }
+
+    private void forget(String scopedKey, Entry entry, Throwable cause){
+        synchronized(this){
+            entries.remove(scopedKey, entry);
+        }
+        entry.response.completeExceptionally(cause);
+    }
+
+    /**
+     * Drops the expired keys whose request has completed.
+     */
+    private void expire(long now){
+        Iterator<Entry> iterator = entries.values().iterator();
+        while(iterator.hasNext()){
+            Entry entry = iterator.next();
+            if(entry.expiresAt - now > 0){
+                return;
+            }
+            if(entry.response.isDone()){
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the oldest keys whose request has completed until there are no more than maxKeys, or none is left
+     * to drop.
+     */
+    private void dropOldest(){
+        Iterator<Entry> iterator = entries.values().iterator();
+        while(entries.size() > maxKeys && iterator.hasNext()){
+            if(iterator.next().response.isDone()){
+                iterator.remove();
+            }
+        }
+    }
+
+    private static byte[] fingerprint(String method, String path, byte[] body){
+        MessageDigest digest;
+        try{
+            digest = MessageDigest.getInstance("SHA-256");
+        }catch(NoSuchAlgorithmException e){
+            // Every Java platform must support SHA-256
+            throw new IllegalStateException(e);
+        }
+        digest.update(method.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(path.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        return digest.digest(body);
+    }
+
+    /**
+     * A remembered key: the request it was first used for, and the response once there is one.
+     */
+    private static class Entry {
+        private final byte[] fingerprint;
+        private final long expiresAt;
+        private final CompletableFuture<StoredResponse> response = new CompletableFuture<>();
+
+        Entry(byte[] fingerprint, long expiresAt){
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * The status, content type and body of a response.
+     */
+    private static class StoredResponse {
+        private final int status;
+        private final String contentType;
+        private final byte[] body;
+
+        private StoredResponse(int status, String contentType, byte[] body){
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        /**
+         * Handlers set their result as a string or a byte array, so the result stream can be read and rewound.
+         */
+        static StoredResponse of(Context context) throws IOException {
+            byte[] body = new byte[0];
+            InputStream result = context.resultInputStream();
+            if(result != null && result.markSupported()){
+                result.mark(Integer.MAX_VALUE);
+                body = result.readAllBytes();
+                result.reset();
+            }
+            return new StoredResponse(context.statusCode(), context.res().getContentType(), body);
+        }
+
+        void replay(Context context){
+            context.status(status).header(REPLAYED_HEADER, "true");
+            if(contentType != null){
+                context.contentType(contentType);
+            }
+            context.result(body);
+        }
+    }
+}
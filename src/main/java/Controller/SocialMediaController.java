@@ -1,27 +1,91 @@
 package Controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import io.javalin.Javalin;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.Header;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import Bulk.BulkFormat;
+import Bulk.BulkTable;
+import Metrics.MetricsRegistry;
+import Metrics.QueryMetrics;
 import Model.Account;
+import Model.Follow;
 import Model.Message;
+import Model.Versioned;
 import Service.AccountService;
+import Service.BulkService;
+import Service.FeedService;
+import Service.FollowService;
 import Service.MessageService;
+import Util.DeadlineExceededException;
+import Util.Replication;
+import Util.ThreadMode;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 /**
  * This class defines the API endpoints and handles incoming HTTP requests for the Social Media Application.
  * It acts as a bridge between the client, the service layer, and the data access layer.
+ *
+ * The account and message endpoints do not block a web server thread on the database: their handlers call the
+ * asynchronous service methods, which run on the database executor, and hand Javalin the future of the response.
+ * Message reads, message writes, and registration and login each run in a bulkhead of their own, so a burst of
+ * one kind cannot starve the others.
+ *
+ * With read replicas, every successful message write sets a "last-write" cookie to its time, and message reads
+ * pass it on so that they only run on a replica that has the caller's writes.
+ *
+ * The bulk export and import endpoints are only served when a "bulk.token" system property is set, and only to
+ * requests that carry it as a bearer token.
 */
 public class SocialMediaController {
+    private static final String LAST_WRITE_COOKIE = "last-write";
     private AccountService accountService;
     private MessageService messageService;
+    private FollowService followService;
+    private FeedService feedService;
+    private BulkService bulkService;
+    private HttpMetrics httpMetrics;
+    private TrafficRecorder trafficRecorder;
+    private IdempotencyStore idempotencyStore;
+    private ObjectMapper objectMapper;
+    private boolean readYourWrites;
+    private WarmUp warmUp;
+    private byte[] bulkToken;
 
     /**
-     * Initializes the controller with a reference to Account Service and Message Service.
+     * Initializes the controller with a reference to Account Service, Message Service, Follow Service and
+     * Feed Service. The feed engine is shared so that message and follow changes reach the same timelines.
      */
     public SocialMediaController(){
+        this.feedService = new FeedService();
         this.accountService = new AccountService();
-        this.messageService = new MessageService();
+        this.messageService = new MessageService(feedService);
+        this.followService = new FollowService(feedService);
+        this.bulkService = new BulkService(feedService);
+        this.httpMetrics = new HttpMetrics(MetricsRegistry.getRegistry());
+        this.trafficRecorder = TrafficRecorder.fromSystemProperties();
+        this.idempotencyStore = IdempotencyStore.fromSystemProperties();
+        this.objectMapper = new ObjectMapper();
+        this.readYourWrites = Replication.getReplication() != null;
+        this.warmUp = WarmUp.fromSystemProperties(feedService, objectMapper);
+        String bulkToken = System.getProperty("bulk.token");
+        this.bulkToken = bulkToken == null || bulkToken.isEmpty() ? null : bulkToken.getBytes(StandardCharsets.UTF_8);
     }
     /**
      * Sets up the API endpoints and handlers using Javalin.
@@ -29,152 +93,228 @@ public class SocialMediaController {
      */
     public Javalin startAPI() {
         Javalin app = Javalin.create();
-        // User Registration Endpoint
-        app.post("/register", this::registerHandler);
+        // Dispatch every request on a virtual thread of its own in the virtual thread mode
+        if(ThreadMode.isVirtual()){
+            ((QueuedThreadPool) app.jettyServer().server().getThreadPool()).setUseVirtualThreads(true);
+        }
+        // Write the responses of asynchronous handlers on the web server's threads, not the database executor's
+        Executor responseExecutor = task -> app.jettyServer().server().getThreadPool().execute(task);
+        // Shed load with 503 once the database executor's queue is full
+        app.exception(RejectedExecutionException.class, (exception, context) -> context.status(503));
+        // And when a database operation runs past its deadline
+        app.exception(DeadlineExceededException.class, (exception, context) -> context.status(503));
+        // Record latency, in-flight and byte metrics around every request
+        app.before(httpMetrics::beforeRequest);
+        app.after(httpMetrics::afterRequest);
+        // Capture traffic for replay when a capture file is configured
+        if(trafficRecorder != null){
+            app.before(trafficRecorder::beforeRequest);
+            app.after(trafficRecorder::afterRequest);
+            app.events(event -> event.serverStopped(trafficRecorder::close));
+        }
+        // User Registration Endpoint, retried safely with an Idempotency-Key header
+        app.post("/register", async(idempotencyStore.wrap(this::registerHandler), responseExecutor));
         // Login Endpoint
-        app.post("/login", this::loginHandler);
-        // Create New Message Endpoint
-        app.post("/messages", this::creatMessageHandler);
+        app.post("/login", async(this::loginHandler, responseExecutor));
+        // Create New Message Endpoint, retried safely with an Idempotency-Key header
+        app.post("/messages", async(idempotencyStore.wrap(this::creatMessageHandler), responseExecutor));
         // Get All Messages Endpoint
-        app.get("/messages", this::getAllMessageHandler);
+        app.get("/messages", async(this::getAllMessageHandler, responseExecutor));
         // Get One Message by Its ID Endpoint 
-        app.get("/messages/{message_id}", this::getOneMessageHandler);
+        app.get("/messages/{message_id}", async(this::getOneMessageHandler, responseExecutor));
         // Delete One Message by Its ID Endpoint
-        app.delete("/messages/{message_id}", this::deleteOneMessageHandler);
-        // Update One Message by Its ID Endpoint
-        app.patch("/messages/{message_id}", this::updateOneMessageHandler);
+        app.delete("/messages/{message_id}", async(this::deleteOneMessageHandler, responseExecutor));
+        // Update One Message by Its ID Endpoint, conditional on an If-Match header
+        app.patch("/messages/{message_id}", async(this::updateOneMessageHandler, responseExecutor));
         // Get All Messages From User by Account ID Endpoint
-        app.get("/accounts/{account_id}/messages", this::getAllMessageFromUserHandler);
+        app.get("/accounts/{account_id}/messages", async(this::getAllMessageFromUserHandler, responseExecutor));
+        // Follow an Account Endpoint
+        app.post("/accounts/{account_id}/following/{followee_id}", this::followHandler);
+        // Unfollow an Account Endpoint
+        app.delete("/accounts/{account_id}/following/{followee_id}", this::unfollowHandler);
+        // Get Home Feed of Followed Accounts Endpoint
+        app.get("/accounts/{account_id}/feed", this::getFeedHandler);
+        // Readiness Endpoint, 200 once the warm-up is done
+        app.get("/ready", this::readyHandler);
+        // Prometheus Metrics Endpoint
+        app.get("/metrics", this::metricsHandler);
+        // Per-Statement Database Diagnostics Endpoint
+        app.get("/diagnostics/queries", this::queryDiagnosticsHandler);
+        // Bulk transfers dump and overwrite whole tables, so they are left off the router unless a token is set
+        if(bulkToken != null){
+            // Bulk Export of a Table Endpoint
+            app.get("/export/{table}", this::exportHandler);
+            // Bulk Import into a Table Endpoint
+            app.post("/import/{table}", this::importHandler);
+        }
        
         return app;
     }
 
+    /**
+     * Warms the started server up, see {@link WarmUp}, after which /ready answers 200. Until then it answers 503,
+     * so that load balancers hold traffic back.
+     * @param port The port the server was started on.
+     */
+    public void warmUp(int port){
+        warmUp.run("http://localhost:" + port);
+    }
+
     /**
      * Handles the user registration request.
      * @param context The HTTP context containing the request and response.
      */
-    private void registerHandler(Context context){
+    private CompletableFuture<?> registerHandler(Context context){
         // Extract the JSON data from the request body and convert it to an Account object
         Account newAccount = context.bodyAsClass(Account.class);
         
         // Create new account in the database using the account service layer
-        Account createdAccount = accountService.createAccount(newAccount);
-
-        // Check if the account creation was successful
-        if(createdAccount == null){
-            context.status(400); // Bad Request
-        }else{
-            context.status(200).json(createdAccount); // Success
-        }
+        return accountService.createAccountAsync(newAccount).thenAccept(createdAccount -> {
+            // Check if the account creation was successful
+            if(createdAccount == null){
+                context.status(400); // Bad Request
+            }else{
+                context.status(200).json(createdAccount); // Success
+            }
+        });
     }
 
     /**
      * Handles the user login request.
      * @param context The HTTP context containing the request and response.
      */
-    private void loginHandler(Context context){
+    private CompletableFuture<?> loginHandler(Context context){
         // Extract the JSON data from the request body and convert it to an Account object
         Account loginAccount = context.bodyAsClass(Account.class);
 
-        // Authenticate the account credentials using the account service layer
-        if(accountService.authenticateAccount(loginAccount.getUsername(), loginAccount.getPassword())){
-            // If authentication is successful, retrive the authenticate account
-            Account authenticatedAccount = accountService.getAccountByUsername(loginAccount.getUsername());
-            context.status(200).json(authenticatedAccount); // Success
-        }else{
-            context.status(401); // Bad Request
-        }
+        // Authenticate the account credentials and retrieve the account using the account service layer
+        return accountService.authenticateAccountAsync(loginAccount.getUsername(), loginAccount.getPassword()).thenAccept(authenticatedAccount -> {
+            if(authenticatedAccount != null){
+                context.status(200).json(authenticatedAccount); // Success
+            }else{
+                context.status(401); // Bad Request
+            }
+        });
     }
     
     /**
      * Hndles the creation of a new message.
      * @param context The HTTP context containing the request and response.
      */
-    private void creatMessageHandler(Context context){
+    private CompletableFuture<?> creatMessageHandler(Context context){
         // Extract the JSON data from the request body and convert it to a Message object
         Message newMessage = context.bodyAsClass(Message.class);
 
         //Create the new message in the database using the message service layer
-        Message createdMessage = messageService.createMessage(newMessage);
-
-        // Check if the message creation was successful
-        if(createdMessage == null){
-            context.status(400); // Bad Request
-        }else{
-            context.status(200).json(createdMessage); // Success
-        }
+        return messageService.createMessageAsync(newMessage).thenAccept(createdMessage -> {
+            // Check if the message creation was successful
+            if(createdMessage == null){
+                context.status(400); // Bad Request
+            }else{
+                recordWrite(context);
+                writeJson(context.status(200), createdMessage); // Success
+            }
+        });
     }
 
     /**
      * Handles the retrieval of all messages.
      * @param context The HTTP context containing the request and response.
      */
-    private void getAllMessageHandler(Context context){
-        // Retrieve a list of all messages from the database using the message service layer
-        List<Message> allMessages = messageService.getAllMessages();
-
-        // Return the list of messages with a Always 200 OK response
-        context.status(200).json(allMessages);
+    private CompletableFuture<?> getAllMessageHandler(Context context){
+        // Retrieve a list of all messages from the database using the message service layer, and return it
+        // with a Always 200 OK response
+        return messageService.getAllMessagesAsync(lastWrite(context)).thenAccept(allMessages -> writeJson(context.status(200), allMessages));
     }
     
     /**
      * Handles the retrieval of a single message based on its message_id.
      * @param context The HTTP context containing the request and response.
      */
-    private void getOneMessageHandler(Context context){
+    private CompletableFuture<?> getOneMessageHandler(Context context){
         // Extract the message_id from the path parameter and convert it to an integer
         int messageId = context.pathParamAsClass("message_id", Integer.class).get();
 
-        // Retrieve the specific message from the database using the message service layer
-        Message message = messageService.getMessageById(messageId);
-
-        // Return the message with a 200 OK response, or an empty response if the message does not exist
-        if(message == null){
-            context.status(200); // Failure
-        }else{
-            context.status(200).json(message); // Success
-        }
+        // Retrieve the specific message and its version from the database using the message service layer
+        return messageService.getVersionedMessageByIdAsync(messageId, lastWrite(context)).thenAccept(message -> {
+            // Return the message with its version as ETag and a 200 OK response, or an empty response if the message does not exist
+            if(message == null){
+                context.status(200); // Failure
+            }else{
+                context.header(Header.ETAG, entityTag(message.getVersion()));
+                writeJson(context.status(200), message.getValue()); // Success
+            }
+        });
     }
 
     /**
      * Handles the deletion of a message based on its message_id.
      * @param context The HTTP context containing the request and response.
      */
-    private void deleteOneMessageHandler(Context context){
+    private CompletableFuture<?> deleteOneMessageHandler(Context context){
         // Extract the message_id from the path parameter and convert it to an integer
         int messageId = context.pathParamAsClass("message_id", Integer.class).get();
 
         // Delete the specific message from the database using the message service layer
-        Message deletedMessage = messageService.deleteMessage(messageId);
-
-        // Return the deleted message with a 200 OK response, or an empty response if the message does not exist
-        if(deletedMessage != null){
-            context.status(200).json(deletedMessage); // Success
-        }else{
-            context.status(200); // Failure
-        }
+        return messageService.deleteMessageAsync(messageId).thenAccept(deletedMessage -> {
+            // Return the deleted message with a 200 OK response, or an empty response if the message does not exist
+            if(deletedMessage != null){
+                recordWrite(context);
+                writeJson(context.status(200), deletedMessage); // Success
+            }else{
+                context.status(200); // Failure
+            }
+        });
     }
 
     /**
-     * Handles the updating of a message based on its message_id.
+     * Handles the updating of a message based on its message_id. With an If-Match header holding the ETag the
+     * message was read with, the message is only updated if nobody has updated it since, and 412 is returned
+     * otherwise; "If-Match: *" and no header update it unconditionally.
      * @param context The HTTP context containing the request and response.
      */
-    private void updateOneMessageHandler(Context context){
+    private CompletableFuture<?> updateOneMessageHandler(Context context){
         // Extract the message_id from the path parameter and convert it to an integer
         int messageId = context.pathParamAsClass("message_id", Integer.class).get();
 
         // Extract the updated message information from the request body and convert it to a Message object
         Message updatedMessage = context.bodyAsClass(Message.class);
-        
-        // Update the specific message in the database using the message service layer
-        Message result = messageService.updateMessage(messageId, updatedMessage);
 
-        // Return the updated message with a 200 OK response, or a 400 Bad Request response if the update is not successful
-        if(result == null){
-            context.status(400); // Bad Request
-        }else{
-            context.status(200).json(result); // Success
+        String ifMatch = context.header(Header.IF_MATCH);
+        if(ifMatch != null && !ifMatch.trim().equals("*")){
+            // Update the message only if it still has the version of the ETag, in one conditional update
+            long expectedVersion = parseEntityTag(ifMatch);
+            CompletableFuture<Versioned<Message>> update = expectedVersion < 0
+                    ? CompletableFuture.completedFuture(null)
+                    : messageService.updateMessageAsync(messageId, updatedMessage, expectedVersion);
+            return update.thenCompose(result -> {
+                if(result != null){
+                    recordWrite(context);
+                    context.header(Header.ETAG, entityTag(result.getVersion()));
+                    writeJson(context.status(200), result.getValue()); // Success
+                    return CompletableFuture.completedFuture(null);
+                }
+                // Tell a rejected update apart from a stale ETag, which includes a message that no longer exists
+                return messageService.getVersionedMessageByIdAsync(messageId).thenAccept(current -> {
+                    if(current == null || current.getVersion() != expectedVersion){
+                        context.status(412); // Precondition Failed
+                    }else{
+                        context.status(400); // Bad Request
+                    }
+                });
+            });
         }
+
+        // Update the specific message in the database using the message service layer
+        return messageService.updateMessageAsync(messageId, updatedMessage).thenAccept(result -> {
+            // Return the updated message with a 200 OK response, or a 400 Bad Request response if the update is not successful
+            if(result == null){
+                context.status(400); // Bad Request
+            }else{
+                recordWrite(context);
+                writeJson(context.status(200), result); // Success
+            }
+        });
     }
     
     /**
@@ -182,15 +322,245 @@ public class SocialMediaController {
      * Retrieves a list of messages associated with the provided account_id from the database.
      * @param context The HTTP context containing the request and response.
      */
-    private void getAllMessageFromUserHandler(Context context){
+    private CompletableFuture<?> getAllMessageFromUserHandler(Context context){
         // Extract the account_id from the path parameter and convert it to an integer
         int accoundId = context.pathParamAsClass("account_id", Integer.class).get();
 
-        // Retrieve a list of messages posted by the specific user from the database using the message service layer
-        List<Message> messages = messageService.getAllMessagesFromUser(accoundId);
+        // Retrieve a list of messages posted by the specific user from the database using the message service layer,
+        // and return it with a 200 OK response, even if the list is empty
+        return messageService.getAllMessagesFromUserAsync(accoundId, lastWrite(context)).thenAccept(messages -> writeJson(context.status(200), messages));
+    }
 
-        // Return the list of messages with a 200 OK response, even if the list is empty
-        context.status(200).json(messages);
+    /**
+     * Handles making one account follow another.
+     * @param context The HTTP context containing the request and response.
+     */
+    private void followHandler(Context context){
+        // Extract both account ids from the path parameters
+        int followerId = context.pathParamAsClass("account_id", Integer.class).get();
+        int followeeId = context.pathParamAsClass("followee_id", Integer.class).get();
+
+        // Create the follow in the database using the follow service layer
+        Follow createdFollow = followService.follow(new Follow(followerId, followeeId));
+
+        // Check if the follow was successful
+        if(createdFollow == null){
+            context.status(400); // Bad Request
+        }else{
+            context.status(200).json(createdFollow); // Success
+        }
+    }
+
+    /**
+     * Handles making one account stop following another.
+     * @param context The HTTP context containing the request and response.
+     */
+    private void unfollowHandler(Context context){
+        // Extract both account ids from the path parameters
+        int followerId = context.pathParamAsClass("account_id", Integer.class).get();
+        int followeeId = context.pathParamAsClass("followee_id", Integer.class).get();
+
+        // Remove the follow from the database using the follow service layer
+        Follow deletedFollow = followService.unfollow(new Follow(followerId, followeeId));
+
+        // Return the removed follow with a 200 OK response, or an empty response if it did not exist
+        if(deletedFollow != null){
+            context.status(200).json(deletedFollow); // Success
+        }else{
+            context.status(200); // Failure
+        }
+    }
+
+    /**
+     * Handles retrieving the home feed of an account: the most recent messages of the accounts it follows.
+     * @param context The HTTP context containing the request and response.
+     */
+    private void getFeedHandler(Context context){
+        // Extract the account_id from the path parameter and the optional page size from the query string
+        int accountId = context.pathParamAsClass("account_id", Integer.class).get();
+        int limit = context.queryParamAsClass("limit", Integer.class).getOrDefault(FeedService.DEFAULT_FEED_LIMIT);
+
+        // Retrieve the feed, newest first, using the feed service layer
+        List<Message> feed = feedService.getFeed(accountId, limit);
+
+        // Return the feed with a 200 OK response, even if the list is empty
+        writeJson(context.status(200), feed);
+    }
+
+    /**
+     * Handles a readiness probe: 200 once the server has warmed up, 503 until then.
+     * @param context The HTTP context containing the request and response.
+     */
+    private void readyHandler(Context context){
+        context.status(warmUp.isReady() ? 200 : 503);
+    }
+
+    /**
+     * Handles a scrape of all application metrics in the Prometheus text exposition format.
+     * @param context The HTTP context containing the request and response.
+     */
+    private void metricsHandler(Context context){
+        context.status(200)
+                .contentType("text/plain; version=0.0.4; charset=utf-8")
+                .result(MetricsRegistry.getRegistry().scrape());
+    }
+
+    /**
+     * Handles retrieving per-statement database statistics and the recent slow-query log.
+     * Bound parameter values are redacted; only their types are reported.
+     * @param context The HTTP context containing the request and response.
+     */
+    private void queryDiagnosticsHandler(Context context){
+        QueryMetrics queryMetrics = QueryMetrics.getQueryMetrics();
+        Map<String, Object> diagnostics = new LinkedHashMap<>();
+        diagnostics.put("statements", queryMetrics.getStatistics());
+        diagnostics.put("slow_queries", queryMetrics.getSlowQueries());
+
+        context.status(200).json(diagnostics);
+    }
+
+    /**
+     * Handles exporting every row of the messages or accounts table as NDJSON (the default) or CSV.
+     * @param context The HTTP context containing the request and response.
+     * @throws SQLException if the table cannot be read.
+     * @throws IOException if the response cannot be written.
+     */
+    private void exportHandler(Context context) throws SQLException, IOException {
+        if(!isBulkAuthorized(context)){
+            context.status(401); // Unauthorized
+            return;
+        }
+
+        // Extract the table from the path parameter and the optional format from the query string
+        BulkTable table = BulkTable.fromName(context.pathParam("table"));
+        BulkFormat format = BulkFormat.fromName(context.queryParamAsClass("format", String.class).getOrDefault("ndjson"));
+        if(table == null || format == null || !bulkService.isAvailable(table)){
+            context.status(400); // Bad Request
+            return;
+        }
+
+        // Stream the rows straight into the response instead of building it in memory
+        context.status(200).contentType(format.getContentType());
+        bulkService.exportTable(table, format, context.outputStream());
+    }
+
+    /**
+     * Handles loading an NDJSON (the default) or CSV export into the messages or accounts table.
+     * @param context The HTTP context containing the request and response.
+     */
+    private void importHandler(Context context){
+        if(!isBulkAuthorized(context)){
+            context.status(401); // Unauthorized
+            return;
+        }
+
+        // Extract the table from the path parameter and the optional format from the query string
+        BulkTable table = BulkTable.fromName(context.pathParam("table"));
+        BulkFormat format = BulkFormat.fromName(context.queryParamAsClass("format", String.class).getOrDefault("ndjson"));
+        if(table == null || format == null || !bulkService.isAvailable(table)){
+            context.status(400); // Bad Request
+            return;
+        }
+
+        // Load the request body as it arrives, and return the row counts and throughput
+        try{
+            Map<String, Object> summary = bulkService.importTable(table, format, context.bodyInputStream());
+            context.status(200).json(summary); // Success
+        }catch(SQLException | IOException e){
+            e.printStackTrace();
+            context.status(400); // Bad Request
+        }
+    }
+
+    /**
+     * @return Whether the request carries the bulk token in an "Authorization: Bearer" header, compared in
+     * constant time.
+     */
+    private boolean isBulkAuthorized(Context context){
+        String authorization = context.header(Header.AUTHORIZATION);
+        if(authorization == null || !authorization.startsWith("Bearer ")){
+            return false;
+        }
+        byte[] token = authorization.substring("Bearer ".length()).getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(token, bulkToken);
+    }
+
+    /**
+     * @return The strong ETag of a message version, eg "3" in quotes.
+     */
+    private static String entityTag(long version){
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Reads the version from an If-Match header holding one ETag of this API. Weak ETags never match, as If-Match
+     * uses strong comparison, and neither do lists of several ETags.
+     * @return The version, or -1 if the header does not hold one.
+     */
+    private static long parseEntityTag(String header){
+        String tag = header.trim();
+        if(tag.length() < 3 || tag.charAt(0) != '"' || tag.charAt(tag.length() - 1) != '"'){
+            return -1;
+        }
+        try{
+            return Long.parseLong(tag.substring(1, tag.length() - 1));
+        }catch(NumberFormatException e){
+            return -1;
+        }
+    }
+
+    /**
+     * Sets the "last-write" cookie to now, after a successful message write, if reads may go to replicas.
+     */
+    private void recordWrite(Context context){
+        if(readYourWrites){
+            context.cookie(LAST_WRITE_COOKIE, Long.toString(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * @return The epoch milliseconds of the caller's last message write, from the "last-write" cookie, or 0.
+     */
+    private static long lastWrite(Context context){
+        String cookie = context.cookie(LAST_WRITE_COOKIE);
+        if(cookie == null){
+            return 0;
+        }
+        try{
+            return Long.parseLong(cookie);
+        }catch(NumberFormatException e){
+            return 0;
+        }
+    }
+
+    /**
+     * Adapts a non-blocking handler to Javalin: the request is suspended until the handler's future completes,
+     * and the response is then written on a web server thread.
+     * @param handler The handler, which must set the response before its future completes.
+     * @param responseExecutor The executor the response is written on.
+     * @return The Javalin handler.
+     */
+    private static Handler async(AsyncHandler handler, Executor responseExecutor){
+        return context -> {
+            CompletableFuture<?> response = handler.handle(context);
+            // A response ready already, as with an executor running work on the calling thread, is written here
+            context.future(() -> response.isDone() ? response : response.thenApplyAsync(Function.identity(), responseExecutor));
+        };
+    }
+
+    /**
+     * Writes a JSON response body as UTF-8 bytes. Unlike context.json, which renders to a String first, this
+     * lets messages whose text is held off-heap copy it straight into the response.
+     * @param context The HTTP context containing the request and response.
+     * @param body The object to serialize.
+     * @throws UncheckedIOException if it cannot be serialized.
+     */
+    private void writeJson(Context context, Object body){
+        try{
+            context.contentType(ContentType.APPLICATION_JSON).result(objectMapper.writeValueAsBytes(body));
+        }catch(JsonProcessingException e){
+            throw new UncheckedIOException(e);
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,170 @@
+package Controller;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import Metrics.MetricsRegistry;
+import Util.TrafficLog;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+
+/**
+ * Captures every HTTP request handled by the controller into a {@link TrafficLog}, for replay against another
+ * build. It is opt-in: the controller only installs it when the "capture.file" system property names the log.
+ *
+ * Besides the method, path and body, the Idempotency-Key and If-Match headers are recorded, so that a replay
+ * repeats idempotent and conditional requests as they were sent.
+ *
+ * Request threads only copy the request into an entry and offer it to a bounded queue; a single background
+ * thread encodes and writes the entries. If the writer falls behind, entries are dropped rather than slowing
+ * requests down, and counted in the traffic_capture_dropped_total metric.
+ */
+class TrafficRecorder {
+    private static final String START_ATTRIBUTE = "capture.startNanos";
+    private static final int QUEUE_CAPACITY = 65_536;
+    private static final List<String> RECORDED_HEADERS = List.of(IdempotencyStore.KEY_HEADER, Header.IF_MATCH);
+    private static final long CLOSE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final TrafficLog.Entry END_OF_CAPTURE = new TrafficLog.Entry(0, "", "", new byte[0], 0, 0, 0);
+
+    private final long origin = System.nanoTime();
+    private final BlockingQueue<TrafficLog.Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final TrafficLog.Writer writer;
+    private final Thread writerThread;
+    private final LongAdder captured;
+    private final LongAdder dropped;
+
+    /**
+     * Opens the log and starts the writer thread.
+     * @param file The file to capture into; it is overwritten.
+     * @param registry The registry the capture counters are exported from.
+     * @throws IOException if the file cannot be created.
+     */
+    TrafficRecorder(File file, MetricsRegistry registry) throws IOException {
+        this.writer = new TrafficLog.Writer(new FileOutputStream(file));
+        this.captured = registry.counter("traffic_capture_requests_total", "Requests written to the traffic capture.", "");
+        this.dropped = registry.counter("traffic_capture_dropped_total", "Requests not captured because the writer fell behind.", "");
+        this.writerThread = new Thread(this::writeEntries, "traffic-capture");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * @return A recorder capturing into the file named by the "capture.file" system property, or null if it is
+     * not set or the file cannot be created.
+     */
+    static TrafficRecorder fromSystemProperties(){
+        String file = System.getProperty("capture.file");
+        if(file == null || file.isEmpty()){
+            return null;
+        }
+        try{
+            return new TrafficRecorder(new File(file), MetricsRegistry.getRegistry());
+        }catch(IOException e){
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Marks the arrival of a request.
+     * @param context The HTTP context of the request.
+     */
+    void beforeRequest(Context context){
+        context.attribute(START_ATTRIBUTE, System.nanoTime());
+    }
+
+    /**
+     * Queues a finished request for writing.
+     * @param context The HTTP context of the request.
+     */
+    void afterRequest(Context context){
+        Long start = context.attribute(START_ATTRIBUTE);
+        if(start == null){
+            return;
+        }
+        long now = System.nanoTime();
+        String query = context.queryString();
+        String path = query == null ? context.path() : context.path() + "?" + query;
+        Map<String, String> headers = new LinkedHashMap<>();
+        for(String name : RECORDED_HEADERS){
+            String value = context.header(name);
+            if(value != null){
+                headers.put(name, value);
+            }
+        }
+        TrafficLog.Entry entry = new TrafficLog.Entry(start - origin, context.method().name(), path,
+                context.bodyAsBytes(), headers, context.statusCode(), responseCrc(context), now - start);
+        if(queue.offer(entry)){
+            captured.increment();
+        }else{
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Writes the queued entries and closes the log. Called when the server stops. Waits at most ten seconds in
+     * all, so a writer that has died or is stuck cannot hold up the shutdown; the entries it has not written are
+     * then lost.
+     */
+    void close(){
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MILLIS);
+        try{
+            if(queue.offer(END_OF_CAPTURE, CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)){
+                writerThread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The writer thread: drains the queue, flushing whenever it runs empty so the log stays usable if the
+     * process is killed.
+     */
+    private void writeEntries(){
+        try(TrafficLog.Writer log = writer){
+            while(true){
+                TrafficLog.Entry entry = queue.poll(100, TimeUnit.MILLISECONDS);
+                if(entry == null){
+                    log.flush();
+                }else if(entry == END_OF_CAPTURE){
+                    return;
+                }else{
+                    log.write(entry);
+                }
+            }
+        }catch(IOException e){
+            e.printStackTrace();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Handlers set their result as a string or a byte array, so the result stream can be read and rewound.
+     */
+    private static int responseCrc(Context context){
+        CRC32 crc = new CRC32();
+        InputStream result = context.resultInputStream();
+        if(result != null && result.markSupported()){
+            try{
+                result.mark(Integer.MAX_VALUE);
+                crc.update(result.readAllBytes());
+                result.reset();
+            }catch(IOException e){
+                return 0;
+            }
+        }
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,256 @@
+package Controller;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import DAO.AccountRepository;
+import DAO.MessageRepository;
+import DAO.Repositories;
+import Metrics.MetricsRegistry;
+import Model.Account;
+import Model.Message;
+import Model.Versioned;
+import Service.FeedService;
+import Util.TransactionManager;
+
+/**
+ * Gets a freshly started server ready for traffic, so that the first real requests neither run in the
+ * interpreter nor miss every cache. The server answers /ready with 503 until the warm-up is done.
+ *
+ * The warm-up preloads the caches, then repeats the hot code paths until the JIT has compiled them:
+ * <ul>
+ *     <li>The latest messages and their posters, the hot accounts, are read, which loads their pages into the
+ *     database cache, and the hot accounts' feed timelines are materialized.</li>
+ *     <li>The JSON codecs encode and decode messages and accounts.</li>
+ *     <li>The DAO queries run against a scratch account and its messages, created in a transaction that is
+ *     rolled back, so nothing is left behind but a gap in the IDs. This needs the jdbc engine; the other engines
+ *     cannot roll back, so with them only reads run.</li>
+ *     <li>The endpoints are called over HTTP: reads of the hot messages, accounts and feeds, and writes that fail
+ *     validation, eg an empty message, which run the handler paths without changing anything.</li>
+ * </ul>
+ * Failures are printed and skipped: the server is ready once the warm-up ends, however it ends.
+ */
+class WarmUp {
+    private static final TypeReference<List<Message>> MESSAGE_LIST = new TypeReference<>(){};
+
+    private final int iterations;
+    private final int hotMessages;
+    private final int hotAccounts;
+    private final long maxNanos;
+    private final FeedService feedService;
+    private final ObjectMapper objectMapper;
+    private final MessageRepository messageDao;
+    private final AccountRepository accountDao;
+    private final TransactionManager transactions;
+    private volatile boolean ready;
+    private volatile long durationMillis = -1;
+
+    /**
+     * @param enabled Whether to warm up at all; a server that does not is ready at once.
+     * @param iterations How often each code path is run.
+     * @param hotMessages How many of the latest messages to preload.
+     * @param hotAccounts How many of their posters to preload the feeds of.
+     * @param maxMillis How long the warm-up may take before the server is declared ready anyway.
+     * @param feedService The feed engine of the server.
+     * @param objectMapper The JSON codec of the server.
+     * @param registry The registry the readiness metrics are exported from.
+     */
+    WarmUp(boolean enabled, int iterations, int hotMessages, int hotAccounts, long maxMillis, FeedService feedService,
+            ObjectMapper objectMapper, MetricsRegistry registry){
+        this.iterations = iterations;
+        this.hotMessages = hotMessages;
+        this.hotAccounts = hotAccounts;
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+        this.feedService = feedService;
+        this.objectMapper = objectMapper;
+        this.messageDao = Repositories.getMessageRepository();
+        this.accountDao = Repositories.getAccountRepository();
+        this.transactions = TransactionManager.getManager();
+        this.ready = !enabled;
+        registry.gauge("app_ready", "Whether the server has warmed up and is ready for traffic.", "", () -> ready ? 1 : 0);
+        registry.gauge("app_warmup_milliseconds", "How long the warm-up took, or -1 until it is done.", "", () -> durationMillis);
+    }
+
+    /**
+     * @return A warm-up configured by the "warmup.enabled" (default true), "warmup.iterations" (default 1000),
+     * "warmup.messages" (default 1000), "warmup.accounts" (default 100) and "warmup.maxSeconds" (default 60)
+     * system properties.
+     */
+    static WarmUp fromSystemProperties(FeedService feedService, ObjectMapper objectMapper){
+        return new WarmUp(Boolean.parseBoolean(System.getProperty("warmup.enabled", "true")),
+                Integer.getInteger("warmup.iterations", 1_000),
+                Integer.getInteger("warmup.messages", 1_000),
+                Integer.getInteger("warmup.accounts", 100),
+                TimeUnit.SECONDS.toMillis(Long.getLong("warmup.maxSeconds", 60)),
+                feedService, objectMapper, MetricsRegistry.getRegistry());
+    }
+
+    /**
+     * @return Whether the warm-up is done, or disabled.
+     */
+    boolean isReady(){
+        return ready;
+    }
+
+    /**
+     * Warms the server up, then marks it ready. Does nothing if it is ready already.
+     * @param baseUrl The URL the server is listening on, eg "http://localhost:8080".
+     */
+    synchronized void run(String baseUrl){
+        if(ready){
+            return;
+        }
+        long start = System.nanoTime();
+        long deadline = start + maxNanos;
+        try{
+            List<Message> latest = preload(deadline);
+            List<Integer> accountIds = postersOf(latest);
+            Message sample = latest.isEmpty() ? new Message(1, 1, "warm-up", 0) : latest.get(0);
+            runStep(() -> warmCodecs(sample, latest, deadline));
+            runStep(() -> warmQueries(deadline));
+            runStep(() -> warmEndpoints(baseUrl, latest, accountIds, deadline));
+        }finally{
+            durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            ready = true;
+        }
+    }
+
+    /**
+     * Reads the latest messages, all messages of their posters and the posters' feeds.
+     * @return The latest messages, newest first.
+     */
+    private List<Message> preload(long deadline){
+        List<Message> latest = new ArrayList<>();
+        runStep(() -> {
+            latest.addAll(messageDao.getLatestMessages(hotMessages));
+            for(int accountId : postersOf(latest)){
+                if(System.nanoTime() - deadline > 0){
+                    return;
+                }
+                messageDao.getAllMessagesFromUser(accountId);
+                feedService.getFeed(accountId, FeedService.DEFAULT_FEED_LIMIT);
+            }
+        });
+        return latest;
+    }
+
+    private void warmCodecs(Message sample, List<Message> latest, long deadline) throws JsonProcessingException {
+        List<Message> page = latest.subList(0, Math.min(latest.size(), FeedService.DEFAULT_FEED_LIMIT));
+        Account account = new Account(1, "warm-up", "password");
+        for(int i = 0; i < iterations && System.nanoTime() - deadline < 0; i++){
+            objectMapper.readValue(objectMapper.writeValueAsString(sample), Message.class);
+            objectMapper.readValue(objectMapper.writeValueAsString(page), MESSAGE_LIST);
+            objectMapper.readValue(objectMapper.writeValueAsString(account), Account.class);
+        }
+    }
+
+    /**
+     * Runs the DAO operations against a scratch account and messages that are rolled back at the end.
+     */
+    private void warmQueries(long deadline){
+        if(!Repositories.getEngineName().equals(Repositories.DEFAULT_ENGINE)){
+            for(int i = 0; i < iterations && System.nanoTime() - deadline < 0; i++){
+                accountDao.accountExists("warm-up");
+                accountDao.authenticateAccount("warm-up", "password");
+                messageDao.getMessageById(i + 1);
+                messageDao.getVersionedMessageById(i + 1);
+            }
+            return;
+        }
+        transactions.inTransaction(() -> {
+            // Nothing the warm-up writes is committed
+            transactions.setRollbackOnly();
+            String username = "warm-up-" + System.nanoTime();
+            Account account = accountDao.insertAccount(new Account(username, "password"));
+            if(account == null){
+                return null;
+            }
+            Message message = messageDao.insertMessage(new Message(account.getAccount_id(), "warm-up", System.currentTimeMillis() / 1000));
+            if(message == null){
+                return null;
+            }
+            int messageId = message.getMessage_id();
+            List<Integer> accountIds = List.of(account.getAccount_id());
+            for(int i = 0; i < iterations && System.nanoTime() - deadline < 0; i++){
+                accountDao.accountExists(username);
+                accountDao.authenticateAccount(username, "password");
+                accountDao.getAccountByUsername(username);
+                accountDao.accountIdExists(account.getAccount_id());
+                Versioned<Message> versioned = messageDao.getVersionedMessageById(messageId);
+                messageDao.updateMessageIfVersion(messageId, new Message(account.getAccount_id(), "warm-up " + i, 0), versioned.getVersion());
+                messageDao.getMessageById(messageId);
+                messageDao.getAllMessagesFromUser(account.getAccount_id());
+                messageDao.getRecentMessagesFromUsers(accountIds, FeedService.DEFAULT_FEED_LIMIT);
+                messageDao.getMessagesByIds(List.of(messageId));
+            }
+            messageDao.deleteMessageById(messageId);
+            return null;
+        });
+    }
+
+    /**
+     * Calls the endpoints with reads of the hot data and with writes that fail validation.
+     */
+    private void warmEndpoints(String baseUrl, List<Message> latest, List<Integer> accountIds, long deadline)
+            throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        String invalidMessage = objectMapper.writeValueAsString(new Message(1, "", 0));
+        String invalidAccount = objectMapper.writeValueAsString(new Account("", "password"));
+        String unknownLogin = objectMapper.writeValueAsString(new Account("warm-up", "password"));
+        for(int i = 0; i < iterations && System.nanoTime() - deadline < 0; i++){
+            int messageId = latest.isEmpty() ? i + 1 : latest.get(i % latest.size()).getMessage_id();
+            int accountId = accountIds.isEmpty() ? 1 : accountIds.get(i % accountIds.size());
+            send(client, HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + messageId)).GET());
+            send(client, HttpRequest.newBuilder(URI.create(baseUrl + "/accounts/" + accountId + "/messages")).GET());
+            send(client, HttpRequest.newBuilder(URI.create(baseUrl + "/accounts/" + accountId + "/feed")).GET());
+            send(client, HttpRequest.newBuilder(URI.create(baseUrl + "/login")).POST(HttpRequest.BodyPublishers.ofString(unknownLogin)));
+            send(client, HttpRequest.newBuilder(URI.create(baseUrl + "/register")).POST(HttpRequest.BodyPublishers.ofString(invalidAccount)));
+            send(client, HttpRequest.newBuilder(URI.create(baseUrl + "/messages")).POST(HttpRequest.BodyPublishers.ofString(invalidMessage)));
+            send(client, HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + messageId))
+                    .method("PATCH", HttpRequest.BodyPublishers.ofString(invalidMessage)));
+        }
+    }
+
+    private static void send(HttpClient client, HttpRequest.Builder request) throws IOException, InterruptedException {
+        client.send(request.timeout(Duration.ofSeconds(10)).build(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    /**
+     * @return The distinct posters of the messages, in order, up to the number of hot accounts.
+     */
+    private List<Integer> postersOf(List<Message> messages){
+        Set<Integer> accountIds = new LinkedHashSet<>();
+        for(Message message : messages){
+            if(accountIds.size() >= hotAccounts){
+                break;
+            }
+            accountIds.add(message.getPosted_by());
+        }
+        return new ArrayList<>(accountIds);
+    }
+
+    private static void runStep(Step step){
+        try{
+            step.run();
+        }catch(Exception e){
+            e.printStackTrace();
+        }
+    }
+
+    private interface Step {
+        void run() throws Exception;
+    }
+}
@@ -8,19 +8,24 @@ import java.sql.ResultSet;
 
 import Model.Account;
 import Util.ConnectionUtil;
+import Util.InstrumentedConnection;
+import Util.QueryDeadline;
 
 /**
  * The AccountDAO class handles database operations related to user accounts.
  * It provides methods for interacting with the "account" table in the database.
+ *
+ * Every method runs its statements within a {@link QueryDeadline} of its own, eg "AccountDAO.authenticateAccount".
  */
-public class AccountDAO {
+public class AccountDAO implements AccountRepository {
     private Connection connection;
 
     /**
-     * Constructor that initializes the database connection using the ConnectionUtil class.
+     * Constructor that initializes the database connection using the ConnectionUtil class, instrumented so that
+     * every statement reports its timing, row count and errors.
      */
     public AccountDAO(){
-        this.connection = ConnectionUtil.getConnection();
+        this.connection = InstrumentedConnection.wrap(ConnectionUtil.getConnection());
     }
 
     /**
@@ -29,10 +34,13 @@ public class AccountDAO {
      * @param account The Account object containing the username and password.
      * @return The Account object with the assigned account_id if insertion is successful, otherwise null.
      */
+    @Override
+    @SuppressWarnings("try")
     public Account insertAccount(Account account){
         String insertQuery = "INSERT INTO account (username, password) VALUES (?, ?)";
 
-        try(PreparedStatement preparedStatement = connection.prepareStatement(insertQuery, Statement.RETURN_GENERATED_KEYS)){
+        try(QueryDeadline deadline = QueryDeadline.start("AccountDAO.insertAccount");
+                PreparedStatement preparedStatement = connection.prepareStatement(insertQuery, Statement.RETURN_GENERATED_KEYS)){
             preparedStatement.setString(1, account.getUsername());
             preparedStatement.setString(2, account.getPassword());
 
@@ -57,10 +65,13 @@ public class AccountDAO {
      * @param user_name The username to check for existence.
      * @return True if an account with the given username exists, otherwise false.
      */
+    @Override
+    @SuppressWarnings("try")
     public boolean accountExists(String user_name){
         String query = "SELECT COUNT(*) FROM account WHERE username = ?";
 
-        try(PreparedStatement preparedStatement = connection.prepareStatement(query)){
+        try(QueryDeadline deadline = QueryDeadline.start("AccountDAO.accountExists");
+                PreparedStatement preparedStatement = connection.prepareStatement(query)){
             preparedStatement.setString(1, user_name);
 
             try(ResultSet resultSet = preparedStatement.executeQuery()){
@@ -79,10 +90,13 @@ public class AccountDAO {
      * @param username The username of the account to retrieve.
      * @return The retrieved Account object, or null if not found.
      */
+    @Override
+    @SuppressWarnings("try")
     public Account getAccountByUsername(String username){
         String query = "SELECT * FROM account WHERE username = ?";
 
-        try(PreparedStatement preparedStatement = connection.prepareStatement(query)){
+        try(QueryDeadline deadline = QueryDeadline.start("AccountDAO.getAccountByUsername");
+                PreparedStatement preparedStatement = connection.prepareStatement(query)){
             preparedStatement.setString(1, username);
 
             try(ResultSet resultSet = preparedStatement.executeQuery()){
@@ -106,10 +120,13 @@ public class AccountDAO {
      * @param accountId The account ID to check for existence.
      * @return true if the account with the given accountId exists, false otherwise.
      */
+    @Override
+    @SuppressWarnings("try")
     public boolean accountIdExists(int accoundId){
         String query = "SELECT COUNT(*) FROM account WHERE account_id = ?";
 
-        try(PreparedStatement preparedStatement = connection.prepareStatement(query)){
+        try(QueryDeadline deadline = QueryDeadline.start("AccountDAO.accountIdExists");
+                PreparedStatement preparedStatement = connection.prepareStatement(query)){
             preparedStatement.setInt(1, accoundId);
 
             try(ResultSet resultSet = preparedStatement.executeQuery()){
@@ -130,10 +147,13 @@ public class AccountDAO {
      * @param password The password of the account to authenticate.
      * @return true if the account with the given username and password exists, false otherwise.
      */
+    @Override
+    @SuppressWarnings("try")
     public boolean authenticateAccount(String username, String password){
         String query = "SELECT COUNT(*) FROM account WHERE username = ? AND password = ?";
 
-        try(PreparedStatement preparedStatement = connection.prepareStatement(query)){
+        try(QueryDeadline deadline = QueryDeadline.start("AccountDAO.authenticateAccount");
+                PreparedStatement preparedStatement = connection.prepareStatement(query)){
             preparedStatement.setString(1, username);
             preparedStatement.setString(2, password);
 
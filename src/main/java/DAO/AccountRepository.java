@@ -0,0 +1,47 @@
+package DAO;
+
+import Model.Account;
+
+/**
+ * The AccountRepository interface defines how user accounts are stored, independently of the storage engine.
+ * {@link AccountDAO} implements it over the database; the in-memory engine implements it over concurrent maps.
+ * Use {@link Repositories} to obtain the implementation selected at startup.
+ */
+public interface AccountRepository {
+
+    /**
+     * Inserts a new user account.
+     * @param account The Account object containing the username and password.
+     * @return The Account object with the assigned account_id if insertion is successful, otherwise null.
+     */
+    Account insertAccount(Account account);
+
+    /**
+     * Checks if an account with the given username exists.
+     * @param user_name The username to check for existence.
+     * @return True if an account with the given username exists, otherwise false.
+     */
+    boolean accountExists(String user_name);
+
+    /**
+     * Retrieves an account by its username.
+     * @param username The username of the account to retrieve.
+     * @return The retrieved Account object, or null if not found.
+     */
+    Account getAccountByUsername(String username);
+
+    /**
+     * Checks if an account with the specified accountId exists.
+     * @param accountId The account ID to check for existence.
+     * @return true if the account with the given accountId exists, false otherwise.
+     */
+    boolean accountIdExists(int accountId);
+
+    /**
+     * Authenticates an account with the specified username and password.
+     * @param username The username of the account to authenticate.
+     * @param password The password of the account to authenticate.
+     * @return true if the account with the given username and password exists, false otherwise.
+     */
+    boolean authenticateAccount(String username, String password);
+}
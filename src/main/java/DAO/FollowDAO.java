@@ -0,0 +1,164 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import Model.Follow;
+import Util.ConnectionUtil;
+import Util.InstrumentedConnection;
+
+/**
+ * The FollowDAO class handles database operations related to the follow graph.
+ * It provides methods for interacting with the "follow" table in the database.
+ */
+public class FollowDAO implements FollowRepository {
+    private Connection connection;
+
+    /**
+     * Constructor that initializes the database connection using the ConnectionUtil class, instrumented so that
+     * every statement reports its timing, row count and errors.
+     */
+    public FollowDAO(){
+        this.connection = InstrumentedConnection.wrap(ConnectionUtil.getConnection());
+    }
+
+    /**
+     * Inserts a new follow edge into the "follow" table.
+     * @param follow The follow to be inserted.
+     * @return The inserted follow, or null if insertion fails (for example because it already exists).
+     */
+    @Override
+    public Follow insertFollow(Follow follow){
+        String insertQuery = "INSERT INTO follow (follower_id, followee_id) VALUES (?, ?)";
+
+        try(PreparedStatement preparedStatement = connection.prepareStatement(insertQuery)){
+            preparedStatement.setInt(1, follow.getFollower_id());
+            preparedStatement.setInt(2, follow.getFollowee_id());
+
+            int rowsAffected = preparedStatement.executeUpdate();
+            if(rowsAffected > 0){
+                return follow;
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Deletes a follow edge from the "follow" table.
+     * @param follow The follow to be deleted.
+     * @return The deleted follow, or null if it did not exist or the deletion failed.
+     */
+    @Override
+    public Follow deleteFollow(Follow follow){
+        String deleteQuery = "DELETE FROM follow WHERE follower_id = ? AND followee_id = ?";
+
+        try(PreparedStatement preparedStatement = connection.prepareStatement(deleteQuery)){
+            preparedStatement.setInt(1, follow.getFollower_id());
+            preparedStatement.setInt(2, follow.getFollowee_id());
+
+            int rowsAffected = preparedStatement.executeUpdate();
+            if(rowsAffected > 0){
+                return follow;
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the given follow edge exists in the "follow" table.
+     * @param follow The follow to check for existence.
+     * @return true if the follower already follows the followee, false otherwise.
+     */
+    @Override
+    public boolean followExists(Follow follow){
+        String query = "SELECT COUNT(*) FROM follow WHERE follower_id = ? AND followee_id = ?";
+
+        try(PreparedStatement preparedStatement = connection.prepareStatement(query)){
+            preparedStatement.setInt(1, follow.getFollower_id());
+            preparedStatement.setInt(2, follow.getFollowee_id());
+
+            try(ResultSet resultSet = preparedStatement.executeQuery()){
+                if(resultSet.next()){
+                    return resultSet.getInt(1) > 0;
+                }
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Retrieves the ids of every account followed by the given account.
+     * @param followerId The id of the following account.
+     * @return A list of followee account ids, or an empty list if the account follows nobody.
+     */
+    @Override
+    public List<Integer> getFolloweeIds(int followerId){
+        return getIds("SELECT followee_id FROM follow WHERE follower_id = ?", followerId);
+    }
+
+    /**
+     * Retrieves the ids of every account following the given account.
+     * @param followeeId The id of the followed account.
+     * @return A list of follower account ids, or an empty list if the account has no followers.
+     */
+    @Override
+    public List<Integer> getFollowerIds(int followeeId){
+        return getIds("SELECT follower_id FROM follow WHERE followee_id = ?", followeeId);
+    }
+
+    /**
+     * Counts the followers of the given account.
+     * @param followeeId The id of the followed account.
+     * @return The number of accounts following it.
+     */
+    @Override
+    public int countFollowers(int followeeId){
+        String query = "SELECT COUNT(*) FROM follow WHERE followee_id = ?";
+
+        try(PreparedStatement preparedStatement = connection.prepareStatement(query)){
+            preparedStatement.setInt(1, followeeId);
+
+            try(ResultSet resultSet = preparedStatement.executeQuery()){
+                if(resultSet.next()){
+                    return resultSet.getInt(1);
+                }
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * Runs a single-parameter query returning one integer column.
+     * @param query The query to run.
+     * @param id The value bound to the only parameter.
+     * @return The values of the first column of every row.
+     */
+    private List<Integer> getIds(String query, int id){
+        List<Integer> ids = new ArrayList<>();
+
+        try(PreparedStatement preparedStatement = connection.prepareStatement(query)){
+            preparedStatement.setInt(1, id);
+
+            try(ResultSet resultSet = preparedStatement.executeQuery()){
+                while(resultSet.next()){
+                    ids.add(resultSet.getInt(1));
+                }
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+        return ids;
+    }
+}
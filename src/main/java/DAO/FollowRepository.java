@@ -0,0 +1,55 @@
+package DAO;
+
+import java.util.List;
+
+import Model.Follow;
+
+/**
+ * The FollowRepository interface defines how the follow graph is stored, independently of the storage engine.
+ * {@link FollowDAO} implements it over the database; the in-memory engine implements it over concurrent maps.
+ * Use {@link Repositories} to obtain the implementation selected at startup.
+ */
+public interface FollowRepository {
+
+    /**
+     * Inserts a new follow edge.
+     * @param follow The follow to be inserted.
+     * @return The inserted follow, or null if insertion fails (for example because it already exists).
+     */
+    Follow insertFollow(Follow follow);
+
+    /**
+     * Deletes a follow edge.
+     * @param follow The follow to be deleted.
+     * @return The deleted follow, or null if it did not exist or the deletion failed.
+     */
+    Follow deleteFollow(Follow follow);
+
+    /**
+     * Checks if the given follow edge exists.
+     * @param follow The follow to check for existence.
+     * @return true if the follower already follows the followee, false otherwise.
+     */
+    boolean followExists(Follow follow);
+
+    /**
+     * Retrieves the ids of every account followed by the given account.
+     * @param followerId The id of the following account.
+     * @return A list of followee account ids, or an empty list if the account follows nobody.
+     */
+    List<Integer> getFolloweeIds(int followerId);
+
+    /**
+     * Retrieves the ids of every account following the given account.
+     * @param followeeId The id of the followed account.
+     * @return A list of follower account ids, or an empty list if the account has no followers.
+     */
+    List<Integer> getFollowerIds(int followeeId);
+
+    /**
+     * Counts the followers of the given account.
+     * @param followeeId The id of the followed account.
+     * @return The number of accounts following it.
+     */
+    int countFollowers(int followeeId);
+}
@@ -1,107 +1,192 @@
 package DAO;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
 
+import Archive.MessageArchive;
 import Model.Message;
+import Model.Versioned;
 import Util.ConnectionUtil;
+import Util.InstrumentedConnection;
+import Util.QueryDeadline;
+import Util.Replication;
 
 /**
  * The MessageDAO class handles database operations related to messages.
  * It provides methods for interacting with the "message" table in the database.
+ *
+ * Messages can be sharded across several databases (see ConnectionUtil.getShardConnection). A message lives on
+ * the shard of its poster, (posted_by - 1) modulo the shard count, so the messages of one account are always
+ * on one shard and sequential account ids spread evenly. Each shard numbers its own rows, and a row's global
+ * message ID encodes its shard: (local ID - 1) * shard count + shard + 1. With a single shard the global and
+ * local IDs are the same. Queries by message ID or by account go to one shard; the others query every shard
+ * involved in parallel and merge the results.
+ *
+ * Old messages can be moved out of the tables into the compressed {@link MessageArchive} with
+ * archiveMessagesBefore, which runs in the background when the "archive.maxAgeSeconds" system property is set.
+ * Lookups by ID and by poster, and getAllMessages, fall through to the archive for messages the tables no longer
+ * hold. Archived messages cannot be updated, which fails as if they did not exist, but deleting one leaves a
+ * tombstone in the archive that hides every copy of it. Feeds only read the tables, as they only show recent
+ * messages.
+ *
+ * Every row has a version that each update increments. updateMessageIfVersion checks it in the WHERE clause of
+ * the update, so optimistic writers need no locks and no extra round trip.
+ *
+ * Every operation runs its statements within a {@link QueryDeadline} of its own, eg "MessageDAO.getMessageById";
+ * the parallel queries of a scattered operation each get a full deadline on their shard. Archiving has none.
  */
-public class MessageDAO {
-    private Connection connection;
+public class MessageDAO implements MessageRepository {
+    private static final Comparator<Message> OLDEST_FIRST = Comparator
+            .comparingLong(Message::getTime_posted_epoch)
+            .thenComparingInt(Message::getMessage_id);
+    private static final Comparator<Message> NEWEST_FIRST = OLDEST_FIRST.reversed();
+    private static final Comparator<Message> BY_ID = Comparator.comparingInt(Message::getMessage_id);
+    private static final Comparator<Message> LATEST_FIRST = BY_ID.reversed();
+
+    private static final int ARCHIVE_SEGMENT_ROWS = 100_000;
+
+    private static ExecutorService shardExecutor = null;
+    private static ScheduledExecutorService archiver = null;
+
+    private Connection[] connections;
+    private AccountDAO accountDao;
+    private MessageArchive archive;
 
     /**
-     * Constructor that initializes the database connection using the ConnectionUtil class.
+     * Constructor that initializes the database connection of every shard using the ConnectionUtil class,
+     * instrumented so that every statement reports its timing, row count and errors.
      */
     public MessageDAO(){
-        this.connection = ConnectionUtil.getConnection();
+        this.connections = new Connection[ConnectionUtil.getShardCount()];
+        for(int shard = 0; shard < connections.length; shard++){
+            connections[shard] = InstrumentedConnection.wrap(ConnectionUtil.getShardConnection(shard));
+        }
+        this.accountDao = new AccountDAO();
+        this.archive = MessageArchive.getArchive();
+        startArchiver(this);
     }
 
     /**
-     * Inserts a new message into the database.
+     * Inserts a new message into the database of its poster's shard.
      * @param message The message to be inserted.
      * @return The inserted message with its generated message ID, or null if insertion fails.
      */
+    @Override
+    @SuppressWarnings("try")
     public Message insertMessage(Message message){
-        String insertQuery = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
-        
-        try(PreparedStatement preparedStatement = connection.prepareStatement(insertQuery, Statement.RETURN_GENERATED_KEYS)){
-            preparedStatement.setInt(1, message.getPosted_by());
-            preparedStatement.setString(2, message.getMessage_text());
-            preparedStatement.setLong(3, message.getTime_posted_epoch());
-
-            int rowsAffected = preparedStatement.executeUpdate();
-
-            if(rowsAffected == 0){
+        try(QueryDeadline deadline = QueryDeadline.start("MessageDAO.insertMessage")){
+            int shard = shardOfAccount(message.getPosted_by());
+            // Only shard 0 holds the account table, so the foreign key is checked here for the other shards
+            if(shard != 0 && !accountDao.accountIdExists(message.getPosted_by())){
                 return null;
             }
+            String insertQuery = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
 
-            ResultSet generatedKeys = preparedStatement.getGeneratedKeys();
-            if(generatedKeys.next()){
-                int messageId = generatedKeys.getInt(1);
-                message.setMessage_id(messageId);
-                return message;
-            }else{
+            try(PreparedStatement preparedStatement = connections[shard].prepareStatement(insertQuery, Statement.RETURN_GENERATED_KEYS)){
+                preparedStatement.setInt(1, message.getPosted_by());
+                preparedStatement.setString(2, message.getMessage_text());
+                preparedStatement.setLong(3, message.getTime_posted_epoch());
+
+                int rowsAffected = preparedStatement.executeUpdate();
+
+                if(rowsAffected == 0){
+                    return null;
+                }
+
+                ResultSet generatedKeys = preparedStatement.getGeneratedKeys();
+                if(generatedKeys.next()){
+                    int messageId = globalId(generatedKeys.getInt(1), shard);
+                    message.setMessage_id(messageId);
+                    return message;
+                }else{
+                    return null;
+                }
+            }catch(SQLException e){
+                e.printStackTrace();
                 return null;
             }
-        }catch(SQLException e){
-            e.printStackTrace();
-            return null;
         }
     }
+
     /**
-     * Retrieves a list of all messages from the database.
+     * Retrieves a list of all messages from the database, with the archived messages merged in. With a single
+     * shard they are in message ID order, like with the other engines. With several, whose global IDs interleave
+     * the shards, every shard is scanned in parallel and they are merged by time_posted_epoch and message_id.
      * @return A list containing all messages retrieved from the database.
      */
+    @Override
     public List<Message> getAllMessages(){
-        List<Message> messages = new ArrayList<>();
-        String query = "SELECT * FROM message";
-
-        try(PreparedStatement preparedStatement = connection.prepareStatement(query)){
-            try(ResultSet resultSet = preparedStatement.executeQuery()){
-                while(resultSet.next()){
-                    int message_id = resultSet.getInt("message_id");
-                    int posted_by = resultSet.getInt("posted_by");
-                    String message_text = resultSet.getString("message_text");
-                    long time_posted_epoch = resultSet.getLong("time_posted_epoch");
-
-                    messages.add(new Message(message_id, posted_by, message_text, time_posted_epoch));
-                }
+        if(connections.length == 1){
+            List<Message> messages = getAllMessages(0, "SELECT * FROM message ORDER BY message_id");
+            if(archive.isEmpty()){
+                return messages;
             }
-        }catch(SQLException e){
-            e.printStackTrace();
+            List<Message> archived = notInTable(archive.getAllMessages(), messages);
+            archived.sort(BY_ID);
+            return merge(List.of(messages, archived), BY_ID, Integer.MAX_VALUE);
         }
-        return messages;
+        String query = "SELECT * FROM message ORDER BY time_posted_epoch, message_id";
+        List<List<Message>> shards = scatter(connections.length, shard -> getAllMessages(shard, query));
+        if(!archive.isEmpty()){
+            List<Message> messages = new ArrayList<>();
+            shards.forEach(messages::addAll);
+            List<Message> archived = notInTable(archive.getAllMessages(), messages);
+            archived.sort(OLDEST_FIRST);
+            shards.add(archived);
+        }
+        return merge(shards, OLDEST_FIRST, Integer.MAX_VALUE);
     }
 
     /**
-     * Retrieves a specific message from the database based on its message ID.
+     * Retrieves a specific message from the database based on its message ID, or from the archive if it has been
+     * archived.
      * @param messageId The ID of the message to retrieve.
      * @return The message with the specified message ID, or null if not found.
      */
+    @Override
     public Message getMessageById(int messageId){
-        String query = "SELECT * FROM message WHERE message_id = ?";
+        Message message = getTableMessageById(messageId);
+        if(message == null && !archive.isEmpty()){
+            message = archive.getMessageById(messageId);
+        }
+        return message;
+    }
 
-        try(PreparedStatement preparedStatement = connection.prepareStatement(query)){
-            preparedStatement.setInt(1, messageId);
+    /**
+     * Retrieves a message from the table of its shard, ignoring the archive.
+     */
+    @SuppressWarnings("try")
+    private Message getTableMessageById(int messageId){
+        String query = "SELECT * FROM message WHERE message_id = ?";
+        int shard = shardOfMessage(messageId);
 
-            try(ResultSet resultSet = preparedStatement.executeQuery()){
-                if(resultSet.next()){
-                    int message_id = resultSet.getInt("message_id");
-                    int posted_by = resultSet.getInt("posted_by");
-                    String message_text = resultSet.getString("message_text");
-                    long time_posted_epoch = resultSet.getLong("time_posted_epoch");
+        try(QueryDeadline deadline = QueryDeadline.start("MessageDAO.getMessageById");
+                PreparedStatement preparedStatement = connections[shard].prepareStatement(query)){
+            preparedStatement.setInt(1, localId(messageId));
 
-                    return new Message(message_id, posted_by, message_text, time_posted_epoch);
-                }
+            List<Message> messages = readMessages(preparedStatement, shard);
+            if(!messages.isEmpty()){
+                return messages.get(0);
             }
         }catch(SQLException e){
             e.printStackTrace();
@@ -110,78 +195,550 @@ public class MessageDAO {
     }
 
     /**
-     * Deletes a message from the database based on its message ID.
+     * Deletes a message from the database based on its message ID, and from the archive if it has been archived.
+     * The archive's tombstone is not part of the caller's transaction, so it stays even if that rolls back.
      * @param messageId The ID of the message to delete.
      * @return The deleted message, or null if the message was not found or the deletion failed.
      */
+    @Override
+    @SuppressWarnings("try")
     public Message deleteMessageById(int messageId){
-        Message deletedMessage = getMessageById(messageId);
-        if(deletedMessage != null){
-            String deleteQuery = "DELETE FROM message WHERE message_id = ?";
+        try(QueryDeadline deadline = QueryDeadline.start("MessageDAO.deleteMessageById")){
+            Message deletedMessage = getTableMessageById(messageId);
+            boolean deleted = false;
+            if(deletedMessage != null){
+                String deleteQuery = "DELETE FROM message WHERE message_id = ?";
 
-            try(PreparedStatement preparedStatement = connection.prepareStatement(deleteQuery)){
-                preparedStatement.setInt(1, messageId);
-    
-                int rowsAffected = preparedStatement.executeUpdate();
-                if(rowsAffected > 0){
-                    return deletedMessage;
+                try(PreparedStatement preparedStatement = connections[shardOfMessage(messageId)].prepareStatement(deleteQuery)){
+                    preparedStatement.setInt(1, localId(messageId));
+
+                    deleted = preparedStatement.executeUpdate() > 0;
+                }catch(SQLException e){
+                    e.printStackTrace();
+                    return null;
                 }
-            }catch(SQLException e){
-                e.printStackTrace();
             }
+            // An older copy may be archived, eg if the message was edited while being archived, or the archiver
+            // may have moved the message between the read and the delete
+            Message archivedMessage = archive.isEmpty() ? null : archive.delete(messageId);
+            if(deleted){
+                return deletedMessage;
+            }
+            return archivedMessage;
         }
-        return null;
     }
 
     /**
-     * Updates the message text of an existing message in the database based on its message ID.
+     * Retrieves a specific message with its version from the database, or from the archive if it has been
+     * archived. Archived messages are read-only, so they are all at version 0.
+     * @param messageId The ID of the message to retrieve.
+     * @return The message and its version, or null if not found.
+     */
+    @Override
+    @SuppressWarnings("try")
+    public Versioned<Message> getVersionedMessageById(int messageId){
+        String query = "SELECT * FROM message WHERE message_id = ?";
+        int shard = shardOfMessage(messageId);
+
+        try(QueryDeadline deadline = QueryDeadline.start("MessageDAO.getVersionedMessageById");
+                PreparedStatement preparedStatement = connections[shard].prepareStatement(query)){
+            preparedStatement.setInt(1, localId(messageId));
+
+            Versioned<Message> message = readVersionedMessage(preparedStatement, shard);
+            if(message != null || archive.isEmpty()){
+                return message;
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+            return null;
+        }
+        Message archived = archive.getMessageById(messageId);
+        return archived == null ? null : new Versioned<>(archived, 0);
+    }
+
+    /**
+     * Updates the message text of an existing message in the database based on its message ID, incrementing its
+     * version, and reads the updated row back in the same statement.
      * @param messageId The ID of the message to update.
      * @param updatedMessage The updated message object containing the new message text.
      * @return The updated message, or null if the message was not found or the update failed.
      */
+    @Override
+    @SuppressWarnings("try")
     public Message updateMessage(int messageId, Message updatedMessage){
-        if(getMessageById(messageId) != null){
-            String updateQuery = "UPDATE message SET message_text = ? WHERE message_id = ?";
-            try(PreparedStatement preparedStatement = connection.prepareStatement(updateQuery)){
-                preparedStatement.setString(1, updatedMessage.getMessage_text());
-                preparedStatement.setInt(2, messageId);
+        String updateQuery = "SELECT * FROM FINAL TABLE (UPDATE message SET message_text = ?, version = version + 1 WHERE message_id = ?)";
+        int shard = shardOfMessage(messageId);
 
-                int rowsAffected = preparedStatement.executeUpdate();
-                if(rowsAffected > 0){
-                    return getMessageById(messageId);
-                }
-            }catch(SQLException e){
-                e.printStackTrace();
+        try(QueryDeadline deadline = QueryDeadline.start("MessageDAO.updateMessage");
+                PreparedStatement preparedStatement = connections[shard].prepareStatement(updateQuery)){
+            preparedStatement.setString(1, updatedMessage.getMessage_text());
+            preparedStatement.setInt(2, localId(messageId));
+
+            Versioned<Message> updated = readVersionedMessage(preparedStatement, shard);
+            if(updated != null){
+                return updated.getValue();
             }
+        }catch(SQLException e){
+            e.printStackTrace();
         }
         return null;
     }
 
     /**
-     * Retrieves a list of messages posted by a specific user from the database.
+     * Updates the message text of an existing message in the database only if its version is still the expected
+     * one. The version check, the update and reading the updated row back are a single statement, so concurrent
+     * writers never lock each other out: the first one wins and the others update no row.
+     * @param messageId The ID of the message to update.
+     * @param updatedMessage The updated message object containing the new message text.
+     * @param expectedVersion The version the message was read at.
+     * @return The updated message and its new version, or null if the message was not found, has another
+     * version, or the update failed.
+     */
+    @Override
+    @SuppressWarnings("try")
+    public Versioned<Message> updateMessageIfVersion(int messageId, Message updatedMessage, long expectedVersion){
+        String updateQuery = "SELECT * FROM FINAL TABLE (UPDATE message SET message_text = ?, version = version + 1 WHERE message_id = ? AND version = ?)";
+        int shard = shardOfMessage(messageId);
+
+        try(QueryDeadline deadline = QueryDeadline.start("MessageDAO.updateMessageIfVersion");
+                PreparedStatement preparedStatement = connections[shard].prepareStatement(updateQuery)){
+            preparedStatement.setString(1, updatedMessage.getMessage_text());
+            preparedStatement.setInt(2, localId(messageId));
+            preparedStatement.setLong(3, expectedVersion);
+
+            return readVersionedMessage(preparedStatement, shard);
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves the messages with the given IDs from the database in a single query per shard, looking the IDs
+     * that were not found up in the archive. IDs that no longer exist are silently skipped.
+     * @param messageIds The IDs of the messages to retrieve.
+     * @return A list of the messages that were found, in no particular order.
+     */
+    @Override
+    @SuppressWarnings("try")
+    public List<Message> getMessagesByIds(List<Integer> messageIds){
+        List<Message> messages = new ArrayList<>();
+        String query = "SELECT * FROM message WHERE message_id = ANY(?)";
+
+        try(QueryDeadline deadline = QueryDeadline.start("MessageDAO.getMessagesByIds")){
+            for(Map.Entry<Integer, List<Integer>> shardIds : groupByShard(messageIds, true).entrySet()){
+                int shard = shardIds.getKey();
+                Connection connection = connections[shard];
+                try(PreparedStatement preparedStatement = connection.prepareStatement(query)){
+                    preparedStatement.setArray(1, connection.createArrayOf("INTEGER", shardIds.getValue().toArray()));
+
+                    messages.addAll(readMessages(preparedStatement, shard));
+                }catch(SQLException e){
+                    e.printStackTrace();
+                }
+            }
+        }
+        if(!archive.isEmpty() && messages.size() < messageIds.size()){
+            Set<Integer> missing = new HashSet<>(messageIds);
+            for(Message message : messages){
+                missing.remove(message.getMessage_id());
+            }
+            messages.addAll(archive.getMessagesByIds(missing));
+        }
+        return messages;
+    }
+
+    /**
+     * Retrieves the most recent messages posted by any of the given users, newest first. The shards of the users
+     * are queried in parallel and their results merged.
+     * @param accountIds The IDs of the accounts whose messages are to be retrieved.
+     * @param limit The maximum number of messages to return.
+     * @return Up to limit messages ordered by time_posted_epoch and then message_id, both descending.
+     */
+    @Override
+    public List<Message> getRecentMessagesFromUsers(List<Integer> accountIds, int limit){
+        if(accountIds.isEmpty() || limit <= 0){
+            return new ArrayList<>();
+        }
+        Map<Integer, List<Integer>> accountIdsByShard = groupByShard(accountIds, false);
+        List<Integer> shards = new ArrayList<>(accountIdsByShard.keySet());
+        if(shards.size() == 1){
+            return getRecentMessagesFromUsers(shards.get(0), accountIdsByShard.get(shards.get(0)), limit);
+        }
+        return merge(scatter(shards.size(),
+                index -> getRecentMessagesFromUsers(shards.get(index), accountIdsByShard.get(shards.get(index)), limit)),
+                NEWEST_FIRST, limit);
+    }
+
+    /**
+     * Retrieves the most recently created messages from the tables of every shard, merged by global message ID.
+     * The archive is not read, as it only holds old messages.
+     * @param limit The maximum number of messages to return.
+     * @return Up to limit messages ordered by message_id, descending.
+     */
+    @Override
+    public List<Message> getLatestMessages(int limit){
+        if(limit <= 0){
+            return new ArrayList<>();
+        }
+        if(connections.length == 1){
+            return getLatestMessages(0, limit);
+        }
+        return merge(scatter(connections.length, shard -> getLatestMessages(shard, limit)), LATEST_FIRST, limit);
+    }
+
+    /**
+     * Retrieves a list of messages posted by a specific user from the database of the user's shard, after the
+     * user's archived messages.
      * @param accountId The ID of the account whose messages are to be retrieved.
      * @return A list of messages posted by the specified user, or an empty list if no messages were found.
      */
+    @Override
+    @SuppressWarnings("try")
     public List<Message> getAllMessagesFromUser(int accountId){
-        List<Message> messages = new ArrayList<Message>();
         String query = "SELECT * FROM message WHERE posted_by = ?";
+        int shard = shardOfAccount(accountId);
 
-        try(PreparedStatement preparedStatement = connection.prepareStatement(query)){
+        try(QueryDeadline deadline = QueryDeadline.start("MessageDAO.getAllMessagesFromUser");
+                PreparedStatement preparedStatement = connections[shard].prepareStatement(query)){
             preparedStatement.setInt(1, accountId);
 
-            try(ResultSet resultSet = preparedStatement.executeQuery()){
-                while(resultSet.next()){
-                    int message_id = resultSet.getInt("message_id");
-                    int posted_by = resultSet.getInt("posted_by");
-                    String message_text = resultSet.getString("message_text");
-                    long time_posted_epoch = resultSet.getLong("time_posted_epoch");
+            List<Message> messages = readMessages(preparedStatement, shard);
+            if(archive.isEmpty()){
+                return messages;
+            }
+            List<Message> archived = notInTable(archive.getMessagesFromUser(accountId), messages);
+            archived.addAll(messages);
+            return archived;
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+        return new ArrayList<Message>();
+    }
+
+    /**
+     * Moves every message posted before a time from the tables to the archive, one segment of up to 100,000
+     * messages at a time. A segment is on disk before its messages are deleted, and a message edited in between
+     * stays in the table, whose copy wins over the archived one. A message deleted in between is no longer in the
+     * table once the segment is written, so it is deleted from the archive too.
+     * @param cutoffEpoch Messages with a smaller time_posted_epoch are archived.
+     * @return The number of messages moved.
+     */
+    public int archiveMessagesBefore(long cutoffEpoch){
+        String selectQuery = "SELECT * FROM message WHERE time_posted_epoch < ? AND message_id > ? ORDER BY message_id LIMIT ?";
+        String deleteQuery = "DELETE FROM message WHERE message_id = ? AND message_text IS NOT DISTINCT FROM ?";
+        int moved = 0;
 
-                    messages.add(new Message(message_id, posted_by, message_text, time_posted_epoch));
+        for(int shard = 0; shard < connections.length; shard++){
+            int lastLocalId = 0;
+            while(true){
+                List<Message> messages;
+                try(PreparedStatement preparedStatement = connections[shard].prepareStatement(selectQuery)){
+                    preparedStatement.setLong(1, cutoffEpoch);
+                    preparedStatement.setInt(2, lastLocalId);
+                    preparedStatement.setInt(3, ARCHIVE_SEGMENT_ROWS);
+                    messages = readMessages(preparedStatement, shard);
+                }catch(SQLException e){
+                    e.printStackTrace();
+                    break;
+                }
+                if(messages.isEmpty()){
+                    break;
                 }
+                try{
+                    archive.append(messages);
+                }catch(IOException e){
+                    throw new UncheckedIOException("Could not write an archive segment", e);
+                }
+                List<Message> notMoved = new ArrayList<>();
+                try(PreparedStatement preparedStatement = connections[shard].prepareStatement(deleteQuery)){
+                    for(Message message : messages){
+                        preparedStatement.setInt(1, localId(message.getMessage_id()));
+                        preparedStatement.setString(2, message.getMessage_text());
+                        preparedStatement.addBatch();
+                    }
+                    int[] rowsAffected = preparedStatement.executeBatch();
+                    for(int i = 0; i < rowsAffected.length; i++){
+                        moved += rowsAffected[i];
+                        if(rowsAffected[i] == 0){
+                            notMoved.add(messages.get(i));
+                        }
+                    }
+                }catch(SQLException e){
+                    e.printStackTrace();
+                    break;
+                }
+                // The messages left behind were edited or deleted since the select; drop the deleted ones
+                for(Message message : notMoved){
+                    if(getTableMessageById(message.getMessage_id()) == null){
+                        archive.delete(message.getMessage_id());
+                    }
+                }
+                lastLocalId = localId(messages.get(messages.size() - 1).getMessage_id());
+                if(messages.size() < ARCHIVE_SEGMENT_ROWS){
+                    break;
+                }
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Drops the archived copies of messages that the tables still hold, as the table's copy is the latest.
+     * @param archived The archived messages.
+     * @param table The messages read from the tables.
+     * @return The remaining archived messages, in their original order.
+     */
+    private static List<Message> notInTable(List<Message> archived, List<Message> table){
+        Set<Integer> tableIds = new HashSet<>();
+        for(Message message : table){
+            tableIds.add(message.getMessage_id());
+        }
+        List<Message> messages = new ArrayList<>(archived.size());
+        for(Message message : archived){
+            if(!tableIds.contains(message.getMessage_id())){
+                messages.add(message);
             }
+        }
+        return messages;
+    }
+
+    /**
+     * Retrieves every message of one shard.
+     */
+    @SuppressWarnings("try")
+    private List<Message> getAllMessages(int shard, String query){
+        try(QueryDeadline deadline = QueryDeadline.start("MessageDAO.getAllMessages");
+                PreparedStatement preparedStatement = connections[shard].prepareStatement(query)){
+            return readMessages(preparedStatement, shard);
         }catch(SQLException e){
             e.printStackTrace();
         }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Retrieves the most recent messages of one shard posted by any of the given users, newest first.
+     */
+    @SuppressWarnings("try")
+    private List<Message> getRecentMessagesFromUsers(int shard, List<Integer> accountIds, int limit){
+        String query = "SELECT * FROM message WHERE posted_by = ANY(?) ORDER BY time_posted_epoch DESC, message_id DESC LIMIT ?";
+        Connection connection = connections[shard];
+
+        try(QueryDeadline deadline = QueryDeadline.start("MessageDAO.getRecentMessagesFromUsers");
+                PreparedStatement preparedStatement = connection.prepareStatement(query)){
+            preparedStatement.setArray(1, connection.createArrayOf("INTEGER", accountIds.toArray()));
+            preparedStatement.setInt(2, limit);
+
+            return readMessages(preparedStatement, shard);
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Retrieves the most recently created messages of one shard, newest first. Local IDs grow with their global
+     * IDs, so the order holds for both.
+     */
+    @SuppressWarnings("try")
+    private List<Message> getLatestMessages(int shard, int limit){
+        String query = "SELECT * FROM message ORDER BY message_id DESC LIMIT ?";
+
+        try(QueryDeadline deadline = QueryDeadline.start("MessageDAO.getLatestMessages");
+                PreparedStatement preparedStatement = connections[shard].prepareStatement(query)){
+            preparedStatement.setInt(1, limit);
+
+            return readMessages(preparedStatement, shard);
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Runs a query and reads the messages it returns, giving them their global message IDs.
+     */
+    private List<Message> readMessages(PreparedStatement preparedStatement, int shard) throws SQLException {
+        List<Message> messages = new ArrayList<>();
+        try(ResultSet resultSet = preparedStatement.executeQuery()){
+            while(resultSet.next()){
+                int message_id = globalId(resultSet.getInt("message_id"), shard);
+                int posted_by = resultSet.getInt("posted_by");
+                String message_text = resultSet.getString("message_text");
+                long time_posted_epoch = resultSet.getLong("time_posted_epoch");
+
+                messages.add(new Message(message_id, posted_by, message_text, time_posted_epoch));
+            }
+        }
         return messages;
-    }  
+    }
+
+    /**
+     * Runs a query for at most one message and reads it with its version, giving it its global message ID.
+     */
+    private Versioned<Message> readVersionedMessage(PreparedStatement preparedStatement, int shard) throws SQLException {
+        try(ResultSet resultSet = preparedStatement.executeQuery()){
+            if(resultSet.next()){
+                Message message = new Message(globalId(resultSet.getInt("message_id"), shard), resultSet.getInt("posted_by"),
+                        resultSet.getString("message_text"), resultSet.getLong("time_posted_epoch"));
+                return new Versioned<>(message, resultSet.getLong("version"));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits account or message IDs by the shard they belong to, translating message IDs to local ones.
+     */
+    private Map<Integer, List<Integer>> groupByShard(List<Integer> ids, boolean messageIds){
+        Map<Integer, List<Integer>> idsByShard = new LinkedHashMap<>();
+        for(int id : ids){
+            int shard = messageIds ? shardOfMessage(id) : shardOfAccount(id);
+            idsByShard.computeIfAbsent(shard, key -> new ArrayList<>()).add(messageIds ? localId(id) : id);
+        }
+        return idsByShard;
+    }
+
+    /**
+     * Runs one query per shard in parallel.
+     * @param count The number of queries.
+     * @param query Runs the query with the given index.
+     * @return The results of the queries, in index order.
+     */
+    private static List<List<Message>> scatter(int count, IntFunction<List<Message>> query){
+        List<CompletableFuture<List<Message>>> futures = new ArrayList<>();
+        for(int index = 0; index < count; index++){
+            int queryIndex = index;
+            // The queries read from the same replica as the caller, if it reads from one
+            futures.add(CompletableFuture.supplyAsync(Replication.propagate(() -> query.apply(queryIndex)), getShardExecutor()));
+        }
+        List<List<Message>> results = new ArrayList<>();
+        for(CompletableFuture<List<Message>> future : futures){
+            try{
+                results.add(future.join());
+            }catch(CompletionException e){
+                // Rethrow what the query threw, eg a RejectedExecutionException of the concurrency limiter
+                if(e.getCause() instanceof RuntimeException){
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Merges lists that are each sorted in the same order, k-way, keeping at most limit messages.
+     */
+    private static List<Message> merge(List<List<Message>> sortedLists, Comparator<Message> order, int limit){
+        // Each entry is a list index and a position in that list, ordered by the message at that position
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) -> order.compare(
+                sortedLists.get(a[0]).get(a[1]), sortedLists.get(b[0]).get(b[1])));
+        int total = 0;
+        for(int list = 0; list < sortedLists.size(); list++){
+            total += sortedLists.get(list).size();
+            if(!sortedLists.get(list).isEmpty()){
+                heads.add(new int[]{list, 0});
+            }
+        }
+        List<Message> merged = new ArrayList<>(Math.min(total, limit));
+        while(!heads.isEmpty() && merged.size() < limit){
+            int[] head = heads.poll();
+            List<Message> list = sortedLists.get(head[0]);
+            merged.add(list.get(head[1]));
+            if(++head[1] < list.size()){
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @param messageId A global message ID.
+     * @param shardCount The number of shards.
+     * @return The shard holding the message.
+     */
+    public static int shardOfMessageId(int messageId, int shardCount){
+        return Math.floorMod(messageId - 1, shardCount);
+    }
+
+    /**
+     * @param messageId A global message ID.
+     * @param shardCount The number of shards.
+     * @return The message's ID within its shard.
+     */
+    public static int localMessageId(int messageId, int shardCount){
+        return Math.floorDiv(messageId - 1, shardCount) + 1;
+    }
+
+    /**
+     * @param localId A message's ID within its shard.
+     * @param shard The shard holding the message.
+     * @param shardCount The number of shards.
+     * @return The global message ID.
+     */
+    public static int globalMessageId(int localId, int shard, int shardCount){
+        return (localId - 1) * shardCount + shard + 1;
+    }
+
+    /**
+     * @param accountId The ID of a poster.
+     * @return The shard the poster's messages are inserted into.
+     */
+    public int shardOfPoster(int accountId){
+        return shardOfAccount(accountId);
+    }
+
+    private int shardOfAccount(int accountId){
+        return Math.floorMod(accountId - 1, connections.length);
+    }
+
+    private int shardOfMessage(int messageId){
+        return shardOfMessageId(messageId, connections.length);
+    }
+
+    private int localId(int messageId){
+        return localMessageId(messageId, connections.length);
+    }
+
+    private int globalId(int localId, int shard){
+        return globalMessageId(localId, shard, connections.length);
+    }
+
+    /**
+     * Starts the background thread that archives messages older than the "archive.maxAgeSeconds" system
+     * property, every "archive.intervalMillis" (default one minute), unless the property is unset or the thread
+     * is already running.
+     */
+    private static synchronized void startArchiver(MessageDAO messageDao){
+        Long maxAgeSeconds = Long.getLong("archive.maxAgeSeconds");
+        if(archiver != null || maxAgeSeconds == null){
+            return;
+        }
+        archiver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = Long.getLong("archive.intervalMillis", 60_000);
+        archiver.scheduleWithFixedDelay(() -> {
+            try{
+                messageDao.archiveMessagesBefore(System.currentTimeMillis() / 1000 - maxAgeSeconds);
+            }catch(RuntimeException e){
+                e.printStackTrace();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ExecutorService getShardExecutor(){
+        if(shardExecutor == null){
+            shardExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "message-shard-query");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return shardExecutor;
+    }
 }
@@ -0,0 +1,97 @@
+package DAO;
+
+import java.util.List;
+
+import Model.Message;
+import Model.Versioned;
+
+/**
+ * The MessageRepository interface defines how messages are stored, independently of the storage engine.
+ * {@link MessageDAO} implements it over the database; the in-memory engine implements it over concurrent maps.
+ * Use {@link Repositories} to obtain the implementation selected at startup.
+ */
+public interface MessageRepository {
+
+    /**
+     * Inserts a new message.
+     * @param message The message to be inserted.
+     * @return The inserted message with its generated message ID, or null if insertion fails.
+     */
+    Message insertMessage(Message message);
+
+    /**
+     * Retrieves a list of all messages.
+     * @return A list containing all messages, in message ID order. Only the jdbc engine with several message
+     * shards, whose IDs interleave the shards, orders them by time_posted_epoch and message_id instead.
+     */
+    List<Message> getAllMessages();
+
+    /**
+     * Retrieves a specific message based on its message ID.
+     * @param messageId The ID of the message to retrieve.
+     * @return The message with the specified message ID, or null if not found.
+     */
+    Message getMessageById(int messageId);
+
+    /**
+     * Deletes a message based on its message ID.
+     * @param messageId The ID of the message to delete.
+     * @return The deleted message, or null if the message was not found or the deletion failed.
+     */
+    Message deleteMessageById(int messageId);
+
+    /**
+     * Retrieves a specific message with its version.
+     * @param messageId The ID of the message to retrieve.
+     * @return The message and its version, or null if not found.
+     */
+    Versioned<Message> getVersionedMessageById(int messageId);
+
+    /**
+     * Updates the message text of an existing message based on its message ID, incrementing its version.
+     * @param messageId The ID of the message to update.
+     * @param updatedMessage The updated message object containing the new message text.
+     * @return The updated message, or null if the message was not found or the update failed.
+     */
+    Message updateMessage(int messageId, Message updatedMessage);
+
+    /**
+     * Updates the message text of an existing message only if its version is still the expected one, as a
+     * single atomic compare-and-set, incrementing its version.
+     * @param messageId The ID of the message to update.
+     * @param updatedMessage The updated message object containing the new message text.
+     * @param expectedVersion The version the message was read at.
+     * @return The updated message and its new version, or null if the message was not found, has another
+     * version, or the update failed.
+     */
+    Versioned<Message> updateMessageIfVersion(int messageId, Message updatedMessage, long expectedVersion);
+
+    /**
+     * Retrieves the messages with the given IDs. IDs that no longer exist are silently skipped.
+     * @param messageIds The IDs of the messages to retrieve.
+     * @return A list of the messages that were found, in no particular order.
+     */
+    List<Message> getMessagesByIds(List<Integer> messageIds);
+
+    /**
+     * Retrieves the most recent messages posted by any of the given users, newest first.
+     * @param accountIds The IDs of the accounts whose messages are to be retrieved.
+     * @param limit The maximum number of messages to return.
+     * @return Up to limit messages ordered by time_posted_epoch and then message_id, both descending.
+     */
+    List<Message> getRecentMessagesFromUsers(List<Integer> accountIds, int limit);
+
+    /**
+     * Retrieves the most recently created messages, eg to warm caches with at startup.
+     * @param limit The maximum number of messages to return.
+     * @return Up to limit messages ordered by message_id, descending.
+     */
+    List<Message> getLatestMessages(int limit);
+
+    /**
+     * Retrieves a list of messages posted by a specific user.
+     * @param accountId The ID of the account whose messages are to be retrieved.
+     * @return A list of messages posted by the specified user, or an empty list if no messages were found.
+     */
+    List<Message> getAllMessagesFromUser(int accountId);
+}
@@ -0,0 +1,62 @@
+package DAO;
+
+import LogStore.LogMessageRepository;
+import Memory.MemoryEngine;
+
+/**
+ * The Repositories class selects the storage engine at startup and hands out its repositories.
+ *
+ * The engine is chosen with the "storage.engine" system property: "jdbc" (the default) stores everything in the
+ * database through the DAO classes, "memory" keeps everything in the process with {@link MemoryEngine}, and
+ * "log" stores messages in the append-only {@link LogMessageRepository} and everything else in the database.
+ * The in-memory and log repositories are shared singletons, so every service sees the same data.
+ */
+public class Repositories {
+    /**
+     * The engine used when the "storage.engine" property is not set.
+     */
+    public static final String DEFAULT_ENGINE = "jdbc";
+
+    /**
+     * @return The message repository of the selected engine.
+     */
+    public static MessageRepository getMessageRepository(){
+        switch(getEngine()){
+            case "memory":
+                return MemoryEngine.getEngine().getMessageRepository();
+            case "log":
+                return LogMessageRepository.getRepository();
+            default:
+                return new MessageDAO();
+        }
+    }
+
+    /**
+     * @return The account repository of the selected engine.
+     */
+    public static AccountRepository getAccountRepository(){
+        return getEngine().equals("memory") ? MemoryEngine.getEngine().getAccountRepository() : new AccountDAO();
+    }
+
+    /**
+     * @return The follow repository of the selected engine.
+     */
+    public static FollowRepository getFollowRepository(){
+        return getEngine().equals("memory") ? MemoryEngine.getEngine().getFollowRepository() : new FollowDAO();
+    }
+
+    /**
+     * @return The name of the selected engine.
+     */
+    public static String getEngineName(){
+        return System.getProperty("storage.engine", DEFAULT_ENGINE);
+    }
+
+    private static String getEngine(){
+        String engine = getEngineName();
+        if(!engine.equals(DEFAULT_ENGINE) && !engine.equals("memory") && !engine.equals("log")){
+            throw new IllegalArgumentException("Unknown storage.engine " + engine + ", expected jdbc, memory or log");
+        }
+        return engine;
+    }
+}
@@ -0,0 +1,73 @@
+package Events;
+
+/**
+ * One slot of an {@link EventBus} ring: a change to a message or an account, published after it was committed.
+ *
+ * Slots are allocated once with the ring and overwritten as it wraps, so the bus allocates nothing per event.
+ * A handler may read an event only while it is handling it; to keep any part of it, copy it out.
+ * @param <T> The type of the changed entity.
+ */
+public class ChangeEvent<T> {
+    /**
+     * The kind of change.
+     */
+    public enum Type {
+        CREATED,
+        UPDATED,
+        DELETED
+    }
+
+    private long sequence;
+    private Type type;
+    private int key;
+    private T entity;
+
+    /**
+     * Fills the slot for a new event. Only the publisher that claimed the sequence calls this.
+     */
+    void set(long sequence, Type type, int key, T entity){
+        this.sequence = sequence;
+        this.type = type;
+        this.key = key;
+        this.entity = entity;
+    }
+
+    /**
+     * @return The position of the event on its bus, counting from 0; every consumer sees the events of a key in
+     * increasing sequence order.
+     */
+    public long getSequence(){
+        return sequence;
+    }
+
+    /**
+     * @return Whether the entity was created, updated or deleted.
+     */
+    public Type getType(){
+        return type;
+    }
+
+    /**
+     * @return The ID of the changed entity, which orders and partitions delivery.
+     */
+    public int getKey(){
+        return key;
+    }
+
+    /**
+     * @return The entity after the change, or as it was before being deleted.
+     */
+    public T getEntity(){
+        return entity;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent{" +
+                "sequence=" + sequence +
+                ", type=" + type +
+                ", key=" + key +
+                ", entity=" + entity +
+                '}';
+    }
+}
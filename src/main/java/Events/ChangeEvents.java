@@ -0,0 +1,32 @@
+package Events;
+
+import Model.Account;
+import Model.Message;
+
+/**
+ * The ChangeEvents class holds the event buses on which the services publish their committed writes, so that
+ * caches, counters, indexes and live feeds can follow them without the services knowing about them. This class
+ * utilizes the singleton design pattern, like MetricsRegistry, so that every service publishes to the same buses.
+ *
+ * The rings hold "events.capacity" slots each (default 4096), so a consumer may fall that many events behind
+ * before publishers wait for it.
+ */
+public class ChangeEvents {
+    private static final int capacity = Integer.getInteger("events.capacity", 4096);
+    private static final EventBus<Message> messageEvents = new EventBus<>("messages", capacity);
+    private static final EventBus<Account> accountEvents = new EventBus<>("accounts", capacity);
+
+    /**
+     * @return The bus of message creations, updates and deletions, keyed by message ID.
+     */
+    public static EventBus<Message> getMessageEvents(){
+        return messageEvents;
+    }
+
+    /**
+     * @return The bus of account creations, keyed by account ID.
+     */
+    public static EventBus<Account> getAccountEvents(){
+        return accountEvents;
+    }
+}
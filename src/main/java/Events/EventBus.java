@@ -0,0 +1,303 @@
+package Events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import Metrics.MetricsRegistry;
+
+/**
+ * The EventBus class delivers change events from any number of publishers to any number of consumers through a
+ * preallocated ring of {@link ChangeEvent} slots, in the style of the LMAX Disruptor.
+ *
+ * A publisher claims the next sequence with one atomic increment, fills the slot it maps to and marks the slot
+ * published for that lap of the ring; there are no locks and no allocation per event. Every consumer runs on
+ * its own thread with its own cursor, the last sequence it has handled, and reads straight from the ring, so a
+ * slow consumer does not hold up the others. A consumer with several workers splits the events by key, each
+ * worker handling the keys that hash to it, so events are handled in parallel yet in order for any one key.
+ *
+ * A publisher never overwrites a slot that a consumer has not handled yet: when the ring is full it waits for
+ * the slowest consumer, which is counted as backpressure. Idle consumers spin briefly, then park until a
+ * publisher wakes them.
+ * @param <T> The type of the changed entities.
+ */
+public class EventBus<T> {
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String name;
+    private final ChangeEvent<T>[] slots;
+    private final int mask;
+    private final int shift;
+    // The lap of the ring each slot was last published in, or -1
+    private final AtomicIntegerArray publishedLaps;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final List<Worker> workers = new CopyOnWriteArrayList<>();
+    // The slowest consumer's cursor when it was last read, so publishers rarely scan every cursor
+    private volatile long gatingSequence = -1;
+    private final LongAdder publishedEvents;
+    private final LongAdder publishWaits;
+
+    /**
+     * Creates a bus and registers its metrics.
+     * @param name The name of the bus, used in metrics and thread names.
+     * @param capacity The number of slots in the ring, rounded up to a power of two.
+     */
+    public EventBus(String name, int capacity){
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.name = name;
+        this.slots = newSlots(size);
+        for(int i = 0; i < size; i++){
+            slots[i] = new ChangeEvent<>();
+        }
+        this.mask = size - 1;
+        this.shift = Integer.numberOfTrailingZeros(size);
+        this.publishedLaps = new AtomicIntegerArray(size);
+        for(int i = 0; i < size; i++){
+            publishedLaps.set(i, -1);
+        }
+
+        MetricsRegistry registry = MetricsRegistry.getRegistry();
+        String labels = MetricsRegistry.labels("bus", name);
+        this.publishedEvents = registry.counter("event_bus_published_total", "Change events published.", labels);
+        this.publishWaits = registry.counter("event_bus_publish_waits_total", "Publishes that waited for a consumer because the ring was full.", labels);
+        registry.gauge("event_bus_capacity", "Slots in the ring of the change event bus.", labels, () -> size);
+        registry.gauge("event_bus_remaining_capacity", "Slots publishers can claim before waiting for the slowest consumer.", labels,
+                () -> size - (claimed.get() - minimumCursor(claimed.get())));
+    }
+
+    /**
+     * Publishes an event, waiting while the ring is full. Call it only after the change has been committed.
+     * @param type Whether the entity was created, updated or deleted.
+     * @param key The ID of the entity.
+     * @param entity The entity after the change, or as it was before being deleted.
+     */
+    public void publish(ChangeEvent.Type type, int key, T entity){
+        long sequence = claimed.incrementAndGet();
+        long wrapPoint = sequence - slots.length;
+        if(wrapPoint > gatingSequence){
+            long minimum = minimumCursor(sequence);
+            if(wrapPoint > minimum){
+                publishWaits.increment();
+                while(wrapPoint > (minimum = minimumCursor(sequence))){
+                    LockSupport.parkNanos(1000);
+                }
+            }
+            gatingSequence = minimum;
+        }
+        int index = (int) sequence & mask;
+        slots[index].set(sequence, type, key, entity);
+        // A volatile write, so that a worker that parks after missing it is seen parked below
+        publishedLaps.set(index, (int) (sequence >>> shift));
+        publishedEvents.increment();
+        for(Worker worker : workers){
+            if(worker.parked){
+                LockSupport.unpark(worker.thread);
+            }
+        }
+    }
+
+    /**
+     * Starts a consumer that handles every event after the ones already published, one at a time, in sequence
+     * order.
+     * @param consumerName The name of the consumer, used in metrics and thread names.
+     * @param handler Handles an event; exceptions are printed and the event is skipped.
+     * @return The subscription, to close when the consumer is no longer needed.
+     */
+    public Subscription subscribe(String consumerName, Consumer<ChangeEvent<T>> handler){
+        return subscribe(consumerName, 1, handler);
+    }
+
+    /**
+     * Starts a consumer that handles every event after the ones already published, on several threads. The events
+     * of one key are always handled by the same thread, in sequence order.
+     * @param consumerName The name of the consumer, used in metrics and thread names.
+     * @param parallelism The number of threads.
+     * @param handler Handles an event; exceptions are printed and the event is skipped.
+     * @return The subscription, to close when the consumer is no longer needed.
+     */
+    public synchronized Subscription subscribe(String consumerName, int parallelism, Consumer<ChangeEvent<T>> handler){
+        // The workers gate publishers from a sequence no later than the start before the start is read, so that
+        // no publisher can wrap the ring past the start in between
+        long gate = claimed.get();
+        List<Worker> consumerWorkers = new ArrayList<>();
+        for(int partition = 0; partition < parallelism; partition++){
+            consumerWorkers.add(new Worker(consumerName, partition, parallelism, handler, gate));
+        }
+        workers.addAll(consumerWorkers);
+        long start = claimed.get();
+        for(Worker worker : consumerWorkers){
+            worker.cursor.set(start);
+        }
+        Subscription subscription = new Subscription(consumerWorkers);
+        MetricsRegistry.getRegistry().gauge("event_bus_consumer_lag", "Events published but not yet handled by a consumer.",
+                MetricsRegistry.labels("bus", name, "consumer", consumerName), subscription::getLag);
+        for(Worker worker : consumerWorkers){
+            worker.thread.start();
+        }
+        return subscription;
+    }
+
+    /**
+     * @return The sequence of the last event claimed by a publisher, or -1 if there has been none.
+     */
+    public long getPublishedSequence(){
+        return claimed.get();
+    }
+
+    /**
+     * @return The number of slots in the ring.
+     */
+    public int getCapacity(){
+        return slots.length;
+    }
+
+    /**
+     * @return The number of publishes that had to wait for a consumer.
+     */
+    public long getPublishWaits(){
+        return publishWaits.sum();
+    }
+
+    /**
+     * @return The smallest cursor of any worker, or the given sequence if there are none.
+     */
+    private long minimumCursor(long sequence){
+        long minimum = sequence;
+        for(Worker worker : workers){
+            minimum = Math.min(minimum, worker.cursor.get());
+        }
+        return minimum;
+    }
+
+    private boolean isPublished(long sequence){
+        return publishedLaps.get((int) sequence & mask) == (int) (sequence >>> shift);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ChangeEvent<T>[] newSlots(int length){
+        return (ChangeEvent<T>[]) new ChangeEvent<?>[length];
+    }
+
+    /**
+     * A consumer started with subscribe.
+     */
+    public class Subscription implements AutoCloseable {
+        private final List<Worker> consumerWorkers;
+
+        private Subscription(List<Worker> consumerWorkers){
+            this.consumerWorkers = consumerWorkers;
+        }
+
+        /**
+         * @return The number of events published that the slowest worker of this consumer has not handled yet.
+         */
+        public long getLag(){
+            long lag = 0;
+            for(Worker worker : consumerWorkers){
+                if(worker.running.get()){
+                    lag = Math.max(lag, claimed.get() - worker.cursor.get());
+                }
+            }
+            return lag;
+        }
+
+        /**
+         * Waits until this consumer has handled every event published so far.
+         * @param timeoutMillis The longest time to wait.
+         * @return false if the timeout passed first.
+         * @throws InterruptedException if the thread is interrupted while waiting.
+         */
+        public boolean awaitCaughtUp(long timeoutMillis) throws InterruptedException {
+            long target = claimed.get();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            for(Worker worker : consumerWorkers){
+                while(worker.cursor.get() < target){
+                    if(System.nanoTime() > deadline){
+                        return false;
+                    }
+                    Thread.sleep(1);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Stops the consumer's threads after the events they are handling, and stops publishers from waiting for it.
+         */
+        @Override
+        public void close(){
+            for(Worker worker : consumerWorkers){
+                worker.running.set(false);
+                workers.remove(worker);
+                LockSupport.unpark(worker.thread);
+            }
+        }
+    }
+
+    /**
+     * One thread of a consumer, following the ring with its own cursor.
+     */
+    private class Worker implements Runnable {
+        private final int partition;
+        private final int parallelism;
+        private final Consumer<ChangeEvent<T>> handler;
+        private final AtomicLong cursor;
+        private final AtomicBoolean running = new AtomicBoolean(true);
+        private final Thread thread;
+        private volatile boolean parked;
+
+        Worker(String consumerName, int partition, int parallelism, Consumer<ChangeEvent<T>> handler, long start){
+            this.partition = partition;
+            this.parallelism = parallelism;
+            this.handler = handler;
+            this.cursor = new AtomicLong(start);
+            this.thread = new Thread(this, "event-bus-" + name + "-" + consumerName + (parallelism > 1 ? "-" + partition : ""));
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run(){
+            long next = cursor.get() + 1;
+            int idle = 0;
+            while(running.get()){
+                long available = next - 1;
+                while(available < claimed.get() && isPublished(available + 1)){
+                    available++;
+                }
+                if(available < next){
+                    if(++idle < SPIN_TRIES){
+                        Thread.onSpinWait();
+                    }else{
+                        parked = true;
+                        if(!isPublished(next)){
+                            LockSupport.parkNanos(this, PARK_NANOS);
+                        }
+                        parked = false;
+                    }
+                    continue;
+                }
+                idle = 0;
+                for(long sequence = next; sequence <= available; sequence++){
+                    ChangeEvent<T> event = slots[(int) sequence & mask];
+                    if(parallelism == 1 || Math.floorMod(event.getKey(), parallelism) == partition){
+                        try{
+                            handler.accept(event);
+                        }catch(RuntimeException e){
+                            e.printStackTrace();
+                        }
+                    }
+                }
+                cursor.lazySet(available);
+                next = available + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package LogStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import DAO.AccountDAO;
+import DAO.AccountRepository;
+import DAO.MessageRepository;
+import Memory.IntArrayMap;
+import Memory.IntList;
+import Metrics.MetricsRegistry;
+import Model.Message;
+import Model.Versioned;
+import Util.ConnectionUtil;
+
+/**
+ * The LogMessageRepository class stores messages in an append-only log of memory-mapped segment files.
+ *
+ * Every insert and update appends a put record holding the message's full state, and every delete appends a
+ * tombstone; nothing is ever overwritten in place. An in-memory {@link OffsetIndex} maps each live message id
+ * to its latest record, and per-account id lists serve the per-user and feed queries. Reads by id are an index
+ * lookup and a decode straight from the mapped segment, and getAllMessages is a sequential scan of the segments.
+ *
+ * A background thread flushes the mapped pages once per maintenance interval and compacts sealed segments
+ * whose live bytes have dropped below the compaction ratio: live records are copied to the head of the log and
+ * the segment file is deleted. On startup the segments are replayed in order to rebuild the index; a record
+ * torn by a crash fails its checksum and ends the replay of its segment.
+ *
+ * Accounts stay in the database, which stands in for the foreign key from posted_by. This class utilizes the
+ * singleton design pattern, like ConnectionUtil, as only one writer may own the log directory.
+ */
+public class LogMessageRepository implements MessageRepository {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAX_TEXT_LENGTH = 255;
+    private static final Comparator<Message> NEWEST_FIRST = Comparator
+            .comparingLong(Message::getTime_posted_epoch)
+            .thenComparingInt(Message::getMessage_id)
+            .reversed();
+
+    private static LogMessageRepository repository = null;
+
+    private final File directory;
+    private final int segmentCapacity;
+    private final double compactionRatio;
+    private final AccountRepository accounts;
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final OffsetIndex index = new OffsetIndex();
+    private final IntArrayMap<IntList> messageIdsByAccount = new IntArrayMap<>();
+    private final AtomicInteger nextMessageId = new AtomicInteger(1);
+    // A lock rather than a monitor, so that virtual threads waiting on it or writing under it are not pinned
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final LongAdder compactions;
+    private volatile Segment head;
+
+    /**
+     * Opens the log in a directory, replaying any existing segments.
+     * @param directory The directory holding the segment files; it is created if needed.
+     * @param segmentCapacity The size of each segment file.
+     * @param compactionRatio The fraction of live bytes below which a sealed segment is compacted.
+     * @param accounts The accounts messages must be posted by.
+     * @throws IOException if the segments cannot be created or read.
+     */
+    public LogMessageRepository(File directory, int segmentCapacity, double compactionRatio, AccountRepository accounts) throws IOException {
+        this.directory = directory;
+        this.segmentCapacity = Math.max(segmentCapacity, Record.MAX_SIZE);
+        this.compactionRatio = compactionRatio;
+        this.accounts = accounts;
+        directory.mkdirs();
+        recover();
+
+        MetricsRegistry registry = MetricsRegistry.getRegistry();
+        this.compactions = registry.counter("log_store_compactions_total", "Segments compacted by the message log.", "");
+        registry.gauge("log_store_segments", "Segment files in the message log.", "", () -> segments.size());
+        registry.gauge("log_store_bytes", "Bytes written to the segments of the message log.", "",
+                () -> segments.values().stream().mapToLong(Segment::getWritePosition).sum());
+        registry.gauge("log_store_live_bytes", "Bytes of the message log held by live records.", "",
+                () -> segments.values().stream().mapToLong(Segment::getLiveBytes).sum());
+    }
+
+    /**
+     * @return The shared log, opened on first use in the directory named by the "log.dir" system property
+     * (default "./h2/message-log"), with "log.segmentBytes" (default 64 MiB), "log.compactionRatio" (default
+     * 0.5) and "log.maintenanceMillis" (default 1000).
+     */
+    public static synchronized LogMessageRepository getRepository(){
+        if(repository == null){
+            try{
+                repository = new LogMessageRepository(
+                        new File(System.getProperty("log.dir", "./h2/message-log")),
+                        Integer.getInteger("log.segmentBytes", 64 * 1024 * 1024),
+                        Double.parseDouble(System.getProperty("log.compactionRatio", "0.5")),
+                        new AccountDAO());
+            }catch(IOException e){
+                throw new UncheckedIOException("Could not open the message log", e);
+            }
+            repository.startMaintenance(Long.getLong("log.maintenanceMillis", 1000));
+            ConnectionUtil.addResetListener(repository::reset);
+        }
+        return repository;
+    }
+
+    @Override
+    public Message insertMessage(Message message){
+        if(message.getMessage_text() == null || message.getMessage_text().length() > MAX_TEXT_LENGTH
+                || !accounts.accountIdExists(message.getPosted_by())){
+            return null;
+        }
+        writeLock.lock();
+        try{
+            int messageId = nextMessageId.getAndIncrement();
+            put(new Message(messageId, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch()), 0);
+            messageIdsByAccount.computeIfAbsent(message.getPosted_by(), id -> new IntList()).add(messageId);
+            message.setMessage_id(messageId);
+        }finally{
+            writeLock.unlock();
+        }
+        return message;
+    }
+
+    @Override
+    public List<Message> getAllMessages(){
+        List<Message> messages = new ArrayList<>();
+        boolean ordered = true;
+        for(Segment segment : new ArrayList<>(segments.values())){
+            ByteBuffer view = segment.view();
+            int end = segment.getWritePosition();
+            for(int position = 0; position < end; position += Record.lengthAt(view, position)){
+                int messageId = Record.messageIdAt(view, position);
+                if(Record.typeAt(view, position) == Record.PUT
+                        && index.get(messageId) == OffsetIndex.offset(segment.getId(), position)){
+                    ordered &= messages.isEmpty() || messages.get(messages.size() - 1).getMessage_id() < messageId;
+                    messages.add(Record.messageAt(view, position));
+                }
+            }
+        }
+        // Updated and compacted messages are appended out of id order
+        if(!ordered){
+            messages.sort(Comparator.comparingInt(Message::getMessage_id));
+        }
+        return messages;
+    }
+
+    @Override
+    public Message getMessageById(int messageId){
+        while(true){
+            long offset = index.get(messageId);
+            if(offset < 0){
+                return null;
+            }
+            Segment segment = segments.get(OffsetIndex.segmentId(offset));
+            // A null segment was just compacted away, and the index already points at the copy
+            if(segment != null){
+                return Record.messageAt(segment.view(), OffsetIndex.position(offset));
+            }
+        }
+    }
+
+    @Override
+    public Message deleteMessageById(int messageId){
+        Message deletedMessage;
+        writeLock.lock();
+        try{
+            deletedMessage = getMessageById(messageId);
+            if(deletedMessage == null){
+                return null;
+            }
+            append(Record.tombstone(messageId));
+            superseded(index.remove(messageId));
+        }finally{
+            writeLock.unlock();
+        }
+        IntList messageIds = messageIdsByAccount.get(deletedMessage.getPosted_by());
+        if(messageIds != null){
+            messageIds.remove(messageId);
+        }
+        return deletedMessage;
+    }
+
+    @Override
+    public Versioned<Message> getVersionedMessageById(int messageId){
+        while(true){
+            long offset = index.get(messageId);
+            if(offset < 0){
+                return null;
+            }
+            Segment segment = segments.get(OffsetIndex.segmentId(offset));
+            if(segment != null){
+                ByteBuffer view = segment.view();
+                int position = OffsetIndex.position(offset);
+                return new Versioned<>(Record.messageAt(view, position), Record.versionAt(view, position));
+            }
+        }
+    }
+
+    @Override
+    public Message updateMessage(int messageId, Message updatedMessage){
+        Versioned<Message> updated = update(messageId, updatedMessage, -1);
+        return updated == null ? null : updated.getValue();
+    }
+
+    @Override
+    public Versioned<Message> updateMessageIfVersion(int messageId, Message updatedMessage, long expectedVersion){
+        return update(messageId, updatedMessage, expectedVersion);
+    }
+    @Override
+    public List<Message> getMessagesByIds(List<Integer> messageIds){
+        List<Message> messages = new ArrayList<>(messageIds.size());
+        for(int messageId : messageIds){
+            Message message = getMessageById(messageId);
+            if(message != null){
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public List<Message> getRecentMessagesFromUsers(List<Integer> accountIds, int limit){
+        if(accountIds.isEmpty() || limit <= 0){
+            return new ArrayList<>();
+        }
+        // Keep only the newest limit messages, with the oldest of them at the head to be evicted
+        PriorityQueue<Message> newest = new PriorityQueue<>(limit + 1, NEWEST_FIRST.reversed());
+        for(int accountId : accountIds){
+            for(Message message : getAllMessagesFromUser(accountId)){
+                newest.add(message);
+                if(newest.size() > limit){
+                    newest.poll();
+                }
+            }
+        }
+        List<Message> messages = new ArrayList<>(newest);
+        messages.sort(NEWEST_FIRST);
+        return messages;
+    }
+
+    @Override
+    public List<Message> getLatestMessages(int limit){
+        List<Message> messages = new ArrayList<>();
+        for(int messageId = nextMessageId.get() - 1; messageId > 0 && messages.size() < limit; messageId--){
+            Message message = getMessageById(messageId);
+            if(message != null){
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public List<Message> getAllMessagesFromUser(int accountId){
+        IntList messageIds = messageIdsByAccount.get(accountId);
+        List<Message> messages = new ArrayList<>();
+        if(messageIds == null){
+            return messages;
+        }
+        for(int messageId : messageIds.toArray()){
+            Message message = getMessageById(messageId);
+            if(message != null){
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Compacts every sealed segment whose share of live bytes is below the compaction ratio.
+     * @return The number of segments compacted.
+     */
+    public int compact(){
+        int compacted = 0;
+        for(Segment segment : new ArrayList<>(segments.values())){
+            if(segment != head && segment.getLiveBytes() < segment.getWritePosition() * compactionRatio){
+                compact(segment);
+                compacted++;
+            }
+        }
+        return compacted;
+    }
+
+    /**
+     * @return The number of segment files in the log.
+     */
+    public int getSegmentCount(){
+        return segments.size();
+    }
+
+    /**
+     * Deletes every segment and recreates the message inserted by the database script.
+     */
+    public void reset(){
+        writeLock.lock();
+        try{
+            for(Segment segment : segments.values()){
+                segment.delete();
+            }
+            segments.clear();
+            index.clear();
+            messageIdsByAccount.clear();
+            nextMessageId.set(1);
+            // Segment ids keep increasing, so offsets held by a running compaction can never match the new log
+            head = openSegment(head.getId() + 1);
+            seed();
+        }finally{
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Appends a put record with the new text and the next version of a message.
+     * @param expectedVersion The version the message must have, or -1 for any.
+     */
+    private Versioned<Message> update(int messageId, Message updatedMessage, long expectedVersion){
+        if(updatedMessage.getMessage_text() == null || updatedMessage.getMessage_text().length() > MAX_TEXT_LENGTH){
+            return null;
+        }
+        writeLock.lock();
+        try{
+            Versioned<Message> current = getVersionedMessageById(messageId);
+            if(current == null || expectedVersion >= 0 && current.getVersion() != expectedVersion){
+                return null;
+            }
+            Message updated = new Message(messageId, current.getValue().getPosted_by(), updatedMessage.getMessage_text(),
+                    current.getValue().getTime_posted_epoch());
+            put(updated, current.getVersion() + 1);
+            return new Versioned<>(updated, current.getVersion() + 1);
+        }finally{
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Appends a put record and points the index at it. Callers hold the write lock.
+     */
+    private void put(Message message, long version){
+        long offset = append(Record.put(message, version));
+        superseded(index.put(message.getMessage_id(), offset));
+        head.addLiveBytes(Record.lengthAt(head.view(), OffsetIndex.position(offset)));
+    }
+
+    /**
+     * Appends a record to the head segment, starting a new segment when it is full. Callers hold the write lock.
+     */
+    private long append(ByteBuffer record){
+        int position = head.append(record.duplicate());
+        if(position < 0){
+            head.force();
+            head = openSegment(head.getId() + 1);
+            position = head.append(record.duplicate());
+        }
+        return OffsetIndex.offset(head.getId(), position);
+    }
+
+    /**
+     * Stops counting a record that is no longer the latest for its message as live.
+     */
+    private void superseded(long offset){
+        if(offset < 0){
+            return;
+        }
+        Segment segment = segments.get(OffsetIndex.segmentId(offset));
+        if(segment != null){
+            segment.addLiveBytes(-Record.lengthAt(segment.view(), OffsetIndex.position(offset)));
+        }
+    }
+
+    /**
+     * Copies the live records of a sealed segment to the head of the log, one record per write lock so that
+     * writers are never held up for long, then deletes the segment.
+     */
+    private void compact(Segment segment){
+        boolean oldest = segments.firstKey() == segment.getId();
+        ByteBuffer view = segment.view();
+        int end = segment.getWritePosition();
+        for(int position = 0; position < end; position += Record.lengthAt(view, position)){
+            ByteBuffer record = view.duplicate();
+            record.limit(position + Record.lengthAt(view, position)).position(position);
+            int messageId = Record.messageIdAt(view, position);
+            writeLock.lock();
+            try{
+                if(Record.typeAt(view, position) == Record.PUT){
+                    if(index.get(messageId) == OffsetIndex.offset(segment.getId(), position)){
+                        long offset = append(record);
+                        index.put(messageId, offset);
+                        head.addLiveBytes(record.remaining());
+                    }
+                }else if(!oldest){
+                    // An older segment may still hold a put for this id, which the tombstone must keep hiding
+                    append(record);
+                }
+            }finally{
+                writeLock.unlock();
+            }
+        }
+        head.force();
+        segments.remove(segment.getId());
+        segment.delete();
+        compactions.increment();
+    }
+
+    /**
+     * Replays the segment files in order to rebuild the index, or starts an empty log.
+     */
+    private void recover() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        Arrays.sort(files == null ? new File[0] : files);
+        int highestMessageId = 0;
+        for(File file : files == null ? new File[0] : files){
+            int id = Integer.parseInt(file.getName().substring(SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(id, file, segmentCapacity);
+            segments.put(id, segment);
+            ByteBuffer view = segment.view();
+            int position = 0;
+            int size;
+            while((size = Record.sizeAt(view, position)) > 0){
+                int messageId = Record.messageIdAt(view, position);
+                highestMessageId = Math.max(highestMessageId, messageId);
+                if(Record.typeAt(view, position) == Record.PUT){
+                    superseded(index.put(messageId, OffsetIndex.offset(id, position)));
+                    segment.addLiveBytes(size);
+                }else{
+                    superseded(index.remove(messageId));
+                }
+                position += size;
+            }
+            segment.recoverWritePosition(position);
+        }
+
+        nextMessageId.set(highestMessageId + 1);
+        for(int messageId = 1; messageId <= highestMessageId; messageId++){
+            Message message = getMessageById(messageId);
+            if(message != null){
+                messageIdsByAccount.computeIfAbsent(message.getPosted_by(), id -> new IntList()).add(messageId);
+            }
+        }
+        if(segments.isEmpty()){
+            head = openSegment(0);
+            seed();
+        }else{
+            head = segments.lastEntry().getValue();
+        }
+    }
+
+    /**
+     * Writes the message inserted by the database script into an empty log.
+     */
+    private void seed(){
+        insertMessage(new Message(1, "test message 1", 1669947792));
+    }
+
+    private Segment openSegment(int id){
+        try{
+            Segment segment = new Segment(id, new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)), segmentCapacity);
+            segments.put(id, segment);
+            return segment;
+        }catch(IOException e){
+            throw new UncheckedIOException("Could not create a log segment", e);
+        }
+    }
+
+    /**
+     * Starts the background thread that flushes the head segment and compacts sealed segments.
+     */
+    private void startMaintenance(long intervalMillis){
+        ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-log-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(() -> {
+            try{
+                head.force();
+                compact();
+            }catch(RuntimeException e){
+                e.printStackTrace();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+}
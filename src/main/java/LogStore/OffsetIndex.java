@@ -0,0 +1,116 @@
+package LogStore;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The in-memory index of the message log: the position of the latest record of every live message, keyed by
+ * message id.
+ *
+ * Like the in-memory engine's maps, it is a directory of fixed-size chunks indexed directly by the (dense)
+ * message id, here of primitive longs, so lookups are lock-free and allocation-free. Positions are stored plus
+ * one, so that a zero slot means the message does not exist.
+ */
+class OffsetIndex {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+
+    /**
+     * Packs a record position.
+     * @param segmentId The segment holding the record.
+     * @param position The position of the record in the segment.
+     * @return The packed offset.
+     */
+    static long offset(int segmentId, int position){
+        return ((long) segmentId << 32) | position;
+    }
+
+    /**
+     * @return The segment id of a packed offset.
+     */
+    static int segmentId(long offset){
+        return (int) (offset >>> 32);
+    }
+
+    /**
+     * @return The position of a packed offset.
+     */
+    static int position(long offset){
+        return (int) offset;
+    }
+
+    /**
+     * @param messageId The message id.
+     * @return The offset of the message's latest record, or -1 if it does not exist.
+     */
+    long get(int messageId){
+        AtomicLongArray chunk = existingChunk(messageId);
+        return chunk == null ? -1 : chunk.get(messageId & CHUNK_MASK) - 1;
+    }
+
+    /**
+     * Points a message at a new record.
+     * @param messageId The message id, which must not be negative.
+     * @param offset The offset of the record.
+     * @return The previous offset, or -1 if the message did not exist.
+     */
+    long put(int messageId, long offset){
+        if(messageId < 0){
+            throw new IllegalArgumentException("Negative message id " + messageId);
+        }
+        AtomicLongArray chunk = existingChunk(messageId);
+        if(chunk == null){
+            chunk = grow(messageId >>> CHUNK_BITS);
+        }
+        return chunk.getAndSet(messageId & CHUNK_MASK, offset + 1) - 1;
+    }
+
+    /**
+     * Removes a message.
+     * @param messageId The message id.
+     * @return The previous offset, or -1 if the message did not exist.
+     */
+    long remove(int messageId){
+        AtomicLongArray chunk = existingChunk(messageId);
+        return chunk == null ? -1 : chunk.getAndSet(messageId & CHUNK_MASK, 0) - 1;
+    }
+
+    /**
+     * @return One more than the highest message id that may be indexed.
+     */
+    int keyLimit(){
+        return chunks.length * CHUNK_SIZE;
+    }
+
+    /**
+     * Removes every message.
+     */
+    synchronized void clear(){
+        chunks = new AtomicLongArray[0];
+    }
+
+    private AtomicLongArray existingChunk(int messageId){
+        if(messageId < 0){
+            return null;
+        }
+        AtomicLongArray[] directory = chunks;
+        int index = messageId >>> CHUNK_BITS;
+        return index < directory.length ? directory[index] : null;
+    }
+
+    private synchronized AtomicLongArray grow(int index){
+        AtomicLongArray[] directory = chunks;
+        if(index < directory.length){
+            return directory[index];
+        }
+        AtomicLongArray[] grown = new AtomicLongArray[Math.max(index + 1, directory.length * 2)];
+        System.arraycopy(directory, 0, grown, 0, directory.length);
+        for(int i = directory.length; i < grown.length; i++){
+            grown[i] = new AtomicLongArray(CHUNK_SIZE);
+        }
+        chunks = grown;
+        return grown[index];
+    }
+}
@@ -0,0 +1,137 @@
+package LogStore;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import Model.Message;
+
+/**
+ * The binary layout of one log record.
+ *
+ * A record is a header of the payload length and the CRC-32 of the payload, followed by the payload: a type byte,
+ * the message id, posted_by, time_posted_epoch, the length-prefixed UTF-8 message text and the message's version.
+ * A put record holds the full current state of a message; a tombstone only holds the id of a deleted message.
+ * Put records written before messages had versions end after the text, and read as version 0.
+ */
+class Record {
+    static final byte PUT = 1;
+    static final byte TOMBSTONE = 2;
+    static final int HEADER_SIZE = 8;
+    private static final int FIXED_PAYLOAD_SIZE = 1 + 4 + 4 + 8 + 2;
+    private static final int VERSION_SIZE = 8;
+    /**
+     * The largest record the store writes: the text is limited to 255 characters of up to 3 UTF-8 bytes each.
+     */
+    static final int MAX_SIZE = HEADER_SIZE + FIXED_PAYLOAD_SIZE + 255 * 3 + VERSION_SIZE;
+
+    /**
+     * Encodes a put record.
+     * @param message The message, with its id.
+     * @param version The version of the message.
+     * @return The record, ready to be appended.
+     */
+    static ByteBuffer put(Message message, long version){
+        byte[] text = message.getMessage_text().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + FIXED_PAYLOAD_SIZE + text.length + VERSION_SIZE);
+        record.position(HEADER_SIZE);
+        record.put(PUT).putInt(message.getMessage_id()).putInt(message.getPosted_by())
+                .putLong(message.getTime_posted_epoch()).putShort((short) text.length).put(text).putLong(version);
+        return seal(record);
+    }
+
+    /**
+     * Encodes a tombstone.
+     * @param messageId The id of the deleted message.
+     * @return The record, ready to be appended.
+     */
+    static ByteBuffer tombstone(int messageId){
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + FIXED_PAYLOAD_SIZE);
+        record.position(HEADER_SIZE);
+        record.put(TOMBSTONE).putInt(messageId).putInt(0).putLong(0).putShort((short) 0);
+        return seal(record);
+    }
+
+    /**
+     * @param view A segment view.
+     * @param position The position of a record.
+     * @return The total size of the record, or 0 if no valid record starts there.
+     */
+    static int sizeAt(ByteBuffer view, int position){
+        if(position + HEADER_SIZE > view.capacity()){
+            return 0;
+        }
+        int payloadLength = view.getInt(position);
+        if(payloadLength < FIXED_PAYLOAD_SIZE || position + HEADER_SIZE + payloadLength > view.capacity()){
+            return 0;
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer payload = view.duplicate();
+        payload.limit(position + HEADER_SIZE + payloadLength).position(position + HEADER_SIZE);
+        crc.update(payload);
+        return (int) crc.getValue() == view.getInt(position + 4) ? HEADER_SIZE + payloadLength : 0;
+    }
+
+    /**
+     * @param view A segment view.
+     * @param position The position of a record that is known to be valid.
+     * @return The total size of the record, without validating it.
+     */
+    static int lengthAt(ByteBuffer view, int position){
+        return HEADER_SIZE + view.getInt(position);
+    }
+
+    /**
+     * @return The type of the record at the position, {@link #PUT} or {@link #TOMBSTONE}.
+     */
+    static byte typeAt(ByteBuffer view, int position){
+        return view.get(position + HEADER_SIZE);
+    }
+
+    /**
+     * @return The message id of the record at the position.
+     */
+    static int messageIdAt(ByteBuffer view, int position){
+        return view.getInt(position + HEADER_SIZE + 1);
+    }
+
+    /**
+     * Decodes the message of a put record straight from the segment.
+     * @param view A segment view.
+     * @param position The position of a put record.
+     * @return The message.
+     */
+    static Message messageAt(ByteBuffer view, int position){
+        int payload = position + HEADER_SIZE;
+        int textLength = Short.toUnsignedInt(view.getShort(payload + 17));
+        byte[] text = new byte[textLength];
+        ByteBuffer textView = view.duplicate();
+        textView.position(payload + FIXED_PAYLOAD_SIZE);
+        textView.get(text);
+        return new Message(view.getInt(payload + 1), view.getInt(payload + 5),
+                new String(text, StandardCharsets.UTF_8), view.getLong(payload + 9));
+    }
+
+    /**
+     * @param view A segment view.
+     * @param position The position of a put record.
+     * @return The version of the message, 0 for records written before messages had versions.
+     */
+    static long versionAt(ByteBuffer view, int position){
+        int payload = position + HEADER_SIZE;
+        int versionPosition = payload + FIXED_PAYLOAD_SIZE + Short.toUnsignedInt(view.getShort(payload + 17));
+        return versionPosition + VERSION_SIZE <= payload + view.getInt(position) ? view.getLong(versionPosition) : 0;
+    }
+
+    /**
+     * Fills in the header of an encoded payload.
+     */
+    private static ByteBuffer seal(ByteBuffer record){
+        int payloadLength = record.position() - HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, payloadLength);
+        record.putInt(0, payloadLength).putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+}
@@ -0,0 +1,130 @@
+package LogStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One file of the message log, mapped into memory at a fixed capacity.
+ *
+ * Records are only ever appended, by one writer at a time, and become visible to readers when the write
+ * position is published. The unused tail of the file is zero, so a zero record length marks the end of the log
+ * when the segment is reopened.
+ */
+class Segment {
+    private final int id;
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private volatile int writePosition;
+    private final AtomicLong liveBytes = new AtomicLong();
+
+    /**
+     * Maps a segment file, creating it at the given capacity if it does not exist.
+     * @param id The segment's position in the log; later segments hold later records.
+     * @param file The segment file.
+     * @param capacity The size the file is created with.
+     * @throws IOException if the file cannot be created or mapped.
+     */
+    Segment(int id, File file, int capacity) throws IOException {
+        this.id = id;
+        this.file = file;
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()){
+            long size = channel.size() > 0 ? channel.size() : capacity;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * @return The segment's position in the log.
+     */
+    int getId(){
+        return id;
+    }
+
+    /**
+     * @return The number of bytes written.
+     */
+    int getWritePosition(){
+        return writePosition;
+    }
+
+    /**
+     * @return The number of written bytes that belong to records still referenced by the index.
+     */
+    long getLiveBytes(){
+        return liveBytes.get();
+    }
+
+    /**
+     * Adjusts the live byte count when a record is indexed or superseded.
+     * @param delta The change in bytes.
+     */
+    void addLiveBytes(long delta){
+        liveBytes.addAndGet(delta);
+    }
+
+    /**
+     * @return The size of the file.
+     */
+    int getCapacity(){
+        return buffer.capacity();
+    }
+
+    /**
+     * Appends a record. Callers must hold the log's write lock.
+     * @param record The encoded record, from its position to its limit.
+     * @return The position the record was written at, or -1 if it does not fit.
+     */
+    int append(ByteBuffer record){
+        int position = writePosition;
+        if(position + record.remaining() > buffer.capacity()){
+            return -1;
+        }
+        ByteBuffer target = buffer.duplicate();
+        target.position(position);
+        target.put(record);
+        writePosition = target.position();
+        return position;
+    }
+
+    /**
+     * Sets the write position after recovery has found the end of the valid records.
+     * @param position The end of the last valid record.
+     */
+    void recoverWritePosition(int position){
+        writePosition = position;
+        // Clear a torn record left by a crash so that the zero length marks the end again
+        ByteBuffer tail = buffer.duplicate();
+        tail.position(position);
+        while(tail.hasRemaining() && tail.position() < position + Record.MAX_SIZE){
+            tail.put((byte) 0);
+        }
+    }
+
+    /**
+     * @return An independent view of the whole segment, for reading at absolute positions.
+     */
+    ByteBuffer view(){
+        return buffer.duplicate();
+    }
+
+    /**
+     * Writes the mapped pages to the file, so that records survive an operating system crash.
+     */
+    void force(){
+        buffer.force();
+    }
+
+    /**
+     * Deletes the file. Readers still holding a view keep reading the mapped pages until they are collected.
+     */
+    void delete(){
+        if(!file.delete()){
+            file.deleteOnExit();
+        }
+    }
+}
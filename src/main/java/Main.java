@@ -11,5 +11,7 @@ public class Main {
         SocialMediaController controller = new SocialMediaController();
         Javalin app = controller.startAPI();
         app.start(8080);
+        // Serve /ready with 200 only once the JIT and the caches are warm
+        controller.warmUp(8080);
     }
 }
@@ -0,0 +1,17 @@
+package Memory;
+
+import Model.Message;
+
+/**
+ * The HeapMessage class is a message stored by {@link MemoryMessageRepository} with its text on the heap,
+ * carrying the version that {@link OffHeapMessage} carries for off-heap text. It never leaves the repository:
+ * readers get plain Message copies.
+ */
+class HeapMessage extends Message {
+    final long version;
+
+    HeapMessage(int messageId, int postedBy, String text, long timePostedEpoch, long version){
+        super(messageId, postedBy, text, timePostedEpoch);
+        this.version = version;
+    }
+}
@@ -0,0 +1,148 @@
+package Memory;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * A concurrent map from non-negative int keys to values, for dense keys such as generated ids.
+ *
+ * Values live in fixed-size chunks of atomic slots indexed directly by key, so a lookup is two array reads
+ * with no hashing, boxing or locking, and updates are single compare-and-set operations. Only growing the
+ * chunk directory takes a lock, once per 4096 keys.
+ */
+public class IntArrayMap<V> {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile AtomicReferenceArray<V>[] chunks = newDirectory(0);
+
+    /**
+     * @param key The key to look up.
+     * @return The value for the key, or null if there is none.
+     */
+    public V get(int key){
+        AtomicReferenceArray<V> chunk = existingChunk(key);
+        return chunk == null ? null : chunk.get(key & CHUNK_MASK);
+    }
+
+    /**
+     * Sets the value for a key.
+     * @param key The key, which must not be negative.
+     * @param value The value.
+     */
+    public void put(int key, V value){
+        chunk(key).set(key & CHUNK_MASK, value);
+    }
+
+    /**
+     * Sets the value for a key only if it has none.
+     * @param key The key, which must not be negative.
+     * @param value The value.
+     * @return The existing value, or null if the value was set.
+     */
+    public V putIfAbsent(int key, V value){
+        AtomicReferenceArray<V> chunk = chunk(key);
+        int slot = key & CHUNK_MASK;
+        while(true){
+            if(chunk.compareAndSet(slot, null, value)){
+                return null;
+            }
+            V existing = chunk.get(slot);
+            if(existing != null){
+                return existing;
+            }
+        }
+    }
+
+    /**
+     * @param key The key, which must not be negative.
+     * @param create Creates the value if the key has none; it may be called and discarded under contention.
+     * @return The value for the key.
+     */
+    public V computeIfAbsent(int key, IntFunction<V> create){
+        V value = get(key);
+        if(value != null){
+            return value;
+        }
+        V created = create.apply(key);
+        V existing = putIfAbsent(key, created);
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * Replaces the value for a key only if it is still the expected one.
+     * @param key The key.
+     * @param expected The value the key must currently have.
+     * @param value The new value.
+     * @return true if the value was replaced.
+     */
+    public boolean replace(int key, V expected, V value){
+        AtomicReferenceArray<V> chunk = existingChunk(key);
+        return chunk != null && chunk.compareAndSet(key & CHUNK_MASK, expected, value);
+    }
+
+    /**
+     * Removes the value for a key.
+     * @param key The key.
+     * @return The removed value, or null if there was none.
+     */
+    public V remove(int key){
+        AtomicReferenceArray<V> chunk = existingChunk(key);
+        return chunk == null ? null : chunk.getAndSet(key & CHUNK_MASK, null);
+    }
+
+    /**
+     * @return One more than the highest key that may have a value, for iterating over all keys.
+     */
+    public int keyLimit(){
+        return chunks.length * CHUNK_SIZE;
+    }
+
+    /**
+     * Removes every value.
+     */
+    public synchronized void clear(){
+        chunks = newDirectory(0);
+    }
+
+    private AtomicReferenceArray<V> existingChunk(int key){
+        if(key < 0){
+            return null;
+        }
+        AtomicReferenceArray<V>[] directory = chunks;
+        int index = key >>> CHUNK_BITS;
+        return index < directory.length ? directory[index] : null;
+    }
+
+    private AtomicReferenceArray<V> chunk(int key){
+        if(key < 0){
+            throw new IllegalArgumentException("Negative key " + key);
+        }
+        AtomicReferenceArray<V> chunk = existingChunk(key);
+        return chunk != null ? chunk : grow(key >>> CHUNK_BITS);
+    }
+
+    /**
+     * Allocates every chunk up to the given one. Chunks are never removed, so readers holding an older
+     * directory still see every value that was set through it.
+     */
+    private synchronized AtomicReferenceArray<V> grow(int index){
+        AtomicReferenceArray<V>[] directory = chunks;
+        if(index < directory.length){
+            return directory[index];
+        }
+        AtomicReferenceArray<V>[] grown = newDirectory(Math.max(index + 1, directory.length * 2));
+        System.arraycopy(directory, 0, grown, 0, directory.length);
+        for(int i = directory.length; i < grown.length; i++){
+            grown[i] = new AtomicReferenceArray<>(CHUNK_SIZE);
+        }
+        chunks = grown;
+        return grown[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> AtomicReferenceArray<V>[] newDirectory(int length){
+        return (AtomicReferenceArray<V>[]) new AtomicReferenceArray<?>[length];
+    }
+}
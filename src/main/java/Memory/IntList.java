@@ -0,0 +1,95 @@
+package Memory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A growable list of primitive ints in insertion order, such as the message ids of one account.
+ * Operations are short critical sections on the list itself, so lists of different accounts never contend.
+ */
+public class IntList {
+    private int[] values = new int[4];
+    private int size;
+
+    /**
+     * Appends a value.
+     * @param value The value to append.
+     */
+    public synchronized void add(int value){
+        if(size == values.length){
+            int[] grown = new int[values.length * 2];
+            System.arraycopy(values, 0, grown, 0, size);
+            values = grown;
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Appends a value unless the list already contains it.
+     * @param value The value to append.
+     * @return true if the value was appended.
+     */
+    public synchronized boolean addIfAbsent(int value){
+        if(contains(value)){
+            return false;
+        }
+        add(value);
+        return true;
+    }
+
+    /**
+     * Removes the first occurrence of a value, keeping the order of the others.
+     * @param value The value to remove.
+     * @return true if the value was found.
+     */
+    public synchronized boolean remove(int value){
+        for(int i = 0; i < size; i++){
+            if(values[i] == value){
+                System.arraycopy(values, i + 1, values, i, size - i - 1);
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param value The value to look for.
+     * @return true if the list contains the value.
+     */
+    public synchronized boolean contains(int value){
+        for(int i = 0; i < size; i++){
+            if(values[i] == value){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of values.
+     */
+    public synchronized int size(){
+        return size;
+    }
+
+    /**
+     * @return A copy of the values, in insertion order.
+     */
+    public synchronized int[] toArray(){
+        int[] copy = new int[size];
+        System.arraycopy(values, 0, copy, 0, size);
+        return copy;
+    }
+
+    /**
+     * @return A copy of the values as a boxed list, in insertion order.
+     */
+    public synchronized List<Integer> toList(){
+        List<Integer> list = new ArrayList<>(size);
+        for(int i = 0; i < size; i++){
+            list.add(values[i]);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,71 @@
+package Memory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import DAO.AccountRepository;
+import Model.Account;
+
+/**
+ * The MemoryAccountRepository class stores accounts in the process, indexed both by id and by username.
+ * Usernames are claimed atomically, so concurrent registrations of the same username cannot both succeed.
+ */
+public class MemoryAccountRepository implements AccountRepository {
+    private final IntArrayMap<Account> accountsById = new IntArrayMap<>();
+    private final Map<String, Account> accountsByUsername = new ConcurrentHashMap<>();
+    private final AtomicInteger nextAccountId = new AtomicInteger(1);
+
+    @Override
+    public Account insertAccount(Account account){
+        if(account.getUsername() == null){
+            return null;
+        }
+        int accountId = nextAccountId.getAndIncrement();
+        Account stored = new Account(accountId, account.getUsername(), account.getPassword());
+        if(accountsByUsername.putIfAbsent(stored.getUsername(), stored) != null){
+            return null;
+        }
+        accountsById.put(accountId, stored);
+        account.setAccount_id(accountId);
+        return account;
+    }
+
+    @Override
+    public boolean accountExists(String user_name){
+        return user_name != null && accountsByUsername.containsKey(user_name);
+    }
+
+    @Override
+    public Account getAccountByUsername(String username){
+        Account stored = username == null ? null : accountsByUsername.get(username);
+        return stored == null ? null : copy(stored);
+    }
+
+    @Override
+    public boolean accountIdExists(int accountId){
+        return accountsById.get(accountId) != null;
+    }
+
+    @Override
+    public boolean authenticateAccount(String username, String password){
+        Account stored = username == null ? null : accountsByUsername.get(username);
+        return stored != null && stored.getPassword().equals(password);
+    }
+
+    /**
+     * Removes every account and restarts ids at 1.
+     */
+    void clear(){
+        accountsById.clear();
+        accountsByUsername.clear();
+        nextAccountId.set(1);
+    }
+
+    /**
+     * Stored accounts are never handed out, so callers cannot change them behind the repository's back.
+     */
+    private static Account copy(Account account){
+        return new Account(account.getAccount_id(), account.getUsername(), account.getPassword());
+    }
+}
@@ -0,0 +1,84 @@
+package Memory;
+
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+
+/**
+ * The MemoryEngine class is the in-memory storage engine: a message, account and follow repository that keep
+ * all data in the process, for nodes that do not need durability. This class utilizes the singleton design
+ * pattern, so every service shares the same data.
+ *
+ * The engine starts with the same rows as the database script, and is reset to them whenever the test database
+ * is reset, so the same tests run against either engine. Setting the "memory.offHeapText" system property
+ * keeps message text off the heap, see {@link TextSlabs}.
+ */
+public class MemoryEngine {
+    private static MemoryEngine engine = null;
+
+    private final MemoryAccountRepository accountRepository = new MemoryAccountRepository();
+    private final MemoryMessageRepository messageRepository = new MemoryMessageRepository(accountRepository, textSlabsFromSystemProperties());
+    private final MemoryFollowRepository followRepository = new MemoryFollowRepository(accountRepository);
+
+    private MemoryEngine(){
+        reset();
+    }
+
+    /**
+     * @return The off-heap store for message text if the "memory.offHeapText" system property is true, with
+     * "memory.textSlabBytes" (default 16 MiB) and "memory.textCompactionRatio" (default 0.5), or null.
+     */
+    private static TextSlabs textSlabsFromSystemProperties(){
+        if(!Boolean.getBoolean("memory.offHeapText")){
+            return null;
+        }
+        return new TextSlabs(Integer.getInteger("memory.textSlabBytes", 16 << 20),
+                Double.parseDouble(System.getProperty("memory.textCompactionRatio", "0.5")));
+    }
+
+    /**
+     * @return The shared engine, created and registered for database resets on first use.
+     */
+    public static synchronized MemoryEngine getEngine(){
+        if(engine == null){
+            engine = new MemoryEngine();
+            if(engine.messageRepository.getTextSlabs() != null){
+                engine.messageRepository.startMaintenance(Long.getLong("memory.maintenanceMillis", 1000));
+            }
+            ConnectionUtil.addResetListener(engine::reset);
+        }
+        return engine;
+    }
+
+    /**
+     * @return The in-memory message repository.
+     */
+    public MemoryMessageRepository getMessageRepository(){
+        return messageRepository;
+    }
+
+    /**
+     * @return The in-memory account repository.
+     */
+    public MemoryAccountRepository getAccountRepository(){
+        return accountRepository;
+    }
+
+    /**
+     * @return The in-memory follow repository.
+     */
+    public MemoryFollowRepository getFollowRepository(){
+        return followRepository;
+    }
+
+    /**
+     * Drops all data and recreates the rows inserted by the database script.
+     */
+    public synchronized void reset(){
+        followRepository.clear();
+        messageRepository.clear();
+        accountRepository.clear();
+        accountRepository.insertAccount(new Account("testuser1", "password"));
+        messageRepository.insertMessage(new Message(1, "test message 1", 1669947792));
+    }
+}
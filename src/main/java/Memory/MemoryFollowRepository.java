@@ -0,0 +1,83 @@
+package Memory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import DAO.AccountRepository;
+import DAO.FollowRepository;
+import Model.Follow;
+
+/**
+ * The MemoryFollowRepository class stores the follow graph in the process, as a list of followee ids and a
+ * list of follower ids per account. An edge is claimed in the follower's list first, which makes inserting the
+ * same follow twice fail exactly as the database's primary key would.
+ */
+public class MemoryFollowRepository implements FollowRepository {
+    private final AccountRepository accounts;
+    private final IntArrayMap<IntList> followeesByAccount = new IntArrayMap<>();
+    private final IntArrayMap<IntList> followersByAccount = new IntArrayMap<>();
+
+    /**
+     * @param accounts The accounts follows must connect, standing in for the database's foreign keys.
+     */
+    MemoryFollowRepository(AccountRepository accounts){
+        this.accounts = accounts;
+    }
+
+    @Override
+    public Follow insertFollow(Follow follow){
+        if(!accounts.accountIdExists(follow.getFollower_id()) || !accounts.accountIdExists(follow.getFollowee_id())){
+            return null;
+        }
+        if(!followeesByAccount.computeIfAbsent(follow.getFollower_id(), id -> new IntList()).addIfAbsent(follow.getFollowee_id())){
+            return null;
+        }
+        followersByAccount.computeIfAbsent(follow.getFollowee_id(), id -> new IntList()).add(follow.getFollower_id());
+        return follow;
+    }
+
+    @Override
+    public Follow deleteFollow(Follow follow){
+        IntList followees = followeesByAccount.get(follow.getFollower_id());
+        if(followees == null || !followees.remove(follow.getFollowee_id())){
+            return null;
+        }
+        IntList followers = followersByAccount.get(follow.getFollowee_id());
+        if(followers != null){
+            followers.remove(follow.getFollower_id());
+        }
+        return follow;
+    }
+
+    @Override
+    public boolean followExists(Follow follow){
+        IntList followees = followeesByAccount.get(follow.getFollower_id());
+        return followees != null && followees.contains(follow.getFollowee_id());
+    }
+
+    @Override
+    public List<Integer> getFolloweeIds(int followerId){
+        IntList followees = followeesByAccount.get(followerId);
+        return followees == null ? new ArrayList<>() : followees.toList();
+    }
+
+    @Override
+    public List<Integer> getFollowerIds(int followeeId){
+        IntList followers = followersByAccount.get(followeeId);
+        return followers == null ? new ArrayList<>() : followers.toList();
+    }
+
+    @Override
+    public int countFollowers(int followeeId){
+        IntList followers = followersByAccount.get(followeeId);
+        return followers == null ? 0 : followers.size();
+    }
+
+    /**
+     * Removes every follow.
+     */
+    void clear(){
+        followeesByAccount.clear();
+        followersByAccount.clear();
+    }
+}
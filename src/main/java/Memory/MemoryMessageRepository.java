@@ -0,0 +1,291 @@
+package Memory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import DAO.AccountRepository;
+import DAO.MessageRepository;
+import Model.Message;
+import Model.Versioned;
+
+/**
+ * The MemoryMessageRepository class stores messages in the process.
+ *
+ * Messages are kept in an {@link IntArrayMap} indexed by message id, so reads by id are lock-free array lookups,
+ * and each account has an {@link IntList} of its message ids for per-user and feed queries. Stored messages are
+ * never modified: an update swaps in a new message with a compare-and-set, and readers always get copies. Each
+ * stored message carries its version, so a conditional update checks the version and swaps in the next one in
+ * the same compare-and-set.
+ *
+ * Given {@link TextSlabs}, message text is stored off-heap and each stored message is an {@link OffHeapMessage}
+ * holding only a handle to its text, which keeps the heap and the garbage collector's work small when millions
+ * of messages are held. A background thread then compacts the slabs that deletes and updates have left sparse.
+ */
+public class MemoryMessageRepository implements MessageRepository {
+    private static final Comparator<Message> NEWEST_FIRST = Comparator
+            .comparingLong(Message::getTime_posted_epoch)
+            .thenComparingInt(Message::getMessage_id)
+            .reversed();
+
+    private final AccountRepository accounts;
+    private final TextSlabs textSlabs;
+    private final IntArrayMap<Message> messagesById = new IntArrayMap<>();
+    private final IntArrayMap<IntList> messageIdsByAccount = new IntArrayMap<>();
+    private final AtomicInteger nextMessageId = new AtomicInteger(1);
+
+    /**
+     * @param accounts The accounts messages must be posted by, standing in for the database's foreign key.
+     * @param textSlabs The off-heap store for message text, or null to keep text on the heap.
+     */
+    public MemoryMessageRepository(AccountRepository accounts, TextSlabs textSlabs){
+        this.accounts = accounts;
+        this.textSlabs = textSlabs;
+    }
+
+    @Override
+    public Message insertMessage(Message message){
+        if(!accounts.accountIdExists(message.getPosted_by())){
+            return null;
+        }
+        int messageId = nextMessageId.getAndIncrement();
+        messagesById.put(messageId, store(messageId, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch(), 0));
+        messageIdsByAccount.computeIfAbsent(message.getPosted_by(), id -> new IntList()).add(messageId);
+        message.setMessage_id(messageId);
+        return message;
+    }
+
+    @Override
+    public List<Message> getAllMessages(){
+        List<Message> messages = new ArrayList<>();
+        int limit = Math.min(messagesById.keyLimit(), nextMessageId.get());
+        for(int messageId = 1; messageId < limit; messageId++){
+            Message stored = messagesById.get(messageId);
+            if(stored != null){
+                messages.add(copy(stored));
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public Message getMessageById(int messageId){
+        Message stored = messagesById.get(messageId);
+        return stored == null ? null : copy(stored);
+    }
+
+    @Override
+    public Message deleteMessageById(int messageId){
+        Message deleted = messagesById.remove(messageId);
+        if(deleted == null){
+            return null;
+        }
+        release(deleted);
+        IntList messageIds = messageIdsByAccount.get(deleted.getPosted_by());
+        if(messageIds != null){
+            messageIds.remove(messageId);
+        }
+        return copy(deleted);
+    }
+
+    @Override
+    public Versioned<Message> getVersionedMessageById(int messageId){
+        Message stored = messagesById.get(messageId);
+        return stored == null ? null : new Versioned<>(copy(stored), versionOf(stored));
+    }
+
+    @Override
+    public Message updateMessage(int messageId, Message updatedMessage){
+        Versioned<Message> updated = update(messageId, updatedMessage, -1);
+        return updated == null ? null : updated.getValue();
+    }
+
+    @Override
+    public Versioned<Message> updateMessageIfVersion(int messageId, Message updatedMessage, long expectedVersion){
+        return update(messageId, updatedMessage, expectedVersion);
+    }
+    @Override
+    public List<Message> getMessagesByIds(List<Integer> messageIds){
+        List<Message> messages = new ArrayList<>(messageIds.size());
+        for(int messageId : messageIds){
+            Message stored = messagesById.get(messageId);
+            if(stored != null){
+                messages.add(copy(stored));
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public List<Message> getRecentMessagesFromUsers(List<Integer> accountIds, int limit){
+        if(accountIds.isEmpty() || limit <= 0){
+            return new ArrayList<>();
+        }
+        // Keep only the newest limit messages, with the oldest of them at the head to be evicted
+        PriorityQueue<Message> newest = new PriorityQueue<>(limit + 1, NEWEST_FIRST.reversed());
+        for(int accountId : accountIds){
+            IntList messageIds = messageIdsByAccount.get(accountId);
+            if(messageIds == null){
+                continue;
+            }
+            for(int messageId : messageIds.toArray()){
+                Message stored = messagesById.get(messageId);
+                if(stored != null){
+                    newest.add(stored);
+                    if(newest.size() > limit){
+                        newest.poll();
+                    }
+                }
+            }
+        }
+        List<Message> messages = new ArrayList<>(newest.size());
+        for(Message stored : newest){
+            messages.add(copy(stored));
+        }
+        messages.sort(NEWEST_FIRST);
+        return messages;
+    }
+
+    @Override
+    public List<Message> getLatestMessages(int limit){
+        List<Message> messages = new ArrayList<>();
+        for(int messageId = Math.min(messagesById.keyLimit(), nextMessageId.get()) - 1; messageId > 0 && messages.size() < limit; messageId--){
+            Message stored = messagesById.get(messageId);
+            if(stored != null){
+                messages.add(copy(stored));
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public List<Message> getAllMessagesFromUser(int accountId){
+        List<Message> messages = new ArrayList<>();
+        IntList messageIds = messageIdsByAccount.get(accountId);
+        if(messageIds == null){
+            return messages;
+        }
+        for(int messageId : messageIds.toArray()){
+            Message stored = messagesById.get(messageId);
+            if(stored != null){
+                messages.add(copy(stored));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Moves the live text out of every sparse off-heap slab and drops the slab.
+     * @return The number of slabs compacted, 0 if text is kept on the heap.
+     */
+    public int compactText(){
+        if(textSlabs == null){
+            return 0;
+        }
+        Set<TextSlabs.Slab> sparse = new HashSet<>(textSlabs.getSparseSlabs());
+        if(sparse.isEmpty()){
+            return 0;
+        }
+        int limit = Math.min(messagesById.keyLimit(), nextMessageId.get());
+        for(int messageId = 1; messageId < limit; messageId++){
+            Message stored = messagesById.get(messageId);
+            if(stored instanceof OffHeapMessage && sparse.contains(((OffHeapMessage) stored).slab)){
+                OffHeapMessage relocated = textSlabs.relocate((OffHeapMessage) stored);
+                // A concurrent update or delete has already released the stored text
+                release(messagesById.replace(messageId, stored, relocated) ? stored : relocated);
+            }
+        }
+        for(TextSlabs.Slab slab : sparse){
+            textSlabs.drop(slab);
+        }
+        return sparse.size();
+    }
+
+    /**
+     * @return The off-heap store for message text, or null if text is kept on the heap.
+     */
+    public TextSlabs getTextSlabs(){
+        return textSlabs;
+    }
+
+    /**
+     * Removes every message and restarts ids at 1.
+     */
+    void clear(){
+        messagesById.clear();
+        messageIdsByAccount.clear();
+        nextMessageId.set(1);
+        if(textSlabs != null){
+            textSlabs.clear();
+        }
+    }
+
+    /**
+     * Starts the background thread that compacts sparse off-heap slabs.
+     */
+    void startMaintenance(long intervalMillis){
+        ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "memory-text-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(() -> {
+            try{
+                compactText();
+            }catch(RuntimeException e){
+                e.printStackTrace();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Swaps in a message with the new text and the next version, retrying if another update got in first.
+     * @param expectedVersion The version the stored message must have, or -1 for any.
+     */
+    private Versioned<Message> update(int messageId, Message updatedMessage, long expectedVersion){
+        while(true){
+            Message stored = messagesById.get(messageId);
+            if(stored == null || expectedVersion >= 0 && versionOf(stored) != expectedVersion){
+                return null;
+            }
+            long version = versionOf(stored) + 1;
+            Message updated = store(messageId, stored.getPosted_by(), updatedMessage.getMessage_text(), stored.getTime_posted_epoch(), version);
+            if(messagesById.replace(messageId, stored, updated)){
+                release(stored);
+                return new Versioned<>(copy(updated), version);
+            }
+            release(updated);
+        }
+    }
+
+    private Message store(int messageId, int postedBy, String text, long timePostedEpoch, long version){
+        if(textSlabs == null){
+            return new HeapMessage(messageId, postedBy, text, timePostedEpoch, version);
+        }
+        return textSlabs.store(messageId, postedBy, text, timePostedEpoch, version);
+    }
+
+    private static long versionOf(Message stored){
+        return stored instanceof OffHeapMessage ? ((OffHeapMessage) stored).version : ((HeapMessage) stored).version;
+    }
+
+    private void release(Message stored){
+        if(stored instanceof OffHeapMessage){
+            textSlabs.release((OffHeapMessage) stored);
+        }
+    }
+
+    private static Message copy(Message message){
+        if(message instanceof OffHeapMessage){
+            return ((OffHeapMessage) message).copy();
+        }
+        return new Message(message.getMessage_id(), message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
+    }
+}
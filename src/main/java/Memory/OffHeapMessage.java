@@ -0,0 +1,142 @@
+package Memory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import Model.Message;
+
+/**
+ * The OffHeapMessage class is a message whose text is held in a {@link TextSlabs} slab rather than in a String.
+ * The text is decoded each time it is read, unless it has been replaced with setMessage_text.
+ *
+ * When serialized to JSON bytes the UTF-8 text is copied from the slab straight into the output, so reading
+ * and serving a message never creates a String for its text. It serializes to the same JSON as a Message.
+ */
+@JsonSerialize(using = OffHeapMessage.Serializer.class)
+public class OffHeapMessage extends Message {
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[1024]);
+
+    final TextSlabs.Slab slab;
+    final int offset;
+    final int length;
+    final long version;
+
+    /**
+     * @param slab The slab holding the text, or null if the text is null.
+     * @param offset The offset of the text in the slab.
+     * @param length The length of the UTF-8 text, or -1 if the text is null.
+     * @param version The version of the message, which is not part of its JSON.
+     */
+    OffHeapMessage(int messageId, int postedBy, TextSlabs.Slab slab, int offset, int length, long timePostedEpoch, long version){
+        super(messageId, postedBy, null, timePostedEpoch);
+        this.slab = slab;
+        this.offset = offset;
+        this.length = length;
+        this.version = version;
+    }
+
+    /**
+     * @return The text, decoded from its slab.
+     */
+    @Override
+    public String getMessage_text(){
+        if(message_text != null || length < 0){
+            return message_text;
+        }
+        return new String(textBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return A message sharing this message's text, so callers can modify it without affecting the stored one.
+     */
+    OffHeapMessage copy(){
+        OffHeapMessage copy = new OffHeapMessage(message_id, posted_by, slab, offset, length, time_posted_epoch, version);
+        copy.message_text = message_text;
+        return copy;
+    }
+
+    /**
+     * @return A new array holding the UTF-8 text.
+     */
+    byte[] textBytes(){
+        byte[] text = new byte[length];
+        copyText(text);
+        return text;
+    }
+
+    private void copyText(byte[] target){
+        ByteBuffer source = slab.buffer.duplicate();
+        source.position(offset);
+        source.get(target, 0, length);
+    }
+
+    /**
+     * Compares with any message, whether or not its text is off-heap.
+     */
+    @Override
+    public boolean equals(Object o){
+        if(this == o) return true;
+        if(!(o instanceof Message)) return false;
+        Message message = (Message) o;
+        return message_id == message.getMessage_id() && posted_by == message.getPosted_by()
+                && time_posted_epoch == message.getTime_posted_epoch() && Objects.equals(getMessage_text(), message.getMessage_text());
+    }
+
+    @Override
+    public int hashCode(){
+        return Objects.hash(message_id, posted_by, getMessage_text(), time_posted_epoch);
+    }
+
+    @Override
+    public String toString(){
+        return "Message{" +
+                "message_id=" + message_id +
+                ", posted_by=" + posted_by +
+                ", message_text='" + getMessage_text() + '\'' +
+                ", time_posted_epoch=" + time_posted_epoch +
+                '}';
+    }
+
+    /**
+     * Writes the same fields as Message, in the same order, copying the text through a per-thread buffer when
+     * the output is UTF-8 bytes. Byte output is recognised by the generator writing to an OutputStream, which
+     * only needs the public JsonGenerator API; the generators writing characters or buffering tokens do not
+     * accept UTF-8 text.
+     */
+    static class Serializer extends StdSerializer<OffHeapMessage> {
+        private static final long serialVersionUID = 1L;
+
+        Serializer(){
+            super(OffHeapMessage.class);
+        }
+
+        @Override
+        public void serialize(OffHeapMessage message, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("message_id", message.message_id);
+            generator.writeNumberField("posted_by", message.posted_by);
+            generator.writeFieldName("message_text");
+            if(message.message_text == null && message.length >= 0 && generator.getOutputTarget() instanceof OutputStream){
+                byte[] scratch = SCRATCH.get();
+                if(scratch.length < message.length){
+                    scratch = new byte[Math.max(message.length, scratch.length * 2)];
+                    SCRATCH.set(scratch);
+                }
+                message.copyText(scratch);
+                generator.writeUTF8String(scratch, 0, message.length);
+            }else{
+                generator.writeString(message.getMessage_text());
+            }
+            generator.writeNumberField("time_posted_epoch", message.time_posted_epoch);
+            generator.writeEndObject();
+        }
+    }
+}
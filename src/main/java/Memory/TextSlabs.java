@@ -0,0 +1,199 @@
+package Memory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import Metrics.MetricsRegistry;
+
+/**
+ * The TextSlabs class stores message text as UTF-8 in large direct byte buffers outside the Java heap, for the
+ * in-memory engine's off-heap mode. A stored message is an {@link OffHeapMessage} holding only the slab, offset
+ * and length of its text.
+ *
+ * Text is appended to the active slab and never overwritten, so a message read from a slab stays valid for as
+ * long as it is referenced, without locks. Deleted and updated texts leave garbage behind; once a sealed slab's
+ * live bytes drop below the compaction ratio the repository copies its live texts to the active slab and the
+ * slab is dropped. Its memory is released by the garbage collector once no message read from it is still in use.
+ */
+public class TextSlabs {
+    private final int slabCapacity;
+    private final double compactionRatio;
+    private final ConcurrentSkipListMap<Integer, Slab> slabs = new ConcurrentSkipListMap<>();
+    private final LongAdder compactions;
+    private int nextSlabId = 0;
+    private Slab active;
+
+    /**
+     * @param slabCapacity The size of each slab; larger texts get a slab of their own.
+     * @param compactionRatio The fraction of live bytes below which a sealed slab is compacted.
+     */
+    public TextSlabs(int slabCapacity, double compactionRatio){
+        this.slabCapacity = slabCapacity;
+        this.compactionRatio = compactionRatio;
+        MetricsRegistry registry = MetricsRegistry.getRegistry();
+        this.compactions = registry.counter("memory_text_compactions_total", "Off-heap text slabs compacted by the in-memory engine.", "");
+        registry.gauge("memory_text_slabs", "Off-heap slabs holding message text.", "", () -> slabs.size());
+        registry.gauge("memory_text_capacity_bytes", "Off-heap bytes allocated for message text.", "", this::getCapacityBytes);
+        registry.gauge("memory_text_used_bytes", "Off-heap bytes written with message text, including garbage.", "", this::getUsedBytes);
+        registry.gauge("memory_text_live_bytes", "Off-heap bytes held by the text of live messages.", "", this::getLiveBytes);
+    }
+
+    /**
+     * Copies a message's text into the active slab.
+     * @return The message, holding a handle to its text.
+     */
+    OffHeapMessage store(int messageId, int postedBy, String text, long timePostedEpoch, long version){
+        if(text == null){
+            return new OffHeapMessage(messageId, postedBy, null, 0, -1, timePostedEpoch, version);
+        }
+        return store(messageId, postedBy, text.getBytes(StandardCharsets.UTF_8), timePostedEpoch, version);
+    }
+
+    /**
+     * Copies a stored message's text into the active slab, for compaction.
+     * @return A copy of the message whose text is in the active slab.
+     */
+    OffHeapMessage relocate(OffHeapMessage message){
+        if(message.length < 0){
+            return message.copy();
+        }
+        return store(message.getMessage_id(), message.getPosted_by(), message.textBytes(), message.getTime_posted_epoch(), message.version);
+    }
+
+    /**
+     * Marks a message's text as garbage, dropping its slab once nothing live is left in it.
+     * @param message A message that is no longer stored.
+     */
+    void release(OffHeapMessage message){
+        Slab slab = message.slab;
+        if(slab != null && slab.liveBytes.addAndGet(-message.length) == 0 && slab.sealed){
+            slabs.remove(slab.id, slab);
+        }
+    }
+
+    /**
+     * @return The sealed slabs whose share of live bytes is below the compaction ratio.
+     */
+    List<Slab> getSparseSlabs(){
+        List<Slab> sparse = new ArrayList<>();
+        for(Slab slab : slabs.values()){
+            if(slab.sealed && slab.liveBytes.get() < slab.position * compactionRatio){
+                sparse.add(slab);
+            }
+        }
+        return sparse;
+    }
+
+    /**
+     * Drops a compacted slab, whether or not every text could be moved out of it.
+     */
+    void drop(Slab slab){
+        slabs.remove(slab.id, slab);
+        compactions.increment();
+    }
+
+    /**
+     * Drops every slab.
+     */
+    synchronized void clear(){
+        slabs.clear();
+        active = null;
+    }
+
+    /**
+     * @return The number of slabs.
+     */
+    public int getSlabCount(){
+        return slabs.size();
+    }
+
+    /**
+     * @return The off-heap bytes allocated by the slabs.
+     */
+    public long getCapacityBytes(){
+        long capacity = 0;
+        for(Slab slab : slabs.values()){
+            capacity += slab.buffer.capacity();
+        }
+        return capacity;
+    }
+
+    /**
+     * @return The bytes written to the slabs, live or garbage.
+     */
+    public long getUsedBytes(){
+        long used = 0;
+        for(Slab slab : slabs.values()){
+            used += slab.position;
+        }
+        return used;
+    }
+
+    /**
+     * @return The bytes held by the text of stored messages.
+     */
+    public long getLiveBytes(){
+        long live = 0;
+        for(Slab slab : slabs.values()){
+            live += slab.liveBytes.get();
+        }
+        return live;
+    }
+
+    /**
+     * @return The share of written bytes that is garbage left by deletes and updates, from 0 to 1.
+     */
+    public double getFragmentation(){
+        long used = getUsedBytes();
+        return used == 0 ? 0 : 1 - (double) getLiveBytes() / used;
+    }
+
+    private OffHeapMessage store(int messageId, int postedBy, byte[] text, long timePostedEpoch, long version){
+        Slab slab;
+        int offset;
+        synchronized(this){
+            slab = active;
+            if(slab == null || slab.buffer.capacity() - slab.position < text.length){
+                if(slab != null){
+                    slab.seal();
+                }
+                slab = new Slab(nextSlabId++, Math.max(slabCapacity, text.length));
+                slabs.put(slab.id, slab);
+                active = slab;
+            }
+            offset = slab.position;
+            slab.position += text.length;
+            slab.liveBytes.addAndGet(text.length);
+        }
+        // The range is reserved, so the copy needs no lock; publishing the message makes the bytes visible
+        ByteBuffer target = slab.buffer.duplicate();
+        target.position(offset);
+        target.put(text);
+        return new OffHeapMessage(messageId, postedBy, slab, offset, text.length, timePostedEpoch, version);
+    }
+
+    /**
+     * A direct buffer that texts are appended to until it is full and sealed.
+     */
+    static final class Slab {
+        final int id;
+        final ByteBuffer buffer;
+        final AtomicInteger liveBytes = new AtomicInteger();
+        volatile int position;
+        volatile boolean sealed;
+
+        Slab(int id, int capacity){
+            this.id = id;
+            this.buffer = ByteBuffer.allocateDirect(capacity);
+        }
+
+        private void seal(){
+            sealed = true;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event spanning one HTTP request, from the first before handler to the last after handler.
+ * Disabled by default; enable it with the socialmedia.jfc settings file.
+ */
+@Name("socialmedia.HttpRequest")
+@Label("HTTP Request")
+@Category({"Social Media", "HTTP"})
+@Description("An HTTP request handled by the SocialMediaController")
+@Enabled(false)
+@StackTrace(false)
+public class HttpRequestEvent extends Event {
+    /**
+     * The HTTP method of the request.
+     */
+    @Label("Method")
+    public String method;
+    /**
+     * The route template that matched the request, eg "/messages/{message_id}".
+     */
+    @Label("Route")
+    public String route;
+    /**
+     * The path parameters of the request, eg "message_id=1".
+     */
+    @Label("Path Parameters")
+    public String pathParameters;
+    /**
+     * The HTTP status code of the response.
+     */
+    @Label("Status")
+    public int status;
+}
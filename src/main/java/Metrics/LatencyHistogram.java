@@ -0,0 +1,143 @@
+package Metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free, fixed-size latency histogram in the style of HdrHistogram.
+ *
+ * Values (nanoseconds) are counted in log-linear buckets: every power of two is split into 64 linear
+ * sub-buckets, so any recorded value is reported within about 1.6% of its true value. Recording is a single
+ * atomic increment plus two striped adds and never allocates, so it is safe to call on every request.
+ * Values above roughly an hour are clamped into the last bucket.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 41;
+    private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+    private static final int BUCKET_COUNT = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalSum = new LongAdder();
+    private final LongAccumulator maxValue = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records one value.
+     * @param value The value in nanoseconds. Negative values are recorded as zero.
+     */
+    public void record(long value){
+        long clamped = value < 0 ? 0 : Math.min(value, MAX_VALUE);
+        counts.incrementAndGet(indexOf(clamped));
+        totalCount.increment();
+        totalSum.add(clamped);
+        maxValue.accumulate(clamped);
+    }
+
+    /**
+     * Takes a point-in-time copy of the histogram. Recording may continue concurrently, so the copy is not
+     * an atomic cut, but every count in it was recorded.
+     * @return A snapshot that percentiles can be computed from.
+     */
+    public Snapshot snapshot(){
+        long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++){
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, totalSum.sum(), maxValue.get());
+    }
+
+    /**
+     * Maps a value to its bucket. Values below 64 get an exact bucket each; above that, the bucket is chosen
+     * by the position of the highest set bit plus the next six bits.
+     */
+    static int indexOf(long value){
+        if(value < SUB_BUCKET_COUNT){
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * @return The largest value that maps to the given bucket.
+     */
+    static long highestValueAt(int index){
+        int block = index >>> SUB_BUCKET_BITS;
+        if(block == 0){
+            return index;
+        }
+        long lowest = ((long) (index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT) << (block - 1);
+        return lowest + (1L << (block - 1)) - 1;
+    }
+
+    /**
+     * An immutable copy of a histogram's counts.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max){
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return The number of recorded values.
+         */
+        public long getCount(){
+            return count;
+        }
+
+        /**
+         * @return The sum of all recorded values in nanoseconds.
+         */
+        public long getSum(){
+            return sum;
+        }
+
+        /**
+         * @return The largest recorded value in nanoseconds.
+         */
+        public long getMax(){
+            return max;
+        }
+
+        /**
+         * @return The arithmetic mean of all recorded values in nanoseconds, or 0 if nothing was recorded.
+         */
+        public double getMean(){
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param percentile The percentile to compute, between 0 and 100.
+         * @return The value at or below which the given percentage of recorded values fall, in nanoseconds,
+         * or 0 if nothing was recorded.
+         */
+        public long getValueAtPercentile(double percentile){
+            if(count == 0){
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for(int i = 0; i < counts.length; i++){
+                seen += counts[i];
+                if(seen >= target){
+                    return Math.min(highestValueAt(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package Metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The MetricsRegistry class holds every metric of the application and renders them in the Prometheus text
+ * exposition format. This class utilizes the singleton design pattern, so that the controller, the services
+ * and the DAOs all record into the same registry.
+ *
+ * A metric is identified by its family name and a pre-rendered label set (see {@link #labels(String...)}).
+ * Lookups are lock-free, and callers on a hot path should keep the returned metric instead of looking it up
+ * again for every event.
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry registry = new MetricsRegistry();
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * @return The registry shared by the whole application.
+     */
+    public static MetricsRegistry getRegistry(){
+        return registry;
+    }
+
+    /**
+     * Retrieves or creates a latency histogram, exported as a Prometheus summary in seconds.
+     * @param name The metric family name.
+     * @param help The description of the family.
+     * @param labels The rendered label set, or an empty string.
+     * @return The histogram for this label set.
+     */
+    public LatencyHistogram histogram(String name, String help, String labels){
+        return (LatencyHistogram) family(name, help, Type.SUMMARY).metrics.computeIfAbsent(labels, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Retrieves or creates a histogram of plain values, such as batch sizes, exported as a Prometheus summary
+     * of the values as recorded.
+     * @param name The metric family name.
+     * @param help The description of the family.
+     * @param labels The rendered label set, or an empty string.
+     * @return The histogram for this label set.
+     */
+    public LatencyHistogram distribution(String name, String help, String labels){
+        return (LatencyHistogram) family(name, help, Type.DISTRIBUTION).metrics.computeIfAbsent(labels, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Retrieves or creates a monotonically increasing counter.
+     * @param name The metric family name, which should end in "_total".
+     * @param help The description of the family.
+     * @param labels The rendered label set, or an empty string.
+     * @return The counter for this label set.
+     */
+    public LongAdder counter(String name, String help, String labels){
+        return (LongAdder) family(name, help, Type.COUNTER).metrics.computeIfAbsent(labels, key -> new LongAdder());
+    }
+
+    /**
+     * Retrieves or creates a gauge that is moved up and down by the caller.
+     * @param name The metric family name.
+     * @param help The description of the family.
+     * @param labels The rendered label set, or an empty string.
+     * @return The gauge for this label set.
+     */
+    public LongAdder gauge(String name, String help, String labels){
+        return (LongAdder) family(name, help, Type.GAUGE).metrics.computeIfAbsent(labels, key -> new LongAdder());
+    }
+
+    /**
+     * Registers a gauge whose value is computed when the registry is scraped, replacing any previous one
+     * with the same label set.
+     * @param name The metric family name.
+     * @param help The description of the family.
+     * @param labels The rendered label set, or an empty string.
+     * @param value Supplies the current value.
+     */
+    public void gauge(String name, String help, String labels, LongSupplier value){
+        family(name, help, Type.GAUGE).metrics.put(labels, value);
+    }
+
+    /**
+     * Renders a label set. Values are escaped as required by the Prometheus text format.
+     * @param keysAndValues Alternating label names and values.
+     * @return The label set, including braces, or an empty string if no labels were given.
+     */
+    public static String labels(String... keysAndValues){
+        if(keysAndValues.length == 0){
+            return "";
+        }
+        StringBuilder builder = new StringBuilder("{");
+        for(int i = 0; i + 1 < keysAndValues.length; i += 2){
+            if(i > 0){
+                builder.append(',');
+            }
+            builder.append(keysAndValues[i]).append("=\"");
+            String value = keysAndValues[i + 1];
+            for(int c = 0; c < value.length(); c++){
+                char ch = value.charAt(c);
+                if(ch == '\\' || ch == '"'){
+                    builder.append('\\').append(ch);
+                }else if(ch == '\n'){
+                    builder.append("\\n");
+                }else{
+                    builder.append(ch);
+                }
+            }
+            builder.append('"');
+        }
+        return builder.append('}').toString();
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format (version 0.0.4).
+     * @return The text to serve from the metrics endpoint.
+     */
+    public String scrape(){
+        StringBuilder out = new StringBuilder();
+        for(Family family : families.values()){
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type.exposedType).append('\n');
+            for(Map.Entry<String, Object> entry : new ConcurrentSkipListMap<>(family.metrics).entrySet()){
+                String labels = entry.getKey();
+                Object metric = entry.getValue();
+                if(metric instanceof LatencyHistogram){
+                    LatencyHistogram.Snapshot snapshot = ((LatencyHistogram) metric).snapshot();
+                    boolean seconds = family.type == Type.SUMMARY;
+                    for(double quantile : QUANTILES){
+                        long value = snapshot.getValueAtPercentile(quantile * 100);
+                        out.append(family.name).append(withLabel(labels, "quantile", Double.toString(quantile))).append(' ')
+                                .append(seconds ? seconds(value) : Long.toString(value)).append('\n');
+                    }
+                    out.append(family.name).append("_sum").append(labels).append(' ')
+                            .append(seconds ? seconds(snapshot.getSum()) : Long.toString(snapshot.getSum())).append('\n');
+                    out.append(family.name).append("_count").append(labels).append(' ').append(snapshot.getCount()).append('\n');
+                }else if(metric instanceof LongAdder){
+                    out.append(family.name).append(labels).append(' ').append(((LongAdder) metric).sum()).append('\n');
+                }else{
+                    out.append(family.name).append(labels).append(' ').append(((LongSupplier) metric).getAsLong()).append('\n');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private Family family(String name, String help, Type type){
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if(family.type != type){
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static String withLabel(String labels, String key, String value){
+        String label = key + "=\"" + value + "\"";
+        return labels.isEmpty() ? "{" + label + "}" : labels.substring(0, labels.length() - 1) + "," + label + "}";
+    }
+
+    private static String seconds(long nanos){
+        return Double.toString(nanos / 1e9);
+    }
+
+    private enum Type {
+        COUNTER("counter"), GAUGE("gauge"), SUMMARY("summary"), DISTRIBUTION("summary");
+
+        private final String exposedType;
+
+        Type(String exposedType){
+            this.exposedType = exposedType;
+        }
+    }
+
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final Type type;
+        private final Map<String, Object> metrics = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, Type type){
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package Metrics;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The QueryMetrics class collects per-statement JDBC statistics: an execution latency histogram, a row count and
+ * an error count for every distinct SQL string, plus a bounded log of recent slow queries. This class utilizes the
+ * singleton design pattern so that every DAO records into the same statistics.
+ *
+ * Statistics are exported through the {@link MetricsRegistry} and can also be read directly for diagnostics.
+ * Bound parameter values are never logged or kept; slow queries only record each parameter's type.
+ */
+public class QueryMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(QueryMetrics.class);
+    private static final int SLOW_QUERY_LOG_SIZE = 100;
+    private static final QueryMetrics queryMetrics =
+            new QueryMetrics(MetricsRegistry.getRegistry(), Long.getLong("jdbc.slowQueryMillis", 100));
+
+    private final MetricsRegistry registry;
+    private final long slowQueryNanos;
+    private final Map<String, StatementMetrics> statements = new ConcurrentHashMap<>();
+    private final Deque<SlowQuery> slowQueries = new ArrayDeque<>();
+
+    /**
+     * @param registry The registry the statistics are exported from.
+     * @param slowQueryMillis The execution time at or above which a query is logged as slow.
+     */
+    QueryMetrics(MetricsRegistry registry, long slowQueryMillis){
+        this.registry = registry;
+        this.slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+    }
+
+    /**
+     * @return The statistics shared by the whole application. The slow-query threshold is read from the
+     * "jdbc.slowQueryMillis" system property (default 100).
+     */
+    public static QueryMetrics getQueryMetrics(){
+        return queryMetrics;
+    }
+
+    /**
+     * Records one statement execution and logs it if it was slow.
+     * @param sql The SQL text of the statement.
+     * @param nanos The execution time in nanoseconds.
+     * @param redactedParameters The bound parameters with their values replaced by their types.
+     */
+    public void recordExecution(String sql, long nanos, String redactedParameters){
+        statement(sql).latency.record(nanos);
+        if(nanos >= slowQueryNanos){
+            SlowQuery slowQuery = new SlowQuery(sql, redactedParameters, nanos, System.currentTimeMillis());
+            logger.warn("Slow query ({} ms): {} parameters {}", slowQuery.getMillis(), sql, redactedParameters);
+            synchronized(slowQueries){
+                if(slowQueries.size() == SLOW_QUERY_LOG_SIZE){
+                    slowQueries.removeFirst();
+                }
+                slowQueries.addLast(slowQuery);
+            }
+        }
+    }
+
+    /**
+     * Records the rows returned or affected by one statement execution.
+     * @param sql The SQL text of the statement.
+     * @param rows The number of rows.
+     */
+    public void recordRows(String sql, long rows){
+        statement(sql).rows.add(rows);
+    }
+
+    /**
+     * Records and logs a failed statement execution.
+     * @param sql The SQL text of the statement.
+     * @param exception The error raised by the driver.
+     */
+    public void recordError(String sql, SQLException exception){
+        statement(sql).errors.increment();
+        logger.error("Query failed (SQLState {}, error code {}): {}: {}",
+                exception.getSQLState(), exception.getErrorCode(), sql, exception.getMessage());
+    }
+
+    /**
+     * @return A summary of every statement executed so far.
+     */
+    public List<QueryStatistics> getStatistics(){
+        List<QueryStatistics> statistics = new ArrayList<>();
+        for(Map.Entry<String, StatementMetrics> entry : statements.entrySet()){
+            StatementMetrics metrics = entry.getValue();
+            statistics.add(new QueryStatistics(entry.getKey(), metrics.latency.snapshot(), metrics.rows.sum(), metrics.errors.sum()));
+        }
+        statistics.sort(Comparator.comparingDouble(QueryStatistics::getTotalMillis).reversed());
+        return statistics;
+    }
+
+    /**
+     * @return The most recent slow queries, oldest first.
+     */
+    public List<SlowQuery> getSlowQueries(){
+        synchronized(slowQueries){
+            return new ArrayList<>(slowQueries);
+        }
+    }
+
+    private StatementMetrics statement(String sql){
+        StatementMetrics metrics = statements.get(sql);
+        return metrics != null ? metrics : statements.computeIfAbsent(sql, key -> new StatementMetrics(registry, key));
+    }
+
+    /**
+     * The live metrics of one SQL string.
+     */
+    private static class StatementMetrics {
+        private final LatencyHistogram latency;
+        private final LongAdder rows;
+        private final LongAdder errors;
+
+        private StatementMetrics(MetricsRegistry registry, String sql){
+            String labels = MetricsRegistry.labels("sql", sql);
+            this.latency = registry.histogram("db_query_duration_seconds", "Execution time of JDBC statements by SQL text.", labels);
+            this.rows = registry.counter("db_query_rows_total", "Rows returned or affected by JDBC statements by SQL text.", labels);
+            this.errors = registry.counter("db_query_errors_total", "Failed JDBC statements by SQL text.", labels);
+        }
+    }
+
+    /**
+     * A summary of the executions of one SQL string.
+     */
+    public static class QueryStatistics {
+        private final String sql;
+        private final LatencyHistogram.Snapshot latency;
+        private final long rows;
+        private final long errors;
+
+        QueryStatistics(String sql, LatencyHistogram.Snapshot latency, long rows, long errors){
+            this.sql = sql;
+            this.latency = latency;
+            this.rows = rows;
+            this.errors = errors;
+        }
+
+        /**
+         * @return The SQL text of the statement.
+         */
+        public String getSql(){
+            return sql;
+        }
+
+        /**
+         * @return The number of times the statement was executed.
+         */
+        public long getExecutions(){
+            return latency.getCount();
+        }
+
+        /**
+         * @return The total rows returned or affected.
+         */
+        public long getRows(){
+            return rows;
+        }
+
+        /**
+         * @return The number of failed executions.
+         */
+        public long getErrors(){
+            return errors;
+        }
+
+        /**
+         * @return The total execution time in milliseconds.
+         */
+        public double getTotalMillis(){
+            return latency.getSum() / 1e6;
+        }
+
+        /**
+         * @return The mean execution time in milliseconds.
+         */
+        public double getMeanMillis(){
+            return latency.getMean() / 1e6;
+        }
+
+        /**
+         * @return The median execution time in milliseconds.
+         */
+        public double getP50Millis(){
+            return latency.getValueAtPercentile(50) / 1e6;
+        }
+
+        /**
+         * @return The 99th percentile execution time in milliseconds.
+         */
+        public double getP99Millis(){
+            return latency.getValueAtPercentile(99) / 1e6;
+        }
+
+        /**
+         * @return The longest execution time in milliseconds.
+         */
+        public double getMaxMillis(){
+            return latency.getMax() / 1e6;
+        }
+    }
+
+    /**
+     * One execution that took at least the slow-query threshold.
+     */
+    public static class SlowQuery {
+        private final String sql;
+        private final String parameters;
+        private final long nanos;
+        private final long timestamp;
+
+        SlowQuery(String sql, String parameters, long nanos, long timestamp){
+            this.sql = sql;
+            this.parameters = parameters;
+            this.nanos = nanos;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * @return The SQL text of the statement.
+         */
+        public String getSql(){
+            return sql;
+        }
+
+        /**
+         * @return The types of the bound parameters; their values are redacted.
+         */
+        public String getParameters(){
+            return parameters;
+        }
+
+        /**
+         * @return The execution time in milliseconds.
+         */
+        public double getMillis(){
+            return nanos / 1e6;
+        }
+
+        /**
+         * @return The wall-clock time the query finished, in epoch milliseconds.
+         */
+        public long getTimestamp(){
+            return timestamp;
+        }
+    }
+}
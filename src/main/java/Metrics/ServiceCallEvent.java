@@ -0,0 +1,65 @@
+package Metrics;
+
+import java.util.function.Supplier;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event spanning one call into the service layer.
+ * Disabled by default; enable it with the socialmedia.jfc settings file.
+ */
+@Name("socialmedia.ServiceCall")
+@Label("Service Call")
+@Category({"Social Media", "Service"})
+@Description("A call into MessageService, AccountService, FollowService or FeedService")
+@Enabled(false)
+@StackTrace(false)
+public class ServiceCallEvent extends Event {
+    /**
+     * The service and method called, eg "MessageService.getMessageById".
+     */
+    @Label("Operation")
+    public String operation;
+    /**
+     * The message or account id the call is about, or 0 if it has none.
+     */
+    @Label("Id")
+    public int id;
+    /**
+     * Whether the call produced a result (a non-null, non-false value).
+     */
+    @Label("Succeeded")
+    public boolean succeeded;
+
+    /**
+     * Runs a service call inside an event. When the event is disabled this costs nothing beyond the call itself
+     * once the JIT has inlined it.
+     * @param operation The service and method called.
+     * @param id The message or account id the call is about, or 0 if it has none.
+     * @param call The body of the service method.
+     * @return The result of the call.
+     */
+    public static <T> T record(String operation, int id, Supplier<T> call){
+        ServiceCallEvent event = new ServiceCallEvent();
+        event.begin();
+        T result = null;
+        try{
+            result = call.get();
+            return result;
+        }finally{
+            event.end();
+            if(event.shouldCommit()){
+                event.operation = operation;
+                event.id = id;
+                event.succeeded = result != null && !Boolean.FALSE.equals(result);
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event spanning the execution of one JDBC statement issued by a DAO.
+ * Bound parameter values are never recorded. Disabled by default; enable it with the socialmedia.jfc settings file.
+ */
+@Name("socialmedia.Statement")
+@Label("JDBC Statement")
+@Category({"Social Media", "Database"})
+@Description("A JDBC statement executed by a DAO")
+@Enabled(false)
+@StackTrace(false)
+public class StatementEvent extends Event {
+    /**
+     * The SQL text of the statement.
+     */
+    @Label("SQL")
+    public String sql;
+    /**
+     * The rows affected by an update, or -1 for queries and failed executions.
+     */
+    @Label("Rows Affected")
+    public long rowsAffected;
+    /**
+     * Whether the driver raised an error.
+     */
+    @Label("Failed")
+    public boolean failed;
+}
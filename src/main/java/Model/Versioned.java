@@ -0,0 +1,71 @@
+package Model;
+
+import java.util.Objects;
+
+/**
+ * This is a class that pairs a stored entity with its version, a number the storage engine increments on every
+ * update. Clients send the version back in an If-Match header to update the entity only if nobody else has
+ * updated it since they read it.
+ * @param <T> The type of the entity.
+ */
+public class Versioned<T> {
+    /**
+     * The entity as stored.
+     */
+    private final T value;
+    /**
+     * The version of the entity, 0 when it is created.
+     */
+    private final long version;
+    /**
+     * @param value
+     * @param version
+     */
+    public Versioned(T value, long version) {
+        this.value = value;
+        this.version = version;
+    }
+    /**
+     * @return value
+     */
+    public T getValue() {
+        return value;
+    }
+    /**
+     * @return version
+     */
+    public long getVersion() {
+        return version;
+    }
+    /**
+     * Overriding the default equals() method adds functionality to tell when two objects are identical, allowing
+     * Assert.assertEquals and List.contains to function.
+     * @param o the other object.
+     * @return true if o is equal to this object.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Versioned<?> versioned = (Versioned<?>) o;
+        return version == versioned.version && Objects.equals(value, versioned.value);
+    }
+    /**
+     * @return a hash of the value and version, consistent with equals.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(value, version);
+    }
+    /**
+     * Overriding the default toString() method allows for easy debugging.
+     * @return a String representation of this class.
+     */
+    @Override
+    public String toString() {
+        return "Versioned{" +
+                "value=" + value +
+                ", version=" + version +
+                '}';
+    }
+}
@@ -1,19 +1,38 @@
 package Service;
 
-import DAO.AccountDAO;
+import java.util.concurrent.CompletableFuture;
+
+import DAO.AccountRepository;
+import DAO.Repositories;
+import Events.ChangeEvent;
+import Events.ChangeEvents;
+import Events.EventBus;
+import Metrics.ServiceCallEvent;
 import Model.Account;
+import Util.DatabaseExecutor;
+import Util.TransactionManager;
 
 /**
- * The AccountService class handles logic related to user accounts.
+ * The AccountService class handles logic related to user accounts. Every account it creates is published on the
+ * account bus of {@link ChangeEvents} once it is stored.
+ *
+ * Operations that take several DAO calls run them in one {@link TransactionManager} transaction. Every method
+ * has an asynchronous variant that runs it on the auth bulkhead of the {@link DatabaseExecutor}.
  */
 public class AccountService{
-    private AccountDAO accountDao;
+    private AccountRepository accountDao;
+    private EventBus<Account> accountEvents;
+    private TransactionManager transactions;
+    private DatabaseExecutor authExecutor;
 
     /**
-     * Constructor that initializes the AccountDAO object required by the service.
+     * Constructor that initializes the account repository required by the service, from the selected storage engine.
      */
     public AccountService() {
-        this.accountDao = new AccountDAO();
+        this.accountDao = Repositories.getAccountRepository();
+        this.accountEvents = ChangeEvents.getAccountEvents();
+        this.transactions = TransactionManager.getManager();
+        this.authExecutor = DatabaseExecutor.getExecutor(DatabaseExecutor.AUTH);
     }
 
     /**
@@ -22,14 +41,19 @@ public class AccountService{
      * @return The created account if successful, otherwise null.
      */
     public Account createAccount(Account account) {
-        if(account.getUsername().isEmpty() || account.getPassword().length() < 4){
-            return null;
-        }
-
-        if(accountExists(account.getUsername())){
-            return null;
-        }
-        return accountDao.insertAccount(account);
+        return ServiceCallEvent.record("AccountService.createAccount", 0, () -> {
+            if(account.getUsername().isEmpty() || account.getPassword().length() < 4){
+                return null;
+            }
+
+            // Check and insert in one transaction, committed once
+            Account createdAccount = transactions.inTransaction(() ->
+                    accountExists(account.getUsername()) ? null : accountDao.insertAccount(account));
+            if(createdAccount != null){
+                accountEvents.publish(ChangeEvent.Type.CREATED, createdAccount.getAccount_id(), createdAccount);
+            }
+            return createdAccount;
+        });
     }
 
     /**
@@ -38,7 +62,7 @@ public class AccountService{
      * @return True if the account exists, otherwise false.
      */
     public boolean accountExists(String username){
-        return accountDao.accountExists(username);
+        return ServiceCallEvent.record("AccountService.accountExists", 0, () -> accountDao.accountExists(username));
     }
 
     /**
@@ -48,8 +72,10 @@ public class AccountService{
      * @return True if the account is authenticated, otherwise false.
      */
     public boolean authenticateAccount(String username, String password) {
-        Account loginAccount = accountDao.getAccountByUsername(username);
-        return loginAccount != null && loginAccount.getPassword().equals(password);
+        return ServiceCallEvent.record("AccountService.authenticateAccount", 0, () -> {
+            Account loginAccount = accountDao.getAccountByUsername(username);
+            return loginAccount != null && loginAccount.getPassword().equals(password);
+        });
     }
 
     /**
@@ -58,7 +84,7 @@ public class AccountService{
      * @return The retrieved account if found, otherwise null.
      */
     public Account getAccountByUsername(String user_name){
-        return accountDao.getAccountByUsername(user_name);
+        return ServiceCallEvent.record("AccountService.getAccountByUsername", 0, () -> accountDao.getAccountByUsername(user_name));
     }
 
     /**
@@ -67,7 +93,53 @@ public class AccountService{
      * @return True if the account exists, otherwise false.
      */
     public boolean accountIdExists(int accountId){
-        return accountDao.accountIdExists(accountId);
+        return ServiceCallEvent.record("AccountService.accountIdExists", accountId, () -> accountDao.accountIdExists(accountId));
+    }
+
+    /**
+     * Creates a new account on the auth executor, see {@link #createAccount(Account)}.
+     * @param account The account object to be created.
+     * @return A future of the created account if successful, otherwise of null.
+     */
+    public CompletableFuture<Account> createAccountAsync(Account account){
+        return authExecutor.supply(() -> createAccount(account));
     }
-    
+
+    /**
+     * Checks if an account with the given username already exists, on the auth executor.
+     * @param username The username to check.
+     * @return A future of true if the account exists, otherwise of false.
+     */
+    public CompletableFuture<Boolean> accountExistsAsync(String username){
+        return authExecutor.supply(() -> accountExists(username));
+    }
+
+    /**
+     * Authenticates a user account and retrieves it, in one call on the auth executor.
+     * @param username The username of the account.
+     * @param password The password of the account.
+     * @return A future of the account if it is authenticated, otherwise of null.
+     */
+    public CompletableFuture<Account> authenticateAccountAsync(String username, String password){
+        return authExecutor.supply(() -> authenticateAccount(username, password) ? getAccountByUsername(username) : null);
+    }
+
+    /**
+     * Retrieves an account by its username on the auth executor.
+     * @param user_name The username of the account to retrieve.
+     * @return A future of the retrieved account if found, otherwise of null.
+     */
+    public CompletableFuture<Account> getAccountByUsernameAsync(String user_name){
+        return authExecutor.supply(() -> getAccountByUsername(user_name));
+    }
+
+    /**
+     * Checks if an account with the given ID exists, on the auth executor.
+     * @param accountId The ID of the account to check.
+     * @return A future of true if the account exists, otherwise of false.
+     */
+    public CompletableFuture<Boolean> accountIdExistsAsync(int accountId){
+        return authExecutor.supply(() -> accountIdExists(accountId));
+    }
+
 }
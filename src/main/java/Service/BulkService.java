@@ -0,0 +1,91 @@
+package Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+import Bulk.BulkExporter;
+import Bulk.BulkFormat;
+import Bulk.BulkImporter;
+import Bulk.BulkTable;
+import DAO.Repositories;
+import Util.ConnectionUtil;
+import Util.InstrumentedConnection;
+
+/**
+ * The BulkService class handles exporting and importing whole tables, for seeding, backups and migrations.
+ * Bulk transfers read and write the database directly, so they are only available for the tables the selected
+ * storage engine keeps in the database.
+ */
+public class BulkService {
+    private FeedService feedService;
+
+    /**
+     * Constructor that initializes the service.
+     * @param feedService The feed engine, whose timelines are rebuilt after an import.
+     */
+    public BulkService(FeedService feedService) {
+        this.feedService = feedService;
+    }
+
+    /**
+     * @param table A table.
+     * @return Whether the selected storage engine keeps the table in the database.
+     */
+    public boolean isAvailable(BulkTable table){
+        String engine = Repositories.getEngineName();
+        return engine.equals(Repositories.DEFAULT_ENGINE) || (engine.equals("log") && table == BulkTable.ACCOUNTS);
+    }
+
+    /**
+     * Streams every row of a table.
+     * @param table The table to export.
+     * @param format The format to write.
+     * @param out The stream to write to.
+     * @return The number of rows, with the duration and throughput.
+     * @throws SQLException if the table cannot be read.
+     * @throws IOException if the stream cannot be written.
+     */
+    public Map<String, Object> exportTable(BulkTable table, BulkFormat format, OutputStream out) throws SQLException, IOException {
+        return new BulkExporter(getShardConnections()).export(table, format, out);
+    }
+
+    /**
+     * Loads rows into a table, keeping their IDs, then drops the materialized feed timelines so they are
+     * rebuilt with the imported messages and follows. The import runs on connections of its own, so its batches
+     * and rollbacks never mix with the application's writes.
+     * @param table The table to load into.
+     * @param format The format of the rows.
+     * @param in The rows to load.
+     * @return The number of rows loaded and rejected, with the duration and throughput.
+     * @throws SQLException if a row cannot be inserted.
+     * @throws IOException if the stream cannot be read or parsed.
+     */
+    public Map<String, Object> importTable(BulkTable table, BulkFormat format, InputStream in) throws SQLException, IOException {
+        Connection[] connections = new Connection[ConnectionUtil.getShardCount()];
+        try{
+            for(int shard = 0; shard < connections.length; shard++){
+                connections[shard] = InstrumentedConnection.wrap(ConnectionUtil.openConnection(ConnectionUtil.getShardConnection(shard)));
+            }
+            return new BulkImporter(connections).importRows(table, format, in);
+        }finally{
+            for(Connection connection : connections){
+                if(connection != null){
+                    connection.close();
+                }
+            }
+            feedService.invalidateTimelines();
+        }
+    }
+
+    private static Connection[] getShardConnections(){
+        Connection[] connections = new Connection[ConnectionUtil.getShardCount()];
+        for(int shard = 0; shard < connections.length; shard++){
+            connections[shard] = InstrumentedConnection.wrap(ConnectionUtil.getShardConnection(shard));
+        }
+        return connections;
+    }
+}
@@ -0,0 +1,230 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import DAO.FollowRepository;
+import DAO.MessageRepository;
+import DAO.Repositories;
+import Metrics.ServiceCallEvent;
+import Model.Follow;
+import Model.Message;
+
+/**
+ * The FeedService class builds home feeds with a hybrid fan-out engine.
+ *
+ * Messages from accounts with fewer followers than the fan-out threshold are pushed on write into bounded,
+ * per-follower in-memory timelines. Messages from accounts at or above the threshold are never fanned out;
+ * they are merged into the feed at read time with one indexed query, so a single post by a popular account
+ * does not cost one write per follower.
+ *
+ * Timelines are materialized lazily on the first feed read and are only fanned out to once they exist, so
+ * memory is spent on active readers only. Timelines are eventually consistent: one built while a message is
+ * being posted may miss it until it is rebuilt after the next follow change.
+ */
+public class FeedService {
+    /**
+     * Follower count at which an account switches from fan-out-on-write to merge-on-read.
+     */
+    public static final int DEFAULT_FANOUT_THRESHOLD = 1000;
+    /**
+     * Number of message ids kept per follower timeline, and the largest feed page that can be served.
+     */
+    public static final int DEFAULT_TIMELINE_CAPACITY = 200;
+    /**
+     * Number of messages returned by a feed read when no limit is requested.
+     */
+    public static final int DEFAULT_FEED_LIMIT = 50;
+
+    private static final Comparator<Message> NEWEST_FIRST = Comparator
+            .comparingLong(Message::getTime_posted_epoch)
+            .thenComparingInt(Message::getMessage_id)
+            .reversed();
+
+    private FollowRepository followDao;
+    private MessageRepository messageDao;
+    private final int fanoutThreshold;
+    private final int timelineCapacity;
+    private final Map<Integer, Timeline> timelines = new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> followerCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor that reads the fan-out threshold and timeline capacity from the "feed.fanoutThreshold" and
+     * "feed.timelineCapacity" system properties, falling back to the defaults.
+     */
+    public FeedService() {
+        this(Integer.getInteger("feed.fanoutThreshold", DEFAULT_FANOUT_THRESHOLD),
+                Integer.getInteger("feed.timelineCapacity", DEFAULT_TIMELINE_CAPACITY));
+    }
+
+    /**
+     * Constructor that initializes the repositories, from the selected storage engine, with an explicit configuration.
+     * @param fanoutThreshold The follower count at which an account is merged on read instead of fanned out.
+     * @param timelineCapacity The number of entries kept per follower timeline.
+     */
+    public FeedService(int fanoutThreshold, int timelineCapacity) {
+        this.followDao = Repositories.getFollowRepository();
+        this.messageDao = Repositories.getMessageRepository();
+        this.fanoutThreshold = fanoutThreshold;
+        this.timelineCapacity = timelineCapacity;
+    }
+
+    /**
+     * Pushes a newly created message into the materialized timelines of the author's followers,
+     * unless the author has too many followers to fan out to.
+     * @param message The message that was created.
+     */
+    public void onMessageCreated(Message message){
+        int author = message.getPosted_by();
+        if(timelines.isEmpty() || isMergedOnRead(author)){
+            return;
+        }
+        for(int followerId : followDao.getFollowerIds(author)){
+            Timeline timeline = timelines.get(followerId);
+            if(timeline != null){
+                timeline.add(message.getMessage_id(), message.getTime_posted_epoch());
+            }
+        }
+    }
+
+    /**
+     * Removes a deleted message from the materialized timelines of the author's followers.
+     * @param message The message that was deleted.
+     */
+    public void onMessageDeleted(Message message){
+        if(timelines.isEmpty() || isMergedOnRead(message.getPosted_by())){
+            return;
+        }
+        for(int followerId : followDao.getFollowerIds(message.getPosted_by())){
+            Timeline timeline = timelines.get(followerId);
+            if(timeline != null){
+                timeline.remove(message.getMessage_id());
+            }
+        }
+    }
+
+    /**
+     * Updates follower counts and invalidates the timelines affected by a new follow.
+     * @param follow The follow that was created.
+     */
+    public void onFollow(Follow follow){
+        followGraphChanged(follow, 1);
+    }
+
+    /**
+     * Updates follower counts and invalidates the timelines affected by a removed follow.
+     * @param follow The follow that was removed.
+     */
+    public void onUnfollow(Follow follow){
+        followGraphChanged(follow, -1);
+    }
+
+    /**
+     * Retrieves the most recent messages posted by the accounts the given account follows, newest first.
+     * @param accountId The ID of the account whose feed is requested.
+     * @param limit The maximum number of messages to return, capped at the timeline capacity.
+     * @return A list of messages, or an empty list if the account follows nobody.
+     */
+    public List<Message> getFeed(int accountId, int limit){
+        return ServiceCallEvent.record("FeedService.getFeed", accountId, () -> {
+            int pageSize = Math.min(limit, timelineCapacity);
+            if(pageSize <= 0){
+                return new ArrayList<>();
+            }
+            Timeline timeline = timelines.computeIfAbsent(accountId, this::buildTimeline);
+
+            List<Integer> mergedOnRead = new ArrayList<>();
+            for(int followeeId : timeline.getFolloweeIds()){
+                if(isMergedOnRead(followeeId)){
+                    mergedOnRead.add(followeeId);
+                }
+            }
+
+            Map<Integer, Message> candidates = new HashMap<>();
+            for(Message message : messageDao.getMessagesByIds(timeline.newest(pageSize))){
+                candidates.put(message.getMessage_id(), message);
+            }
+            for(Message message : messageDao.getRecentMessagesFromUsers(mergedOnRead, pageSize)){
+                candidates.put(message.getMessage_id(), message);
+            }
+
+            List<Message> feed = new ArrayList<>(candidates.values());
+            feed.sort(NEWEST_FIRST);
+            return feed.size() > pageSize ? new ArrayList<>(feed.subList(0, pageSize)) : feed;
+        });
+    }
+
+    /**
+     * Checks whether an account has enough followers to be merged on read rather than fanned out.
+     * @param accountId The ID of the account to check.
+     * @return True if the account's follower count is at or above the fan-out threshold.
+     */
+    public boolean isMergedOnRead(int accountId){
+        return followerCount(accountId) >= fanoutThreshold;
+    }
+
+    /**
+     * Drops every materialized timeline and cached follower count, after messages or follows were changed
+     * without going through the services, eg by a bulk import.
+     */
+    public void invalidateTimelines(){
+        timelines.clear();
+        followerCounts.clear();
+    }
+
+    /**
+     * @return The number of follower timelines currently held in memory.
+     */
+    public int getMaterializedTimelineCount(){
+        return timelines.size();
+    }
+
+    /**
+     * Builds a timeline from the database with one query over the fanned-out followees.
+     */
+    private Timeline buildTimeline(int accountId){
+        List<Integer> followeeIds = followDao.getFolloweeIds(accountId);
+        List<Integer> fannedOut = new ArrayList<>();
+        for(int followeeId : followeeIds){
+            if(!isMergedOnRead(followeeId)){
+                fannedOut.add(followeeId);
+            }
+        }
+
+        Timeline timeline = new Timeline(followeeIds, timelineCapacity);
+        for(Message message : messageDao.getRecentMessagesFromUsers(fannedOut, timelineCapacity)){
+            timeline.add(message.getMessage_id(), message.getTime_posted_epoch());
+        }
+        return timeline;
+    }
+
+    /**
+     * Applies a follow graph change. The follower's cached followee list is now stale, and if the followee
+     * crossed the threshold in either direction, so are the timelines of all its followers.
+     */
+    private void followGraphChanged(Follow follow, int delta){
+        int followeeId = follow.getFollowee_id();
+        // An uncached count is loaded after the change was written, so it already includes it
+        int after = followerCounts.compute(followeeId,
+                (id, count) -> count == null ? followDao.countFollowers(id) : count + delta);
+        int before = after - delta;
+
+        timelines.remove(follow.getFollower_id());
+        if((before >= fanoutThreshold) != (after >= fanoutThreshold)){
+            for(int followerId : followDao.getFollowerIds(followeeId)){
+                timelines.remove(followerId);
+            }
+        }
+    }
+
+    /**
+     * @return The cached follower count of an account, loading it from the database on first use.
+     */
+    private int followerCount(int accountId){
+        return followerCounts.computeIfAbsent(accountId, followDao::countFollowers);
+    }
+}
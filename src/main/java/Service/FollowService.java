@@ -0,0 +1,62 @@
+package Service;
+
+import DAO.AccountRepository;
+import DAO.FollowRepository;
+import DAO.Repositories;
+import Metrics.ServiceCallEvent;
+import Model.Follow;
+
+/**
+ * The FollowService class handles logic related to the follow graph.
+ */
+public class FollowService {
+    private AccountRepository accountDao;
+    private FollowRepository followDao;
+    private FeedService feedService;
+
+    /**
+     * Constructor that initializes the repositories required by the service, from the selected storage engine.
+     * @param feedService The feed engine to notify when the follow graph changes.
+     */
+    public FollowService(FeedService feedService) {
+        this.accountDao = Repositories.getAccountRepository();
+        this.followDao = Repositories.getFollowRepository();
+        this.feedService = feedService;
+    }
+
+    /**
+     * Makes one account follow another if the conditions are met.
+     * @param follow The follow to be created.
+     * @return The created follow if successful, otherwise null.
+     */
+    public Follow follow(Follow follow){
+        return ServiceCallEvent.record("FollowService.follow", follow.getFollower_id(), () -> {
+            if(follow.getFollower_id() == follow.getFollowee_id()
+                    || !accountDao.accountIdExists(follow.getFollower_id())
+                    || !accountDao.accountIdExists(follow.getFollowee_id())
+                    || followDao.followExists(follow)){
+                return null;
+            }
+            Follow createdFollow = followDao.insertFollow(follow);
+            if(createdFollow != null){
+                feedService.onFollow(createdFollow);
+            }
+            return createdFollow;
+        });
+    }
+
+    /**
+     * Removes a follow.
+     * @param follow The follow to be removed.
+     * @return The removed follow if it existed, otherwise null.
+     */
+    public Follow unfollow(Follow follow){
+        return ServiceCallEvent.record("FollowService.unfollow", follow.getFollower_id(), () -> {
+            Follow deletedFollow = followDao.deleteFollow(follow);
+            if(deletedFollow != null){
+                feedService.onUnfollow(deletedFollow);
+            }
+            return deletedFollow;
+        });
+    }
+}
@@ -0,0 +1,246 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import DAO.AccountRepository;
+import DAO.MessageDAO;
+import DAO.MessageRepository;
+import DAO.Repositories;
+import Metrics.LatencyHistogram;
+import Metrics.MetricsRegistry;
+import Model.Message;
+import Util.TransactionManager;
+
+/**
+ * The GroupCommitWriter class inserts messages in batches, one transaction and one commit per batch, for bursty
+ * ingest where a few milliseconds of extra latency buy much higher write throughput.
+ *
+ * Callers put their message in a bounded queue, waiting while it is full, and get a future. A single writer
+ * thread takes the first queued message, waits up to the linger time for more, up to the batch size, and inserts
+ * them all in one {@link TransactionManager} transaction. Each future completes with the inserted message, or
+ * null if its poster does not exist, only once the batch has committed. If a batch fails, its messages are
+ * retried one transaction each, so that one bad message does not fail the others, and each future completes with
+ * the outcome of its own message.
+ *
+ * Only messages known not to have been inserted are retried. With the jdbc engine a batch is written in one
+ * transaction per message shard, so that each transaction writes to a single database; the poster checks only
+ * read the main database, which the transaction uses first and so commits first. A failed transaction has
+ * therefore written nothing, and all of its messages are retried. The other engines cannot roll back: the messages inserted before the failure stay
+ * inserted and complete with their result, and a message whose insert threw, which may or may not have been
+ * applied, fails rather than risk a duplicate.
+ */
+public class GroupCommitWriter implements Runnable {
+    private static GroupCommitWriter writer = null;
+
+    private final MessageRepository messageDao;
+    private final AccountRepository accountDao;
+    private final TransactionManager transactions;
+    // The database repository, which rolls a failed batch back, or null with the other engines
+    private final MessageDAO database;
+    private final BlockingQueue<Pending> queue;
+    private final int maxBatch;
+    private final long lingerNanos;
+    private final LatencyHistogram batchSizes;
+    private final LatencyHistogram flushLatency;
+
+    /**
+     * Creates a writer; run it on a thread of its own.
+     * @param messageDao The repository messages are inserted into.
+     * @param accountDao The repository posters are checked in.
+     * @param transactions The manager of the batch transactions.
+     * @param capacity The number of messages that can wait to be written before callers wait too.
+     * @param maxBatch The largest number of messages written in one transaction.
+     * @param lingerMicros How long the writer waits for more messages after the first, 0 to write whatever is
+     * queued at once.
+     * @param registry The registry the writer's metrics are exported from.
+     */
+    public GroupCommitWriter(MessageRepository messageDao, AccountRepository accountDao, TransactionManager transactions,
+            int capacity, int maxBatch, long lingerMicros, MetricsRegistry registry){
+        this.messageDao = messageDao;
+        this.accountDao = accountDao;
+        this.transactions = transactions;
+        // Only the database repository takes part in transactions
+        this.database = messageDao instanceof MessageDAO ? (MessageDAO) messageDao : null;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatch = maxBatch;
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+        this.batchSizes = registry.distribution("message_group_commit_batch_size", "Messages written per group commit.", "");
+        this.flushLatency = registry.histogram("message_group_commit_flush_seconds", "Time to insert and commit one batch of messages.", "");
+        registry.gauge("message_group_commit_queued", "Messages waiting for the group commit writer.", "", () -> queue.size());
+    }
+
+    /**
+     * @return The shared writer, started on first use, or null unless the "messages.groupCommit" system property is
+     * true. "messages.groupCommit.capacity" (default 10000), "messages.groupCommit.maxBatch" (default 256) and
+     * "messages.groupCommit.lingerMicros" (default 2000) configure it.
+     */
+    static synchronized GroupCommitWriter getWriter(){
+        if(writer == null && Boolean.getBoolean("messages.groupCommit")){
+            writer = new GroupCommitWriter(Repositories.getMessageRepository(), Repositories.getAccountRepository(),
+                    TransactionManager.getManager(),
+                    Integer.getInteger("messages.groupCommit.capacity", 10_000),
+                    Integer.getInteger("messages.groupCommit.maxBatch", 256),
+                    Long.getLong("messages.groupCommit.lingerMicros", 2_000),
+                    MetricsRegistry.getRegistry());
+            Thread thread = new Thread(writer, "message-group-commit");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return writer;
+    }
+
+    /**
+     * Queues a validated message to be inserted, waiting while the queue is full.
+     * @param message The message to insert.
+     * @return A future completed after the commit with the inserted message and its generated message ID, or
+     * null if the poster does not exist or the insert failed.
+     */
+    public CompletableFuture<Message> submit(Message message){
+        Pending pending = new Pending(message);
+        try{
+            queue.put(pending);
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            pending.future.completeExceptionally(e);
+        }
+        return pending.future;
+    }
+
+    @Override
+    public void run(){
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while(true){
+            try{
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + lingerNanos;
+                while(batch.size() < maxBatch){
+                    if(queue.drainTo(batch, maxBatch - batch.size()) > 0){
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if(next == null){
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            }catch(InterruptedException e){
+                return;
+            }catch(RuntimeException e){
+                e.printStackTrace();
+                for(Pending pending : batch){
+                    pending.future.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Inserts a batch, in one transaction per message shard with the jdbc engine.
+     */
+    private void flush(List<Pending> batch){
+        if(database == null){
+            write(batch);
+            return;
+        }
+        Map<Integer, List<Pending>> shards = new TreeMap<>();
+        for(Pending pending : batch){
+            shards.computeIfAbsent(database.shardOfPoster(pending.message.getPosted_by()), shard -> new ArrayList<>()).add(pending);
+        }
+        for(List<Pending> shardBatch : shards.values()){
+            write(shardBatch);
+        }
+    }
+
+    /**
+     * Inserts a batch in one transaction, falling back to one transaction per message for the messages that may
+     * be retried if it fails, then completes the futures.
+     */
+    private void write(List<Pending> batch){
+        long start = System.nanoTime();
+        List<Pending> retries;
+        try{
+            boolean written = transactions.inTransaction(() -> {
+                Map<Integer, Boolean> postersExist = new HashMap<>();
+                for(Pending pending : batch){
+                    int postedBy = pending.message.getPosted_by();
+                    boolean posterExists = postersExist.computeIfAbsent(postedBy, accountDao::accountIdExists);
+                    if(posterExists){
+                        pending.attempted = true;
+                        pending.result = messageDao.insertMessage(pending.message);
+                        if(pending.result == null){
+                            transactions.setRollbackOnly();
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            });
+            retries = written ? List.of() : retries(batch, null);
+        }catch(RuntimeException e){
+            e.printStackTrace();
+            retries = retries(batch, e);
+        }
+        for(Pending pending : retries){
+            try{
+                pending.result = transactions.inTransaction(() ->
+                        accountDao.accountIdExists(pending.message.getPosted_by()) ? messageDao.insertMessage(pending.message) : null);
+                pending.future.complete(pending.result);
+            }catch(RuntimeException e){
+                e.printStackTrace();
+                pending.future.completeExceptionally(e);
+            }
+        }
+        flushLatency.record(System.nanoTime() - start);
+        batchSizes.record(batch.size());
+        for(Pending pending : batch){
+            pending.future.complete(pending.result);
+        }
+    }
+
+    /**
+     * Picks the messages of a failed batch to retry one by one. With an engine that cannot roll back, the
+     * messages already inserted keep their result, and the one whose insert threw fails with the exception.
+     * @param batch The batch.
+     * @param failure The exception the batch failed with, or null if an insert returned null.
+     * @return The messages to retry.
+     */
+    private List<Pending> retries(List<Pending> batch, RuntimeException failure){
+        if(database != null){
+            return batch;
+        }
+        List<Pending> retries = new ArrayList<>();
+        for(Pending pending : batch){
+            if(!pending.attempted){
+                retries.add(pending);
+            }else if(pending.result == null && failure != null){
+                pending.future.completeExceptionally(failure);
+            }
+        }
+        return retries;
+    }
+
+    /**
+     * A queued message and the future of its caller.
+     */
+    private static class Pending {
+        private final Message message;
+        private final CompletableFuture<Message> future = new CompletableFuture<>();
+        private boolean attempted;
+        private Message result;
+
+        Pending(Message message){
+            this.message = message;
+        }
+    }
+}
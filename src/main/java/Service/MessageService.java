@@ -1,23 +1,67 @@
 package Service;
 
 import java.util.List;
-import DAO.AccountDAO;
-import DAO.MessageDAO;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import DAO.AccountRepository;
+import DAO.MessageRepository;
+import DAO.Repositories;
+import Events.ChangeEvent;
+import Events.ChangeEvents;
+import Events.EventBus;
+import Metrics.ServiceCallEvent;
 import Model.Message;
+import Model.Versioned;
+import Util.DatabaseExecutor;
+import Util.ReadHedger;
+import Util.Replication;
+import Util.TransactionManager;
 
 /**
- * The MessageService class handles logic related to messages.
+ * The MessageService class handles logic related to messages. Every message it creates, updates or deletes is
+ * published on the message bus of {@link ChangeEvents} once the change is stored.
+ *
+ * Operations that take several DAO calls run them in one {@link TransactionManager} transaction, so they commit
+ * once and atomically; feeds and subscribers are only notified after the commit. With the "messages.groupCommit"
+ * system property set, new messages are instead inserted in batches by the {@link GroupCommitWriter}.
+ *
+ * Every method has an asynchronous variant that runs it on the reads or writes bulkhead of the
+ * {@link DatabaseExecutor}, for callers that must not block on the database. With the "db.hedge.enabled" system
+ * property set, reads of a message by ID are hedged by the {@link ReadHedger}.
+ *
+ * With read replicas (the "db.replicas" system property), the asynchronous reads that take the time of the
+ * caller's last write run on a replica fresh as of that time, see {@link Replication}; the others still read the
+ * database, eg to check a version before an update.
  */
 public class MessageService{
-    private AccountDAO accountDao;
-    private MessageDAO messageDao;
+    private AccountRepository accountDao;
+    private MessageRepository messageDao;
+    private FeedService feedService;
+    private EventBus<Message> messageEvents;
+    private TransactionManager transactions;
+    private GroupCommitWriter groupCommitWriter;
+    private DatabaseExecutor readExecutor;
+    private DatabaseExecutor writeExecutor;
+    // Null unless reads by ID are hedged
+    private ReadHedger hedger;
+    // Null without read replicas
+    private Replication replication;
 
     /**
-     * Constructor that initializes the DAO objects required by the service.
+     * Constructor that initializes the repositories required by the service, from the selected storage engine.
+     * @param feedService The feed engine to notify when messages are created or deleted.
      */
-    public MessageService() {
-        this.accountDao = new AccountDAO();
-        this.messageDao = new MessageDAO();
+    public MessageService(FeedService feedService) {
+        this.accountDao = Repositories.getAccountRepository();
+        this.messageDao = Repositories.getMessageRepository();
+        this.feedService = feedService;
+        this.messageEvents = ChangeEvents.getMessageEvents();
+        this.transactions = TransactionManager.getManager();
+        this.groupCommitWriter = GroupCommitWriter.getWriter();
+        this.readExecutor = DatabaseExecutor.getExecutor(DatabaseExecutor.READS);
+        this.writeExecutor = DatabaseExecutor.getExecutor(DatabaseExecutor.WRITES);
+        this.hedger = ReadHedger.getHedger();
+        this.replication = Replication.getReplication();
     }
 
     /**
@@ -26,10 +70,41 @@ public class MessageService{
      * @return The created message if successful, otherwise null.
      */
     public Message createMessage(Message message){
-        if(message.getMessage_text().isEmpty() || message.getMessage_text().length() >= 255 || !accountDao.accountIdExists(message.getPosted_by())){
-            return null;
+        return ServiceCallEvent.record("MessageService.createMessage", message.getPosted_by(), () -> {
+            if(!isValidText(message)){
+                return null;
+            }
+            if(groupCommitWriter != null){
+                // Wait for the batch holding the message to commit
+                return groupCommitWriter.submit(message).thenApply(this::onMessageCreated).join();
+            }
+            // The poster cannot be removed between the check and the insert
+            Message createdMessage = transactions.inTransaction(() ->
+                    accountDao.accountIdExists(message.getPosted_by()) ? messageDao.insertMessage(message) : null);
+            return onMessageCreated(createdMessage);
+        });
+    }
+
+    /**
+     * Checks that a message text is not empty and under 255 characters.
+     * @param message The message to check.
+     * @return true if the text can be stored, otherwise false.
+     */
+    private static boolean isValidText(Message message){
+        return !message.getMessage_text().isEmpty() && message.getMessage_text().length() < 255;
+    }
+
+    /**
+     * Adds a created message to the followers' timelines and publishes its change event.
+     * @param createdMessage The created message, or null if none was created.
+     * @return The created message.
+     */
+    private Message onMessageCreated(Message createdMessage){
+        if(createdMessage != null){
+            feedService.onMessageCreated(createdMessage);
+            messageEvents.publish(ChangeEvent.Type.CREATED, createdMessage.getMessage_id(), createdMessage);
         }
-        return messageDao.insertMessage(message);
+        return createdMessage;
     }
 
     /**
@@ -37,7 +112,7 @@ public class MessageService{
      * @return A list of all messages.
      */
     public List<Message> getAllMessages(){
-        return messageDao.getAllMessages();
+        return ServiceCallEvent.record("MessageService.getAllMessages", 0, () -> messageDao.getAllMessages());
     }
 
     /**
@@ -46,16 +121,33 @@ public class MessageService{
      * @return The retrieved message if found, otherwise null.
      */
     public Message getMessageById(int message_id){
-        return messageDao.getMessageById(message_id);
+        return ServiceCallEvent.record("MessageService.getMessageById", message_id, () -> messageDao.getMessageById(message_id));
     }
     
+    /**
+     * Retrieves a message by its ID, with its version.
+     * @param message_id The ID of the message to retrieve.
+     * @return The retrieved message and its version if found, otherwise null.
+     */
+    public Versioned<Message> getVersionedMessageById(int message_id){
+        return ServiceCallEvent.record("MessageService.getMessageById", message_id, () -> messageDao.getVersionedMessageById(message_id));
+    }
+
     /**
      * Deletes a message by its ID.
      * @param message_id The ID of the message to delete.
      * @return The deleted message if found and deleted, otherwise null.
      */
     public Message deleteMessage(int message_id){
-        return messageDao.deleteMessageById(message_id);
+        return ServiceCallEvent.record("MessageService.deleteMessage", message_id, () -> {
+            // The message is read and deleted together, so the one returned is the one deleted
+            Message deletedMessage = transactions.inTransaction(() -> messageDao.deleteMessageById(message_id));
+            if(deletedMessage != null){
+                feedService.onMessageDeleted(deletedMessage);
+                messageEvents.publish(ChangeEvent.Type.DELETED, message_id, deletedMessage);
+            }
+            return deletedMessage;
+        });
     }
 
     /**
@@ -65,10 +157,36 @@ public class MessageService{
      * @return The updated message if successful, otherwise null.
      */
     public Message updateMessage(int messageId, Message updatedMessage) {
-        if(updatedMessage.getMessage_text().isEmpty() || updatedMessage.getMessage_text().length() >= 255){
-            return null;
-        }
-        return messageDao.updateMessage(messageId, updatedMessage);
+        return ServiceCallEvent.record("MessageService.updateMessage", messageId, () -> {
+            if(updatedMessage.getMessage_text().isEmpty() || updatedMessage.getMessage_text().length() >= 255){
+                return null;
+            }
+            Message storedMessage = messageDao.updateMessage(messageId, updatedMessage);
+            if(storedMessage != null){
+                messageEvents.publish(ChangeEvent.Type.UPDATED, messageId, storedMessage);
+            }
+            return storedMessage;
+        });
+    }
+
+    /**
+     * Updates a message with new content, only if nobody has updated it since it was read at the expected version.
+     * @param messageId The ID of the message to update.
+     * @param updatedMessage The updated message object.
+     * @param expectedVersion The version the message was read at.
+     * @return The updated message and its new version if successful, otherwise null.
+     */
+    public Versioned<Message> updateMessage(int messageId, Message updatedMessage, long expectedVersion) {
+        return ServiceCallEvent.record("MessageService.updateMessage", messageId, () -> {
+            if(updatedMessage.getMessage_text().isEmpty() || updatedMessage.getMessage_text().length() >= 255){
+                return null;
+            }
+            Versioned<Message> storedMessage = messageDao.updateMessageIfVersion(messageId, updatedMessage, expectedVersion);
+            if(storedMessage != null){
+                messageEvents.publish(ChangeEvent.Type.UPDATED, messageId, storedMessage.getValue());
+            }
+            return storedMessage;
+        });
     }
 
     /**
@@ -77,7 +195,134 @@ public class MessageService{
      * @return A list of messages posted by the user.
      */
     public List<Message> getAllMessagesFromUser(int account_id) {
-        return messageDao.getAllMessagesFromUser(account_id);
+        return ServiceCallEvent.record("MessageService.getAllMessagesFromUser", account_id, () -> messageDao.getAllMessagesFromUser(account_id));
+    }
+
+    /**
+     * Creates a new message on the writes executor, see {@link #createMessage(Message)}.
+     * With group commit on, the message is handed to the batch writer instead, so no writes
+     * thread is held while the batch commits.
+     * @param message The message object to be created.
+     * @return A future of the created message if successful, otherwise of null.
+     */
+    public CompletableFuture<Message> createMessageAsync(Message message){
+        if(groupCommitWriter == null){
+            return writeExecutor.supply(() -> createMessage(message));
+        }
+        if(!isValidText(message)){
+            return CompletableFuture.completedFuture(null);
+        }
+        return groupCommitWriter.submit(message).thenApply(this::onMessageCreated);
+    }
+
+    /**
+     * Retrieves all messages on the reads executor.
+     * @return A future of the list of all messages.
+     */
+    public CompletableFuture<List<Message>> getAllMessagesAsync(){
+        return readExecutor.supply(this::getAllMessages);
+    }
+
+    /**
+     * Retrieves all messages on the reads executor, from a read replica if one has the caller's last write.
+     * @param readAfterMillis The epoch milliseconds of the caller's last write, or 0.
+     * @return A future of the list of all messages.
+     */
+    public CompletableFuture<List<Message>> getAllMessagesAsync(long readAfterMillis){
+        return readExecutor.supply(() -> fromReplica(readAfterMillis, this::getAllMessages));
+    }
+
+    /**
+     * Retrieves a message by its ID on the reads executor, hedged if enabled.
+     * @param message_id The ID of the message to retrieve.
+     * @return A future of the retrieved message if found, otherwise of null.
+     */
+    public CompletableFuture<Message> getMessageByIdAsync(int message_id){
+        if(hedger != null){
+            return hedger.supply(readExecutor, () -> getMessageById(message_id));
+        }
+        return readExecutor.supply(() -> getMessageById(message_id));
+    }
+
+    /**
+     * Retrieves a message by its ID, with its version, on the reads executor, hedged if enabled.
+     * @param message_id The ID of the message to retrieve.
+     * @return A future of the retrieved message and its version if found, otherwise of null.
+     */
+    public CompletableFuture<Versioned<Message>> getVersionedMessageByIdAsync(int message_id){
+        if(hedger != null){
+            return hedger.supply(readExecutor, () -> getVersionedMessageById(message_id));
+        }
+        return readExecutor.supply(() -> getVersionedMessageById(message_id));
+    }
+
+    /**
+     * Retrieves a message by its ID, with its version, on the reads executor, hedged if enabled, from a read
+     * replica if one has the caller's last write.
+     * @param message_id The ID of the message to retrieve.
+     * @param readAfterMillis The epoch milliseconds of the caller's last write, or 0.
+     * @return A future of the retrieved message and its version if found, otherwise of null.
+     */
+    public CompletableFuture<Versioned<Message>> getVersionedMessageByIdAsync(int message_id, long readAfterMillis){
+        Supplier<Versioned<Message>> read = () -> fromReplica(readAfterMillis, () -> getVersionedMessageById(message_id));
+        if(hedger != null){
+            return hedger.supply(readExecutor, read);
+        }
+        return readExecutor.supply(read);
+    }
+
+    /**
+     * Deletes a message by its ID on the writes executor.
+     * @param message_id The ID of the message to delete.
+     * @return A future of the deleted message if found and deleted, otherwise of null.
+     */
+    public CompletableFuture<Message> deleteMessageAsync(int message_id){
+        return writeExecutor.supply(() -> deleteMessage(message_id));
+    }
+
+    /**
+     * Updates a message with new content on the writes executor.
+     * @param messageId The ID of the message to update.
+     * @param updatedMessage The updated message object.
+     * @return A future of the updated message if successful, otherwise of null.
+     */
+    public CompletableFuture<Message> updateMessageAsync(int messageId, Message updatedMessage){
+        return writeExecutor.supply(() -> updateMessage(messageId, updatedMessage));
+    }
+
+    /**
+     * Updates a message with new content if it is still at the expected version, on the writes executor.
+     * @param messageId The ID of the message to update.
+     * @param updatedMessage The updated message object.
+     * @param expectedVersion The version the message was read at.
+     * @return A future of the updated message and its new version if successful, otherwise of null.
+     */
+    public CompletableFuture<Versioned<Message>> updateMessageAsync(int messageId, Message updatedMessage, long expectedVersion){
+        return writeExecutor.supply(() -> updateMessage(messageId, updatedMessage, expectedVersion));
+    }
+
+    /**
+     * Retrieves all messages posted by a specific user on the reads executor.
+     * @param account_id The ID of the user account.
+     * @return A future of the list of messages posted by the user.
+     */
+    public CompletableFuture<List<Message>> getAllMessagesFromUserAsync(int account_id){
+        return readExecutor.supply(() -> getAllMessagesFromUser(account_id));
+    }
+
+    /**
+     * Retrieves all messages posted by a specific user on the reads executor, from a read replica if one has the
+     * caller's last write.
+     * @param account_id The ID of the user account.
+     * @param readAfterMillis The epoch milliseconds of the caller's last write, or 0.
+     * @return A future of the list of messages posted by the user.
+     */
+    public CompletableFuture<List<Message>> getAllMessagesFromUserAsync(int account_id, long readAfterMillis){
+        return readExecutor.supply(() -> fromReplica(readAfterMillis, () -> getAllMessagesFromUser(account_id)));
+    }
+
+    private <T> T fromReplica(long readAfterMillis, Supplier<T> read){
+        return replication == null ? read.get() : replication.read(readAfterMillis, read);
     }
 
 }
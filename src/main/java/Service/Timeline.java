@@ -0,0 +1,97 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded, in-memory home timeline for one follower.
+ * Entries are message ids kept sorted newest first by time_posted_epoch (then message_id), so the oldest entry
+ * is dropped once the timeline is full. Only ids are stored; the messages themselves are hydrated on read so that
+ * updates are always visible and deleted messages simply disappear.
+ */
+class Timeline {
+    private final List<Integer> followeeIds;
+    private final long[] epochs;
+    private final int[] messageIds;
+    private int size;
+
+    /**
+     * Creates an empty timeline.
+     * @param followeeIds The accounts the owner followed when the timeline was built.
+     * @param capacity The maximum number of entries kept.
+     */
+    Timeline(List<Integer> followeeIds, int capacity){
+        this.followeeIds = followeeIds;
+        this.epochs = new long[capacity];
+        this.messageIds = new int[capacity];
+    }
+
+    /**
+     * @return The accounts the owner followed when the timeline was built.
+     */
+    List<Integer> getFolloweeIds(){
+        return followeeIds;
+    }
+
+    /**
+     * Inserts a message id in order, evicting the oldest entry if the timeline is full.
+     * @param messageId The id of the message.
+     * @param timePostedEpoch The time the message was posted.
+     */
+    synchronized void add(int messageId, long timePostedEpoch){
+        if(epochs.length == 0){
+            return;
+        }
+        int position = 0;
+        while(position < size && isNewer(epochs[position], messageIds[position], timePostedEpoch, messageId)){
+            position++;
+        }
+        if(position < size && messageIds[position] == messageId){
+            return;
+        }
+        if(position == epochs.length){
+            return;
+        }
+        int moved = Math.min(size, epochs.length - 1) - position;
+        System.arraycopy(epochs, position, epochs, position + 1, moved);
+        System.arraycopy(messageIds, position, messageIds, position + 1, moved);
+        epochs[position] = timePostedEpoch;
+        messageIds[position] = messageId;
+        size = Math.min(size + 1, epochs.length);
+    }
+
+    /**
+     * Removes a message id if present.
+     * @param messageId The id of the message to remove.
+     */
+    synchronized void remove(int messageId){
+        for(int i = 0; i < size; i++){
+            if(messageIds[i] == messageId){
+                System.arraycopy(epochs, i + 1, epochs, i, size - i - 1);
+                System.arraycopy(messageIds, i + 1, messageIds, i, size - i - 1);
+                size--;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param limit The maximum number of ids to return.
+     * @return The newest message ids, newest first.
+     */
+    synchronized List<Integer> newest(int limit){
+        int count = Math.min(limit, size);
+        List<Integer> ids = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            ids.add(messageIds[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * Orders entries newest first, breaking ties on time_posted_epoch by the larger message_id.
+     */
+    private static boolean isNewer(long epoch, int messageId, long otherEpoch, int otherMessageId){
+        return epoch > otherEpoch || (epoch == otherEpoch && messageId > otherMessageId);
+    }
+}
@@ -0,0 +1,219 @@
+package Util;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import Metrics.LatencyHistogram;
+import Metrics.MetricsRegistry;
+
+/**
+ * The ConcurrencyLimiter class bounds the number of statements running on the database at once, and adapts that
+ * bound to the latency it observes instead of relying on fixed pool sizes, in the manner of TCP Vegas.
+ *
+ * The shortest round trip seen recently is taken as the latency of a statement that does not queue in the
+ * database. Each completed statement compares its own round trip to it to estimate how many statements are
+ * queued: limit * (1 - shortest / observed). While that estimate stays small the limit grows, quickly at first;
+ * once it exceeds a few statements the limit shrinks again, so the limit settles where throughput is highest
+ * without latency inflating. Statements that time out shrink the limit too. A statement that ran while fewer
+ * than half the permits were taken says nothing about the limit and leaves it unchanged. The shortest round trip
+ * is forgotten every thousand samples, so that it follows a database whose baseline latency changes.
+ *
+ * A statement that finds every permit taken waits for one, for a bounded time and in a bounded queue. Once either
+ * is exceeded it is refused with a {@link RejectedExecutionException}, which the controller answers with 503, so
+ * that overload is shed at the door instead of queueing without limit.
+ *
+ * This class utilizes the singleton design pattern, like ConnectionUtil, for the limiter of
+ * {@link InstrumentedConnection}.
+ */
+public class ConcurrencyLimiter {
+    private static final int PROBE_SAMPLES = 1_000;
+
+    private static ConcurrencyLimiter limiter = null;
+    private static boolean configured = false;
+
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long maxWaitNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final LatencyHistogram waitTime;
+    private final LongAdder rejected;
+    private final LongAdder increases;
+    private final LongAdder decreases;
+
+    // Guarded by lock
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private long noLoadRtt;
+    private long samples;
+
+    /**
+     * @param initialLimit The number of concurrent statements allowed before any has completed.
+     * @param maxLimit The largest number of concurrent statements the limit can grow to.
+     * @param maxQueue The number of statements that can wait for a permit before new ones are refused.
+     * @param maxWaitMillis How long a statement waits for a permit before it is refused.
+     * @param registry The registry the limiter's metrics are exported from.
+     */
+    public ConcurrencyLimiter(int initialLimit, int maxLimit, int maxQueue, long maxWaitMillis, MetricsRegistry registry){
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.max(1, Math.min(this.maxLimit, initialLimit));
+        this.maxQueue = maxQueue;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.waitTime = registry.histogram("db_concurrency_wait_seconds", "Time statements waited for a permit of the concurrency limit.", "");
+        this.rejected = registry.counter("db_concurrency_rejected_total", "Statements refused because the concurrency limit and its queue were full.", "");
+        this.increases = registry.counter("db_concurrency_limit_changes_total", "Changes of the concurrency limit.", MetricsRegistry.labels("direction", "up"));
+        this.decreases = registry.counter("db_concurrency_limit_changes_total", "Changes of the concurrency limit.", MetricsRegistry.labels("direction", "down"));
+        registry.gauge("db_concurrency_limit", "Statements allowed to run on the database at once.", "", this::getLimit);
+        registry.gauge("db_concurrency_in_flight", "Statements running on the database.", "", () -> locked(() -> inFlight));
+        registry.gauge("db_concurrency_waiting", "Statements waiting for a permit of the concurrency limit.", "", () -> locked(() -> waiting));
+        registry.gauge("db_concurrency_no_load_rtt_microseconds", "Shortest recent statement round trip.", "",
+                () -> locked(() -> TimeUnit.NANOSECONDS.toMicros(noLoadRtt)));
+    }
+
+    /**
+     * @return The limiter of the statements of every wrapped connection, configured by the "db.limit.initial"
+     * (default 20), "db.limit.max" (default 200), "db.limit.queueSize" (default 1000) and "db.limit.maxWaitMillis"
+     * (default 1000) system properties, or null if "db.limit.enabled" is set to false.
+     */
+    public static synchronized ConcurrencyLimiter getLimiter(){
+        if(!configured){
+            configured = true;
+            if(Boolean.parseBoolean(System.getProperty("db.limit.enabled", "true"))){
+                limiter = new ConcurrencyLimiter(Integer.getInteger("db.limit.initial", 20), Integer.getInteger("db.limit.max", 200),
+                        Integer.getInteger("db.limit.queueSize", 1_000), Long.getLong("db.limit.maxWaitMillis", 1_000L),
+                        MetricsRegistry.getRegistry());
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Takes a permit, waiting for one if every permit is taken. Every permit taken must be returned with
+     * {@link #release(int, long, boolean)}.
+     * @return The number of statements in flight including this one, to be passed back on release.
+     * @throws RejectedExecutionException if the queue of waiting statements is full, or no permit was
+     * returned in time.
+     */
+    public int acquire(){
+        lock.lock();
+        try{
+            if(inFlight >= (int) limit){
+                await();
+            }
+            return ++inFlight;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a permit and adjusts the limit to the statement's round trip.
+     * @param inFlightAtStart The value returned by {@link #acquire()}.
+     * @param rttNanos How long the statement took.
+     * @param dropped Whether the statement timed out, which is taken as a sign of overload.
+     */
+    public void release(int inFlightAtStart, long rttNanos, boolean dropped){
+        lock.lock();
+        try{
+            inFlight--;
+            int before = (int) limit;
+            update(inFlightAtStart, rttNanos, dropped);
+            int after = (int) limit;
+            if(after > before){
+                increases.increment();
+                available.signalAll();
+            }else{
+                if(after < before){
+                    decreases.increment();
+                }
+                if(inFlight < after){
+                    available.signal();
+                }
+            }
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of statements currently allowed to run at once.
+     */
+    public long getLimit(){
+        return locked(() -> (int) limit);
+    }
+
+    /**
+     * Waits in the queue until a permit is free. Called with the lock held.
+     */
+    private void await(){
+        if(waiting >= maxQueue){
+            reject();
+        }
+        long start = System.nanoTime();
+        waiting++;
+        try{
+            long remaining = maxWaitNanos;
+            while(inFlight >= (int) limit){
+                if(remaining <= 0){
+                    reject();
+                }
+                remaining = available.awaitNanos(remaining);
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            reject();
+        }finally{
+            waiting--;
+        }
+        waitTime.record(System.nanoTime() - start);
+    }
+
+    private void reject(){
+        rejected.increment();
+        throw new RejectedExecutionException("Database concurrency limit of " + (int) limit + " reached");
+    }
+
+    /**
+     * Moves the limit towards the concurrency at which statements start to queue. Called with the lock held.
+     */
+    private void update(int inFlightAtStart, long rttNanos, boolean dropped){
+        rttNanos = Math.max(1, rttNanos);
+        samples++;
+        if(noLoadRtt == 0 || rttNanos < noLoadRtt || samples % PROBE_SAMPLES == 0){
+            noLoadRtt = rttNanos;
+        }
+        double step = Math.max(1, Math.log10(limit));
+        double newLimit;
+        if(dropped){
+            newLimit = limit - step;
+        }else if(inFlightAtStart * 2 < limit){
+            return;
+        }else{
+            double queued = Math.ceil(limit * (1 - (double) noLoadRtt / rttNanos));
+            if(queued <= step){
+                newLimit = limit + 6 * step;
+            }else if(queued < 3 * step){
+                newLimit = limit + step;
+            }else if(queued > 6 * step){
+                newLimit = limit - step;
+            }else{
+                return;
+            }
+        }
+        limit = Math.max(1, Math.min(maxLimit, newLimit));
+    }
+
+    private long locked(LongSupplier value){
+        lock.lock();
+        try{
+            return value.getAsLong();
+        }finally{
+            lock.unlock();
+        }
+    }
+}
@@ -2,11 +2,17 @@ package Util;
 
 import org.h2.tools.RunScript;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The ConnectionUtil class will be utilized to create an active connection to our database. This class utilizes the singleton design pattern.
@@ -17,9 +23,10 @@ import java.sql.SQLException;
 public class ConnectionUtil {
 
     /**
-     * url will represent our connection string. Since this is an in-memory db, we will represent a file location to store the data
+     * url will represent our connection string. Since this is an in-memory db, we will represent a file location to store the data.
+     * It can be pointed at another database with the "db.url" system property, eg for benchmarks.
      */
-    private static String url = "jdbc:h2:./h2/db";
+    private static String url = System.getProperty("db.url", "jdbc:h2:./h2/db");
     /**
      * Default username for connecting to h2
      */
@@ -33,6 +40,21 @@ public class ConnectionUtil {
      * with this connection object is referring to the same object.
      */
     private static Connection connection = null;
+    /**
+     * Connections to the message shards other than shard 0, which is the database above. They are opened on
+     * first use; see getShardConnection.
+     */
+    private static Map<Integer, Connection> shardConnections = new ConcurrentHashMap<>();
+    /**
+     * Connections to the read replicas of each database, keyed by shard and then by replica. They are opened on
+     * first use; see getReplicaConnection.
+     */
+    private static Map<Integer, Map<Integer, Connection>> replicaConnections = new ConcurrentHashMap<>();
+    /**
+     * Callbacks run after every reset, so that storage kept outside the database (such as the in-memory engine)
+     * is reset along with it.
+     */
+    private static List<Runnable> resetListeners = new CopyOnWriteArrayList<>();
     /**
      * @return an active connection to the database and set up the database tables if this is the first time the
      * Connection has been established
@@ -51,7 +73,8 @@ public class ConnectionUtil {
     }
     /**
      * For the purpose of testing, we will need to drop and recreate our database tables to keep it consistent across
-     * all tests. The method will read the sql file in resources. This will be performed before every test.
+     * all tests. The method will read the sql file in resources from the classpath, so that it also works outside
+     * the project directory. This will be performed before every test.
      */
     public static void resetTestDatabase(){
 //        if there is no connection, use the getConnection method to set it up
@@ -59,13 +82,162 @@ public class ConnectionUtil {
             getConnection();
         }else {
 //            otherwise, recreate the tables without setting up a new connection
-            try {
-                FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");
+            try (Reader sqlReader = new InputStreamReader(
+                    ConnectionUtil.class.getResourceAsStream("/SocialMedia.sql"), StandardCharsets.UTF_8)) {
                 RunScript.execute(connection, sqlReader);
-            } catch (SQLException | FileNotFoundException e) {
+            } catch (SQLException | IOException e) {
+                e.printStackTrace();
+            }
+            for (Connection shardConnection : shardConnections.values()) {
+                resetShard(shardConnection);
+            }
+            for (Map.Entry<Integer, Map<Integer, Connection>> replicas : replicaConnections.entrySet()) {
+                for (Connection replicaConnection : replicas.getValue().values()) {
+                    resetReplica(replicas.getKey(), replicaConnection);
+                }
+            }
+            for (Runnable listener : resetListeners) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * @return The number of databases messages are sharded across, set with the "db.shards" system property
+     * (default 1, ie no sharding).
+     */
+    public static int getShardCount(){
+        return Math.max(1, Integer.getInteger("db.shards", 1));
+    }
+
+    /**
+     * Messages are sharded across several databases to spread the writes. Shard 0 is the main database; every
+     * other shard is a database next to it, named with a "-shard" suffix, holding only a message table. A shard
+     * is created empty the first time it is connected to, and emptied whenever the test database is reset.
+     * @param shard The shard, from 0 to getShardCount() - 1.
+     * @return an active connection to the shard's database.
+     */
+    public static synchronized Connection getShardConnection(int shard){
+        if(shard == 0){
+            return getConnection();
+        }
+        Connection shardConnection = shardConnections.get(shard);
+        if(shardConnection == null){
+            try {
+                shardConnection = DriverManager.getConnection(urlWithSuffix("-shard" + shard), username, password);
+                resetShard(shardConnection);
+                shardConnections.put(shard, shardConnection);
+            } catch (SQLException e) {
                 e.printStackTrace();
             }
         }
+        return shardConnection;
+    }
+
+    /**
+     * @return The number of read replicas of every database, set with the "db.replicas" system property (default
+     * 0, ie no replicas).
+     */
+    public static int getReplicaCount(){
+        return Math.max(0, Integer.getInteger("db.replicas", 0));
+    }
+
+    /**
+     * Each database, shard 0 and the other shards alike, can have read replicas: databases next to it, named
+     * with a "-replica" suffix, holding the same tables. A replica is created with the tables of its database
+     * the first time it is connected to, and recreated whenever the test database is reset. Only the
+     * replication shipper writes to it; see {@link Replication}.
+     * @param shard The shard, from 0 to getShardCount() - 1.
+     * @param replica The replica, from 0 to getReplicaCount() - 1.
+     * @return an active connection to the replica's database.
+     */
+    public static synchronized Connection getReplicaConnection(int shard, int replica){
+        Map<Integer, Connection> replicas = replicaConnections.computeIfAbsent(shard, key -> new ConcurrentHashMap<>());
+        Connection replicaConnection = replicas.get(replica);
+        if(replicaConnection == null){
+            try {
+                String suffix = (shard == 0 ? "" : "-shard" + shard) + "-replica" + (replica + 1);
+                replicaConnection = DriverManager.getConnection(urlWithSuffix(suffix), username, password);
+                resetReplica(shard, replicaConnection);
+                replicas.put(replica, replicaConnection);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        return replicaConnection;
+    }
+
+    /**
+     * @param sharedConnection The connection from getConnection or getShardConnection.
+     * @param replica The replica, from 0 to getReplicaCount() - 1.
+     * @return an active connection to that replica of the same database, or null if the connection is not a
+     * shared one.
+     */
+    public static Connection getReplicaConnection(Connection sharedConnection, int replica){
+        if(sharedConnection == connection){
+            return getReplicaConnection(0, replica);
+        }
+        for (Map.Entry<Integer, Connection> shard : shardConnections.entrySet()) {
+            if(shard.getValue() == sharedConnection){
+                return getReplicaConnection(shard.getKey(), replica);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Inserts a suffix into the database name of the url, before its options.
+     */
+    private static String urlWithSuffix(String suffix){
+        int options = url.indexOf(';');
+        return options < 0 ? url + suffix : url.substring(0, options) + suffix + url.substring(options);
+    }
+
+    /**
+     * Recreates the tables of a replica, as those of shard 0 or of another shard.
+     */
+    private static void resetReplica(int shard, Connection replicaConnection){
+        if(shard != 0){
+            resetShard(replicaConnection);
+            return;
+        }
+        try (Reader sqlReader = new InputStreamReader(
+                ConnectionUtil.class.getResourceAsStream("/SocialMedia.sql"), StandardCharsets.UTF_8)) {
+            RunScript.execute(replicaConnection, sqlReader);
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Recreates the message table of a shard other than shard 0.
+     */
+    private static void resetShard(Connection shardConnection){
+        try (Reader sqlReader = new InputStreamReader(
+                ConnectionUtil.class.getResourceAsStream("/SocialMedia-shard.sql"), StandardCharsets.UTF_8)) {
+            RunScript.execute(shardConnection, sqlReader);
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Opens a new connection to the same database as a shared connection, for work that needs a session of its
+     * own, such as a transaction. The caller closes it.
+     * @param sharedConnection The connection from getConnection or getShardConnection.
+     * @return a new connection to the same database.
+     * @throws SQLException if the connection cannot be opened.
+     */
+    public static Connection openConnection(Connection sharedConnection) throws SQLException {
+        return DriverManager.getConnection(sharedConnection.getMetaData().getURL(), username, password);
+    }
+
+    /**
+     * Registers a callback to run after every reset of the database.
+     * @param listener The callback.
+     */
+    public static void addResetListener(Runnable listener){
+        resetListeners.add(listener);
     }
 
 }
@@ -0,0 +1,158 @@
+package Util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import Metrics.LatencyHistogram;
+import Metrics.MetricsRegistry;
+
+/**
+ * The DatabaseExecutor class runs blocking repository calls on a bounded pool of threads of its own, so that the
+ * web server's threads are not held while JDBC waits, and the number of concurrent database calls can be sized
+ * separately from the number of concurrent requests.
+ *
+ * Calls are split into bulkheads, one executor each: reads, writes, and authentication (registration and
+ * login). Each bulkhead has its own threads and queue, and its thread count is also its quota of concurrent
+ * statements on the database connections. A burst of writes can then fill the writes bulkhead without
+ * delaying reads, which neither wait for its threads nor queue behind more than its quota of statements.
+ *
+ * By default the bulkheads share the DAOs' connections, as the embedded database runs one statement per
+ * connection at a time anyway and serves several connections writing at once more slowly. With a database
+ * server, each thread can keep a connection of its own to each database instead (see
+ * {@link TransactionManager}), so that the bulkheads do not share connections at all.
+ *
+ * Work waits in a bounded queue when every thread is busy. Once the queue is full too, new work is refused with a
+ * {@link RejectedExecutionException} instead of queueing without limit, which the controller answers with 503.
+ * With 0 threads, work runs on the calling thread, which suits the in-memory engine where calls never block.
+ *
+ * This class utilizes the singleton design pattern, like ConnectionUtil, with one instance per bulkhead.
+ */
+public class DatabaseExecutor implements Executor {
+    /**
+     * The bulkhead of calls that only read, eg GET /messages/{message_id}.
+     */
+    public static final String READS = "reads";
+    /**
+     * The bulkhead of calls that write messages.
+     */
+    public static final String WRITES = "writes";
+    /**
+     * The bulkhead of registration and login calls.
+     */
+    public static final String AUTH = "auth";
+
+    private static final Map<String, DatabaseExecutor> executors = new HashMap<>();
+
+    // Null when work runs on the calling thread
+    private final ThreadPoolExecutor pool;
+    private final LatencyHistogram queueWait;
+    private final LongAdder rejected;
+
+    /**
+     * @param bulkhead The name of the executor, which labels its threads and metrics.
+     * @param threads The number of threads running database calls, or 0 to run them on the calling thread.
+     * @param queueSize The number of calls that can wait for a thread before new calls are refused.
+     * @param ownConnections Whether each thread keeps a connection of its own to each database.
+     * @param registry The registry the executor's metrics are exported from.
+     */
+    public DatabaseExecutor(String bulkhead, int threads, int queueSize, boolean ownConnections, MetricsRegistry registry){
+        String labels = MetricsRegistry.labels("pool", bulkhead);
+        this.queueWait = registry.histogram("db_executor_queue_wait_seconds", "Time database calls waited for an executor thread.", labels);
+        this.rejected = registry.counter("db_executor_rejected_total", "Database calls refused because the executor queue was full.", labels);
+        if(threads <= 0){
+            this.pool = null;
+            return;
+        }
+        AtomicInteger count = new AtomicInteger();
+        TransactionManager transactions = TransactionManager.getManager();
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(() -> {
+                if(ownConnections){
+                    transactions.useDedicatedConnections();
+                }
+                runnable.run();
+            }, "db-" + bulkhead + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Threads are kept, so that their own connections are too
+        registry.gauge("db_executor_threads", "Executor threads, busy or idle.", labels, () -> threads);
+        registry.gauge("db_executor_active", "Executor threads running a database call.", labels, () -> pool.getActiveCount());
+        registry.gauge("db_executor_queued", "Database calls waiting for an executor thread.", labels, () -> pool.getQueue().size());
+    }
+
+    /**
+     * @param bulkhead READS, WRITES or AUTH.
+     * @return The shared executor of the bulkhead, sized by the "db.executor.{bulkhead}.threads" and
+     * "db.executor.{bulkhead}.queueSize" system properties. They default to "db.executor.threads" and
+     * "db.executor.queueSize", and those to 8 threads for reads, 4 for writes and 2 for auth (0 in the virtual
+     * {@link ThreadMode}) and a queue of 1000. With "db.executor.ownConnections" set to true, threads keep
+     * connections of their own.
+     */
+    public static synchronized DatabaseExecutor getExecutor(String bulkhead){
+        DatabaseExecutor executor = executors.get(bulkhead);
+        if(executor == null){
+            int defaultThreads = ThreadMode.isVirtual() ? 0 : bulkhead.equals(READS) ? 8 : bulkhead.equals(WRITES) ? 4 : 2;
+            executor = new DatabaseExecutor(bulkhead,
+                    Integer.getInteger("db.executor." + bulkhead + ".threads", Integer.getInteger("db.executor.threads", defaultThreads)),
+                    Integer.getInteger("db.executor." + bulkhead + ".queueSize", Integer.getInteger("db.executor.queueSize", 1_000)),
+                    Boolean.getBoolean("db.executor.ownConnections"),
+                    MetricsRegistry.getRegistry());
+            executors.put(bulkhead, executor);
+        }
+        return executor;
+    }
+
+    /**
+     * Runs a database call on an executor thread.
+     * @param work The call, eg a synchronous service method.
+     * @return A future completed with the result of the call, or exceptionally with what it threw, or with a
+     * RejectedExecutionException if the queue is full.
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> work){
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long queuedAt = System.nanoTime();
+        try{
+            execute(() -> {
+                if(pool != null){
+                    queueWait.record(System.nanoTime() - queuedAt);
+                }
+                try{
+                    future.complete(work.get());
+                }catch(RuntimeException | Error e){
+                    future.completeExceptionally(e);
+                }
+            });
+        }catch(RejectedExecutionException e){
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Runs a task on an executor thread, or on the calling thread without any.
+     * @throws RejectedExecutionException if the queue is full.
+     */
+    @Override
+    public void execute(Runnable task){
+        if(pool == null){
+            task.run();
+            return;
+        }
+        try{
+            pool.execute(task);
+        }catch(RejectedExecutionException e){
+            rejected.increment();
+            throw e;
+        }
+    }
+}
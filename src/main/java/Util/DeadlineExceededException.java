@@ -0,0 +1,18 @@
+package Util;
+
+/**
+ * Thrown by the statements of a DAO operation that ran past its {@link QueryDeadline}. It is unchecked so that it
+ * passes through the DAOs, which print and swallow SQLExceptions, and reaches the controller as a failed request
+ * rather than an empty result.
+ */
+public class DeadlineExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param operation The operation whose deadline passed.
+     * @param cause The SQLException of the cancelled statement, or null if the statement never started.
+     */
+    public DeadlineExceededException(String operation, Throwable cause){
+        super("Deadline of " + operation + " exceeded", cause);
+    }
+}
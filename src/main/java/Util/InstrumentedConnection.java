@@ -0,0 +1,341 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import Metrics.QueryMetrics;
+import Metrics.StatementEvent;
+
+/**
+ * The InstrumentedConnection class wraps a JDBC Connection so that every PreparedStatement it creates reports its
+ * execution time, row count and errors to {@link QueryMetrics}, keyed by SQL text, and emits a
+ * {@link StatementEvent} per execution when that JFR event is enabled.
+ *
+ * The wrappers are dynamic proxies: anything that is not statement preparation, parameter binding, execution
+ * or result iteration is passed straight through to the driver, so the DAOs use the wrapped connection exactly
+ * as they would use the real one. While the calling thread is in a {@link TransactionManager} transaction, calls
+ * are passed to the transaction's connection to the same database instead, and a failed statement marks the
+ * transaction to be rolled back.
+ *
+ * H2 runs each statement while holding the monitor of its session, and every thread outside a transaction
+ * shares one session per database. In the virtual {@link ThreadMode}, statements on a shared connection
+ * therefore take a lock of the connection first, so that virtual threads queue on it without pinning their
+ * carrier thread while they wait for the monitor.
+ *
+ * Every statement, on a shared or a transaction connection, first takes a permit of the adaptive
+ * {@link ConcurrencyLimiter}, which learns from the statements' round trips how many of them the database runs
+ * well at once, and refuses statements with a RejectedExecutionException once too many wait for a permit.
+ *
+ * Statements run within a {@link QueryDeadline} are cancelled once it passes, and fail with a
+ * {@link DeadlineExceededException}. H2 applies Statement.setQueryTimeout to the whole session, so the timeout is
+ * also set, rounded up to seconds, only on connections the calling thread does not share.
+ *
+ * Queries run within {@link Replication#read} outside a transaction are prepared on a read replica of the
+ * database instead, also on threads that keep a connection of their own.
+ */
+public class InstrumentedConnection {
+    // Cancels statements past their deadline, again every few milliseconds until they stop
+    private static final long CANCEL_RETRY_MILLIS = 10;
+    private static ScheduledThreadPoolExecutor canceller = null;
+
+    /**
+     * Wraps a connection. Wrapping an already wrapped connection returns it unchanged.
+     * @param connection The connection to instrument.
+     * @return A connection that records statement metrics.
+     */
+    public static Connection wrap(Connection connection){
+        if(connection == null || Proxy.isProxyClass(connection.getClass())){
+            return connection;
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionHandler(connection, QueryMetrics.getQueryMetrics(), TransactionManager.getManager(),
+                        ThreadMode.isVirtual() ? new ReentrantLock() : null, ConcurrencyLimiter.getLimiter()));
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getCanceller(){
+        if(canceller == null){
+            canceller = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "statement-canceller");
+                thread.setDaemon(true);
+                return thread;
+            });
+            canceller.setRemoveOnCancelPolicy(true);
+        }
+        return canceller;
+    }
+
+    /**
+     * Invokes a method on the real JDBC object, unwrapping the reflective exception so that callers see the
+     * SQLException thrown by the driver.
+     */
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try{
+            return method.invoke(target, args);
+        }catch(InvocationTargetException e){
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Wraps every PreparedStatement created by the connection, on the current transaction's connection or the
+     * thread's own connection if any.
+     */
+    private static class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+        private final QueryMetrics queryMetrics;
+        private final TransactionManager transactions;
+        // Taken around the statements run on the shared connection, or null to rely on the driver alone
+        private final ReentrantLock sessionLock;
+        // Null when statements are not limited
+        private final ConcurrencyLimiter limiter;
+
+        private ConnectionHandler(Connection connection, QueryMetrics queryMetrics, TransactionManager transactions, ReentrantLock sessionLock,
+                ConcurrencyLimiter limiter){
+            this.connection = connection;
+            this.queryMetrics = queryMetrics;
+            this.transactions = transactions;
+            this.sessionLock = sessionLock;
+            this.limiter = limiter;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Connection target = transactions.connectionFor(connection);
+            boolean prepare = method.getName().equals("prepareStatement");
+            // Threads that keep their own connections read from the replica too, only transactions never do
+            Connection replica = prepare && !transactions.isInTransaction() ? replicaFor((String) args[0]) : null;
+            Object result = InstrumentedConnection.invoke(replica != null ? replica : target, method, args);
+            if(prepare && result instanceof PreparedStatement){
+                String sql = (String) args[0];
+                StatementHandler handler = replica != null ? new StatementHandler((PreparedStatement) result, sql, queryMetrics, null, null, limiter)
+                        : target == connection ? new StatementHandler((PreparedStatement) result, sql, queryMetrics, null, sessionLock, limiter)
+                        : new StatementHandler((PreparedStatement) result, sql, queryMetrics, transactions, null, limiter);
+                return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, handler);
+            }
+            return result;
+        }
+
+        /**
+         * @return The connection to the replica the calling thread reads from, for a query that only reads, or
+         * null to run the statement on the database.
+         */
+        private Connection replicaFor(String sql){
+            int replica = Replication.currentReplica();
+            if(replica < 0 || !sql.regionMatches(true, 0, "SELECT", 0, 6) || sql.toUpperCase().contains("FINAL TABLE")){
+                return null;
+            }
+            return ConnectionUtil.getReplicaConnection(connection, replica);
+        }
+    }
+
+    /**
+     * Times executions, remembers the type of each bound parameter and counts rows.
+     */
+    private static class StatementHandler implements InvocationHandler {
+        private final PreparedStatement statement;
+        private final String sql;
+        private final QueryMetrics queryMetrics;
+        // The manager of the transaction the statement may run in, or null on a shared connection
+        private final TransactionManager transactions;
+        // The lock of the shared connection the statement runs on, or null
+        private final ReentrantLock sessionLock;
+        // The limiter the statement takes a permit of before it runs, or null
+        private final ConcurrencyLimiter limiter;
+        private String[] parameterTypes = new String[0];
+
+        private StatementHandler(PreparedStatement statement, String sql, QueryMetrics queryMetrics, TransactionManager transactions,
+                ReentrantLock sessionLock, ConcurrencyLimiter limiter){
+            this.statement = statement;
+            this.sql = sql;
+            this.queryMetrics = queryMetrics;
+            this.transactions = transactions;
+            this.sessionLock = sessionLock;
+            this.limiter = limiter;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if(name.startsWith("execute")){
+                return execute(method, args);
+            }
+            if(name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer){
+                bind((Integer) args[0], name.substring(3), args[1]);
+            }else if(name.equals("clearParameters")){
+                parameterTypes = new String[0];
+            }
+            return InstrumentedConnection.invoke(statement, method, args);
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            QueryDeadline deadline = QueryDeadline.current();
+            // A refused or late statement fails its transaction like any other failed statement
+            int inFlight = 0;
+            try{
+                if(deadline != null && deadline.remainingNanos() <= 0){
+                    throw new DeadlineExceededException(deadline.getOperation(), null);
+                }
+                if(limiter != null){
+                    inFlight = limiter.acquire();
+                }
+            }catch(RuntimeException e){
+                if(transactions != null){
+                    transactions.statementFailed();
+                }
+                throw e;
+            }
+            StatementEvent event = new StatementEvent();
+            event.begin();
+            long start = System.nanoTime();
+            boolean timedOut = false;
+            ScheduledFuture<?> cancellation = null;
+            Object result;
+            if(sessionLock != null){
+                sessionLock.lock();
+            }
+            try{
+                if(deadline != null){
+                    cancellation = getCanceller().scheduleWithFixedDelay(this::cancel, Math.max(0, deadline.remainingNanos()),
+                            TimeUnit.MILLISECONDS.toNanos(CANCEL_RETRY_MILLIS), TimeUnit.NANOSECONDS);
+                }
+                if(transactions != null){
+                    statement.setQueryTimeout(deadline == null ? 0 : (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(deadline.remainingNanos() + 999_999_999)));
+                }
+                result = InstrumentedConnection.invoke(statement, method, args);
+            }catch(SQLException e){
+                timedOut = e instanceof SQLTimeoutException;
+                queryMetrics.recordError(sql, e);
+                commit(event, -1, true);
+                if(transactions != null){
+                    transactions.statementFailed();
+                }
+                if(timedOut && deadline != null && deadline.remainingNanos() <= 0){
+                    throw new DeadlineExceededException(deadline.getOperation(), e);
+                }
+                throw e;
+            }finally{
+                if(cancellation != null){
+                    cancellation.cancel(false);
+                }
+                if(sessionLock != null){
+                    sessionLock.unlock();
+                }
+                if(limiter != null){
+                    limiter.release(inFlight, System.nanoTime() - start, timedOut);
+                }
+            }
+            queryMetrics.recordExecution(sql, System.nanoTime() - start, redactedParameters());
+            commit(event, result instanceof Number ? ((Number) result).longValue() : -1, false);
+
+            if(result instanceof ResultSet){
+                return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                        new ResultSetHandler((ResultSet) result, sql, queryMetrics));
+            }
+            if(result instanceof Integer){
+                queryMetrics.recordRows(sql, (Integer) result);
+            }else if(result instanceof Long){
+                queryMetrics.recordRows(sql, (Long) result);
+            }else if(result instanceof int[]){
+                queryMetrics.recordRows(sql, Arrays.stream((int[]) result).filter(rows -> rows > 0).sum());
+            }
+            return result;
+        }
+
+        /**
+         * Cancels the statement if it is running. H2 ignores a cancel that comes before the statement has
+         * started, eg while it waits for its session, so this is repeated until the statement ends.
+         */
+        private void cancel(){
+            try{
+                statement.cancel();
+            }catch(SQLException e){
+                // The statement was closed after it ended
+            }
+        }
+
+        private void commit(StatementEvent event, long rowsAffected, boolean failed){
+            event.end();
+            if(event.shouldCommit()){
+                event.sql = sql;
+                event.rowsAffected = rowsAffected;
+                event.failed = failed;
+                event.commit();
+            }
+        }
+
+        /**
+         * Keeps only the type of a bound value, and the length of strings, never the value itself.
+         */
+        private void bind(int index, String type, Object value){
+            if(index < 1 || index > 1000){
+                return;
+            }
+            if(index > parameterTypes.length){
+                parameterTypes = Arrays.copyOf(parameterTypes, index);
+            }
+            if(value == null){
+                parameterTypes[index - 1] = "NULL";
+            }else if(value instanceof String){
+                parameterTypes[index - 1] = type + "(" + ((String) value).length() + ")";
+            }else{
+                parameterTypes[index - 1] = type;
+            }
+        }
+
+        private String redactedParameters(){
+            return Arrays.toString(parameterTypes);
+        }
+    }
+
+    /**
+     * Counts the rows read from a result set and reports them once it is exhausted or closed.
+     */
+    private static class ResultSetHandler implements InvocationHandler {
+        private final ResultSet resultSet;
+        private final String sql;
+        private final QueryMetrics queryMetrics;
+        private long rows;
+        private boolean reported;
+
+        private ResultSetHandler(ResultSet resultSet, String sql, QueryMetrics queryMetrics){
+            this.resultSet = resultSet;
+            this.sql = sql;
+            this.queryMetrics = queryMetrics;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            Object result = InstrumentedConnection.invoke(resultSet, method, args);
+            if(name.equals("next")){
+                if(Boolean.TRUE.equals(result)){
+                    rows++;
+                }else{
+                    report();
+                }
+            }else if(name.equals("close")){
+                report();
+            }
+            return result;
+        }
+
+        private void report(){
+            if(!reported){
+                reported = true;
+                queryMetrics.recordRows(sql, rows);
+            }
+        }
+    }
+}
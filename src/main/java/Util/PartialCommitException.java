@@ -0,0 +1,39 @@
+package Util;
+
+import java.util.List;
+
+/**
+ * Thrown by a {@link TransactionManager} transaction over several databases whose commit failed on one of them
+ * after others had committed. Those stay committed, so unlike a transaction that could not be committed at all,
+ * the work must not simply be retried.
+ */
+public class PartialCommitException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> committed;
+    private final List<String> notCommitted;
+
+    /**
+     * @param committed The URLs of the databases that committed.
+     * @param notCommitted The URLs of the databases that did not.
+     */
+    public PartialCommitException(List<String> committed, List<String> notCommitted){
+        super("The transaction was committed on " + committed + " but not on " + notCommitted);
+        this.committed = List.copyOf(committed);
+        this.notCommitted = List.copyOf(notCommitted);
+    }
+
+    /**
+     * @return The URLs of the databases that committed.
+     */
+    public List<String> getCommitted(){
+        return committed;
+    }
+
+    /**
+     * @return The URLs of the databases that did not commit.
+     */
+    public List<String> getNotCommitted(){
+        return notCommitted;
+    }
+}
@@ -0,0 +1,88 @@
+package Util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The QueryDeadline class bounds how long one DAO operation may spend on the database. A DAO method opens a
+ * deadline for its operation in a try-with-resources block around its statements, and every statement run by the
+ * calling thread until the block ends is cancelled by {@link InstrumentedConnection} once the deadline passes.
+ * A statement started after the deadline fails at once. Either way the operation fails with a
+ * {@link DeadlineExceededException}, which the controller answers with 503.
+ *
+ * The timeout of an operation, eg "MessageDAO.getMessageById", is set in milliseconds by the
+ * "db.timeout.{operation}.millis" system property, which defaults to "db.timeout.millis", and that to 5000. A
+ * timeout of 0 leaves the operation unbounded. Deadlines nest: an operation called by another one keeps the
+ * earlier of the two deadlines.
+ *
+ * Like the transactions of {@link TransactionManager}, the deadline is bound to the calling thread.
+ */
+public class QueryDeadline implements AutoCloseable {
+    private static final ThreadLocal<QueryDeadline> current = new ThreadLocal<>();
+    private static final Map<String, Long> timeouts = new ConcurrentHashMap<>();
+
+    private final String operation;
+    // System.nanoTime() at the deadline, or Long.MAX_VALUE when unbounded
+    private final long deadlineNanos;
+    private final QueryDeadline previous;
+
+    private QueryDeadline(String operation, long deadlineNanos, QueryDeadline previous){
+        this.operation = operation;
+        this.deadlineNanos = deadlineNanos;
+        this.previous = previous;
+    }
+
+    /**
+     * Opens the deadline of an operation on the calling thread, to be closed once the operation ends.
+     * @param operation The name of the operation, eg "MessageDAO.getMessageById".
+     * @return The deadline, which restores the enclosing one when closed.
+     */
+    public static QueryDeadline start(String operation){
+        long timeoutMillis = timeouts.computeIfAbsent(operation,
+                key -> Long.getLong("db.timeout." + key + ".millis", Long.getLong("db.timeout.millis", 5_000L)));
+        QueryDeadline previous = current.get();
+        long deadlineNanos = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE;
+        if(previous != null && previous.deadlineNanos - deadlineNanos < 0){
+            deadlineNanos = previous.deadlineNanos;
+            operation = previous.operation;
+        }
+        QueryDeadline deadline = new QueryDeadline(operation, deadlineNanos, previous);
+        current.set(deadline);
+        return deadline;
+    }
+
+    /**
+     * @return The deadline of the operation the calling thread is in, or null.
+     */
+    static QueryDeadline current(){
+        QueryDeadline deadline = current.get();
+        return deadline == null || deadline.deadlineNanos == Long.MAX_VALUE ? null : deadline;
+    }
+
+    /**
+     * @return The time left until the deadline, negative once it has passed.
+     */
+    long remainingNanos(){
+        return deadlineNanos - System.nanoTime();
+    }
+
+    /**
+     * @return The operation whose deadline this is.
+     */
+    String getOperation(){
+        return operation;
+    }
+
+    /**
+     * Restores the enclosing deadline of the calling thread, if any.
+     */
+    @Override
+    public void close(){
+        if(previous == null){
+            current.remove();
+        }else{
+            current.set(previous);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package Util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import Metrics.LatencyHistogram;
+import Metrics.MetricsRegistry;
+
+/**
+ * The ReadHedger class cuts the tail latency of idempotent reads by hedging them: a read that has not completed
+ * after the usual latency of reads, by default their 95th percentile, is issued a second time and the first
+ * result wins. The slower attempt still runs to the end, or to its {@link QueryDeadline}, but its result is
+ * ignored.
+ *
+ * The second attempt runs on an executor whose threads keep connections of their own (see
+ * {@link TransactionManager}), so that it does not queue behind the slow statement on the shared connection it
+ * hedges against. That executor has as many queue slots as threads; a hedge that finds it full is skipped, which
+ * bounds the extra load hedging puts on the database during an overload.
+ *
+ * The delay is the chosen percentile of the latency of the last 200 first attempts. Until that many have
+ * completed, reads are not hedged.
+ *
+ * This class utilizes the singleton design pattern, like ConnectionUtil, for the hedger of message reads.
+ */
+public class ReadHedger {
+    private static final int WINDOW = 200;
+
+    private static ReadHedger hedger = null;
+    private static boolean configured = false;
+
+    private final DatabaseExecutor hedgeExecutor;
+    private final double percentile;
+    private final ScheduledThreadPoolExecutor timer;
+    private final AtomicReference<LatencyHistogram> window = new AtomicReference<>(new LatencyHistogram());
+    private final AtomicLong samples = new AtomicLong();
+    // Negative until the first window is complete
+    private volatile long delayNanos = -1;
+    private final LongAdder hedges;
+    private final LongAdder wins;
+    private final LongAdder skipped;
+
+    /**
+     * @param hedgeExecutor The executor second attempts run on.
+     * @param quantile The quantile of the latency of reads after which they are hedged, eg 0.95.
+     * @param registry The registry the hedger's metrics are exported from.
+     */
+    public ReadHedger(DatabaseExecutor hedgeExecutor, double quantile, MetricsRegistry registry){
+        this.hedgeExecutor = hedgeExecutor;
+        this.percentile = quantile * 100;
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "read-hedger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.hedges = registry.counter("db_hedged_reads_total", "Reads issued a second time because the first attempt was slow.", "");
+        this.wins = registry.counter("db_hedge_wins_total", "Hedged reads answered by the second attempt.", "");
+        this.skipped = registry.counter("db_hedges_skipped_total", "Hedges skipped because the hedge executor was busy.", "");
+        registry.gauge("db_hedge_delay_microseconds", "How long a read runs before it is hedged, or -1 until known.", "",
+                () -> delayNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(delayNanos));
+    }
+
+    /**
+     * @return The hedger of message reads, with 2 threads ("db.hedge.threads") and the 0.95 quantile
+     * ("db.hedge.quantile"), or null unless the "db.hedge.enabled" system property is set to true.
+     */
+    public static synchronized ReadHedger getHedger(){
+        if(!configured){
+            configured = true;
+            if(Boolean.getBoolean("db.hedge.enabled")){
+                int threads = Integer.getInteger("db.hedge.threads", 2);
+                hedger = new ReadHedger(new DatabaseExecutor("hedge", threads, threads, true, MetricsRegistry.getRegistry()),
+                        Double.parseDouble(System.getProperty("db.hedge.quantile", "0.95")), MetricsRegistry.getRegistry());
+            }
+        }
+        return hedger;
+    }
+
+    /**
+     * Runs a read on an executor, and again on the hedge executor if it is slow.
+     * @param executor The executor of the first attempt, eg the reads bulkhead.
+     * @param read The read, which must be safe to run twice.
+     * @return A future completed with the first result of either attempt, or with the error of the first attempt
+     * if neither succeeds.
+     */
+    public <T> CompletableFuture<T> supply(DatabaseExecutor executor, Supplier<T> read){
+        long start = System.nanoTime();
+        CompletableFuture<T> first = executor.supply(read);
+        first.whenComplete((value, error) -> recordLatency(System.nanoTime() - start));
+        long delay = delayNanos;
+        if(delay < 0 || first.isDone()){
+            return first;
+        }
+        Attempts<T> attempts = new Attempts<>();
+        ScheduledFuture<?> hedge = timer.schedule(() -> {
+            if(!attempts.startSecond()){
+                return;
+            }
+            CompletableFuture<T> second = hedgeExecutor.supply(() -> {
+                hedges.increment();
+                return read.get();
+            });
+            // A full queue fails the attempt at once
+            if(second.isCompletedExceptionally()){
+                skipped.increment();
+                attempts.failSecond();
+                return;
+            }
+            second.whenComplete((value, error) -> {
+                if(error != null){
+                    attempts.failSecond();
+                }else{
+                    attempts.finishSecond(value, wins);
+                }
+            });
+        }, delay - (System.nanoTime() - start), TimeUnit.NANOSECONDS);
+        first.whenComplete((value, error) -> {
+            hedge.cancel(false);
+            attempts.finishFirst(value, error);
+        });
+        return attempts.result;
+    }
+
+    private void recordLatency(long nanos){
+        LatencyHistogram current = window.get();
+        current.record(nanos);
+        if(samples.incrementAndGet() % WINDOW == 0 && window.compareAndSet(current, new LatencyHistogram())){
+            delayNanos = current.snapshot().getValueAtPercentile(percentile);
+        }
+    }
+
+    /**
+     * The outcome of the attempts of one read. The result takes the first success, or the error of the first
+     * attempt once no attempt is left running.
+     */
+    private static class Attempts<T> {
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private boolean secondRunning;
+        private Throwable firstError;
+
+        /**
+         * @return Whether the second attempt should start, ie neither attempt has finished the read yet.
+         */
+        private synchronized boolean startSecond(){
+            if(result.isDone() || firstError != null){
+                return false;
+            }
+            secondRunning = true;
+            return true;
+        }
+
+        private synchronized void finishFirst(T value, Throwable error){
+            if(error == null){
+                result.complete(value);
+            }else{
+                firstError = error;
+                if(!secondRunning){
+                    result.completeExceptionally(error);
+                }
+            }
+        }
+
+        /**
+         * Completes the read with the result of the second attempt, counted as a win, unless the first attempt
+         * finished it already.
+         */
+        private synchronized void finishSecond(T value, LongAdder wins){
+            secondRunning = false;
+            if(!result.isDone()){
+                wins.increment();
+                result.complete(value);
+            }
+        }
+
+        private synchronized void failSecond(){
+            secondRunning = false;
+            if(firstError != null){
+                result.completeExceptionally(firstError);
+            }
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import Metrics.MetricsRegistry;
+
+/**
+ * The Replication class keeps the read replicas of every database (see ConnectionUtil.getReplicaConnection) in
+ * sync with it, and routes reads to them.
+ *
+ * Changes are shipped as a log: a {@link ReplicationTrigger} on every table records the key of each changed row
+ * into a replication_log table, in the transaction of the change. A shipper thread reads the committed log
+ * entries every few milliseconds, copies the current version of each row from the database to every replica, or
+ * deletes it there if it is gone, and removes the entries. A replica starts as a full copy, by logging every row
+ * once, and writes to it skip its foreign keys, as rows of several tables arrive in no particular order.
+ *
+ * Once a shipping round has copied every entry it found, each replica holds at least every change committed
+ * before the round started: the replica is fresh as of that time. A read is routed to a replica only if the
+ * replica is fresh as of the caller's last write, so that callers read their own writes, and lags no more than
+ * "db.replicas.maxLagMillis" behind; otherwise it runs on the database itself. Reads in a transaction are
+ * never routed.
+ *
+ * Like the transactions of {@link TransactionManager}, the routing is bound to the calling thread. This class
+ * utilizes the singleton design pattern, like ConnectionUtil.
+ */
+public class Replication {
+    private static final int BATCH_ROWS = 10_000;
+    // The primary key columns of the replicated tables
+    private static final Map<String, String[]> KEYS = Map.of(
+            "account", new String[]{"account_id"},
+            "message", new String[]{"message_id"},
+            "follow", new String[]{"follower_id", "followee_id"});
+    private static final ThreadLocal<Integer> current = new ThreadLocal<>();
+
+    private static Replication replication = null;
+    private static boolean configured = false;
+
+    private final int replicas;
+    private final long maxLagMillis;
+    // A connection of the shipper's own to each database, and to each replica of it
+    private final Connection[] databases;
+    private final Connection[][] replicaWriters;
+    private final ReentrantLock shipping = new ReentrantLock();
+    private final ScheduledExecutorService shipper;
+    // The time each replica is fresh as of, in epoch milliseconds, or 0 before its first full copy
+    private final AtomicLongArray freshAsOf;
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder replicaReads;
+    private final LongAdder primaryReads;
+    private final LongAdder shippedRows;
+    private volatile boolean closed;
+
+    /**
+     * Creates the replicas of every database, starts their full copy and ships changes from then on.
+     * @param replicas The number of replicas of each database.
+     * @param intervalMillis The pause between shipping rounds.
+     * @param maxLagMillis How far behind a replica may be and still serve reads.
+     * @param registry The registry the replication metrics are exported from.
+     * @throws IllegalStateException if the replicas cannot be set up.
+     */
+    public Replication(int replicas, long intervalMillis, long maxLagMillis, MetricsRegistry registry){
+        this.replicas = replicas;
+        this.maxLagMillis = maxLagMillis;
+        int shards = ConnectionUtil.getShardCount();
+        this.databases = new Connection[shards];
+        this.replicaWriters = new Connection[shards][replicas];
+        this.freshAsOf = new AtomicLongArray(replicas);
+        this.replicaReads = registry.counter("db_replica_reads_total", "Reads by where they ran.", MetricsRegistry.labels("target", "replica"));
+        this.primaryReads = registry.counter("db_replica_reads_total", "Reads by where they ran.", MetricsRegistry.labels("target", "primary"));
+        this.shippedRows = registry.counter("db_replication_shipped_rows_total", "Changed rows copied to the replicas.", "");
+        for(int replica = 0; replica < replicas; replica++){
+            int index = replica;
+            registry.gauge("db_replica_lag_milliseconds", "How far a replica is behind its database, or -1 before its first copy.",
+                    MetricsRegistry.labels("replica", Integer.toString(replica + 1)), () -> {
+                        long fresh = freshAsOf.get(index);
+                        return fresh == 0 ? -1 : Math.max(0, System.currentTimeMillis() - fresh);
+                    });
+        }
+
+        try{
+            for(int shard = 0; shard < shards; shard++){
+                databases[shard] = ConnectionUtil.openConnection(ConnectionUtil.getShardConnection(shard));
+                for(int replica = 0; replica < replicas; replica++){
+                    replicaWriters[shard][replica] = ConnectionUtil.openConnection(ConnectionUtil.getReplicaConnection(shard, replica));
+                }
+            }
+            start();
+        }catch(SQLException e){
+            throw new IllegalStateException("Could not set up the read replicas", e);
+        }
+        ConnectionUtil.addResetListener(this::reset);
+
+        this.shipper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replication-shipper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        shipper.scheduleWithFixedDelay(this::ship, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The replication of every database to "db.replicas" replicas (see ConnectionUtil.getReplicaCount),
+     * shipping every "db.replicas.intervalMillis" (default 50) and reading from replicas up to
+     * "db.replicas.maxLagMillis" (default 1000) behind, or null without replicas.
+     */
+    public static synchronized Replication getReplication(){
+        if(!configured){
+            configured = true;
+            if(ConnectionUtil.getReplicaCount() > 0){
+                replication = new Replication(ConnectionUtil.getReplicaCount(), Long.getLong("db.replicas.intervalMillis", 50),
+                        Long.getLong("db.replicas.maxLagMillis", 1_000), MetricsRegistry.getRegistry());
+            }
+        }
+        return replication;
+    }
+
+    /**
+     * Runs reads on a replica that is fresh enough, or on the databases themselves if none is.
+     * @param readAfterMillis The epoch milliseconds of the caller's last write, or 0.
+     * @param work The DAO calls, which must only read.
+     * @return The result of the work.
+     */
+    public <T> T read(long readAfterMillis, Supplier<T> work){
+        int replica = pick(readAfterMillis);
+        if(replica < 0){
+            primaryReads.increment();
+            return work.get();
+        }
+        replicaReads.increment();
+        Integer previous = current.get();
+        current.set(replica);
+        try{
+            return work.get();
+        }finally{
+            if(previous == null){
+                current.remove();
+            }else{
+                current.set(previous);
+            }
+        }
+    }
+
+    /**
+     * @param work Work the calling thread hands to another thread, eg one query of a scattered read.
+     * @return The work, made to read from the replica the calling thread reads from, if any.
+     */
+    public static <T> Supplier<T> propagate(Supplier<T> work){
+        Integer replica = current.get();
+        if(replica == null){
+            return work;
+        }
+        return () -> {
+            current.set(replica);
+            try{
+                return work.get();
+            }finally{
+                current.remove();
+            }
+        };
+    }
+
+    /**
+     * @return The replica the calling thread reads from, or -1 to read from the databases.
+     */
+    static int currentReplica(){
+        Integer replica = current.get();
+        return replica == null ? -1 : replica;
+    }
+
+    /**
+     * Stops shipping and removes the triggers, leaving the replicas as they are.
+     */
+    public void close(){
+        closed = true;
+        shipper.shutdownNow();
+        shipping.lock();
+        try{
+            for(Connection database : databases){
+                try(Statement statement = database.createStatement()){
+                    for(String table : tablesOf(database)){
+                        statement.execute("DROP TRIGGER IF EXISTS replicate_" + table);
+                    }
+                }catch(SQLException e){
+                    e.printStackTrace();
+                }
+            }
+        }finally{
+            shipping.unlock();
+        }
+    }
+
+    /**
+     * Picks the next replica, round robin, that is fresh as of both the caller's last write and the maximum lag.
+     */
+    private int pick(long readAfterMillis){
+        long required = Math.max(readAfterMillis, System.currentTimeMillis() - maxLagMillis);
+        int start = next.getAndIncrement();
+        for(int i = 0; i < replicas; i++){
+            int replica = Math.floorMod(start + i, replicas);
+            long fresh = freshAsOf.get(replica);
+            if(fresh != 0 && fresh >= required){
+                return replica;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Installs the log and its triggers on every database and logs every row, so that the next round copies
+     * them all.
+     */
+    private void start() throws SQLException {
+        for(int shard = 0; shard < databases.length; shard++){
+            try(Statement statement = databases[shard].createStatement()){
+                statement.execute("CREATE TABLE IF NOT EXISTS replication_log (id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                        + "table_name VARCHAR(32) NOT NULL, key1 INT NOT NULL, key2 INT)");
+                statement.execute("DELETE FROM replication_log");
+                for(String table : tablesOf(databases[shard])){
+                    statement.execute("CREATE TRIGGER IF NOT EXISTS replicate_" + table + " AFTER INSERT, UPDATE, DELETE ON " + table
+                            + " FOR EACH ROW CALL '" + ReplicationTrigger.class.getName() + "'");
+                    String[] keys = KEYS.get(table);
+                    statement.execute("INSERT INTO replication_log (table_name, key1, key2) SELECT '" + table + "', " + keys[0] + ", "
+                            + (keys.length > 1 ? keys[1] : "NULL") + " FROM " + table);
+                }
+            }
+            for(Connection replicaWriter : replicaWriters[shard]){
+                try(Statement statement = replicaWriter.createStatement()){
+                    statement.execute("SET REFERENTIAL_INTEGRITY FALSE");
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts over after the databases and their replicas were recreated, which drops the triggers.
+     */
+    private void reset(){
+        if(closed){
+            return;
+        }
+        shipping.lock();
+        try{
+            for(int replica = 0; replica < replicas; replica++){
+                freshAsOf.set(replica, 0);
+            }
+            start();
+        }catch(SQLException e){
+            e.printStackTrace();
+        }finally{
+            shipping.unlock();
+        }
+    }
+
+    /**
+     * Ships every committed log entry, then marks the replicas fresh as of the start of the round.
+     */
+    private void ship(){
+        shipping.lock();
+        try{
+            long roundStart = System.currentTimeMillis();
+            for(int shard = 0; shard < databases.length; shard++){
+                while(shipBatch(shard) == BATCH_ROWS){
+                    // More entries are waiting
+                }
+            }
+            for(int replica = 0; replica < replicas; replica++){
+                freshAsOf.set(replica, roundStart - 1);
+            }
+        }catch(SQLException e){
+            if(databaseClosed()){
+                // The databases close when the JVM exits
+                shipper.shutdown();
+            }else{
+                e.printStackTrace();
+            }
+        }finally{
+            shipping.unlock();
+        }
+    }
+
+    /**
+     * Copies the rows of the oldest log entries of one database to its replicas, then removes the entries.
+     * @return The number of entries shipped.
+     */
+    private int shipBatch(int shard) throws SQLException {
+        List<Long> ids = new ArrayList<>();
+        Set<List<Object>> rows = new LinkedHashSet<>();
+        try(PreparedStatement statement = databases[shard].prepareStatement(
+                "SELECT id, table_name, key1, key2 FROM replication_log ORDER BY id LIMIT " + BATCH_ROWS)){
+            try(ResultSet resultSet = statement.executeQuery()){
+                while(resultSet.next()){
+                    ids.add(resultSet.getLong("id"));
+                    if(KEYS.containsKey(resultSet.getString("table_name"))){
+                        rows.add(List.of(resultSet.getString("table_name"), resultSet.getInt("key1"), resultSet.getInt("key2")));
+                    }
+                }
+            }
+        }
+        if(ids.isEmpty()){
+            return 0;
+        }
+        for(Connection replicaWriter : replicaWriters[shard]){
+            replicaWriter.setAutoCommit(false);
+        }
+        try{
+            for(List<Object> row : rows){
+                copyRow(shard, (String) row.get(0), (Integer) row.get(1), (Integer) row.get(2));
+            }
+            for(Connection replicaWriter : replicaWriters[shard]){
+                replicaWriter.commit();
+            }
+        }catch(SQLException e){
+            for(Connection replicaWriter : replicaWriters[shard]){
+                replicaWriter.rollback();
+            }
+            throw e;
+        }finally{
+            for(Connection replicaWriter : replicaWriters[shard]){
+                replicaWriter.setAutoCommit(true);
+            }
+        }
+        try(PreparedStatement statement = databases[shard].prepareStatement("DELETE FROM replication_log WHERE id = ANY(?)")){
+            statement.setArray(1, databases[shard].createArrayOf("BIGINT", ids.toArray()));
+            statement.executeUpdate();
+        }
+        shippedRows.add(rows.size());
+        return ids.size();
+    }
+
+    /**
+     * Copies the current version of a row to every replica of its database, or deletes it there if it is gone.
+     */
+    private void copyRow(int shard, String table, int key1, int key2) throws SQLException {
+        String[] keys = KEYS.get(table);
+        String where = keys.length > 1 ? keys[0] + " = ? AND " + keys[1] + " = ?" : keys[0] + " = ?";
+        List<String> columns = new ArrayList<>();
+        List<Object> values = null;
+        try(PreparedStatement statement = databases[shard].prepareStatement("SELECT * FROM " + table + " WHERE " + where)){
+            statement.setInt(1, key1);
+            if(keys.length > 1){
+                statement.setInt(2, key2);
+            }
+            try(ResultSet resultSet = statement.executeQuery()){
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                if(resultSet.next()){
+                    values = new ArrayList<>();
+                    for(int column = 1; column <= metaData.getColumnCount(); column++){
+                        columns.add(metaData.getColumnName(column));
+                        values.add(resultSet.getObject(column));
+                    }
+                }
+            }
+        }
+        String sql = values == null ? "DELETE FROM " + table + " WHERE " + where
+                : "MERGE INTO " + table + " (" + String.join(", ", columns) + ") KEY (" + String.join(", ", keys) + ") VALUES ("
+                        + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+        for(Connection replicaWriter : replicaWriters[shard]){
+            try(PreparedStatement statement = replicaWriter.prepareStatement(sql)){
+                if(values == null){
+                    statement.setInt(1, key1);
+                    if(keys.length > 1){
+                        statement.setInt(2, key2);
+                    }
+                }else{
+                    for(int i = 0; i < values.size(); i++){
+                        statement.setObject(i + 1, values.get(i));
+                    }
+                }
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    private boolean databaseClosed(){
+        try{
+            for(int shard = 0; shard < databases.length; shard++){
+                if(databases[shard].isClosed() || (replicas > 0 && replicaWriters[shard][0].isClosed())){
+                    return true;
+                }
+            }
+            return false;
+        }catch(SQLException e){
+            return true;
+        }
+    }
+
+    /**
+     * @return The replicated tables of a database: every table on shard 0, only messages on the others.
+     */
+    private List<String> tablesOf(Connection database){
+        return database == databases[0] ? List.of("account", "message", "follow") : List.of("message");
+    }
+}
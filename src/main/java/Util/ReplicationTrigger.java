@@ -0,0 +1,52 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.h2.api.Trigger;
+
+/**
+ * The ReplicationTrigger class records the key of every row inserted, updated or deleted in a replicated table
+ * into the replication_log table of the same database, within the same transaction, so that a rolled back
+ * change is never shipped. {@link Replication} installs it and reads the log.
+ *
+ * The key is the primary key of the table: account_id, message_id, or follower_id and followee_id, which are
+ * the first columns of their tables.
+ */
+public class ReplicationTrigger implements Trigger {
+    private String tableName;
+    private int keyColumns;
+
+    @Override
+    public void init(Connection connection, String schemaName, String triggerName, String tableName, boolean before, int type){
+        this.tableName = tableName.toLowerCase();
+        this.keyColumns = this.tableName.equals("follow") ? 2 : 1;
+    }
+
+    @Override
+    public void fire(Connection connection, Object[] oldRow, Object[] newRow) throws SQLException {
+        if(oldRow != null && newRow != null && !sameKey(oldRow, newRow)){
+            log(connection, oldRow);
+        }
+        log(connection, newRow != null ? newRow : oldRow);
+    }
+
+    private boolean sameKey(Object[] oldRow, Object[] newRow){
+        for(int i = 0; i < keyColumns; i++){
+            if(!oldRow[i].equals(newRow[i])){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void log(Connection connection, Object[] row) throws SQLException {
+        try(PreparedStatement statement = connection.prepareStatement("INSERT INTO replication_log (table_name, key1, key2) VALUES (?, ?, ?)")){
+            statement.setString(1, tableName);
+            statement.setObject(2, row[0]);
+            statement.setObject(3, keyColumns == 2 ? row[1] : null);
+            statement.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package Util;
+
+/**
+ * The ThreadMode class selects whether requests and database calls run on platform threads or on virtual
+ * threads, with the "threads.mode" system property: "platform" (the default) or "virtual".
+ *
+ * In the virtual mode, Jetty dispatches every request on a virtual thread of its own, and database calls run on
+ * that thread instead of the {@link DatabaseExecutor}'s pool, since a blocked virtual thread costs little.
+ * Virtual threads need Java 21 while the application is built for Java 11, so Jetty starts them reflectively;
+ * on a JVM without them, selecting the virtual mode fails startup rather than quietly running on platform
+ * threads.
+ */
+public class ThreadMode {
+    private static Boolean virtual = null;
+
+    /**
+     * @return Whether the virtual mode is selected.
+     * @throws IllegalArgumentException if the "threads.mode" system property is neither mode.
+     * @throws IllegalStateException if the virtual mode is selected but the JVM has no virtual threads.
+     */
+    public static synchronized boolean isVirtual(){
+        if(virtual == null){
+            String mode = System.getProperty("threads.mode", "platform");
+            if(!mode.equals("platform") && !mode.equals("virtual")){
+                throw new IllegalArgumentException("Unknown threads.mode " + mode + ", expected platform or virtual");
+            }
+            if(mode.equals("virtual") && !virtualThreadsSupported()){
+                throw new IllegalStateException("threads.mode=virtual needs Java 21 or later, running on Java "
+                        + System.getProperty("java.version"));
+            }
+            virtual = mode.equals("virtual");
+        }
+        return virtual;
+    }
+
+    /**
+     * Checks for Thread.ofVirtual(), which exists from Java 21, or from Java 19 with preview features enabled.
+     */
+    private static boolean virtualThreadsSupported(){
+        try{
+            Thread.class.getMethod("ofVirtual").invoke(null);
+            return true;
+        }catch(ReflectiveOperationException | RuntimeException e){
+            return false;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The TrafficLog class defines the binary format of captured HTTP traffic, and reads and writes it.
+ *
+ * A log starts with a magic number and a format version, followed by one record per request:
+ * the arrival time as a variable-length, zig-zag encoded delta in microseconds from the previous record, the
+ * method as one byte, the path and query as a length-prefixed UTF-8 string, the request body as length-prefixed
+ * bytes, the recorded request headers as a count followed by length-prefixed names and values, and the response
+ * status, CRC-32 of the response body, and handling latency in microseconds. Logs of version 1, written before
+ * headers were recorded, are still read, with no headers.
+ * Records are written as requests complete, so arrival times are only approximately ascending; readers that
+ * replay a log should sort by {@link Entry#getOffsetNanos()}.
+ */
+public class TrafficLog {
+    private static final int MAGIC = 0x534d544c;
+    private static final int VERSION = 2;
+    private static final int VERSION_WITHOUT_HEADERS = 1;
+    private static final List<String> METHODS = Arrays.asList("GET", "POST", "PUT", "PATCH", "DELETE", "HEAD", "OPTIONS");
+    private static final int OTHER_METHOD = 0xff;
+
+    /**
+     * One captured request and the outcome it had when it was captured.
+     */
+    public static class Entry {
+        private final long offsetNanos;
+        private final String method;
+        private final String path;
+        private final byte[] body;
+        private final Map<String, String> headers;
+        private final int status;
+        private final int responseCrc;
+        private final long latencyNanos;
+
+        /**
+         * @param offsetNanos The arrival time of the request, relative to the start of the capture.
+         * @param method The HTTP method.
+         * @param path The request path, including the query string if any.
+         * @param body The request body, possibly empty.
+         * @param status The response status code.
+         * @param responseCrc The CRC-32 of the response body.
+         * @param latencyNanos The time the server took to handle the request.
+         */
+        public Entry(long offsetNanos, String method, String path, byte[] body, int status, int responseCrc, long latencyNanos){
+            this(offsetNanos, method, path, body, Collections.emptyMap(), status, responseCrc, latencyNanos);
+        }
+
+        /**
+         * @param offsetNanos The arrival time of the request, relative to the start of the capture.
+         * @param method The HTTP method.
+         * @param path The request path, including the query string if any.
+         * @param body The request body, possibly empty.
+         * @param headers The recorded request headers, by name.
+         * @param status The response status code.
+         * @param responseCrc The CRC-32 of the response body.
+         * @param latencyNanos The time the server took to handle the request.
+         */
+        public Entry(long offsetNanos, String method, String path, byte[] body, Map<String, String> headers, int status,
+                int responseCrc, long latencyNanos){
+            this.offsetNanos = offsetNanos;
+            this.method = method;
+            this.path = path;
+            this.body = body;
+            this.headers = headers;
+            this.status = status;
+            this.responseCrc = responseCrc;
+            this.latencyNanos = latencyNanos;
+        }
+
+        /**
+         * @return The arrival time of the request, relative to the start of the capture.
+         */
+        public long getOffsetNanos(){
+            return offsetNanos;
+        }
+
+        /**
+         * @return The HTTP method.
+         */
+        public String getMethod(){
+            return method;
+        }
+
+        /**
+         * @return The request path, including the query string if any.
+         */
+        public String getPath(){
+            return path;
+        }
+
+        /**
+         * @return The request body, possibly empty.
+         */
+        public byte[] getBody(){
+            return body;
+        }
+
+        /**
+         * @return The recorded request headers, by name, possibly none.
+         */
+        public Map<String, String> getHeaders(){
+            return headers;
+        }
+
+        /**
+         * @return The response status code when captured.
+         */
+        public int getStatus(){
+            return status;
+        }
+
+        /**
+         * @return The CRC-32 of the response body when captured.
+         */
+        public int getResponseCrc(){
+            return responseCrc;
+        }
+
+        /**
+         * @return The time the server took to handle the request when captured.
+         */
+        public long getLatencyNanos(){
+            return latencyNanos;
+        }
+    }
+
+    /**
+     * Appends entries to a log. Not thread-safe; the capture writes from a single thread.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private long previousMicros;
+
+        /**
+         * Writes the log header.
+         * @param out The stream to write to; it is buffered by the writer.
+         * @throws IOException if the header cannot be written.
+         */
+        public Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+            this.out.writeInt(MAGIC);
+            this.out.writeByte(VERSION);
+        }
+
+        /**
+         * Appends one entry.
+         * @param entry The entry to write.
+         * @throws IOException if the entry cannot be written.
+         */
+        public void write(Entry entry) throws IOException {
+            long micros = entry.getOffsetNanos() / 1000;
+            writeVarLong(out, zigZag(micros - previousMicros));
+            previousMicros = micros;
+
+            int method = METHODS.indexOf(entry.getMethod());
+            if(method >= 0){
+                out.writeByte(method);
+            }else{
+                out.writeByte(OTHER_METHOD);
+                writeBytes(out, entry.getMethod().getBytes(StandardCharsets.UTF_8));
+            }
+            writeBytes(out, entry.getPath().getBytes(StandardCharsets.UTF_8));
+            writeBytes(out, entry.getBody());
+            writeVarLong(out, entry.getHeaders().size());
+            for(Map.Entry<String, String> header : entry.getHeaders().entrySet()){
+                writeBytes(out, header.getKey().getBytes(StandardCharsets.UTF_8));
+                writeBytes(out, header.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+            writeVarLong(out, entry.getStatus());
+            out.writeInt(entry.getResponseCrc());
+            writeVarLong(out, entry.getLatencyNanos() / 1000);
+        }
+
+        /**
+         * Pushes buffered entries to the underlying stream.
+         * @throws IOException if they cannot be written.
+         */
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * Flushes and closes the log.
+         * @throws IOException if buffered entries cannot be written.
+         */
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads entries from a log, in the order they were written.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final int version;
+        private long previousMicros;
+
+        /**
+         * Reads and checks the log header.
+         * @param in The stream to read from; it is buffered by the reader.
+         * @throws IOException if the stream is not a traffic log of a supported version.
+         */
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+            if(this.in.readInt() != MAGIC){
+                throw new IOException("Not a traffic log");
+            }
+            this.version = this.in.readUnsignedByte();
+            if(version != VERSION && version != VERSION_WITHOUT_HEADERS){
+                throw new IOException("Unsupported traffic log version " + version);
+            }
+        }
+
+        /**
+         * @return The next entry, or null at the end of the log.
+         * @throws IOException if the log is corrupt or cannot be read.
+         */
+        public Entry next() throws IOException {
+            int first = in.read();
+            if(first < 0){
+                return null;
+            }
+            try{
+                long micros = previousMicros + unZigZag(readVarLong(in, first));
+                previousMicros = micros;
+
+                int methodCode = in.readUnsignedByte();
+                String method = methodCode == OTHER_METHOD
+                        ? new String(readBytes(in), StandardCharsets.UTF_8) : METHODS.get(methodCode);
+                String path = new String(readBytes(in), StandardCharsets.UTF_8);
+                byte[] body = readBytes(in);
+                Map<String, String> headers = new LinkedHashMap<>();
+                long headerCount = version == VERSION_WITHOUT_HEADERS ? 0 : readVarLong(in, in.readUnsignedByte());
+                for(long i = 0; i < headerCount; i++){
+                    headers.put(new String(readBytes(in), StandardCharsets.UTF_8), new String(readBytes(in), StandardCharsets.UTF_8));
+                }
+                int status = (int) readVarLong(in, in.readUnsignedByte());
+                int responseCrc = in.readInt();
+                long latencyMicros = readVarLong(in, in.readUnsignedByte());
+                return new Entry(micros * 1000, method, path, body, headers, status, responseCrc, latencyMicros * 1000);
+            }catch(EOFException e){
+                // The capture was cut off in the middle of a record
+                return null;
+            }
+        }
+
+        /**
+         * Closes the log.
+         * @throws IOException if the stream cannot be closed.
+         */
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in, in.readUnsignedByte())];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes an unsigned value seven bits at a time, low bits first, with the high bit marking continuation.
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while((value & ~0x7fL) != 0){
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in, int first) throws IOException {
+        long value = first & 0x7f;
+        int shift = 7;
+        int current = first;
+        while((current & 0x80) != 0){
+            current = in.readUnsignedByte();
+            value |= (long) (current & 0x7f) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+
+    private static long zigZag(long value){
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value){
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
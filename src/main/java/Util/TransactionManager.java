@@ -0,0 +1,323 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import Metrics.LatencyHistogram;
+import Metrics.MetricsRegistry;
+
+/**
+ * The TransactionManager class groups the DAO statements of a service operation into one transaction.
+ *
+ * The DAOs share one connection per database in autocommit mode, so every statement commits on its own and a
+ * multi-step operation is not atomic. Inside inTransaction, the statements a DAO prepares on a shared connection
+ * are run on a connection of the transaction's own instead (see {@link InstrumentedConnection}), bound to the
+ * calling thread and committed once at the end. Transaction connections are opened on first use of each
+ * database and pooled afterwards; a transaction that only touches one database commits atomically, while one
+ * that touches several message shards commits each database in turn, in the order it first used them. That is
+ * best-effort: if a commit fails, the databases after it are rolled back, but those before it stay committed,
+ * and the transaction fails with a {@link PartialCommitException} naming them.
+ *
+ * A transaction is rolled back if the work throws, or if any of its statements failed, which the DAOs would
+ * otherwise only print. Nested calls join the outer transaction. Without a database (the in-memory engine),
+ * a transaction costs a thread-local lookup and nothing else.
+ *
+ * Threads that must not wait behind other threads on the shared connections, such as the threads of a
+ * {@link DatabaseExecutor} bulkhead, can also keep a connection of their own per database, in autocommit mode,
+ * for the statements they run outside a transaction.
+ *
+ * This class utilizes the singleton design pattern, like ConnectionUtil.
+ */
+public class TransactionManager {
+    private static final int MAX_IDLE_CONNECTIONS = 16;
+
+    private static TransactionManager manager = null;
+
+    private final int defaultIsolation;
+    private final ThreadLocal<Transaction> current = new ThreadLocal<>();
+    // The autocommit connections of threads that keep their own, by the shared connection of the same database
+    private final ThreadLocal<Map<Connection, Connection>> dedicated = new ThreadLocal<>();
+    // Idle transaction connections, by the shared connection of the same database
+    private final Map<Connection, Deque<Connection>> idle = new IdentityHashMap<>();
+    private final LatencyHistogram commitLatency;
+    private final LongAdder commits;
+    private final LongAdder rollbacks;
+    private final LongAdder partialCommits;
+
+    /**
+     * @param defaultIsolation The JDBC isolation level of transactions that do not ask for one.
+     * @param registry The registry the transaction metrics are exported from.
+     */
+    TransactionManager(int defaultIsolation, MetricsRegistry registry){
+        this.defaultIsolation = defaultIsolation;
+        this.commitLatency = registry.histogram("db_transaction_commit_seconds", "Time to commit a service transaction.", "");
+        this.commits = registry.counter("db_transactions_total", "Service transactions finished.", MetricsRegistry.labels("outcome", "commit"));
+        this.rollbacks = registry.counter("db_transactions_total", "Service transactions finished.", MetricsRegistry.labels("outcome", "rollback"));
+        this.partialCommits = registry.counter("db_transactions_total", "Service transactions finished.", MetricsRegistry.labels("outcome", "partial"));
+    }
+
+    /**
+     * @return The shared manager, with the default isolation level set by the "tx.isolation" system property:
+     * READ_UNCOMMITTED, READ_COMMITTED (the default), REPEATABLE_READ or SERIALIZABLE.
+     */
+    public static synchronized TransactionManager getManager(){
+        if(manager == null){
+            manager = new TransactionManager(isolationLevel(System.getProperty("tx.isolation", "READ_COMMITTED")),
+                    MetricsRegistry.getRegistry());
+        }
+        return manager;
+    }
+
+    /**
+     * Runs work in a read-write transaction at the default isolation level.
+     * @param work The DAO calls to group.
+     * @return The result of the work.
+     */
+    public <T> T inTransaction(Supplier<T> work){
+        return inTransaction(defaultIsolation, false, work);
+    }
+
+    /**
+     * Runs work in a transaction. If the thread is already in one, the work joins it, keeping the outer
+     * transaction's isolation level and read-only hint.
+     * @param isolation The JDBC isolation level, eg Connection.TRANSACTION_SERIALIZABLE.
+     * @param readOnly Whether to hint that the work does not write.
+     * @param work The DAO calls to group.
+     * @return The result of the work.
+     * @throws IllegalStateException if the work succeeded but the transaction could not be committed.
+     * @throws PartialCommitException if the work succeeded but the transaction could only be committed on some
+     * of its databases.
+     */
+    public <T> T inTransaction(int isolation, boolean readOnly, Supplier<T> work){
+        Transaction transaction = current.get();
+        if(transaction != null){
+            return work.get();
+        }
+        transaction = new Transaction(isolation, readOnly);
+        current.set(transaction);
+        T result;
+        try{
+            result = work.get();
+        }catch(RuntimeException | Error e){
+            current.remove();
+            finish(transaction, false);
+            throw e;
+        }
+        current.remove();
+        boolean commit = !transaction.rollbackOnly;
+        List<Connection> committed = finish(transaction, commit);
+        if(commit && committed.size() < transaction.order.size()){
+            if(committed.isEmpty()){
+                throw new IllegalStateException("The transaction could not be committed");
+            }
+            List<Connection> notCommitted = new ArrayList<>(transaction.order);
+            notCommitted.removeAll(committed);
+            throw new PartialCommitException(urls(committed), urls(notCommitted));
+        }
+        return result;
+    }
+
+    /**
+     * Marks the current transaction to be rolled back when it ends, eg when a later step of an operation fails
+     * after an earlier one has written. Does nothing outside a transaction.
+     */
+    public void setRollbackOnly(){
+        Transaction transaction = current.get();
+        if(transaction != null){
+            transaction.rollbackOnly = true;
+        }
+    }
+
+    /**
+     * @return Whether the calling thread is in a transaction.
+     */
+    public boolean isInTransaction(){
+        return current.get() != null;
+    }
+
+    /**
+     * Makes the calling thread run its statements outside transactions on connections of its own, one per
+     * database, opened on first use and kept for the life of the thread.
+     */
+    void useDedicatedConnections(){
+        if(dedicated.get() == null){
+            dedicated.set(new IdentityHashMap<>(2));
+        }
+    }
+
+    /**
+     * Finds the connection a statement on a shared connection should run on.
+     * @param shared One of the connections shared by the DAOs.
+     * @return The current transaction's connection to the same database, opened if this is the transaction's
+     * first statement there; outside a transaction, the thread's own connection to it if it keeps one, or else
+     * the shared connection.
+     * @throws SQLException if a transaction or dedicated connection cannot be opened.
+     */
+    Connection connectionFor(Connection shared) throws SQLException {
+        Transaction transaction = current.get();
+        if(transaction == null){
+            Map<Connection, Connection> own = dedicated.get();
+            if(own == null){
+                return shared;
+            }
+            Connection connection = own.get(shared);
+            if(connection == null){
+                connection = ConnectionUtil.openConnection(shared);
+                own.put(shared, connection);
+            }
+            return connection;
+        }
+        Connection connection = transaction.connections.get(shared);
+        if(connection == null){
+            connection = borrow(shared);
+            connection.setAutoCommit(false);
+            if(connection.getTransactionIsolation() != transaction.isolation){
+                connection.setTransactionIsolation(transaction.isolation);
+            }
+            if(transaction.readOnly){
+                connection.setReadOnly(true);
+            }
+            transaction.connections.put(shared, connection);
+            transaction.order.add(shared);
+        }
+        return connection;
+    }
+
+    /**
+     * Marks the current transaction to be rolled back because one of its statements failed.
+     */
+    void statementFailed(){
+        setRollbackOnly();
+    }
+
+    /**
+     * Commits or rolls back every connection of a transaction and returns them to the pool.
+     * @return The shared connections of the databases that committed, all of them if the transaction was.
+     */
+    private List<Connection> finish(Transaction transaction, boolean commit){
+        List<Connection> committed = new ArrayList<>(transaction.order.size());
+        if(transaction.connections.isEmpty()){
+            return committed;
+        }
+        long start = System.nanoTime();
+        boolean committing = commit;
+        for(Connection shared : transaction.order){
+            Connection connection = transaction.connections.get(shared);
+            try{
+                if(committing){
+                    connection.commit();
+                    committed.add(shared);
+                }else{
+                    connection.rollback();
+                }
+                connection.setAutoCommit(true);
+                release(shared, connection);
+            }catch(SQLException e){
+                e.printStackTrace();
+                // Roll back the databases not committed yet, and drop the connection in an unknown state
+                committing = false;
+                close(connection);
+            }
+        }
+        if(commit){
+            commitLatency.record(System.nanoTime() - start);
+        }
+        if(committed.isEmpty()){
+            rollbacks.increment();
+        }else if(committed.size() < transaction.order.size()){
+            partialCommits.increment();
+        }else{
+            commits.increment();
+        }
+        return committed;
+    }
+
+    /**
+     * @return The URLs of the databases of some shared connections, for error messages.
+     */
+    private static List<String> urls(List<Connection> connections){
+        List<String> urls = new ArrayList<>(connections.size());
+        for(Connection connection : connections){
+            try{
+                urls.add(connection.getMetaData().getURL());
+            }catch(SQLException e){
+                urls.add(String.valueOf(connection));
+            }
+        }
+        return urls;
+    }
+
+    private Connection borrow(Connection shared) throws SQLException {
+        synchronized(idle){
+            Deque<Connection> connections = idle.get(shared);
+            if(connections != null && !connections.isEmpty()){
+                return connections.pop();
+            }
+        }
+        return ConnectionUtil.openConnection(shared);
+    }
+
+    private void release(Connection shared, Connection connection) throws SQLException {
+        if(connection.isReadOnly()){
+            connection.setReadOnly(false);
+        }
+        synchronized(idle){
+            Deque<Connection> connections = idle.computeIfAbsent(shared, key -> new ArrayDeque<>());
+            if(connections.size() < MAX_IDLE_CONNECTIONS){
+                connections.push(connection);
+                return;
+            }
+        }
+        close(connection);
+    }
+
+    private static void close(Connection connection){
+        try{
+            connection.close();
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+    }
+
+    private static int isolationLevel(String name){
+        switch(name){
+            case "READ_UNCOMMITTED":
+                return Connection.TRANSACTION_READ_UNCOMMITTED;
+            case "READ_COMMITTED":
+                return Connection.TRANSACTION_READ_COMMITTED;
+            case "REPEATABLE_READ":
+                return Connection.TRANSACTION_REPEATABLE_READ;
+            case "SERIALIZABLE":
+                return Connection.TRANSACTION_SERIALIZABLE;
+            default:
+                throw new IllegalArgumentException("Unknown tx.isolation " + name
+                        + ", expected READ_UNCOMMITTED, READ_COMMITTED, REPEATABLE_READ or SERIALIZABLE");
+        }
+    }
+
+    /**
+     * The state of one transaction, only touched by the thread that runs it.
+     */
+    private static class Transaction {
+        private final int isolation;
+        private final boolean readOnly;
+        // The transaction's connection to each database it has used, by the shared connection to that database
+        private final Map<Connection, Connection> connections = new IdentityHashMap<>(2);
+        // The shared connections of the databases it has used, in the order it first used them
+        private final List<Connection> order = new ArrayList<>(2);
+        private boolean rollbackOnly;
+
+        Transaction(int isolation, boolean readOnly){
+            this.isolation = isolation;
+            this.readOnly = readOnly;
+        }
+    }
+}
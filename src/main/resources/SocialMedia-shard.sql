@@ -0,0 +1,9 @@
+drop table if exists message;
+create table message (
+    message_id int primary key auto_increment,
+    posted_by int,
+    message_text varchar(255),
+    time_posted_epoch bigint,
+    version int default 0 not null
+);
+create index message_posted_by_idx on message (posted_by, time_posted_epoch);
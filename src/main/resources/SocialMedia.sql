@@ -1,3 +1,4 @@
+drop table if exists follow;
 drop table if exists message;
 drop table if exists account;
 create table account (
@@ -10,8 +11,18 @@ create table message (
     posted_by int,
     message_text varchar(255),
     time_posted_epoch bigint,
+    version int default 0 not null,
     foreign key (posted_by) references  account(account_id)
 );
+create table follow (
+    follower_id int,
+    followee_id int,
+    primary key (follower_id, followee_id),
+    foreign key (follower_id) references account(account_id),
+    foreign key (followee_id) references account(account_id)
+);
+create index follow_followee_idx on follow (followee_id);
+create index message_posted_by_idx on message (posted_by, time_posted_epoch);
 
 insert into account (username, password) values ('testuser1', 'password');
 insert into message (posted_by, message_text, time_posted_epoch) values (1,'test message 1',1669947792);
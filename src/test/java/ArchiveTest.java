@@ -0,0 +1,129 @@
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Archive.MessageArchive;
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+
+public class ArchiveTest {
+    MessageDAO messageDAO;
+
+    /**
+     * Before every test, reset the database and the archive, and add two old messages next to the one inserted
+     * by the database script.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageDAO = new MessageDAO();
+        messageDAO.insertMessage(new Message(1, "old message 2", 1000));
+        messageDAO.insertMessage(new Message(1, "old message 3", 2000));
+    }
+
+    @After
+    public void tearDown() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+
+    /**
+     * Archiving the messages posted before a cutoff, then reading them by ID and by poster
+     *
+     * Expected Result:
+     *  The old messages leave the message table for one archive segment, and reads fall through to it
+     */
+    @Test
+    public void archivedMessagesAreStillRead() throws SQLException {
+        Message recent = messageDAO.insertMessage(new Message(1, "recent", 1669947800));
+
+        Assert.assertEquals(2, messageDAO.archiveMessagesBefore(1669947000));
+
+        Assert.assertEquals(2, countTableMessages());
+        Assert.assertEquals(1, MessageArchive.getArchive().getSegmentCount());
+        Assert.assertEquals(new Message(2, 1, "old message 2", 1000), messageDAO.getMessageById(2));
+        Assert.assertEquals(Arrays.asList(
+                new Message(2, 1, "old message 2", 1000),
+                new Message(3, 1, "old message 3", 2000),
+                new Message(1, 1, "test message 1", 1669947792),
+                recent), messageDAO.getAllMessagesFromUser(1));
+        Assert.assertEquals(4, messageDAO.getAllMessages().size());
+        Assert.assertEquals(2, messageDAO.getMessagesByIds(Arrays.asList(1, 3, 99)).size());
+    }
+
+
+    /**
+     * Updating, then deleting an archived message
+     *
+     * Expected Result:
+     *  The update fails as if the message did not exist, and the delete returns the message, after which no read
+     *  finds it and a second delete fails
+     */
+    @Test
+    public void archivedMessagesAreReadOnly() {
+        messageDAO.archiveMessagesBefore(1669947000);
+
+        Assert.assertNull(messageDAO.updateMessage(2, new Message(1, "edited", 1000)));
+        Assert.assertEquals("old message 2", messageDAO.getMessageById(2).getMessage_text());
+
+        Assert.assertEquals(new Message(2, 1, "old message 2", 1000), messageDAO.deleteMessageById(2));
+        Assert.assertNull(messageDAO.getMessageById(2));
+        Assert.assertNull(messageDAO.getVersionedMessageById(2));
+        Assert.assertEquals(2, messageDAO.getAllMessages().size());
+        Assert.assertEquals(2, messageDAO.getAllMessagesFromUser(1).size());
+        Assert.assertTrue(messageDAO.getMessagesByIds(Arrays.asList(2)).isEmpty());
+        Assert.assertNull(messageDAO.deleteMessageById(2));
+    }
+
+
+    /**
+     * Deleting a message from the table while an older copy of it is in the archive, as after an edit during
+     * archiving
+     *
+     * Expected Result:
+     *  The archived copy does not come back in its place
+     */
+    @Test
+    public void deletedMessagesDoNotFallBackToTheArchive() throws IOException {
+        MessageArchive.getArchive().append(Arrays.asList(new Message(1, 1, "archived copy", 1669947792)));
+
+        Assert.assertEquals("test message 1", messageDAO.deleteMessageById(1).getMessage_text());
+
+        Assert.assertNull(messageDAO.getMessageById(1));
+        Assert.assertEquals(2, messageDAO.getAllMessages().size());
+    }
+
+
+    /**
+     * Archiving twice, then resetting the database
+     *
+     * Expected Result:
+     *  The second run finds nothing left to move, and the reset empties the archive along with the tables
+     */
+    @Test
+    public void archiveIsResetWithTheDatabase() {
+        Assert.assertEquals(2, messageDAO.archiveMessagesBefore(1669947000));
+        Assert.assertEquals(0, messageDAO.archiveMessagesBefore(1669947000));
+
+        ConnectionUtil.resetTestDatabase();
+
+        Assert.assertTrue(MessageArchive.getArchive().isEmpty());
+        Assert.assertNull(messageDAO.getMessageById(2));
+    }
+
+    private static int countTableMessages() throws SQLException {
+        try(Statement statement = ConnectionUtil.getConnection().createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM message")){
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Metrics.MetricsRegistry;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.DatabaseExecutor;
+import io.javalin.Javalin;
+
+public class AsyncServiceTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+
+    /**
+     * Posting 50 messages at once, then reading one back
+     *
+     * Expected Result:
+     *  Every request succeeds with a message of its own, and the calls went through the database executor
+     */
+    @Test
+    public void concurrentRequestsAreServedThroughTheExecutor() throws IOException, InterruptedException {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for(int i = 0; i < 50; i++){
+            responses.add(webClient.sendAsync(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"async " + i + "\", \"time_posted_epoch\": 1669947792}"))
+                    .header("Content-Type", "application/json")
+                    .build(), HttpResponse.BodyHandlers.ofString()));
+        }
+
+        Set<Integer> ids = new HashSet<>();
+        for(CompletableFuture<HttpResponse<String>> response : responses){
+            HttpResponse<String> result = response.join();
+            Assert.assertEquals(200, result.statusCode());
+            ids.add(objectMapper.readValue(result.body(), Message.class).getMessage_id());
+        }
+        Assert.assertEquals(50, ids.size());
+
+        HttpResponse<String> read = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792), objectMapper.readValue(read.body(), Message.class));
+        Assert.assertTrue(MetricsRegistry.getRegistry().scrape().contains("db_executor_queue_wait_seconds_count"));
+    }
+
+
+    /**
+     * Submitting work to an executor with one thread and room for one waiting call, while its thread is busy
+     *
+     * Expected Result:
+     *  The first two calls complete once the thread is free; the third is refused at once
+     */
+    @Test
+    public void fullQueueIsRejected() throws InterruptedException {
+        DatabaseExecutor executor = new DatabaseExecutor("test", 1, 1, false, MetricsRegistry.getRegistry());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> running = executor.supply(() -> {
+            started.countDown();
+            try{
+                release.await();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            return Thread.currentThread().getName();
+        });
+        started.await();
+        CompletableFuture<String> queued = executor.supply(() -> "queued");
+        CompletableFuture<String> refused = executor.supply(() -> "refused");
+
+        Assert.assertTrue(refused.isCompletedExceptionally());
+        try{
+            refused.join();
+            Assert.fail();
+        }catch(CompletionException expected){
+            Assert.assertTrue(expected.getCause() instanceof RejectedExecutionException);
+        }
+        release.countDown();
+        Assert.assertTrue(running.join().startsWith("db-test-"));
+        Assert.assertEquals("queued", queued.join());
+    }
+}
@@ -0,0 +1,165 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class BulkTransferTest {
+    private static final String BULK_TOKEN = "test-bulk-token";
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app with a bulk token, and create a new webClient
+     * and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("bulk.token", BULK_TOKEN);
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("bulk.token");
+    }
+
+
+    /**
+     * Exporting the accounts and messages as NDJSON, emptying both tables, then importing the exports
+     *
+     * Expected Result:
+     *  Every message comes back with its ID, and new messages get IDs after the imported ones
+     */
+    @Test
+    public void ndjsonRoundTrip() throws IOException, InterruptedException, SQLException {
+        roundTrip("ndjson");
+    }
+
+
+    /**
+     * Exporting the accounts and messages as CSV, emptying both tables, then importing the exports
+     *
+     * Expected Result:
+     *  Every message comes back with its ID, including text with quotes, commas and line breaks
+     */
+    @Test
+    public void csvRoundTrip() throws IOException, InterruptedException, SQLException {
+        roundTrip("csv");
+    }
+
+
+    /**
+     * Importing a message posted by an account that does not exist
+     *
+     * Expected Result:
+     *  The other messages are loaded and the orphan is reported as rejected
+     */
+    @Test
+    public void importRejectsUnknownPosters() throws IOException, InterruptedException {
+        String body = "{\"message_id\":5,\"posted_by\":1,\"message_text\":\"kept\",\"time_posted_epoch\":1669947793}\n"
+                + "{\"message_id\":6,\"posted_by\":99,\"message_text\":\"orphan\",\"time_posted_epoch\":1669947794}\n";
+        HttpResponse<String> response = post("/import/messages", body);
+
+        Assert.assertEquals(200, response.statusCode());
+        Map<String, Object> summary = objectMapper.readValue(response.body(), new TypeReference<Map<String, Object>>(){});
+        Assert.assertEquals(1, summary.get("rows"));
+        Assert.assertEquals(1, summary.get("rejected"));
+        Assert.assertEquals("kept", getMessages().get(1).getMessage_text());
+        Assert.assertEquals(2, getMessages().size());
+    }
+
+
+    /**
+     * Exporting and importing without the bulk token, or with a wrong one, then exporting the accounts with it
+     *
+     * Expected Result:
+     *  The requests without the token are refused with 401 and change nothing, and the export has no passwords
+     */
+    @Test
+    public void bulkTransfersRequireTheToken() throws IOException, InterruptedException {
+        String orphan = "{\"message_id\":5,\"posted_by\":1,\"message_text\":\"sneaked in\",\"time_posted_epoch\":1669947793}\n";
+
+        Assert.assertEquals(401, send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/export/accounts")), null).statusCode());
+        Assert.assertEquals(401, send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/export/accounts")), "wrong").statusCode());
+        Assert.assertEquals(401, send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/import/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(orphan)), null).statusCode());
+        Assert.assertEquals(1, getMessages().size());
+
+        String accounts = get("/export/accounts").body();
+        Assert.assertEquals("{\"account_id\":1,\"username\":\"testuser1\"}\n", accounts);
+    }
+
+
+    private void roundTrip(String format) throws IOException, InterruptedException, SQLException {
+        post("/messages", "{\"posted_by\":1, \"message_text\": \"a \\\"quoted\\\", two-line\\nmessage\", \"time_posted_epoch\": 1669947793}");
+        post("/messages", "{\"posted_by\":1, \"message_text\": \"plain\", \"time_posted_epoch\": 1669947794}");
+        List<Message> before = getMessages();
+        String accounts = get("/export/accounts?format=" + format).body();
+        String messages = get("/export/messages?format=" + format).body();
+
+        try(Statement statement = ConnectionUtil.getConnection().createStatement()){
+            statement.executeUpdate("DELETE FROM message");
+            statement.executeUpdate("DELETE FROM account");
+        }
+        Assert.assertEquals(200, post("/import/accounts?format=" + format, accounts).statusCode());
+        HttpResponse<String> imported = post("/import/messages?format=" + format, messages);
+
+        Assert.assertEquals(200, imported.statusCode());
+        Assert.assertEquals(3, objectMapper.readValue(imported.body(), new TypeReference<Map<String, Object>>(){}).get("rows"));
+        Assert.assertEquals(before, getMessages());
+        Message created = objectMapper.readValue(post("/messages",
+                "{\"posted_by\":1, \"message_text\": \"after\", \"time_posted_epoch\": 1669947795}").body(), Message.class);
+        Assert.assertEquals(4, created.getMessage_id());
+    }
+
+    private List<Message> getMessages() throws IOException, InterruptedException {
+        return objectMapper.readValue(get("/messages").body(), new TypeReference<List<Message>>(){});
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path)), BULK_TOKEN);
+    }
+
+    private HttpResponse<String> post(String path, String body) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json"), BULK_TOKEN);
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request, String token) throws IOException, InterruptedException {
+        if(token != null){
+            request.header("Authorization", "Bearer " + token);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Metrics.MetricsRegistry;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.DatabaseExecutor;
+import Util.InstrumentedConnection;
+import Util.ThreadMode;
+import io.javalin.Javalin;
+
+public class BulkheadTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+
+    /**
+     * Keeping every thread of the writes bulkhead busy, then posting a message and reading message 1
+     *
+     * Expected Result:
+     *  The read is answered at once while the post waits for a writes thread, and the saturation shows in the
+     *  metrics of the writes bulkhead only; the post succeeds once the threads are free
+     */
+    @Test
+    public void saturatedWritesDoNotDelayReads() throws IOException, InterruptedException {
+        Assume.assumeFalse("Bulkheads have no threads of their own in the virtual thread mode", ThreadMode.isVirtual());
+        DatabaseExecutor writes = DatabaseExecutor.getExecutor(DatabaseExecutor.WRITES);
+        int threads = (int) gauge("db_executor_threads{pool=\"writes\"}");
+        CountDownLatch started = new CountDownLatch(threads);
+        CountDownLatch release = new CountDownLatch(1);
+        List<CompletableFuture<Boolean>> blockers = new ArrayList<>();
+        for(int i = 0; i < threads; i++){
+            blockers.add(writes.supply(() -> {
+                started.countDown();
+                try{
+                    return release.await(30, TimeUnit.SECONDS);
+                }catch(InterruptedException e){
+                    return false;
+                }
+            }));
+        }
+        try{
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            CompletableFuture<HttpResponse<String>> post = webClient.sendAsync(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"behind the burst\", \"time_posted_epoch\": 1669947792}"))
+                    .header("Content-Type", "application/json")
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            long deadline = System.currentTimeMillis() + 5000;
+            while(gauge("db_executor_queued{pool=\"writes\"}") == 0 && System.currentTimeMillis() < deadline){
+                Thread.sleep(10);
+            }
+
+            HttpResponse<String> read = webClient.send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/1"))
+                    .timeout(Duration.ofSeconds(5))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(200, read.statusCode());
+            Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792), objectMapper.readValue(read.body(), Message.class));
+            Assert.assertFalse(post.isDone());
+            Assert.assertEquals(threads, gauge("db_executor_active{pool=\"writes\"}"));
+            Assert.assertEquals(1, gauge("db_executor_queued{pool=\"writes\"}"));
+            Assert.assertEquals(0, gauge("db_executor_queued{pool=\"reads\"}"));
+
+            release.countDown();
+            Assert.assertEquals(200, post.join().statusCode());
+        }finally{
+            release.countDown();
+        }
+        for(CompletableFuture<Boolean> blocker : blockers){
+            Assert.assertTrue(blocker.join());
+        }
+    }
+
+    /**
+     * Asking for the database session id from the test thread, and from bulkhead threads with and without
+     * connections of their own
+     *
+     * Expected Result:
+     *  Only the thread with its own connections runs its statements in another session
+     */
+    @Test
+    public void ownConnectionsAreSessionsOfTheirOwn() {
+        Connection connection = InstrumentedConnection.wrap(ConnectionUtil.getConnection());
+        int shared = sessionId(connection);
+        DatabaseExecutor sharing = new DatabaseExecutor("sharing", 1, 1, false, MetricsRegistry.getRegistry());
+        DatabaseExecutor owning = new DatabaseExecutor("owning", 1, 1, true, MetricsRegistry.getRegistry());
+
+        Assert.assertEquals(shared, (int) sharing.supply(() -> sessionId(connection)).join());
+        int own = owning.supply(() -> sessionId(connection)).join();
+        Assert.assertNotEquals(shared, own);
+        Assert.assertEquals(own, (int) owning.supply(() -> sessionId(connection)).join());
+    }
+
+    private static int sessionId(Connection connection){
+        try{
+            PreparedStatement statement = connection.prepareStatement("SELECT SESSION_ID()");
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getInt(1);
+        }catch(SQLException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long gauge(String series){
+        for(String line : MetricsRegistry.getRegistry().scrape().split("\n")){
+            if(line.startsWith(series + " ")){
+                return (long) Double.parseDouble(line.substring(series.length() + 1));
+            }
+        }
+        throw new AssertionError(series + " is not exported");
+    }
+}
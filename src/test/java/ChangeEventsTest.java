@@ -0,0 +1,165 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Events.ChangeEvent;
+import Events.ChangeEvents;
+import Events.EventBus;
+import Model.Account;
+import Model.Message;
+import Service.AccountService;
+import Service.FeedService;
+import Service.MessageService;
+import Util.ConnectionUtil;
+
+public class ChangeEventsTest {
+    List<EventBus<?>.Subscription> subscriptions;
+
+    /**
+     * Before every test, reset the database.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        subscriptions = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() {
+        for(EventBus<?>.Subscription subscription : subscriptions){
+            subscription.close();
+        }
+    }
+
+
+    /**
+     * Creating an account, then creating, updating and deleting a message, with one invalid request in between
+     *
+     * Expected Result:
+     *  Each stored change is published once, in order and keyed by ID; the rejected message is not published
+     */
+    @Test
+    public void servicesPublishStoredChanges() throws InterruptedException {
+        List<String> messageEvents = Collections.synchronizedList(new ArrayList<>());
+        List<String> accountEvents = Collections.synchronizedList(new ArrayList<>());
+        EventBus<Message>.Subscription messages = subscribe(ChangeEvents.getMessageEvents(), event ->
+                messageEvents.add(event.getType() + " " + event.getKey() + " " + event.getEntity().getMessage_text()));
+        EventBus<Account>.Subscription accounts = subscribe(ChangeEvents.getAccountEvents(), event ->
+                accountEvents.add(event.getType() + " " + event.getKey() + " " + event.getEntity().getUsername()));
+        AccountService accountService = new AccountService();
+        MessageService messageService = new MessageService(new FeedService());
+
+        accountService.createAccount(new Account("testuser2", "password"));
+        messageService.createMessage(new Message(1, "hello", 1669947800));
+        messageService.createMessage(new Message(99, "nobody", 1669947801));
+        messageService.updateMessage(2, new Message(1, "edited", 1669947800));
+        messageService.deleteMessage(2);
+
+        Assert.assertTrue(messages.awaitCaughtUp(5000));
+        Assert.assertTrue(accounts.awaitCaughtUp(5000));
+        Assert.assertEquals(Arrays.asList("CREATED 2 testuser2"), accountEvents);
+        Assert.assertEquals(Arrays.asList("CREATED 2 hello", "UPDATED 2 edited", "DELETED 2 edited"), messageEvents);
+    }
+
+
+    /**
+     * Publishing from four threads into a ring of eight slots, consumed by a slow consumer on three threads
+     *
+     * Expected Result:
+     *  Publishers wait for the consumer instead of overwriting events, and every key's events arrive in order
+     */
+    @Test
+    public void keysStayOrderedUnderBackpressure() throws InterruptedException {
+        EventBus<Message> bus = new EventBus<>("test-ordered", 8);
+        Map<Integer, List<Integer>> received = new ConcurrentHashMap<>();
+        EventBus<Message>.Subscription subscription = bus.subscribe("slow", 3, event -> {
+            received.computeIfAbsent(event.getKey(), key -> Collections.synchronizedList(new ArrayList<>()))
+                    .add((int) event.getEntity().getTime_posted_epoch());
+            try{
+                Thread.sleep(1);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        });
+        subscriptions.add(subscription);
+
+        List<Thread> publishers = new ArrayList<>();
+        for(int publisher = 0; publisher < 4; publisher++){
+            int key = publisher;
+            publishers.add(new Thread(() -> {
+                for(int i = 0; i < 50; i++){
+                    bus.publish(ChangeEvent.Type.UPDATED, key, new Message(key, "update", i));
+                }
+            }));
+        }
+        publishers.forEach(Thread::start);
+        for(Thread publisher : publishers){
+            publisher.join();
+        }
+
+        Assert.assertTrue(subscription.awaitCaughtUp(10000));
+        Assert.assertTrue(bus.getPublishWaits() > 0);
+        for(int key = 0; key < 4; key++){
+            List<Integer> expected = new ArrayList<>();
+            for(int i = 0; i < 50; i++){
+                expected.add(i);
+            }
+            Assert.assertEquals(expected, received.get(key));
+        }
+    }
+
+
+    /**
+     * Publishing while one of two consumers is blocked
+     *
+     * Expected Result:
+     *  The other consumer keeps handling events, and the blocked one receives them all once it resumes
+     */
+    @Test
+    public void consumersHaveIndependentCursors() throws InterruptedException {
+        EventBus<Message> bus = new EventBus<>("test-cursors", 16);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger fast = new AtomicInteger();
+        AtomicInteger blocked = new AtomicInteger();
+        EventBus<Message>.Subscription fastSubscription = bus.subscribe("fast", event -> fast.incrementAndGet());
+        EventBus<Message>.Subscription blockedSubscription = bus.subscribe("blocked", event -> {
+            try{
+                release.await();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            blocked.incrementAndGet();
+        });
+        subscriptions.add(fastSubscription);
+        subscriptions.add(blockedSubscription);
+
+        for(int i = 0; i < 10; i++){
+            bus.publish(ChangeEvent.Type.CREATED, i, new Message(1, "message " + i, i));
+        }
+
+        Assert.assertTrue(fastSubscription.awaitCaughtUp(5000));
+        Assert.assertEquals(10, fast.get());
+        Assert.assertEquals(0, blocked.get());
+        Assert.assertEquals(10, blockedSubscription.getLag());
+        release.countDown();
+        Assert.assertTrue(blockedSubscription.awaitCaughtUp(5000));
+        Assert.assertEquals(10, blocked.get());
+    }
+
+    private <T> EventBus<T>.Subscription subscribe(EventBus<T> bus, Consumer<ChangeEvent<T>> handler){
+        EventBus<T>.Subscription subscription = bus.subscribe("test", handler);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+}
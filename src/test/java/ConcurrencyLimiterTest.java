@@ -0,0 +1,130 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Metrics.MetricsRegistry;
+import Util.ConcurrencyLimiter;
+import Util.ConnectionUtil;
+import Util.InstrumentedConnection;
+
+public class ConcurrencyLimiterTest {
+
+    /**
+     * Running rounds of as many statements as the limit allows, all with the same round trip, then rounds whose
+     * round trips are ten times longer
+     *
+     * Expected Result:
+     *  The limit grows while statements do not queue, shrinks once they do, and both changes are exported
+     */
+    @Test
+    public void limitFollowsQueueing() {
+        MetricsRegistry registry = new MetricsRegistry();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 100, 10, 100, registry);
+
+        runRounds(limiter, 1_000_000, 5);
+        long grown = limiter.getLimit();
+        Assert.assertTrue("limit " + grown, grown > 10);
+
+        runRounds(limiter, 10_000_000, 5);
+        long shrunk = limiter.getLimit();
+        Assert.assertTrue("limit " + shrunk, shrunk < grown);
+
+        String scrape = registry.scrape();
+        Assert.assertTrue(scrape, scrape.contains("db_concurrency_limit " + shrunk));
+        Assert.assertTrue(scrape, scrape.contains("db_concurrency_limit_changes_total{direction=\"up\"}"));
+        Assert.assertTrue(scrape, scrape.contains("db_concurrency_limit_changes_total{direction=\"down\"}"));
+        Assert.assertTrue(scrape, scrape.contains("db_concurrency_in_flight 0"));
+        Assert.assertTrue(scrape, scrape.contains("db_concurrency_no_load_rtt_microseconds 1000"));
+    }
+
+    /**
+     * Completing statements while only one permit of ten is taken, with round trips that would shrink the limit
+     *
+     * Expected Result:
+     *  The limit is left unchanged, since the database was not loaded
+     */
+    @Test
+    public void underusedLimitIsLeftAlone() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 100, 10, 100, new MetricsRegistry());
+        limiter.release(limiter.acquire(), 1_000_000, false);
+        for(int i = 0; i < 10; i++){
+            limiter.release(limiter.acquire(), 50_000_000, false);
+        }
+        Assert.assertEquals(10, limiter.getLimit());
+    }
+
+    /**
+     * Taking the only permit, then asking for more from other threads
+     *
+     * Expected Result:
+     *  The first waiter gets the permit once it is returned, a waiter beyond the queue is refused at once, and a
+     *  waiter that is not served in time is refused, all counted as rejected
+     */
+    @Test
+    public void fullLimitQueuesThenRefuses() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 5_000, registry);
+        int held = limiter.acquire();
+
+        CompletableFuture<Integer> waiter = CompletableFuture.supplyAsync(limiter::acquire);
+        long deadline = System.currentTimeMillis() + 5000;
+        while(!registry.scrape().contains("db_concurrency_waiting 1") && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+        Assert.assertThrows(RejectedExecutionException.class, limiter::acquire);
+        Assert.assertFalse(waiter.isDone());
+
+        limiter.release(held, 1_000_000, false);
+        int inFlight = waiter.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(1, inFlight);
+
+        ConcurrencyLimiter impatient = new ConcurrencyLimiter(1, 1, 1, 50, registry);
+        impatient.acquire();
+        Assert.assertThrows(RejectedExecutionException.class, impatient::acquire);
+        Assert.assertTrue(registry.scrape(), registry.scrape().contains("db_concurrency_rejected_total 2"));
+    }
+
+    /**
+     * Running a statement on a wrapped connection
+     *
+     * Expected Result:
+     *  The statement passes through the shared limiter, whose permit is returned afterwards
+     */
+    @Test
+    public void wrappedStatementsAreLimited() throws SQLException {
+        Assert.assertNotNull(ConcurrencyLimiter.getLimiter());
+        Connection connection = InstrumentedConnection.wrap(ConnectionUtil.getConnection());
+        PreparedStatement statement = connection.prepareStatement("SELECT 1");
+        ResultSet resultSet = statement.executeQuery();
+        Assert.assertTrue(resultSet.next());
+
+        String scrape = MetricsRegistry.getRegistry().scrape();
+        Assert.assertTrue(scrape, scrape.contains("db_concurrency_in_flight 0"));
+        Assert.assertTrue(scrape, scrape.contains("db_concurrency_limit " + ConcurrencyLimiter.getLimiter().getLimit()));
+    }
+
+    /**
+     * Takes every permit, then returns them all with the same round trip.
+     */
+    private static void runRounds(ConcurrencyLimiter limiter, long rttNanos, int rounds){
+        for(int round = 0; round < rounds; round++){
+            List<Integer> inFlight = new ArrayList<>();
+            long permits = limiter.getLimit();
+            for(int i = 0; i < permits; i++){
+                inFlight.add(limiter.acquire());
+            }
+            for(int value : inFlight){
+                limiter.release(value, rttNanos, false);
+            }
+        }
+    }
+}
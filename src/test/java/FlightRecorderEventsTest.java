@@ -0,0 +1,85 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class FlightRecorderEventsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+    Recording recording;
+
+    /**
+     * Before every test, reset the database, start a recording with the application events enabled, restart the
+     * Javalin app, and create a new webClient for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        recording = new Recording();
+        recording.enable("socialmedia.HttpRequest").withThreshold(Duration.ZERO);
+        recording.enable("socialmedia.ServiceCall").withThreshold(Duration.ZERO);
+        recording.enable("socialmedia.Statement").withThreshold(Duration.ZERO);
+        recording.start();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        recording.close();
+    }
+
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/1 while recording
+     *
+     * Expected Recording: one event each for the HTTP request, the service call and the DAO statement,
+     * carrying the route and the message id
+     */
+    @Test
+    public void getMessageRecordsSpans() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .build();
+        webClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        recording.stop();
+        Path file = Files.createTempFile("socialmedia", ".jfr");
+        recording.dump(file);
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+
+        Assert.assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("socialmedia.HttpRequest")
+                && event.getString("route").equals("/messages/{message_id}")
+                && event.getInt("status") == 200));
+        Assert.assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("socialmedia.ServiceCall")
+                && event.getString("operation").equals("MessageService.getMessageById")
+                && event.getInt("id") == 1
+                && event.getBoolean("succeeded")));
+        Assert.assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("socialmedia.Statement")
+                && event.getString("sql").equals("SELECT * FROM message WHERE message_id = ?")));
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Follow;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class FollowAccountTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        register("testuser2");
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+
+    /**
+     * Sending an http request to POST localhost:8080/accounts/1/following/2 (both accounts exist)
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of the follow
+     */
+    @Test
+    public void followSuccessful() throws IOException, InterruptedException {
+        HttpResponse<String> response = send("POST", "http://localhost:8080/accounts/1/following/2");
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(new Follow(1, 2), objectMapper.readValue(response.body(), Follow.class));
+    }
+
+
+    /**
+     * Sending an http request to POST localhost:8080/accounts/1/following/2 twice
+     *
+     * Expected Response:
+     *  Status Code: 400
+     *  Response Body:
+     */
+    @Test
+    public void followAlreadyFollowing() throws IOException, InterruptedException {
+        send("POST", "http://localhost:8080/accounts/1/following/2");
+        HttpResponse<String> response = send("POST", "http://localhost:8080/accounts/1/following/2");
+
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertEquals("", response.body());
+    }
+
+
+    /**
+     * Sending an http request to POST localhost:8080/accounts/1/following/1 (following oneself)
+     *
+     * Expected Response:
+     *  Status Code: 400
+     *  Response Body:
+     */
+    @Test
+    public void followSelf() throws IOException, InterruptedException {
+        HttpResponse<String> response = send("POST", "http://localhost:8080/accounts/1/following/1");
+
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertEquals("", response.body());
+    }
+
+
+    /**
+     * Sending an http request to POST localhost:8080/accounts/1/following/3 (account 3 does NOT exist)
+     *
+     * Expected Response:
+     *  Status Code: 400
+     *  Response Body:
+     */
+    @Test
+    public void followAccountNotFound() throws IOException, InterruptedException {
+        HttpResponse<String> response = send("POST", "http://localhost:8080/accounts/1/following/3");
+
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertEquals("", response.body());
+    }
+
+
+    /**
+     * Sending an http request to DELETE localhost:8080/accounts/1/following/2 after following
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of the removed follow
+     */
+    @Test
+    public void unfollowSuccessful() throws IOException, InterruptedException {
+        send("POST", "http://localhost:8080/accounts/1/following/2");
+        HttpResponse<String> response = send("DELETE", "http://localhost:8080/accounts/1/following/2");
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(new Follow(1, 2), objectMapper.readValue(response.body(), Follow.class));
+    }
+
+
+    /**
+     * Sending an http request to DELETE localhost:8080/accounts/1/following/2 without following
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body:
+     */
+    @Test
+    public void unfollowNotFollowing() throws IOException, InterruptedException {
+        HttpResponse<String> response = send("DELETE", "http://localhost:8080/accounts/1/following/2");
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("", response.body());
+    }
+
+
+    private void register(String username) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"" + username + "\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> send(String method, String uri) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
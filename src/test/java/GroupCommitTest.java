@@ -0,0 +1,133 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Metrics.MetricsRegistry;
+import Model.Message;
+import Service.GroupCommitWriter;
+import Util.ConnectionUtil;
+import Util.TransactionManager;
+
+public class GroupCommitTest {
+    MessageDAO messageDAO;
+    GroupCommitWriter writer;
+
+    /**
+     * Before every test, reset the database and start a writer that waits up to 20ms for batches of up to 64.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageDAO = new MessageDAO();
+        writer = new GroupCommitWriter(messageDAO, new AccountDAO(), TransactionManager.getManager(),
+                1000, 64, 20_000, MetricsRegistry.getRegistry());
+        Thread thread = new Thread(writer);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * Submitting 200 messages at once
+     *
+     * Expected Result:
+     *  Every future completes with a distinct generated ID, every message is stored, and they were committed in
+     *  far fewer transactions than messages
+     */
+    @Test
+    public void burstIsCommittedInBatches() {
+        long commitsBefore = commits();
+        List<CompletableFuture<Message>> futures = new ArrayList<>();
+        for(int i = 0; i < 200; i++){
+            futures.add(writer.submit(new Message(1, "burst " + i, 1669947800 + i)));
+        }
+
+        Set<Integer> ids = new HashSet<>();
+        for(CompletableFuture<Message> future : futures){
+            Message message = future.join();
+            Assert.assertNotNull(message);
+            ids.add(message.getMessage_id());
+            Assert.assertEquals(message, messageDAO.getMessageById(message.getMessage_id()));
+        }
+        Assert.assertEquals(200, ids.size());
+        Assert.assertTrue(commits() - commitsBefore <= 20);
+        Assert.assertTrue(MetricsRegistry.getRegistry().scrape().contains("message_group_commit_batch_size_count"));
+    }
+
+
+    /**
+     * Submitting a batch holding a message from an unknown poster and a message too long for its column
+     *
+     * Expected Result:
+     *  Those two futures complete with null, and the rest of the batch is still stored
+     */
+    @Test
+    public void badMessagesDoNotFailTheBatch() {
+        StringBuilder tooLong = new StringBuilder();
+        for(int i = 0; i < 300; i++){
+            tooLong.append('x');
+        }
+        CompletableFuture<Message> before = writer.submit(new Message(1, "before", 1669947800));
+        CompletableFuture<Message> unknownPoster = writer.submit(new Message(99, "nobody", 1669947801));
+        CompletableFuture<Message> failing = writer.submit(new Message(1, tooLong.toString(), 1669947802));
+        CompletableFuture<Message> after = writer.submit(new Message(1, "after", 1669947803));
+
+        Assert.assertNull(unknownPoster.join());
+        Assert.assertNull(failing.join());
+        Assert.assertEquals("before", messageDAO.getMessageById(before.join().getMessage_id()).getMessage_text());
+        Assert.assertEquals("after", messageDAO.getMessageById(after.join().getMessage_id()).getMessage_text());
+        Assert.assertEquals(3, messageDAO.getAllMessagesFromUser(1).size());
+    }
+
+    /**
+     * Submitting a batch holding a message whose insert throws, with a writer whose repository throws on it
+     *
+     * Expected Result:
+     *  Only that future fails; the others complete with their message, which is stored exactly once
+     */
+    @Test
+    public void failingInsertOnlyFailsItsOwnFuture() {
+        MessageDAO throwingDAO = new MessageDAO(){
+            @Override
+            public Message insertMessage(Message message){
+                if(message.getMessage_text().equals("boom")){
+                    throw new IllegalArgumentException("boom");
+                }
+                return super.insertMessage(message);
+            }
+        };
+        GroupCommitWriter throwingWriter = new GroupCommitWriter(throwingDAO, new AccountDAO(), TransactionManager.getManager(),
+                1000, 64, 20_000, MetricsRegistry.getRegistry());
+        Thread thread = new Thread(throwingWriter);
+        thread.setDaemon(true);
+        thread.start();
+
+        CompletableFuture<Message> before = throwingWriter.submit(new Message(1, "before", 1669947800));
+        CompletableFuture<Message> failing = throwingWriter.submit(new Message(1, "boom", 1669947801));
+        CompletableFuture<Message> after = throwingWriter.submit(new Message(1, "after", 1669947802));
+
+        Assert.assertTrue(Assert.assertThrows(CompletionException.class, failing::join).getCause() instanceof IllegalArgumentException);
+        Assert.assertEquals("before", before.join().getMessage_text());
+        Assert.assertEquals("after", after.join().getMessage_text());
+        Assert.assertEquals(3, messageDAO.getAllMessagesFromUser(1).size());
+        thread.interrupt();
+    }
+
+    private static long commits(){
+        for(String line : MetricsRegistry.getRegistry().scrape().split("\n")){
+            if(line.startsWith("db_transactions_total{outcome=\"commit\"} ")){
+                return Long.parseLong(line.substring(line.indexOf(' ') + 1));
+            }
+        }
+        return 0;
+    }
+}
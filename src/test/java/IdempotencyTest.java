@@ -0,0 +1,149 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class IdempotencyTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+
+    /**
+     * Sending the same new message twice with the same Idempotency-Key
+     *
+     * Expected Result:
+     *  The retry gets the original response, marked as replayed, and only one message is created
+     */
+    @Test
+    public void retriedMessageIsCreatedOnce() throws IOException, InterruptedException {
+        String body = "{\"posted_by\":1, \"message_text\": \"hello once\", \"time_posted_epoch\": 1669947800}";
+        HttpResponse<String> first = send("/messages", body, "key-1");
+        HttpResponse<String> retry = send("/messages", body, "key-1");
+
+        Assert.assertEquals(200, retry.statusCode());
+        Assert.assertEquals(first.body(), retry.body());
+        Assert.assertEquals("true", retry.headers().firstValue("Idempotent-Replayed").orElse(null));
+        Assert.assertFalse(first.headers().firstValue("Idempotent-Replayed").isPresent());
+        Assert.assertEquals(2, getMessagesFromUser(1).size());
+        Assert.assertEquals(3, objectMapper.readValue(send("/messages", body, "key-2").body(), Message.class).getMessage_id());
+    }
+
+
+    /**
+     * Registering the same account twice with the same Idempotency-Key
+     *
+     * Expected Result:
+     *  The retry gets the created account back, where a plain retry would be refused as a duplicate username
+     */
+    @Test
+    public void retriedRegistrationReturnsTheAccount() throws IOException, InterruptedException {
+        String body = "{\"username\": \"user\", \"password\": \"password\"}";
+        send("/register", body, "register-1");
+        HttpResponse<String> retry = send("/register", body, "register-1");
+
+        Assert.assertEquals(200, retry.statusCode());
+        Assert.assertEquals(new Account(2, "user", "password"), objectMapper.readValue(retry.body(), Account.class));
+        Assert.assertEquals(400, send("/register", body, null).statusCode());
+    }
+
+
+    /**
+     * Reusing an Idempotency-Key for a different message
+     *
+     * Expected Result:
+     *  The request is refused with 422 and nothing is created
+     */
+    @Test
+    public void reusedKeyWithDifferentBodyIsRefused() throws IOException, InterruptedException {
+        send("/messages", "{\"posted_by\":1, \"message_text\": \"first\", \"time_posted_epoch\": 1669947800}", "key-1");
+        HttpResponse<String> reused = send("/messages", "{\"posted_by\":1, \"message_text\": \"second\", \"time_posted_epoch\": 1669947800}", "key-1");
+
+        Assert.assertEquals(422, reused.statusCode());
+        Assert.assertEquals(2, getMessagesFromUser(1).size());
+    }
+
+
+    /**
+     * Sending eight copies of a new message at once with the same Idempotency-Key
+     *
+     * Expected Result:
+     *  The copies wait for the first and all get its response, so only one message is created
+     */
+    @Test
+    public void concurrentDuplicatesWaitForTheFirst() throws IOException, InterruptedException {
+        String body = "{\"posted_by\":1, \"message_text\": \"at once\", \"time_posted_epoch\": 1669947800}";
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for(int i = 0; i < 8; i++){
+            responses.add(webClient.sendAsync(request("/messages", body, "burst"), HttpResponse.BodyHandlers.ofString()));
+        }
+
+        for(CompletableFuture<HttpResponse<String>> response : responses){
+            Message message = objectMapper.readValue(response.join().body(), Message.class);
+            Assert.assertEquals(2, message.getMessage_id());
+        }
+        Assert.assertEquals(2, getMessagesFromUser(1).size());
+    }
+
+    private List<Message> getMessagesFromUser(int accountId) throws IOException, InterruptedException {
+        HttpResponse<String> response = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/" + accountId + "/messages"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private HttpResponse<String> send(String path, String body, String key) throws IOException, InterruptedException {
+        return webClient.send(request(path, body, key), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpRequest request(String path, String body, String key){
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json");
+        if(key != null){
+            builder.header("Idempotency-Key", key);
+        }
+        return builder.build();
+    }
+}
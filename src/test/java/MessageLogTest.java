@@ -0,0 +1,132 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import LogStore.LogMessageRepository;
+import Model.Message;
+import Util.ConnectionUtil;
+
+public class MessageLogTest {
+    File directory;
+
+    /**
+     * Before every test, reset the database, which holds the accounts, and create an empty log directory.
+     * @throws IOException
+     */
+    @Before
+    public void setUp() throws IOException {
+        ConnectionUtil.resetTestDatabase();
+        directory = Files.createTempDirectory("message-log").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        for(File file : files == null ? new File[0] : files){
+            file.delete();
+        }
+        directory.delete();
+    }
+
+
+    /**
+     * Inserting, updating and deleting messages, then reopening the log
+     *
+     * Expected Result:
+     *  The reopened log holds the latest state of every message and continues the message ids
+     */
+    @Test
+    public void reopenReplaysUpdatesAndDeletes() throws IOException {
+        LogMessageRepository log = open(64 * 1024);
+        log.insertMessage(new Message(1, "second", 1669947793));
+        log.insertMessage(new Message(1, "third", 1669947794));
+        log.updateMessage(2, new Message(1, "second, edited", 1669947793));
+        log.deleteMessageById(3);
+
+        LogMessageRepository reopened = open(64 * 1024);
+        List<Message> expected = new ArrayList<>();
+        expected.add(new Message(1, 1, "test message 1", 1669947792));
+        expected.add(new Message(2, 1, "second, edited", 1669947793));
+        Assert.assertEquals(expected, reopened.getAllMessages());
+        Assert.assertEquals(expected, reopened.getAllMessagesFromUser(1));
+        Assert.assertEquals(4, reopened.insertMessage(new Message(1, "fourth", 1669947795)).getMessage_id());
+    }
+
+
+    /**
+     * Reopening a log whose last record was torn by a crash
+     *
+     * Expected Result:
+     *  The torn record is dropped, every earlier record is recovered, and new records are appended after them
+     */
+    @Test
+    public void reopenDropsTornTail() throws IOException {
+        LogMessageRepository log = open(64 * 1024);
+        log.insertMessage(new Message(1, "second", 1669947793));
+        File segment = directory.listFiles()[0];
+        long end = recordEnd(segment);
+        // Corrupt the last byte of the last record, as if the crash happened while it was being written
+        try(RandomAccessFile file = new RandomAccessFile(segment, "rw")){
+            file.seek(end - 1);
+            int last = file.read();
+            file.seek(end - 1);
+            file.write(last ^ 0xff);
+        }
+
+        LogMessageRepository reopened = open(64 * 1024);
+        Assert.assertEquals(1, reopened.getAllMessages().size());
+        Assert.assertEquals(2, reopened.insertMessage(new Message(1, "second, again", 1669947793)).getMessage_id());
+        Assert.assertEquals("second, again", open(64 * 1024).getMessageById(2).getMessage_text());
+    }
+
+
+    /**
+     * Filling several small segments with updates of the same messages, then compacting
+     *
+     * Expected Result:
+     *  Sealed segments holding only superseded records are deleted, and the log still holds the latest state
+     */
+    @Test
+    public void compactionRemovesSupersededSegments() throws IOException {
+        LogMessageRepository log = open(4 * 1024);
+        for(int i = 0; i < 500; i++){
+            log.updateMessage(1, new Message(1, "edit " + i, 1669947792));
+        }
+        int segments = log.getSegmentCount();
+        Assert.assertTrue(segments > 2);
+
+        Assert.assertTrue(log.compact() > 0);
+        Assert.assertTrue(log.getSegmentCount() < segments);
+        Assert.assertEquals("edit 499", log.getMessageById(1).getMessage_text());
+        Assert.assertEquals("edit 499", open(4 * 1024).getMessageById(1).getMessage_text());
+    }
+
+
+    private LogMessageRepository open(int segmentBytes) throws IOException {
+        return new LogMessageRepository(directory, segmentBytes, 0.5, new AccountDAO());
+    }
+
+    /**
+     * @return The end of the last record of a segment, found by walking the record lengths.
+     */
+    private static long recordEnd(File segment) throws IOException {
+        try(RandomAccessFile file = new RandomAccessFile(segment, "r")){
+            long position = 0;
+            int payloadLength;
+            while((payloadLength = file.readInt()) > 0){
+                position += 8 + payloadLength;
+                file.seek(position);
+            }
+            return position;
+        }
+    }
+}
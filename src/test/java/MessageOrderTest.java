@@ -0,0 +1,87 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import DAO.MessageRepository;
+import LogStore.LogMessageRepository;
+import Memory.MemoryMessageRepository;
+import Model.Message;
+import Util.ConnectionUtil;
+
+public class MessageOrderTest {
+    File directory;
+
+    /**
+     * Before every test, reset the database, which holds the accounts, and create an empty log directory.
+     * @throws IOException
+     */
+    @Before
+    public void setUp() throws IOException {
+        ConnectionUtil.resetTestDatabase();
+        directory = Files.createTempDirectory("message-order").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        for(File file : files == null ? new File[0] : files){
+            file.delete();
+        }
+        directory.delete();
+        ConnectionUtil.resetTestDatabase();
+    }
+
+
+    /**
+     * Inserting messages posted further and further back in time with every storage engine, and archiving the
+     * oldest two with the database
+     *
+     * Expected Result:
+     *  Every engine returns all messages in message ID order, not in time_posted_epoch order
+     */
+    @Test
+    public void allMessagesAreInIdOrderWithEveryEngine() throws IOException {
+        MessageDAO messageDAO = new MessageDAO();
+        insertBackdated(messageDAO);
+        Assert.assertEquals(2, messageDAO.archiveMessagesBefore(2500));
+        assertInIdOrder(messageDAO);
+
+        MemoryMessageRepository memory = new MemoryMessageRepository(new AccountDAO(), null);
+        insertBackdated(memory);
+        assertInIdOrder(memory);
+
+        LogMessageRepository log = new LogMessageRepository(directory, 64 * 1024, 0.5, new AccountDAO());
+        insertBackdated(log);
+        assertInIdOrder(log);
+    }
+
+
+    private static void insertBackdated(MessageRepository repository){
+        repository.insertMessage(new Message(1, "c", 3000));
+        repository.insertMessage(new Message(1, "b", 2000));
+        repository.insertMessage(new Message(1, "a", 1000));
+    }
+
+    private static void assertInIdOrder(MessageRepository repository){
+        List<String> texts = new ArrayList<>();
+        int previousId = 0;
+        for(Message message : repository.getAllMessages()){
+            Assert.assertTrue(message.getMessage_id() > previousId);
+            previousId = message.getMessage_id();
+            if(message.getMessage_text().length() == 1){
+                texts.add(message.getMessage_text());
+            }
+        }
+        Assert.assertEquals(Arrays.asList("c", "b", "a"), texts);
+    }
+}
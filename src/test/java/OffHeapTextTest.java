@@ -0,0 +1,92 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import DAO.AccountDAO;
+import Memory.MemoryMessageRepository;
+import Memory.TextSlabs;
+import Model.Message;
+import Util.ConnectionUtil;
+
+public class OffHeapTextTest {
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, which holds the accounts.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        objectMapper = new ObjectMapper();
+    }
+
+
+    /**
+     * Inserting, updating and deleting messages with off-heap text, including text that needs escaping
+     *
+     * Expected Result:
+     *  Messages read back hold the latest text, and serialize to the same JSON as messages with on-heap text
+     */
+    @Test
+    public void offHeapMessagesMatchOnHeapMessages() throws Exception {
+        MemoryMessageRepository repository = new MemoryMessageRepository(new AccountDAO(), new TextSlabs(64 * 1024, 0.5));
+        repository.insertMessage(new Message(1, "first", 1669947792));
+        repository.insertMessage(new Message(1, "second \"quoted\"\n\u00e9t\u00e9 \u2713", 1669947793));
+        repository.insertMessage(new Message(1, "third", 1669947794));
+        repository.updateMessage(1, new Message(1, "first, edited", 1669947792));
+        repository.deleteMessageById(3);
+
+        List<Message> expected = new ArrayList<>();
+        expected.add(new Message(1, 1, "first, edited", 1669947792));
+        expected.add(new Message(2, 1, "second \"quoted\"\n\u00e9t\u00e9 \u2713", 1669947793));
+        List<Message> actual = repository.getAllMessages();
+        // A plain message only equals messages of its own class, so compare from the off-heap side
+        Assert.assertEquals(actual, expected);
+        Assert.assertArrayEquals(objectMapper.writeValueAsBytes(expected), objectMapper.writeValueAsBytes(actual));
+        Assert.assertEquals(objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(actual));
+        Assert.assertEquals(expected.get(1), objectMapper.readValue(objectMapper.writeValueAsBytes(actual.get(1)), Message.class));
+    }
+
+
+    /**
+     * Filling several small slabs with updates of the same message and a few other messages, then compacting
+     *
+     * Expected Result:
+     *  Sparse slabs are dropped and the used bytes fall, while the latest text and messages read before the
+     *  compaction still read correctly
+     */
+    @Test
+    public void compactionDropsSparseSlabs() {
+        TextSlabs textSlabs = new TextSlabs(4 * 1024, 0.5);
+        MemoryMessageRepository repository = new MemoryMessageRepository(new AccountDAO(), textSlabs);
+        repository.insertMessage(new Message(1, "kept", 1669947792));
+        repository.insertMessage(new Message(1, "edit", 1669947793));
+        Message kept = repository.getMessageById(1);
+        for(int i = 0; i < 5000; i++){
+            repository.updateMessage(2, new Message(1, "edit " + i, 1669947793));
+            // Leave a little live text in every slab, so it is sparse rather than empty
+            if(i % 500 == 0){
+                repository.insertMessage(new Message(1, "kept " + i, 1669947794));
+            }
+        }
+        int slabs = textSlabs.getSlabCount();
+        long used = textSlabs.getUsedBytes();
+        long live = textSlabs.getLiveBytes();
+        Assert.assertTrue(slabs > 2);
+        Assert.assertTrue(textSlabs.getFragmentation() > 0.5);
+
+        Assert.assertTrue(repository.compactText() > 0);
+        Assert.assertTrue(textSlabs.getSlabCount() < slabs);
+        Assert.assertTrue(textSlabs.getUsedBytes() < used);
+        Assert.assertEquals(live, textSlabs.getLiveBytes());
+        Assert.assertEquals("kept", kept.getMessage_text());
+        Assert.assertEquals("kept", repository.getMessageById(1).getMessage_text());
+        Assert.assertEquals("edit 4999", repository.getMessageById(2).getMessage_text());
+        Assert.assertEquals("kept 2500", repository.getMessageById(8).getMessage_text());
+    }
+}
@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class OptimisticConcurrencyTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+
+    /**
+     * Reading message 1, updating it with its ETag, then updating it again with the same, now stale, ETag
+     *
+     * Expected Result:
+     *  The first update succeeds with the next ETag; the second gets 412 and leaves the message unchanged
+     */
+    @Test
+    public void staleETagIsRejected() throws IOException, InterruptedException {
+        HttpResponse<String> read = get(1);
+        Assert.assertEquals("\"0\"", read.headers().firstValue("ETag").orElse(null));
+
+        HttpResponse<String> first = patch(1, "first edit", "\"0\"");
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertEquals("\"1\"", first.headers().firstValue("ETag").orElse(null));
+        Assert.assertEquals(new Message(1, 1, "first edit", 1669947792), objectMapper.readValue(first.body(), Message.class));
+
+        HttpResponse<String> stale = patch(1, "second edit", "\"0\"");
+        Assert.assertEquals(412, stale.statusCode());
+        Assert.assertEquals("", stale.body());
+        Assert.assertEquals(new Message(1, 1, "first edit", 1669947792), objectMapper.readValue(get(1).body(), Message.class));
+        Assert.assertEquals(200, patch(1, "second edit", "\"1\"").statusCode());
+    }
+
+
+    /**
+     * Eight clients updating message 1 at once, each with the ETag they all read
+     *
+     * Expected Result:
+     *  Exactly one update wins and the others get 412, so no update is silently lost
+     */
+    @Test
+    public void concurrentUpdatesWithOneETagHaveOneWinner() throws IOException, InterruptedException {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for(int i = 0; i < 8; i++){
+            responses.add(webClient.sendAsync(patchRequest(1, "edit " + i, "\"0\""), HttpResponse.BodyHandlers.ofString()));
+        }
+
+        int succeeded = 0;
+        String winner = null;
+        for(CompletableFuture<HttpResponse<String>> response : responses){
+            HttpResponse<String> result = response.join();
+            if(result.statusCode() == 200){
+                succeeded++;
+                winner = objectMapper.readValue(result.body(), Message.class).getMessage_text();
+            }else{
+                Assert.assertEquals(412, result.statusCode());
+            }
+        }
+        Assert.assertEquals(1, succeeded);
+        HttpResponse<String> read = get(1);
+        Assert.assertEquals(winner, objectMapper.readValue(read.body(), Message.class).getMessage_text());
+        Assert.assertEquals("\"1\"", read.headers().firstValue("ETag").orElse(null));
+    }
+
+
+    /**
+     * Updating without If-Match, with "If-Match: *", with a weak or unknown ETag, for a missing message, and with
+     * invalid text
+     *
+     * Expected Result:
+     *  Unconditional updates still succeed and advance the ETag; an ETag that cannot match gets 412; invalid text
+     *  with a matching ETag is still a 400
+     */
+    @Test
+    public void ifMatchVariants() throws IOException, InterruptedException {
+        Assert.assertEquals(200, patch(1, "no header", null).statusCode());
+        Assert.assertEquals(200, patch(1, "any version", "*").statusCode());
+        Assert.assertEquals("\"2\"", get(1).headers().firstValue("ETag").orElse(null));
+
+        Assert.assertEquals(412, patch(1, "weak", "W/\"2\"").statusCode());
+        Assert.assertEquals(412, patch(1, "garbage", "not-an-etag").statusCode());
+        Assert.assertEquals(412, patch(2, "missing", "\"0\"").statusCode());
+        Assert.assertEquals(400, patch(1, "", "\"2\"").statusCode());
+        Assert.assertEquals("any version", objectMapper.readValue(get(1).body(), Message.class).getMessage_text());
+    }
+
+    private HttpResponse<String> get(int messageId) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + messageId))
+                .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> patch(int messageId, String text, String ifMatch) throws IOException, InterruptedException {
+        return webClient.send(patchRequest(messageId, text, ifMatch), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpRequest patchRequest(int messageId, String text, String ifMatch){
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + messageId))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"" + text + "\"}"))
+                .header("Content-Type", "application/json");
+        if(ifMatch != null){
+            builder.header("If-Match", ifMatch);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class QueryDiagnosticsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+
+    /**
+     * Sending an http request to GET localhost:8080/diagnostics/queries after GET localhost:8080/messages/1
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON statistics including the statement behind the message lookup, with its row count
+     */
+    @Test
+    public void getQueryDiagnosticsAfterRequest() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .build();
+        webClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        HttpRequest diagnosticsRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/diagnostics/queries"))
+                .build();
+        HttpResponse<String> response = webClient.send(diagnosticsRequest, HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(200, response.statusCode());
+        JsonNode diagnostics = objectMapper.readTree(response.body());
+        Assert.assertTrue(diagnostics.get("slow_queries").isArray());
+
+        JsonNode lookup = null;
+        for(JsonNode statement : diagnostics.get("statements")){
+            if(statement.get("sql").asText().equals("SELECT * FROM message WHERE message_id = ?")){
+                lookup = statement;
+            }
+        }
+        Assert.assertNotNull(lookup);
+        Assert.assertTrue(lookup.get("executions").asLong() >= 1);
+        Assert.assertTrue(lookup.get("rows").asLong() >= 1);
+        Assert.assertEquals(0, lookup.get("errors").asLong());
+    }
+}
@@ -0,0 +1,159 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.MessageDAO;
+import Metrics.MetricsRegistry;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.DatabaseExecutor;
+import Util.InstrumentedConnection;
+import Util.Replication;
+
+public class ReplicationTest {
+    MessageDAO messageDAO;
+    MetricsRegistry registry;
+    Replication replication;
+
+    /**
+     * Before every test, reset the database and replicate it to one replica, shipping every 20 ms, that serves
+     * reads however far it lags.
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        messageDAO = new MessageDAO();
+        registry = new MetricsRegistry();
+        replication = new Replication(1, 20, 60_000, registry);
+        awaitFullCopy();
+    }
+
+    @After
+    public void tearDown() {
+        replication.close();
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * Inserting, updating and deleting messages on the database
+     *
+     * Expected Result:
+     *  Each change shows up on the replica shortly after
+     */
+    @Test
+    public void changesAreShippedToTheReplica() throws Exception {
+        Connection replica = ConnectionUtil.getReplicaConnection(0, 0);
+        Assert.assertEquals("test message 1", awaitText(replica, 1, "test message 1"));
+
+        Message inserted = messageDAO.insertMessage(new Message(1, "replicated", 1669947793));
+        Assert.assertEquals("replicated", awaitText(replica, inserted.getMessage_id(), "replicated"));
+
+        messageDAO.updateMessage(inserted.getMessage_id(), new Message(1, "updated", 1669947793));
+        Assert.assertEquals("updated", awaitText(replica, inserted.getMessage_id(), "updated"));
+
+        messageDAO.deleteMessageById(inserted.getMessage_id());
+        Assert.assertNull(awaitText(replica, inserted.getMessage_id(), null));
+    }
+
+    /**
+     * Reading once the replica has caught up, then reading after a write the replica cannot have yet
+     *
+     * Expected Result:
+     *  The first read runs on the replica, the second on the database, and both are counted
+     */
+    @Test
+    public void readsGoToAFreshReplicaOnly() throws Exception {
+        Connection connection = InstrumentedConnection.wrap(ConnectionUtil.getConnection());
+
+        String replicaPath = replication.read(0, () -> databasePath(connection));
+        String primaryPath = replication.read(System.currentTimeMillis() + 60_000, () -> databasePath(connection));
+
+        Assert.assertTrue(replicaPath, replicaPath.endsWith("-replica1"));
+        Assert.assertFalse(primaryPath, primaryPath.contains("replica"));
+        Assert.assertEquals(primaryPath, databasePath(connection));
+        String scrape = registry.scrape();
+        Assert.assertTrue(scrape, scrape.contains("db_replica_reads_total{target=\"replica\"} 1"));
+        Assert.assertTrue(scrape, scrape.contains("db_replica_reads_total{target=\"primary\"} 1"));
+        Assert.assertTrue(scrape, scrape.contains("db_replica_lag_milliseconds{replica=\"1\"}"));
+    }
+
+    /**
+     * Reading once the replica has caught up, then reading without a replica, on an executor thread that keeps
+     * its own connections
+     *
+     * Expected Result:
+     *  The first read runs on the replica, the second on the database
+     */
+    @Test
+    public void threadsWithTheirOwnConnectionsReadFromTheReplica() {
+        Connection connection = InstrumentedConnection.wrap(ConnectionUtil.getConnection());
+        DatabaseExecutor executor = new DatabaseExecutor("replication-test", 1, 10, true, registry);
+
+        String replicaPath = executor.supply(() -> replication.read(0, () -> databasePath(connection))).join();
+        String primaryPath = executor.supply(() -> databasePath(connection)).join();
+
+        Assert.assertTrue(replicaPath, replicaPath.endsWith("-replica1"));
+        Assert.assertFalse(primaryPath, primaryPath.contains("replica"));
+    }
+
+    /**
+     * Reading a message by ID right after inserting it, as of the time of the insert
+     *
+     * Expected Result:
+     *  The message is found, as the read waits for nothing and runs on the database until the replica has it
+     */
+    @Test
+    public void readsSeeTheCallersOwnWrites() {
+        for(int i = 0; i < 20; i++){
+            Message inserted = messageDAO.insertMessage(new Message(1, "mine " + i, 1669947793));
+            long writtenAt = System.currentTimeMillis();
+            Message read = replication.read(writtenAt, () -> messageDAO.getMessageById(inserted.getMessage_id()));
+            Assert.assertEquals(inserted, read);
+        }
+    }
+
+    private void awaitFullCopy() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(registry.scrape().contains("db_replica_lag_milliseconds{replica=\"1\"} -1") && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Polls the replica until the text of a message is the expected one, or 5 seconds have passed.
+     * @return The text of the message on the replica, or null if it does not exist.
+     */
+    private static String awaitText(Connection replica, int messageId, String expected) throws SQLException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        String text = messageText(replica, messageId);
+        while(!String.valueOf(text).equals(String.valueOf(expected)) && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+            text = messageText(replica, messageId);
+        }
+        return text;
+    }
+
+    private static String messageText(Connection connection, int messageId) throws SQLException {
+        try(PreparedStatement statement = connection.prepareStatement("SELECT message_text FROM message WHERE message_id = ?")){
+            statement.setInt(1, messageId);
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getString(1) : null;
+        }
+    }
+
+    private static String databasePath(Connection connection){
+        try(PreparedStatement statement = connection.prepareStatement("SELECT DATABASE_PATH()")){
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getString(1);
+        }catch(SQLException e){
+            throw new IllegalStateException(e);
+        }
+    }
+}
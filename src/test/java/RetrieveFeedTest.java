@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveFeedTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database. Each test starts the Javalin app itself so that it can configure
+     * the feed engine first.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("feed.fanoutThreshold");
+    }
+
+    /**
+     * Start the Javalin app, create a new webClient and ObjectMapper, and register a second account.
+     */
+    private void startApp() throws InterruptedException, IOException {
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        send("POST", "http://localhost:8080/register", "{\"username\": \"testuser2\", \"password\": \"password\" }");
+    }
+
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/2/feed after account 2 follows account 1,
+     * and account 1 posts a new message (fan-out-on-write)
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of account 1's messages, newest first
+     */
+    @Test
+    public void getFeedFannedOutOnWrite() throws IOException, InterruptedException {
+        startApp();
+        send("POST", "http://localhost:8080/accounts/2/following/1", "");
+        // Materialize the timeline before posting so that the new message is pushed into it
+        getFeed(2);
+        send("POST", "http://localhost:8080/messages",
+                "{\"posted_by\":1, \"message_text\": \"hello followers\", \"time_posted_epoch\": 1669947793}");
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(2, 1, "hello followers", 1669947793));
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expectedResult, getFeed(2));
+    }
+
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/2/feed when account 1 is above the fan-out threshold
+     * (merge-on-read)
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of account 1's messages, newest first
+     */
+    @Test
+    public void getFeedMergedOnRead() throws IOException, InterruptedException {
+        System.setProperty("feed.fanoutThreshold", "1");
+        startApp();
+        send("POST", "http://localhost:8080/accounts/2/following/1", "");
+        getFeed(2);
+        send("POST", "http://localhost:8080/messages",
+                "{\"posted_by\":1, \"message_text\": \"hello followers\", \"time_posted_epoch\": 1669947793}");
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(2, 1, "hello followers", 1669947793));
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expectedResult, getFeed(2));
+    }
+
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/2/feed after account 2 unfollows account 1
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of an empty list
+     */
+    @Test
+    public void getFeedAfterUnfollow() throws IOException, InterruptedException {
+        startApp();
+        send("POST", "http://localhost:8080/accounts/2/following/1", "");
+        getFeed(2);
+        send("DELETE", "http://localhost:8080/accounts/2/following/1", "");
+
+        Assert.assertTrue(getFeed(2).isEmpty());
+    }
+
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/2/feed after a followed message is deleted
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of an empty list
+     */
+    @Test
+    public void getFeedAfterDelete() throws IOException, InterruptedException {
+        startApp();
+        send("POST", "http://localhost:8080/accounts/2/following/1", "");
+        getFeed(2);
+        send("DELETE", "http://localhost:8080/messages/1", "");
+
+        Assert.assertTrue(getFeed(2).isEmpty());
+    }
+
+
+    private List<Message> getFeed(int accountId) throws IOException, InterruptedException {
+        HttpResponse<String> response = send("GET", "http://localhost:8080/accounts/" + accountId + "/feed", "");
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private HttpResponse<String> send(String method, String uri, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .method(method, body.isEmpty() ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,164 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Metrics.MetricsRegistry;
+import Model.Account;
+import Model.Message;
+import Service.GroupCommitWriter;
+import Util.ConnectionUtil;
+import Util.TransactionManager;
+
+public class ShardingTest {
+    MessageDAO messageDAO;
+
+    /**
+     * Before every test, shard messages across three databases, reset them, and add two more accounts, which
+     * land on shards 1 and 2.
+     */
+    @Before
+    public void setUp() {
+        System.setProperty("db.shards", "3");
+        ConnectionUtil.resetTestDatabase();
+        AccountDAO accountDAO = new AccountDAO();
+        accountDAO.insertAccount(new Account("testuser2", "password"));
+        accountDAO.insertAccount(new Account("testuser3", "password"));
+        messageDAO = new MessageDAO();
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("db.shards");
+        ConnectionUtil.resetTestDatabase();
+    }
+
+
+    /**
+     * Inserting messages for accounts on every shard, then reading, updating and deleting them
+     *
+     * Expected Result:
+     *  Each account's messages are stored in its own shard, with globally unique IDs that route reads, updates
+     *  and deletes back to that shard
+     */
+    @Test
+    public void messagesAreRoutedByPoster() throws SQLException {
+        Message second = messageDAO.insertMessage(new Message(2, "from two", 1669947793));
+        Message third = messageDAO.insertMessage(new Message(3, "from three", 1669947794));
+        Message fourth = messageDAO.insertMessage(new Message(1, "from one", 1669947795));
+        Assert.assertEquals(2, second.getMessage_id());
+        Assert.assertEquals(3, third.getMessage_id());
+        Assert.assertEquals(4, fourth.getMessage_id());
+        Assert.assertEquals(1, countMessages(1));
+        Assert.assertEquals(1, countMessages(2));
+
+        Assert.assertEquals(new Message(3, 3, "from three", 1669947794), messageDAO.getMessageById(3));
+        Assert.assertEquals(Arrays.asList(new Message(2, 2, "from two", 1669947793)), messageDAO.getAllMessagesFromUser(2));
+        Assert.assertEquals("edited", messageDAO.updateMessage(2, new Message(2, "edited", 1669947793)).getMessage_text());
+        Assert.assertNotNull(messageDAO.deleteMessageById(3));
+        Assert.assertNull(messageDAO.getMessageById(3));
+        Assert.assertEquals(0, countMessages(2));
+        Assert.assertEquals(2, messageDAO.getMessagesByIds(Arrays.asList(1, 2, 3)).size());
+    }
+
+
+    /**
+     * Inserting a message for an account that does not exist, which would be stored on shard 1
+     *
+     * Expected Result:
+     *  The message is rejected, as the foreign key to the account table is checked across shards
+     */
+    @Test
+    public void unknownPosterIsRejected() {
+        Assert.assertNull(messageDAO.insertMessage(new Message(5, "nobody", 1669947793)));
+    }
+
+
+    /**
+     * Retrieving all messages and the most recent messages of several accounts across shards
+     *
+     * Expected Result:
+     *  The results of every shard are merged in time_posted_epoch order
+     */
+    @Test
+    public void queriesAcrossShardsAreMerged() {
+        messageDAO.insertMessage(new Message(3, "c", 1669947800));
+        messageDAO.insertMessage(new Message(2, "b", 1669947795));
+        messageDAO.insertMessage(new Message(1, "a", 1669947790));
+
+        List<Long> epochs = new ArrayList<>();
+        for(Message message : messageDAO.getAllMessages()){
+            epochs.add(message.getTime_posted_epoch());
+        }
+        Assert.assertEquals(Arrays.asList(1669947790L, 1669947792L, 1669947795L, 1669947800L), epochs);
+
+        List<Message> recent = messageDAO.getRecentMessagesFromUsers(Arrays.asList(1, 2, 3), 2);
+        Assert.assertEquals(2, recent.size());
+        Assert.assertEquals("c", recent.get(0).getMessage_text());
+        Assert.assertEquals("b", recent.get(1).getMessage_text());
+    }
+
+
+    /**
+     * Group committing a batch of messages for accounts on every shard, with a repository whose insert throws
+     * for one message on shard 2
+     *
+     * Expected Result:
+     *  Only that message fails; every other message is stored exactly once on its poster's shard
+     */
+    @Test
+    public void groupCommitWritesOneTransactionPerShard() throws SQLException {
+        MessageDAO throwingDAO = new MessageDAO(){
+            @Override
+            public Message insertMessage(Message message){
+                if(message.getMessage_text().equals("boom")){
+                    throw new IllegalArgumentException("boom");
+                }
+                return super.insertMessage(message);
+            }
+        };
+        GroupCommitWriter writer = new GroupCommitWriter(throwingDAO, new AccountDAO(), TransactionManager.getManager(),
+                1000, 64, 20_000, MetricsRegistry.getRegistry());
+        Thread thread = new Thread(writer);
+        thread.setDaemon(true);
+        thread.start();
+
+        List<CompletableFuture<Message>> futures = new ArrayList<>();
+        for(int account = 1; account <= 3; account++){
+            futures.add(writer.submit(new Message(account, "first " + account, 1669947800)));
+        }
+        CompletableFuture<Message> failing = writer.submit(new Message(3, "boom", 1669947801));
+        for(int account = 1; account <= 3; account++){
+            futures.add(writer.submit(new Message(account, "second " + account, 1669947802)));
+        }
+
+        Assert.assertTrue(Assert.assertThrows(CompletionException.class, failing::join).getCause() instanceof IllegalArgumentException);
+        for(CompletableFuture<Message> future : futures){
+            Assert.assertNotNull(future.join());
+        }
+        Assert.assertEquals(3, countMessages(0));
+        Assert.assertEquals(2, countMessages(1));
+        Assert.assertEquals(2, countMessages(2));
+        thread.interrupt();
+    }
+
+
+    private static int countMessages(int shard) throws SQLException {
+        try(PreparedStatement statement = ConnectionUtil.getShardConnection(shard).prepareStatement("SELECT COUNT(*) FROM message");
+                ResultSet resultSet = statement.executeQuery()){
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
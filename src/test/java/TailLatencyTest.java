@@ -0,0 +1,156 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Metrics.MetricsRegistry;
+import Util.ConnectionUtil;
+import Util.DatabaseExecutor;
+import Util.DeadlineExceededException;
+import Util.InstrumentedConnection;
+import Util.QueryDeadline;
+import Util.ReadHedger;
+import Util.TransactionManager;
+
+public class TailLatencyTest {
+    private static final String SLOW_QUERY = "SELECT COUNT(*) FROM SYSTEM_RANGE(1, 1000000000) WHERE RAND() > 2";
+
+    /**
+     * Running a query that takes far longer than its 200 ms deadline, on the shared connection and in a
+     * transaction, then a quick query without a deadline
+     *
+     * Expected Result:
+     *  Both slow queries are cancelled soon after the deadline with a DeadlineExceededException, and the
+     *  connection keeps working without a timeout
+     */
+    @Test
+    public void slowQueryIsCancelledAtItsDeadline() throws SQLException {
+        System.setProperty("db.timeout.TailLatencyTest.slowQuery.millis", "200");
+        Connection connection = InstrumentedConnection.wrap(ConnectionUtil.getConnection());
+
+        assertCancelled(connection);
+        TransactionManager.getManager().inTransaction(() -> {
+            assertCancelled(connection);
+            return null;
+        });
+        Assert.assertEquals(1, queryOne(connection, "SELECT 1"));
+    }
+
+    /**
+     * Running a statement after the deadline of its operation has passed
+     *
+     * Expected Result:
+     *  The statement fails at once without reaching the database
+     */
+    @Test
+    public void lateStatementDoesNotRun() throws Exception {
+        System.setProperty("db.timeout.TailLatencyTest.lateQuery.millis", "1");
+        Connection connection = InstrumentedConnection.wrap(ConnectionUtil.getConnection());
+        try(QueryDeadline deadline = QueryDeadline.start("TailLatencyTest.lateQuery")){
+            Thread.sleep(5);
+            DeadlineExceededException exception = Assert.assertThrows(DeadlineExceededException.class,
+                    () -> queryOne(connection, "SELECT 1"));
+            Assert.assertNull(exception.getCause());
+        }
+    }
+
+    /**
+     * Warming a hedger up with quick reads, then reading with a first attempt that hangs
+     *
+     * Expected Result:
+     *  The second attempt answers the read while the first still hangs, and the hedge is counted as a win
+     */
+    @Test
+    public void slowReadIsAnsweredByTheHedge() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        ReadHedger hedger = new ReadHedger(new DatabaseExecutor("hedge-test", 1, 1, false, registry), 0.95, registry);
+        DatabaseExecutor reads = new DatabaseExecutor("reads-test", 2, 10, false, registry);
+        warmUp(hedger, reads, registry, 0);
+
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<String> read = hedger.supply(reads, () -> {
+            if(attempts.incrementAndGet() == 1){
+                try{
+                    release.await(10, TimeUnit.SECONDS);
+                }catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+                return "first";
+            }
+            return "second";
+        });
+        try{
+            Assert.assertEquals("second", read.get(5, TimeUnit.SECONDS));
+        }finally{
+            release.countDown();
+        }
+        String scrape = registry.scrape();
+        Assert.assertTrue(scrape, scrape.contains("db_hedged_reads_total 1"));
+        Assert.assertTrue(scrape, scrape.contains("db_hedge_wins_total 1"));
+    }
+
+    /**
+     * Warming a hedger up with reads of 5 ms, then reading with a first attempt that fails at once
+     *
+     * Expected Result:
+     *  The read fails with the error of the first attempt, without being hedged
+     */
+    @Test
+    public void failedReadIsNotHedged() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        ReadHedger hedger = new ReadHedger(new DatabaseExecutor("hedge-test", 1, 1, false, registry), 0.95, registry);
+        DatabaseExecutor reads = new DatabaseExecutor("reads-test", 2, 10, false, registry);
+        // A delay of several milliseconds, so that the failure comes first even on a busy machine
+        warmUp(hedger, reads, registry, 5);
+
+        CompletableFuture<String> read = hedger.supply(reads, () -> {
+            throw new IllegalStateException("first attempt failed");
+        });
+        Throwable error = read.handle((value, exception) -> exception).get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(String.valueOf(error), error instanceof IllegalStateException);
+        Thread.sleep(50);
+        Assert.assertTrue(registry.scrape().contains("db_hedged_reads_total 0"));
+    }
+
+    private static void assertCancelled(Connection connection){
+        long start = System.nanoTime();
+        try(QueryDeadline deadline = QueryDeadline.start("TailLatencyTest.slowQuery")){
+            Assert.assertThrows(DeadlineExceededException.class, () -> queryOne(connection, SLOW_QUERY));
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("cancelled after " + millis + " ms", millis >= 200 && millis < 2000);
+    }
+
+    private static void warmUp(ReadHedger hedger, DatabaseExecutor reads, MetricsRegistry registry, long readMillis) throws InterruptedException {
+        for(int i = 0; i < 200; i++){
+            hedger.supply(reads, () -> {
+                try{
+                    Thread.sleep(readMillis);
+                }catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+                return "warm";
+            }).join();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while(registry.scrape().contains("db_hedge_delay_microseconds -1") && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+    }
+
+    private static int queryOne(Connection connection, String sql) throws SQLException {
+        try(PreparedStatement statement = connection.prepareStatement(sql)){
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
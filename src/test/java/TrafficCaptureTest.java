@@ -0,0 +1,106 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.TrafficLog;
+import io.javalin.Javalin;
+
+public class TrafficCaptureTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+    File captureFile;
+
+    /**
+     * Before every test, reset the database, point the traffic capture at a temporary file, restart the Javalin
+     * app, and create a new webClient for interacting locally on the web.
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        captureFile = File.createTempFile("capture", ".bin");
+        System.setProperty("capture.file", captureFile.getPath());
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("capture.file");
+        captureFile.delete();
+    }
+
+
+    /**
+     * Sending an http request to POST localhost:8080/messages and GET localhost:8080/messages/1?fields=all
+     * with the capture enabled, then stopping the app
+     *
+     * Expected Result:
+     *  The capture file holds both requests in order, with their method, path, body, Idempotency-Key header, status
+     *  and response checksum
+     */
+    @Test
+    public void captureRequests() throws IOException, InterruptedException {
+        String body = "{\"posted_by\":1, \"message_text\": \"captured\", \"time_posted_epoch\": 1669947793}";
+        HttpResponse<String> posted = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .header("Idempotency-Key", "capture-1")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> read = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1?fields=all"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        app.stop();
+
+        List<TrafficLog.Entry> entries = new ArrayList<>();
+        try(TrafficLog.Reader reader = new TrafficLog.Reader(new FileInputStream(captureFile))){
+            TrafficLog.Entry entry;
+            while((entry = reader.next()) != null){
+                entries.add(entry);
+            }
+        }
+
+        Assert.assertEquals(2, entries.size());
+        Assert.assertEquals("POST", entries.get(0).getMethod());
+        Assert.assertEquals("/messages", entries.get(0).getPath());
+        Assert.assertEquals(body, new String(entries.get(0).getBody(), StandardCharsets.UTF_8));
+        Assert.assertEquals(Map.of("Idempotency-Key", "capture-1"), entries.get(0).getHeaders());
+        Assert.assertEquals(200, entries.get(0).getStatus());
+        Assert.assertEquals(crc(posted.body()), entries.get(0).getResponseCrc());
+
+        Assert.assertEquals("GET", entries.get(1).getMethod());
+        Assert.assertEquals("/messages/1?fields=all", entries.get(1).getPath());
+        Assert.assertEquals(0, entries.get(1).getBody().length);
+        Assert.assertTrue(entries.get(1).getHeaders().isEmpty());
+        Assert.assertEquals(crc(read.body()), entries.get(1).getResponseCrc());
+        Assert.assertTrue(entries.get(1).getOffsetNanos() >= entries.get(0).getOffsetNanos());
+    }
+
+    private static int crc(String body){
+        CRC32 crc = new CRC32();
+        crc.update(body.getBytes(StandardCharsets.UTF_8));
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,162 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Metrics.MetricsRegistry;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.InstrumentedConnection;
+import Util.PartialCommitException;
+import Util.TransactionManager;
+
+public class TransactionTest {
+    TransactionManager transactions;
+    AccountDAO accountDAO;
+    MessageDAO messageDAO;
+
+    /**
+     * Before every test, reset the database.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        transactions = TransactionManager.getManager();
+        accountDAO = new AccountDAO();
+        messageDAO = new MessageDAO();
+    }
+
+
+    /**
+     * Inserting a message in a transaction, reading it from another thread before and after the commit
+     *
+     * Expected Result:
+     *  The message is visible inside the transaction at once, and to other threads only once it is committed
+     */
+    @Test
+    public void changesAreVisibleToOthersAfterCommit() {
+        String committed = scrape("db_transactions_total{outcome=\"commit\"}");
+        Message inserted = transactions.inTransaction(() -> {
+            Message message = messageDAO.insertMessage(new Message(1, "in a transaction", 1669947800));
+            Assert.assertNotNull(messageDAO.getMessageById(message.getMessage_id()));
+            Assert.assertNull(CompletableFuture.supplyAsync(() -> messageDAO.getMessageById(message.getMessage_id())).join());
+            return message;
+        });
+
+        Assert.assertNotNull(CompletableFuture.supplyAsync(() -> messageDAO.getMessageById(inserted.getMessage_id())).join());
+        Assert.assertNotEquals(committed, scrape("db_transactions_total{outcome=\"commit\"}"));
+        Assert.assertTrue(MetricsRegistry.getRegistry().scrape().contains("db_transaction_commit_seconds_count"));
+    }
+
+
+    /**
+     * Inserting an account, then failing in the same transaction, once by throwing and once with a failed
+     * statement that the DAO only prints
+     *
+     * Expected Result:
+     *  Both transactions are rolled back, so neither account exists
+     */
+    @Test
+    public void failuresRollBack() {
+        try{
+            transactions.inTransaction(() -> {
+                accountDAO.insertAccount(new Account("thrown", "password"));
+                throw new IllegalStateException("later step failed");
+            });
+            Assert.fail();
+        }catch(IllegalStateException expected){
+        }
+        Assert.assertFalse(accountDAO.accountExists("thrown"));
+
+        Account duplicate = transactions.inTransaction(() -> {
+            accountDAO.insertAccount(new Account("written", "password"));
+            return accountDAO.insertAccount(new Account("testuser1", "password"));
+        });
+        Assert.assertNull(duplicate);
+        Assert.assertFalse(accountDAO.accountExists("written"));
+        Assert.assertTrue(accountDAO.accountExists("testuser1"));
+    }
+
+
+    /**
+     * Nesting a transaction in another, and asking for a serializable read-only one
+     *
+     * Expected Result:
+     *  The inner work joins the outer transaction and is rolled back with it; the read-only transaction reads
+     */
+    @Test
+    public void nestedTransactionsJoin() {
+        try{
+            transactions.inTransaction(() -> {
+                transactions.inTransaction(() -> accountDAO.insertAccount(new Account("inner", "password")));
+                Assert.assertTrue(transactions.isInTransaction());
+                throw new IllegalStateException("outer step failed");
+            });
+            Assert.fail();
+        }catch(IllegalStateException expected){
+        }
+        Assert.assertFalse(transactions.isInTransaction());
+        Assert.assertFalse(accountDAO.accountExists("inner"));
+
+        Assert.assertTrue(transactions.inTransaction(Connection.TRANSACTION_SERIALIZABLE, true,
+                () -> accountDAO.accountExists("testuser1")));
+        Assert.assertTrue(transactions.inTransaction(Connection.TRANSACTION_READ_COMMITTED, true,
+                () -> messageDAO.getMessageById(1) != null));
+    }
+
+    /**
+     * Inserting messages on two shards in one transaction, where the commit of the second shard fails because
+     * its transaction connection was closed
+     *
+     * Expected Result:
+     *  The transaction fails with a PartialCommitException naming the main database as committed and the shard
+     *  as not; only the message on the main database is stored
+     */
+    @Test
+    public void partialCommitAcrossShardsIsReported() {
+        System.setProperty("db.shards", "2");
+        try{
+            ConnectionUtil.resetTestDatabase();
+            accountDAO.insertAccount(new Account("testuser2", "password"));
+            MessageDAO shardedDAO = new MessageDAO();
+            Connection shard = InstrumentedConnection.wrap(ConnectionUtil.getShardConnection(1));
+
+            PartialCommitException failure = Assert.assertThrows(PartialCommitException.class, () -> transactions.inTransaction(() -> {
+                shardedDAO.insertMessage(new Message(1, "on the main database", 1669947800));
+                shardedDAO.insertMessage(new Message(2, "on shard 1", 1669947801));
+                try{
+                    shard.close();
+                }catch(SQLException e){
+                    throw new IllegalStateException(e);
+                }
+                return null;
+            }));
+
+            Assert.assertEquals(1, failure.getCommitted().size());
+            Assert.assertFalse(failure.getCommitted().get(0).contains("shard"));
+            Assert.assertEquals(1, failure.getNotCommitted().size());
+            Assert.assertTrue(failure.getNotCommitted().get(0).contains("shard1"));
+            Assert.assertEquals(2, shardedDAO.getAllMessagesFromUser(1).size());
+            Assert.assertTrue(shardedDAO.getAllMessagesFromUser(2).isEmpty());
+            Assert.assertNotNull(scrape("db_transactions_total{outcome=\"partial\"}"));
+        }finally{
+            System.clearProperty("db.shards");
+            ConnectionUtil.resetTestDatabase();
+        }
+    }
+
+    private static String scrape(String series){
+        for(String line : MetricsRegistry.getRegistry().scrape().split("\n")){
+            if(line.startsWith(series + " ")){
+                return line;
+            }
+        }
+        return null;
+    }
+}
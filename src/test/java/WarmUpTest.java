@@ -0,0 +1,113 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import DAO.MessageRepository;
+import DAO.Repositories;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class WarmUpTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database and start the Javalin app, with a short warm-up.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("warmup.iterations", "20");
+        ConnectionUtil.resetTestDatabase();
+        webClient = HttpClient.newHttpClient();
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("warmup.iterations");
+        System.clearProperty("warmup.enabled");
+        if(app != null){
+            app.stop();
+        }
+    }
+
+    private void startApp() throws InterruptedException {
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+
+    /**
+     * Probing readiness before and after warming the server up
+     *
+     * Expected Result:
+     *  /ready answers 503 until the warm-up is done and 200 after, and the warm-up leaves the stored messages as
+     *  they were
+     */
+    @Test
+    public void readyOnlyAfterWarmUp() throws IOException, InterruptedException {
+        startApp();
+        String messagesBefore = get("/messages").body();
+        Assert.assertEquals(503, get("/ready").statusCode());
+
+        socialMediaController.warmUp(8080);
+
+        Assert.assertEquals(200, get("/ready").statusCode());
+        Assert.assertEquals(messagesBefore, get("/messages").body());
+        String metrics = get("/metrics").body();
+        Assert.assertTrue(metrics, metrics.contains("app_ready 1"));
+        Assert.assertFalse(metrics, metrics.contains("app_warmup_milliseconds -1"));
+    }
+
+    /**
+     * Probing readiness of a server started with the warm-up disabled
+     *
+     * Expected Result:
+     *  /ready answers 200 at once
+     */
+    @Test
+    public void readyAtOnceWithoutWarmUp() throws IOException, InterruptedException {
+        System.setProperty("warmup.enabled", "false");
+        startApp();
+
+        Assert.assertEquals(200, get("/ready").statusCode());
+    }
+
+    /**
+     * Retrieving the latest messages after inserting some
+     *
+     * Expected Result:
+     *  The newest messages come first, up to the limit
+     */
+    @Test
+    public void latestMessagesComeFirst() {
+        MessageRepository messageRepository = Repositories.getMessageRepository();
+        messageRepository.insertMessage(new Message(1, "second", 1669947793));
+        messageRepository.insertMessage(new Message(1, "third", 1669947794));
+
+        List<Message> latest = messageRepository.getLatestMessages(2);
+
+        Assert.assertEquals(2, latest.size());
+        Assert.assertEquals("third", latest.get(0).getMessage_text());
+        Assert.assertEquals("second", latest.get(1).getMessage_text());
+        Assert.assertEquals(3, messageRepository.getLatestMessages(10).size());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).GET().build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}